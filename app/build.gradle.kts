@@ -36,6 +36,16 @@ application {
     mainClass.set("MML2Audio.Main")
 }
 
+// Scaling report: ./gradlew :app:scalingReport --args="--channels 1,4,16 -o report.csv"
+tasks.register<JavaExec>("scalingReport") {
+    group = "verification"
+    description = "Measures parse/render time and memory over synthetic scores of varying size."
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("MML2Audio.Bench.ScalingReport")
+    // Resolve relative paths such as -o against the project root rather than app/.
+    workingDir = rootProject.projectDir
+}
+
 tasks.named<Test>("test") {
     // Use JUnit Platform for unit tests.
     useJUnitPlatform()
@@ -0,0 +1,438 @@
+package MML2Audio.Bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.ToDoubleFunction;
+
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import MML2Audio.MmlReader;
+import MML2Audio.Music;
+import MML2Audio.Pipeline;
+import MML2Audio.Render.MusicRenderer;
+import MML2Audio.Util.Log;
+import MML2Audio.Util.Metrics;
+
+/**
+ * {@link ScoreGenerator}で生成したMMLを規模を変えながら読み込み・描画し、処理時間とメモリ使用量の変化をCSVまたはJSONで出力する。
+ *
+ * <p>
+ * チャンネル数・小節数・ノートの密度・音色の組み合わせをそれぞれ複数指定すると、全ての組み合わせを計測する。
+ * 各計測点では{@link #warmup}回の予備実行の後に{@link #repeat}回計測し、処理時間とヒープ確保量は中央値、
+ * ピークヒープ使用量は最大値を出力する。
+ *
+ * <p>
+ * 計測の度に{@link MmlReader#getChannelCache()}を空にするため、読み込み時間は変換を省略しない場合の値となる。
+ * 描画結果はファイルに書き込まず、{@link Pipeline#BLOCK_FRAMES}フレームのバッファに描画して捨てる。
+ * ヒープ確保量は{@link Metrics}の{@literal <処理>.allocatedBytes}の合計であり、読み込みを並行して行うスレッドの確保量も含む。
+ * ピークヒープ使用量はヒープの各領域の最大使用量の合計であり、同時に使用した量の上限となる。
+ *
+ * <p>
+ * 使用例:<br>
+ * {@code java -cp MML2Audio.jar MML2Audio.Bench.ScalingReport --channels 1,4,16 --bars 8,64 --density 4,16 --mix sin,sin+noise -o report.csv}
+ */
+public class ScalingReport {
+    /**
+     * 出力ファイルパスを保持する。"-"の場合は標準出力へ出力する。
+     */
+    @Option(name = "-o", metaVar = "outputFile", usage = "report file path (- for stdout)")
+    public static String outputFile = "-";
+
+    /**
+     * 出力フォーマットを保持する。nullの場合は{@link #outputFile}の拡張子から決定する。
+     */
+    @Option(name = "--format", metaVar = "csv|json", usage = "report format (default: from the output file extension, otherwise csv)")
+    public static String outputFormat;
+
+    /**
+     * 計測するチャンネル数をカンマ区切りで保持する。
+     */
+    @Option(name = "--channels", metaVar = "n,...", usage = "channel counts to measure")
+    public static String channels = "1,4,16";
+
+    /**
+     * 計測する小節数をカンマ区切りで保持する。
+     */
+    @Option(name = "--bars", metaVar = "n,...", usage = "song lengths in bars to measure")
+    public static String bars = "8,32";
+
+    /**
+     * 計測する1小節あたりのノート数をカンマ区切りで保持する。
+     */
+    @Option(name = "--density", metaVar = "n,...", usage = "notes per bar to measure (1-64)")
+    public static String densities = "4,16";
+
+    /**
+     * 計測する音色の組み合わせをカンマ区切りで保持する。組み合わせ内の音色は+で区切る。
+     */
+    @Option(name = "--mix", metaVar = "id+id,...", usage = "waveGeneratorId mixes to measure, assigned to channels round-robin")
+    public static String mixes = "sin,square+sawtooth";
+
+    /**
+     * 1つの計測点で計測する回数を保持する。
+     */
+    @Option(name = "--repeat", metaVar = "n", usage = "measured runs per point (default: 3)")
+    public static int repeat = 3;
+
+    /**
+     * 1つの計測点で計測前に行う予備実行の回数を保持する。
+     */
+    @Option(name = "--warmup", metaVar = "n", usage = "unmeasured warm-up runs per point (default: 1)")
+    public static int warmup = 1;
+
+    /**
+     * 描画するサンプリングレートを保持する。nullの場合は{@link Music#DEFAULT_SAMPLE_RATE}、
+     * {@link #draftFlag}がtrueの場合は{@link Music#DRAFT_SAMPLE_RATE}となる。
+     */
+    @Option(name = "--rate", metaVar = "Hz", usage = "sample rate (default: 44100, 11025 with --draft)")
+    public static Integer sampleRate;
+
+    /**
+     * 描画する1サンプルのビット数を保持する。
+     */
+    @Option(name = "--bits", metaVar = "8|16|24", usage = "sample size in bits")
+    public static int sampleSize = Music.DEFAULT_SAMPLE_SIZE;
+
+    /**
+     * trueの場合、計算量の少ない音声波生成関数で描画する。
+     */
+    @Option(name = "--draft", metaVar = "draftFlag", usage = "render with the cheap preview oscillators")
+    public static Boolean draftFlag = false;
+
+    /**
+     * MMLの生成に用いる乱数の種を保持する。
+     */
+    @Option(name = "--seed", metaVar = "seed", usage = "random seed of the generated scores")
+    public static long seed = 0;
+
+    /**
+     * 1つの計測点の計測結果。
+     */
+    public static class Result {
+        /**
+         * チャンネル数。
+         */
+        public int channels;
+        /**
+         * 小節数。
+         */
+        public int bars;
+        /**
+         * 1小節あたりのノート数。
+         */
+        public int notesPerBar;
+        /**
+         * 音色の組み合わせ (+区切り)。
+         */
+        public String mix;
+        /**
+         * ノート数 (休符を含む)。
+         */
+        public long notes;
+        /**
+         * 描画したフレーム数。
+         */
+        public long frames;
+        /**
+         * 曲の長さ [s]。
+         */
+        public double lengthSeconds;
+        /**
+         * 読み込みの処理時間 [ms]。
+         */
+        public double parseMillis;
+        /**
+         * 描画の処理時間 (タイムラインの構築を含む) [ms]。
+         */
+        public double renderMillis;
+        /**
+         * 読み込みと描画の処理時間 [ms]。
+         */
+        public double totalMillis;
+        /**
+         * ピークヒープ使用量 [byte]。
+         */
+        public long peakHeapBytes;
+        /**
+         * ヒープ確保量 [byte]。
+         */
+        public long allocatedBytes;
+
+        /**
+         * 曲の長さに対する処理時間の比を求める。1未満であれば実時間より速い。
+         *
+         * @return double 処理時間 / 曲の長さ
+         */
+        public double getRealtimeRatio() {
+            return this.totalMillis / 1000 / this.lengthSeconds;
+        }
+
+        /**
+         * 1秒あたりのヒープ確保量を求める。
+         *
+         * @return double ヒープ確保量 [byte/s]
+         */
+        public double getAllocationRate() {
+            return this.totalMillis > 0 ? this.allocatedBytes / (this.totalMillis / 1000) : 0;
+        }
+    }
+
+    /**
+     * CSVの見出し行。
+     */
+    private static final String CSV_HEADER = "channels,bars,notesPerBar,mix,notes,frames,lengthSeconds,"
+        + "parseMillis,renderMillis,totalMillis,realtimeRatio,peakHeapBytes,allocatedBytes,allocationBytesPerSecond";
+
+    /**
+     * 計測を行い、レポートを出力する。
+     *
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        CmdLineParser parser = new CmdLineParser(new ScalingReport());
+        try {
+            parser.parseArgument(args);
+        }
+        catch(CmdLineException e) {
+            System.out.print("Usage: ");
+            parser.printSingleLineUsage(System.out);
+            System.out.println();
+            parser.printUsage(System.out);
+            return;
+        }
+
+        if (ScalingReport.outputFormat == null) {
+            ScalingReport.outputFormat = ScalingReport.outputFile.toLowerCase().endsWith(".json") ? "json" : "csv";
+        }
+        if (!ScalingReport.outputFormat.equals("csv") && !ScalingReport.outputFormat.equals("json")) {
+            throw new IllegalArgumentException("unsupported report format: " + ScalingReport.outputFormat);
+        }
+        if (ScalingReport.repeat < 1 || ScalingReport.warmup < 0) {
+            throw new IllegalArgumentException("--repeat must be positive and --warmup must not be negative");
+        }
+        double rate = ScalingReport.draftFlag ? Music.DRAFT_SAMPLE_RATE : Music.DEFAULT_SAMPLE_RATE;
+        if (ScalingReport.sampleRate != null) {
+            rate = ScalingReport.sampleRate;
+        }
+
+        int[] channelsList = ScalingReport.parseIntList(ScalingReport.channels);
+        int[] barsList = ScalingReport.parseIntList(ScalingReport.bars);
+        int[] densityList = ScalingReport.parseIntList(ScalingReport.densities);
+        String[] mixList = ScalingReport.mixes.split(",");
+
+        List<Result> results = new ArrayList<>();
+        Path mmlFile = Files.createTempFile("scaling", ".mml");
+        try {
+            for (String mix: mixList) {
+                for (int numOfChannel: channelsList) {
+                    for (int numOfBar: barsList) {
+                        for (int notesPerBar: densityList) {
+                            ScoreGenerator generator = new ScoreGenerator(numOfChannel, numOfBar, notesPerBar, mix.split("\\+"));
+                            generator.setSeed(ScalingReport.seed);
+                            Files.writeString(mmlFile, generator.generate(), StandardCharsets.UTF_8);
+
+                            Result result = ScalingReport.measure(mmlFile, rate);
+                            result.channels = numOfChannel;
+                            result.bars = numOfBar;
+                            result.notesPerBar = notesPerBar;
+                            result.mix = mix;
+                            result.notes = generator.getNumberOfNote();
+                            result.lengthSeconds = generator.getLengthInSecond();
+                            results.add(result);
+                            Log.info(String.format("%s channels=%d bars=%d density=%d: %.1f ms",
+                                mix, numOfChannel, numOfBar, notesPerBar, result.totalMillis));
+                        }
+                    }
+                }
+            }
+        }
+        finally {
+            Files.deleteIfExists(mmlFile);
+        }
+
+        String report = ScalingReport.outputFormat.equals("json")
+            ? ScalingReport.toJson(results)
+            : ScalingReport.toCsv(results);
+        if (ScalingReport.outputFile.equals("-")) {
+            System.out.print(report);
+            System.out.flush();
+        }
+        else {
+            Files.writeString(Path.of(ScalingReport.outputFile), report, StandardCharsets.UTF_8);
+        }
+        Log.flush();
+    }
+
+    /**
+     * カンマ区切りの整数の並びを解析する。
+     *
+     * @throws IllegalArgumentException 整数でない値を含む場合に発生する
+     */
+    private static int[] parseIntList(String expr) {
+        String[] values = expr.split(",");
+        int[] result = new int[values.length];
+        for (int i=0; i<values.length; i++) {
+            try {
+                result[i] = Integer.parseInt(values[i].trim());
+            }
+            catch (NumberFormatException e) {
+                throw new IllegalArgumentException("list of integers expected: " + expr, e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 1つのMMLファイルについて予備実行と計測を繰り返し、結果をまとめる。
+     *
+     * @param mmlFile MMLファイルのパス
+     * @param rate サンプリングレート [Hz]
+     * @return Result 計測結果 (規模を表すフィールドは設定しない)
+     */
+    public static Result measure(Path mmlFile, double rate) {
+        for (int i=0; i<ScalingReport.warmup; i++) {
+            ScalingReport.runOnce(mmlFile, rate);
+        }
+        Result[] runs = new Result[ScalingReport.repeat];
+        for (int i=0; i<runs.length; i++) {
+            runs[i] = ScalingReport.runOnce(mmlFile, rate);
+        }
+
+        Result result = new Result();
+        result.frames = runs[0].frames;
+        result.parseMillis = ScalingReport.median(runs, (r)->r.parseMillis);
+        result.renderMillis = ScalingReport.median(runs, (r)->r.renderMillis);
+        result.totalMillis = ScalingReport.median(runs, (r)->r.totalMillis);
+        result.allocatedBytes = (long) ScalingReport.median(runs, (r)->r.allocatedBytes);
+        for (Result run: runs) {
+            result.peakHeapBytes = Math.max(result.peakHeapBytes, run.peakHeapBytes);
+        }
+        return result;
+    }
+
+    /**
+     * 計測結果の中央値を求める。
+     */
+    private static double median(Result[] runs, ToDoubleFunction<Result> field) {
+        double[] values = Arrays.stream(runs).mapToDouble(field).sorted().toArray();
+        int middle = values.length / 2;
+        return values.length % 2 == 1 ? values[middle] : (values[middle - 1] + values[middle]) / 2;
+    }
+
+    /**
+     * MMLファイルの読み込みと描画を1度行い、処理時間とメモリ使用量を計測する。
+     */
+    private static Result runOnce(Path mmlFile, double rate) {
+        MmlReader.getChannelCache().clear();
+        System.gc();
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+        Metrics.reset();
+
+        long startNanos = System.nanoTime();
+        Music music = new Music(rate, ScalingReport.sampleSize);
+        music.setDraft(ScalingReport.draftFlag);
+        MmlReader.mmlCompiler(mmlFile.toString(), music);
+        long parsedNanos = System.nanoTime();
+
+        long numOfFrame = music.calcNumberOfFrame();
+        int frameSize = music.getAudioFormat().getFrameSize();
+        byte[] block = new byte[Pipeline.BLOCK_FRAMES * frameSize];
+        MusicRenderer renderer = new MusicRenderer(music, 0);
+        for (long frame=0; frame<numOfFrame; frame+=Pipeline.BLOCK_FRAMES) {
+            int length = (int) Math.min(Pipeline.BLOCK_FRAMES, numOfFrame - frame);
+            Arrays.fill(block, (byte) 0);
+            renderer.render(block, 0, length);
+        }
+        long endNanos = System.nanoTime();
+
+        Result result = new Result();
+        result.frames = numOfFrame;
+        result.parseMillis = (parsedNanos - startNanos) / 1e6;
+        result.renderMillis = (endNanos - parsedNanos) / 1e6;
+        result.totalMillis = (endNanos - startNanos) / 1e6;
+        for (MemoryPoolMXBean pool: heapPools) {
+            result.peakHeapBytes += pool.getPeakUsage().getUsed();
+        }
+        for (Map.Entry<String, Long> ent: Metrics.snapshot().entrySet()) {
+            if (ent.getKey().endsWith(".allocatedBytes")) {
+                result.allocatedBytes += ent.getValue();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 計測結果をCSV形式の文字列に変換する。
+     *
+     * @param results 計測結果
+     * @return String 見出し行を含むCSV
+     */
+    public static String toCsv(List<Result> results) {
+        StringBuilder builder = new StringBuilder(ScalingReport.CSV_HEADER).append("\n");
+        for (Result r: results) {
+            builder.append(r.channels).append(',')
+                .append(r.bars).append(',')
+                .append(r.notesPerBar).append(',')
+                .append(r.mix).append(',')
+                .append(r.notes).append(',')
+                .append(r.frames).append(',')
+                .append(r.lengthSeconds).append(',')
+                .append(String.format(Locale.ROOT, "%.3f,%.3f,%.3f,%.5f,", r.parseMillis, r.renderMillis, r.totalMillis, r.getRealtimeRatio()))
+                .append(r.peakHeapBytes).append(',')
+                .append(r.allocatedBytes).append(',')
+                .append(String.format(Locale.ROOT, "%.0f", r.getAllocationRate()))
+                .append("\n");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 計測結果をJSON形式の文字列に変換する。
+     *
+     * @param results 計測結果
+     * @return String {@literal {"points": [...]}}形式の文字列
+     */
+    public static String toJson(List<Result> results) {
+        StringBuilder builder = new StringBuilder("{\n  \"points\": [");
+        String separator = "\n";
+        for (Result r: results) {
+            builder.append(separator).append("    {")
+                .append("\"channels\": ").append(r.channels)
+                .append(", \"bars\": ").append(r.bars)
+                .append(", \"notesPerBar\": ").append(r.notesPerBar)
+                .append(", \"mix\": \"").append(r.mix.replace("\\", "\\\\").replace("\"", "\\\"")).append('"')
+                .append(", \"notes\": ").append(r.notes)
+                .append(", \"frames\": ").append(r.frames)
+                .append(", \"lengthSeconds\": ").append(r.lengthSeconds)
+                .append(", \"parseMillis\": ").append(r.parseMillis)
+                .append(", \"renderMillis\": ").append(r.renderMillis)
+                .append(", \"totalMillis\": ").append(r.totalMillis)
+                .append(", \"realtimeRatio\": ").append(r.getRealtimeRatio())
+                .append(", \"peakHeapBytes\": ").append(r.peakHeapBytes)
+                .append(", \"allocatedBytes\": ").append(r.allocatedBytes)
+                .append(", \"allocationBytesPerSecond\": ").append(r.getAllocationRate())
+                .append("}");
+            separator = ",\n";
+        }
+        builder.append("\n  ]\n}\n");
+        return builder.toString();
+    }
+}
@@ -0,0 +1,147 @@
+package MML2Audio.Bench;
+
+import java.util.Random;
+
+import MML2Audio.WaveGenerator;
+import MML2Audio.Exception.InvalidGeneratorId;
+
+/**
+ * 処理時間の計測に用いるMMLを、チャンネル数・小節数・ノートの密度・音色の組み合わせを指定して生成する。
+ *
+ * <p>
+ * 各チャンネルは1小節を{@code notesPerBar}個の同じ長さのノートで埋め、全てのチャンネルが同じ長さとなる。
+ * 音階・オクターブ・音量は乱数で決め、一定の割合で休符を挟む。乱数の種が同じであれば同じMMLを生成する。
+ * 音色はチャンネル番号の順に{@code waveGeneratorIds}を繰り返して割り当てる。
+ */
+public class ScoreGenerator {
+    /**
+     * 休符とするノートの割合。
+     */
+    public static final double REST_RATIO = 0.1;
+    /**
+     * 曲のテンポ [BPM]。
+     */
+    public static final int BPM = 120;
+    /**
+     * 音階の表記。
+     */
+    private static final String[] SCALES = {"C", "C#", "D", "D#", "E", "F", "F#", "G", "G#", "A", "A#", "B"};
+
+    /**
+     * チャンネル数。
+     */
+    private int numOfChannel;
+    /**
+     * 小節数 (4/4拍子)。
+     */
+    private int numOfBar;
+    /**
+     * 1小節あたりのノート数。
+     */
+    private int notesPerBar;
+    /**
+     * チャンネルに割り当てる音色。
+     */
+    private String[] waveGeneratorIds;
+    /**
+     * 乱数の種。
+     */
+    private long seed = 0;
+
+    /**
+     * 生成する曲の規模を指定する。
+     *
+     * @param numOfChannel チャンネル数 (1以上)
+     * @param numOfBar 小節数 (1以上)
+     * @param notesPerBar 1小節あたりのノート数 (1~64)
+     * @param waveGeneratorIds チャンネルに割り当てる音色のwaveGeneratorId (1つ以上)
+     * @throws IllegalArgumentException 範囲外の値や未定義のwaveGeneratorIdを指定した場合に発生する
+     */
+    public ScoreGenerator(int numOfChannel, int numOfBar, int notesPerBar, String[] waveGeneratorIds) {
+        if (numOfChannel < 1 || numOfBar < 1) {
+            throw new IllegalArgumentException("channels and bars must be positive");
+        }
+        if (notesPerBar < 1 || notesPerBar > 64) {
+            throw new IllegalArgumentException("notes per bar must be 1-64: " + notesPerBar);
+        }
+        if (waveGeneratorIds.length == 0) {
+            throw new IllegalArgumentException("at least one waveGeneratorId is required");
+        }
+        for (String waveGeneratorId: waveGeneratorIds) {
+            try {
+                WaveGenerator.getWaveGenerator(waveGeneratorId);
+            }
+            catch (InvalidGeneratorId e) {
+                throw new IllegalArgumentException("unknown waveGeneratorId: " + waveGeneratorId, e);
+            }
+        }
+        this.numOfChannel = numOfChannel;
+        this.numOfBar = numOfBar;
+        this.notesPerBar = notesPerBar;
+        this.waveGeneratorIds = waveGeneratorIds.clone();
+    }
+
+    /**
+     * 乱数の種を設定する。
+     *
+     * @param seed 乱数の種
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * 生成する曲のノート数(休符を含む)を取得する。
+     *
+     * @return long ノート数
+     */
+    public long getNumberOfNote() {
+        return (long) this.numOfChannel * this.numOfBar * this.notesPerBar;
+    }
+
+    /**
+     * 生成する曲の長さを取得する。
+     *
+     * @return double 長さ [s]
+     */
+    public double getLengthInSecond() {
+        return this.numOfBar * 4 * 60.0 / ScoreGenerator.BPM;
+    }
+
+    /**
+     * MMLを生成する。
+     *
+     * @return String MML文
+     */
+    public String generate() {
+        Random random = new Random(this.seed);
+        StringBuilder builder = new StringBuilder();
+        builder.append("T").append(ScoreGenerator.BPM).append("\n");
+        for (int c=0; c<this.numOfChannel; c++) {
+            String waveGeneratorId = this.waveGeneratorIds[c % this.waveGeneratorIds.length];
+            builder.append(":ch").append(c + 1).append("\n");
+            builder.append("@(").append(waveGeneratorId).append(")");
+            builder.append("L").append(this.notesPerBar).append("\n");
+
+            int octave = 0;
+            for (int bar=0; bar<this.numOfBar; bar++) {
+                builder.append("V").append(64 + random.nextInt(128)).append(" ");
+                for (int n=0; n<this.notesPerBar; n++) {
+                    if (random.nextDouble() < ScoreGenerator.REST_RATIO) {
+                        builder.append("R");
+                        continue;
+                    }
+                    // オクターブはO3~O5の範囲で上下させる
+                    int nextOctave = Math.max(-1, Math.min(1, octave + random.nextInt(3) - 1));
+                    if (nextOctave != octave) {
+                        builder.append(nextOctave > octave ? "<" : ">");
+                        octave = nextOctave;
+                    }
+                    builder.append(ScoreGenerator.SCALES[random.nextInt(ScoreGenerator.SCALES.length)]);
+                }
+                builder.append(" |\n");
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -1,7 +1,10 @@
 package MML2Audio.Channel;
 
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.List;
 
+import MML2Audio.Effect.Reverb;
 import MML2Audio.Note.Note;
 
 /**
@@ -9,14 +12,39 @@ import MML2Audio.Note.Note;
  * 
  * <p>
  * チャンネルとは混声合唱における1つのパート、若しくは演奏者を表すような概念である。
- * MML2Audioにおいて、チャンネルは同時に複数の音を発音することができない。
- * したがって、同時に複数の音を発音するためには複数のチャンネルを定義する必要がある。
+ * チャンネル内のノートは重ならずに順に発音される。
+ * 和音は構成音をまとめた1つの{@link Note}として保持し、1つのチャンネルで同時に複数の音を発音できる。
+ * 
+ * <p>
+ * 繰り返し区間は展開せず、ノートのリストとは別に{@link Loop}のリストとして保持する。
+ * したがって、{@link #getNoteList()}が返すノートは演奏順ではなくMML中の記述順に1回ずつ並ぶ。
+ * 
+ * <p>
+ * {@link #freeze()}を呼び出したチャンネルは変更できなくなり、複数の{@link MML2Audio.Music}やスレッドで共有できる。
  */
-public class Channel {
+public class Channel implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     /**
      * チャンネルに含まれる{@link Note}オブジェクトを管理する。
      */
-    private ArrayList<Note> noteList = new ArrayList<>();
+    private List<Note> noteList = new ArrayList<>();
+    /**
+     * チャンネルに含まれる繰り返し区間を、区間が閉じられた順に管理する。
+     */
+    private List<Loop> loopList = new ArrayList<>();
+    /**
+     * チャンネル内で記述されたテンポ変更を、記述順に管理する。
+     */
+    private List<TempoChange> tempoList = new ArrayList<>();
+    /**
+     * チャンネル全体に付加するリバーブ。付加しない場合はnull。
+     */
+    private Reverb reverb = null;
+    /**
+     * {@link #freeze()}によって変更できなくなっているか。
+     */
+    private boolean frozen = false;
 
     public Channel(ArrayList<Note> noteList) {
         this.noteList = noteList;
@@ -27,9 +55,9 @@ public class Channel {
     /** 
      * チャンネルに含まれる全ての{@link Note}オブジェクトを取得する。
      * 
-     * @return ArrayList<Note>
+     * @return List<Note>
      */
-    public ArrayList<Note> getNoteList() {
+    public List<Note> getNoteList() {
         return noteList;
     }
 
@@ -37,8 +65,103 @@ public class Channel {
      * チャンネルに{@link Note}オブジェクトを追加する。
      * 
      * @param note
+     * @throws UnsupportedOperationException {@link #freeze()}済みの場合に発生する
      */
     public void addNote(Note note) {
         this.noteList.add(note);
     }
+
+    /** 
+     * チャンネルに含まれる全ての{@link Loop}オブジェクトを取得する。
+     * 
+     * <p>
+     * 入れ子になった繰り返し区間は内側のものが先に並ぶ。
+     * 
+     * @return List<Loop>
+     */
+    public List<Loop> getLoopList() {
+        return loopList;
+    }
+
+    /** 
+     * チャンネルに{@link Loop}オブジェクトを追加する。
+     * 
+     * @param loop
+     * @throws UnsupportedOperationException {@link #freeze()}済みの場合に発生する
+     */
+    public void addLoop(Loop loop) {
+        this.loopList.add(loop);
+    }
+
+    /** 
+     * チャンネルに含まれる全ての{@link TempoChange}オブジェクトを取得する。
+     * 
+     * <p>
+     * MML中の記述順に並ぶ。
+     * 
+     * @return List<TempoChange>
+     */
+    public List<TempoChange> getTempoList() {
+        return tempoList;
+    }
+
+    /** 
+     * チャンネルに{@link TempoChange}オブジェクトを追加する。
+     * 
+     * @param tempoChange
+     * @throws UnsupportedOperationException {@link #freeze()}済みの場合に発生する
+     */
+    public void addTempoChange(TempoChange tempoChange) {
+        this.tempoList.add(tempoChange);
+    }
+
+    /** 
+     * チャンネル全体に付加するリバーブを取得する。
+     * 
+     * @return Reverb リバーブの設定。付加しない場合はnull
+     */
+    public Reverb getReverb() {
+        return this.reverb;
+    }
+
+    /** 
+     * チャンネル全体に付加するリバーブを設定する。
+     * 
+     * @param reverb リバーブの設定。付加しない場合はnull
+     * @throws UnsupportedOperationException {@link #freeze()}済みの場合に発生する
+     */
+    public void setReverb(Reverb reverb) {
+        if (this.frozen) {
+            throw new UnsupportedOperationException("channel is frozen");
+        }
+        this.reverb = reverb;
+    }
+
+    /** 
+     * チャンネルを変更できないようにする。
+     * 
+     * <p>
+     * 以降、{@link #addNote}、{@link #addLoop}、{@link #addTempoChange}、{@link #setReverb}は例外を送出し、各リストの取得メソッドは変更できないリストを返却する。
+     * {@link Note}、{@link Loop}、{@link TempoChange}は変更できない為、凍結したチャンネルはそのまま共有できる。
+     * 
+     * @return Channel このチャンネル
+     */
+    public Channel freeze() {
+        if (!this.frozen) {
+            this.noteList = List.copyOf(this.noteList);
+            this.loopList = List.copyOf(this.loopList);
+            this.tempoList = List.copyOf(this.tempoList);
+            this.frozen = true;
+        }
+        return this;
+    }
+
+    /** 
+     * {@link #freeze()}済みであるかを取得する。
+     * 
+     * @return boolean 変更できない場合true
+     */
+    public boolean isFrozen() {
+        return this.frozen;
+    }
 }
@@ -1,8 +1,12 @@
 package MML2Audio.Channel;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import MML2Audio.Effect.Reverb;
+import MML2Audio.Note.Envelope;
 import MML2Audio.Note.Note;
 import MML2Audio.Util.Log;
 
@@ -15,6 +19,19 @@ import MML2Audio.Util.Log;
  * 正しい順序で正しく設定された{@link Note}オブジェクトを{@link Channel}に追加し、提供することが目的。
  */
 public class ChannelBuilder {
+    /**
+     * ノート表現を音長とノート名に分けるパターン
+     */
+    private static final Pattern NOTE_LENGTH_PATTERN = Pattern.compile("(\\d+)(.*)");
+    /**
+     * 和音表現を音長と構成音の並びに分けるパターン
+     */
+    private static final Pattern CHORD_PATTERN = Pattern.compile("(\\d*)'(.*)'");
+    /**
+     * 和音内の構成音とオクターブ命令のパターン
+     */
+    private static final Pattern CHORD_TONE_PATTERN = Pattern.compile("[<>]|[A-Ga-gR][#+-]?");
+
     /**
      * 構築対象の{@link Channel}オブジェクト
      */
@@ -35,6 +52,14 @@ public class ChannelBuilder {
      * チャンネル構築中に変化するwaveGeneratorIdを保持する
      */
     private String currentWaveGeneratorId;
+    /**
+     * チャンネル構築中に変化するエンベロープを保持する
+     */
+    private Envelope currentEnvelope;
+    /**
+     * 閉じられていない繰り返し区間の先頭ノートのインデックスを保持する
+     */
+    private ArrayDeque<Integer> openLoopStack = new ArrayDeque<>();
 
     /**
      * 構築対象の{@link Channel}オブジェクトを設定し、コンテキストを初期化する。
@@ -47,6 +72,7 @@ public class ChannelBuilder {
         this.currentVolume = 200;
         this.currentDefaultToneLength = 4;
         this.currentWaveGeneratorId = "sin";
+        this.currentEnvelope = Envelope.DEFAULT;
     }
 
     /** 
@@ -65,7 +91,9 @@ public class ChannelBuilder {
      */
     public void setCurrentVolume(int currentVolume) {
         this.currentVolume = currentVolume;
-        Log.log("set Volume to: " + this.currentVolume);
+        if (Log.isLogEnabled()) {
+            Log.log("set Volume to: {}", this.currentVolume);
+        }
     }
 
     /** 
@@ -75,7 +103,9 @@ public class ChannelBuilder {
      */
     public void addToCurrentVolume(int amount) {
         this.currentVolume += amount;
-        Log.log("Volume added " + amount + ", current Volume: " + this.currentVolume);
+        if (Log.isLogEnabled()) {
+            Log.log("Volume added {}, current Volume: {}", amount, this.currentVolume);
+        }
     }
 
     /** 
@@ -85,7 +115,9 @@ public class ChannelBuilder {
      */
     public void setCurrentOctave(int currentOctave) {
         this.currentOctave = currentOctave;
-        Log.log("set Octave to: " + this.currentOctave);
+        if (Log.isLogEnabled()) {
+            Log.log("set Octave to: {}", this.currentOctave);
+        }
     }
 
     /**
@@ -95,7 +127,9 @@ public class ChannelBuilder {
      */
     public void addToCurrentOctave(int amount) {
         this.currentOctave += amount;
-        Log.log("Octave added " + amount + ", current Octave: " + this.currentOctave);
+        if (Log.isLogEnabled()) {
+            Log.log("Octave added {}, current Octave: {}", amount, this.currentOctave);
+        }
     }
 
     /** 
@@ -105,7 +139,9 @@ public class ChannelBuilder {
      */
     public void setCurrentDefaultToneLength(int currentDefaultToneLength) {
         this.currentDefaultToneLength = currentDefaultToneLength;
-        Log.log("set Default Tone Length to: " + this.currentDefaultToneLength);
+        if (Log.isLogEnabled()) {
+            Log.log("set Default Tone Length to: {}", this.currentDefaultToneLength);
+        }
     }
 
     
@@ -118,6 +154,30 @@ public class ChannelBuilder {
         this.currentWaveGeneratorId = id;
     }
 
+    /** 
+     * 構築中のエンベロープを設定する。
+     * 
+     * <p>
+     * 範囲外の設定値の場合は無視し、エンベロープを変更しない。
+     * 
+     * @param attack アタック時間 [ms]
+     * @param decay ディケイ時間 [ms]
+     * @param sustain サステインレベル [%] (0~100)
+     * @param release リリース時間 [ms]
+     */
+    public void setCurrentEnvelope(int attack, int decay, int sustain, int release) {
+        try {
+            this.currentEnvelope = Envelope.of(attack, decay, sustain, release);
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println("Invalid envelope is ignored: " + e.getMessage());
+            return;
+        }
+        if (Log.isLogEnabled()) {
+            Log.log("set Envelope to: {}", this.currentEnvelope);
+        }
+    }
+
     
     /** 
      * 構築した{@link Channel}オブジェクトを取得する。
@@ -132,21 +192,148 @@ public class ChannelBuilder {
     /** 
      * 構築中のコンテキストに従って{@link Note}オブジェクトをチャンネルに追加する。
      * 
+     * <p>
+     * ノートは{@link Note#of}で取得する為、同じ音高・音長・音量・音色・エンベロープのノートは1つのインスタンスを共有する。
+     * 
      * @param noteExpr ノート表現の文字列
      */
     public void addNote(String noteExpr) {
-        Pattern noteLengthPattern = Pattern.compile("(\\d+)(.*)");
-        Matcher noteLengthMatcher = noteLengthPattern.matcher(noteExpr);
         Note note = null;
 
-        if (noteLengthMatcher.find()) {
-            note = new Note(noteLengthMatcher.group(2), Integer.parseInt(noteLengthMatcher.group(1)), this.currentOctave, this.currentVolume, this.currentWaveGeneratorId);
+        if (!noteExpr.isEmpty() && Character.isDigit(noteExpr.charAt(0))) {
+            Matcher noteLengthMatcher = ChannelBuilder.NOTE_LENGTH_PATTERN.matcher(noteExpr);
+            noteLengthMatcher.find();
+            note = Note.of(noteLengthMatcher.group(2), Integer.parseInt(noteLengthMatcher.group(1)), this.currentOctave, this.currentVolume, this.currentWaveGeneratorId, this.currentEnvelope);
         }
         else {
-            note = new Note(noteExpr, this.currentDefaultToneLength, this.currentOctave, this.currentVolume, this.currentWaveGeneratorId);
+            note = Note.of(noteExpr, this.currentDefaultToneLength, this.currentOctave, this.currentVolume, this.currentWaveGeneratorId, this.currentEnvelope);
+        }
+        this.channel.addNote(note);
+
+        if (Log.isLogEnabled()) {
+            Log.log("Note added: {}", note);
+        }
+    }
+
+    /** 
+     * 構築中のコンテキストに従って和音の{@link Note}オブジェクトをチャンネルに追加する。
+     * 
+     * <p>
+     * 和音表現は{@literal <length>'<ノート表現の並び>'}の形式とし、音長は和音全体で共通とする。
+     * 和音内の{@literal <}と{@literal >}は後続の構成音のオクターブを変化させるが、和音の後には引き継がない。
+     * 
+     * @param chordExpr 和音表現の文字列
+     */
+    public void addChord(String chordExpr) {
+        Matcher chordMatcher = ChannelBuilder.CHORD_PATTERN.matcher(chordExpr);
+        if (!chordMatcher.matches()) {
+            System.err.println("Invalid chord is ignored: " + chordExpr);
+            return;
+        }
+        int toneLength = chordMatcher.group(1).isEmpty()
+            ? this.currentDefaultToneLength
+            : Integer.parseInt(chordMatcher.group(1));
+
+        ArrayList<Note> tones = new ArrayList<>();
+        int octave = this.currentOctave;
+        Matcher toneMatcher = ChannelBuilder.CHORD_TONE_PATTERN.matcher(chordMatcher.group(2));
+        while (toneMatcher.find()) {
+            String tone = toneMatcher.group();
+            if (tone.equals("<")) {
+                octave++;
+            }
+            else if (tone.equals(">")) {
+                octave--;
+            }
+            else {
+                tones.add(Note.of(tone, toneLength, octave, this.currentVolume, this.currentWaveGeneratorId, this.currentEnvelope));
+            }
+        }
+        if (tones.isEmpty()) {
+            System.err.println("Empty chord is ignored");
+            return;
         }
+
+        Note note = new Note(tones.toArray(new Note[0]));
         this.channel.addNote(note);
 
-        Log.log("Note added: " + note);
+        if (Log.isLogEnabled()) {
+            Log.log("Chord added: {}", note);
+        }
+    }
+
+    /** 
+     * 現在の位置にテンポ変更を追加する。
+     * 
+     * <p>
+     * テンポ変更は曲全体で共有され、記述した位置から全てのチャンネルのテンポが変わる。
+     * 繰り返し区間内に記述した場合は、繰り返しの度に同じ位置でテンポが変わる。
+     * 
+     * @param bpm 変更後のテンポ
+     */
+    public void addTempoChange(int bpm) {
+        TempoChange tempoChange = new TempoChange(this.channel.getNoteList().size(), this.openLoopStack.size(), bpm);
+        this.channel.addTempoChange(tempoChange);
+
+        if (Log.isLogEnabled()) {
+            Log.log("Tempo change added: {}", tempoChange);
+        }
+    }
+
+    /** 
+     * チャンネル全体に付加するリバーブを設定する。
+     * 
+     * <p>
+     * 記述した位置に依らずチャンネル全体に適用され、複数回記述した場合は最後のものが有効となる。
+     * 
+     * @param reverbExpr {@literal <path>,<wet>}の形式の文字列
+     */
+    public void setReverb(String reverbExpr) {
+        try {
+            this.channel.setReverb(Reverb.parse(reverbExpr));
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println("Invalid reverb is ignored: " + e.getMessage());
+            return;
+        }
+        if (Log.isLogEnabled()) {
+            Log.log("set Reverb to: {}", this.channel.getReverb());
+        }
+    }
+
+    /** 
+     * 繰り返し区間を開始する。
+     * 
+     * <p>
+     * これ以降に追加されるノートが、対応する{@link #endLoop}までの繰り返し区間に含まれる。
+     */
+    public void beginLoop() {
+        this.openLoopStack.push(this.channel.getNoteList().size());
+        if (Log.isLogEnabled()) {
+            Log.log("Loop begins at: {}", this.channel.getNoteList().size());
+        }
+    }
+
+    /** 
+     * 最後に開始した繰り返し区間を閉じ、{@link Loop}としてチャンネルに追加する。
+     * 
+     * <p>
+     * 繰り返し区間内のノートは展開せず、1回分だけがチャンネルに追加された状態となる。
+     * 区間内での音量やオクターブの変化は1回目の演奏時の値で固定され、区間の後にはその変化がそのまま引き継がれる。
+     * 
+     * @param count 繰り返し回数
+     */
+    public void endLoop(int count) {
+        if (this.openLoopStack.isEmpty()) {
+            System.err.println("Unmatched loop end is ignored");
+            return;
+        }
+
+        Loop loop = new Loop(this.openLoopStack.pop(), this.channel.getNoteList().size(), count);
+        this.channel.addLoop(loop);
+
+        if (Log.isLogEnabled()) {
+            Log.log("Loop added: {}", loop);
+        }
     }
 }
@@ -0,0 +1,171 @@
+package MML2Audio.Channel;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+import MML2Audio.Util.Metrics;
+
+/**
+ * チャンネル内のMML文から変換済みの{@link Channel}を保持する。
+ *
+ * <p>
+ * 正規化したMML文のハッシュ値(SHA-256)をkeyとし、{@link Channel#freeze()}済みの{@link Channel}を共有する。
+ * 正規化では行ごとに連続する空白文字を1つの空白にまとめて行の前後の空白を取り除き、空行を取り除く。
+ * 改行は{@link MML2Audio.MmlReader#convertMmlToChannel}が行ごとに解釈する(和音などは行を跨がない)為、そのまま残す。
+ * MML命令は行の前後の空白や空行を跨いで解釈されない為、正規化によって変換結果は変わらない。
+ *
+ * <p>
+ * 保持するチャンネル数には上限があり、超えた場合は最も長く参照されていないものから破棄する。
+ * 複数のスレッドから同時に使用でき、同じMML文の変換が同時に要求された場合も変換は1度だけ行われる。
+ * 参照結果は{@link Metrics}の{@literal cache.channel.hits}と{@literal cache.channel.misses}に加算する。
+ */
+public class ChannelCache {
+    /**
+     * 保持するチャンネル数の上限の既定値。
+     */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /**
+     * 保持するチャンネル数の上限。
+     */
+    private int capacity;
+    /**
+     * keyと変換結果の対応表。参照順に並ぶ。変換中のものは完了していない{@link CompletableFuture}となる。
+     */
+    private LinkedHashMap<String, CompletableFuture<Channel>> channelMap;
+
+    /**
+     * 保持するチャンネル数の上限を指定して初期化する。
+     *
+     * @param capacity 保持するチャンネル数の上限
+     */
+    public ChannelCache(int capacity) {
+        this.capacity = capacity;
+        this.channelMap = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<Channel>> eldest) {
+                return this.size() > ChannelCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * MML文を正規化する。
+     *
+     * @param channelMml チャンネル内のMML文
+     * @return String 正規化したMML文
+     */
+    public static String normalize(String channelMml) {
+        StringBuilder builder = new StringBuilder(channelMml.length());
+        // BufferedReader#readLineと同じ区切りで行に分ける
+        for (String line: channelMml.split("\r\n|\r|\n")) {
+            line = line.replaceAll("[ \\t\\x0B\\f]+", " ").trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (builder.length() > 0) {
+                builder.append('\n');
+            }
+            builder.append(line);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * MML文からkeyを生成する。
+     *
+     * @param channelMml チャンネル内のMML文
+     * @return String 正規化したMML文のSHA-256ハッシュ値 (16進数)
+     */
+    public static String toKey(String channelMml) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(ChannelCache.normalize(channelMml).getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder(hash.length * 2);
+            for (byte b: hash) {
+                builder.append(String.format("%02x", b));
+            }
+            return builder.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            // SHA-256は全てのJava実装で利用できる
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * MML文に対応する変換済みの{@link Channel}を取得する。
+     *
+     * <p>
+     * 保持していない場合は{@code compiler}で変換し、{@link Channel#freeze()}して登録する。
+     * 他のスレッドが同じMML文を変換中の場合は、その完了を待って結果を共有する。
+     *
+     * @param channelMml チャンネル内のMML文
+     * @param compiler MML文を{@link Channel}に変換する関数
+     * @return Channel 変換済みの{@link Channel} (変更不可)
+     */
+    public Channel get(String channelMml, Function<String, Channel> compiler) {
+        String key = ChannelCache.toKey(channelMml);
+        CompletableFuture<Channel> future;
+        boolean owner = false;
+        synchronized (this) {
+            future = this.channelMap.get(key);
+            if (future == null) {
+                future = new CompletableFuture<>();
+                this.channelMap.put(key, future);
+                owner = true;
+            }
+        }
+
+        if (!owner) {
+            Metrics.add("cache.channel.hits", 1);
+            try {
+                return future.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+            catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+
+        Metrics.add("cache.channel.misses", 1);
+        try {
+            Channel channel = compiler.apply(channelMml).freeze();
+            future.complete(channel);
+            return channel;
+        }
+        catch (RuntimeException e) {
+            // 失敗した変換結果は保持しない
+            synchronized (this) {
+                this.channelMap.remove(key, future);
+            }
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * 保持しているチャンネル数を取得する。
+     *
+     * @return int チャンネル数
+     */
+    public synchronized int size() {
+        return this.channelMap.size();
+    }
+
+    /**
+     * 保持している全てのチャンネルを破棄する。
+     */
+    public synchronized void clear() {
+        this.channelMap.clear();
+    }
+}
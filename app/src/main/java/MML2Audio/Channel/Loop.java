@@ -0,0 +1,77 @@
+package MML2Audio.Channel;
+
+import java.io.Serializable;
+
+/**
+ * チャンネル内の繰り返し区間を表す。
+ * 
+ * <p>
+ * MMLの{@literal [ ... ]<number>}に対応する。
+ * 繰り返し区間のノートは展開せずに1回分だけ{@link Channel}に保持し、その範囲と繰り返し回数をこのオブジェクトで管理する。
+ * 範囲は{@link Channel#getNoteList()}のインデックスで表す。
+ */
+public class Loop implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 繰り返し区間の先頭ノートのインデックス。
+     */
+    private int startIndex;
+    /**
+     * 繰り返し区間の終端ノートのインデックス。このインデックスのノートは区間に含まれない。
+     */
+    private int endIndex;
+    /**
+     * 繰り返し回数。
+     */
+    private int count;
+
+    /**
+     * 繰り返し区間を生成する。
+     * 
+     * @param startIndex 先頭ノートのインデックス
+     * @param endIndex 終端ノートのインデックス (このノートは含まない)
+     * @param count 繰り返し回数
+     */
+    public Loop(int startIndex, int endIndex, int count) {
+        this.startIndex = startIndex;
+        this.endIndex = endIndex;
+        this.count = count;
+    }
+
+    /** 
+     * 繰り返し区間の先頭ノートのインデックスを取得する。
+     * 
+     * @return int 先頭ノートのインデックス
+     */
+    public int getStartIndex() {
+        return this.startIndex;
+    }
+
+    /** 
+     * 繰り返し区間の終端ノートのインデックスを取得する。
+     * 
+     * @return int 終端ノートのインデックス (このノートは含まない)
+     */
+    public int getEndIndex() {
+        return this.endIndex;
+    }
+
+    /** 
+     * 繰り返し回数を取得する。
+     * 
+     * @return int 繰り返し回数
+     */
+    public int getCount() {
+        return this.count;
+    }
+
+    @Override
+    public String toString() {
+        return "[ "
+            + "start=" + this.startIndex + ", "
+            + "end=" + this.endIndex + ", "
+            + "count=" + this.count + " "
+            + "]";
+    }
+}
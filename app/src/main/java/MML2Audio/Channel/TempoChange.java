@@ -0,0 +1,78 @@
+package MML2Audio.Channel;
+
+import java.io.Serializable;
+
+/**
+ * チャンネル内で記述されたテンポ変更を表す。
+ *
+ * <p>
+ * チャンネル定義範囲内の{@literal T<number>}に対応する。
+ * 位置は直後に記述されたノートの{@link Channel#getNoteList()}におけるインデックスと、記述時点で開いていた繰り返し区間の数で表す。
+ * 繰り返し区間の数によって、区間の先頭や終端と同じインデックスに記述されたテンポ変更が区間の内側か外側かを区別する。
+ * テンポ変更は曲全体で共有され、全てのチャンネルに影響する。
+ */
+public class TempoChange implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 直後に記述されたノートのインデックス。
+     */
+    private int noteIndex;
+    /**
+     * 記述時点で開いていた繰り返し区間の数。
+     */
+    private int depth;
+    /**
+     * 変更後のテンポ。
+     */
+    private int bpm;
+
+    /**
+     * テンポ変更を生成する。
+     *
+     * @param noteIndex 直後に記述されたノートのインデックス
+     * @param depth 記述時点で開いていた繰り返し区間の数
+     * @param bpm 変更後のテンポ
+     */
+    public TempoChange(int noteIndex, int depth, int bpm) {
+        this.noteIndex = noteIndex;
+        this.depth = depth;
+        this.bpm = bpm;
+    }
+
+    /**
+     * 直後に記述されたノートのインデックスを取得する。
+     *
+     * @return int ノートのインデックス (チャンネル終端の場合はノート数)
+     */
+    public int getNoteIndex() {
+        return this.noteIndex;
+    }
+
+    /**
+     * 記述時点で開いていた繰り返し区間の数を取得する。
+     *
+     * @return int 繰り返し区間の数
+     */
+    public int getDepth() {
+        return this.depth;
+    }
+
+    /**
+     * 変更後のテンポを取得する。
+     *
+     * @return int BPM値
+     */
+    public int getBpm() {
+        return this.bpm;
+    }
+
+    @Override
+    public String toString() {
+        return "[ "
+            + "index=" + this.noteIndex + ", "
+            + "depth=" + this.depth + ", "
+            + "bpm=" + this.bpm + " "
+            + "]";
+    }
+}
@@ -0,0 +1,78 @@
+package MML2Audio.Distributed;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+import MML2Audio.Music;
+import MML2Audio.Channel.Channel;
+import MML2Audio.Effect.Reverb;
+
+/**
+ * 変換済みの曲データのうち、描画に必要な部分をワーカープロセスへ送るために保持する。
+ *
+ * <p>
+ * {@link Music}はタイムラインなどの描画時の状態を持つため直接は送らず、出力設定と凍結済みの{@link Channel}のみを直列化する。
+ * 受け取った側では{@link #toMusic()}で同じ出力となる{@link Music}を組み立て直す。
+ */
+public class CompiledScore implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * サンプリングレート [Hz]。
+     */
+    private double sampleRate;
+    /**
+     * 1サンプルのビット数。
+     */
+    private int sampleSizeInBits;
+    /**
+     * 計算量の少ない音声波生成関数で描画するか。
+     */
+    private boolean draft;
+    /**
+     * 曲の先頭のテンポ。
+     */
+    private int bpm;
+    /**
+     * ミキシング結果に付加するリバーブ。付加しない場合はnull。
+     */
+    private Reverb reverb;
+    /**
+     * チャンネルのリスト。
+     */
+    private ArrayList<Channel> channelList;
+
+    /**
+     * 曲データから送信する内容を取り出す。
+     *
+     * @param music 変換済みの曲データ
+     */
+    public CompiledScore(Music music) {
+        this.sampleRate = music.getSampleRate();
+        this.sampleSizeInBits = music.getAudioFormat().getSampleSizeInBits();
+        this.draft = music.isDraft();
+        this.bpm = music.getBpm();
+        this.reverb = music.getReverb();
+        this.channelList = new ArrayList<>();
+        for (Channel channel: music.getChannelList()) {
+            // 送信中に変更されないよう、凍結したチャンネルのみを送る
+            this.channelList.add(channel.freeze());
+        }
+    }
+
+    /**
+     * 受け取った内容から曲データを組み立てる。
+     *
+     * @return Music 送信元と同じ出力となる曲データ
+     */
+    public Music toMusic() {
+        Music music = new Music(this.sampleRate, this.sampleSizeInBits);
+        music.setDraft(this.draft);
+        music.setBpm(this.bpm);
+        music.setReverb(this.reverb);
+        for (Channel channel: this.channelList) {
+            music.addChannel(channel);
+        }
+        return music;
+    }
+}
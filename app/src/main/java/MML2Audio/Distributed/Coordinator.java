@@ -0,0 +1,252 @@
+package MML2Audio.Distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import MML2Audio.Music;
+import MML2Audio.Pipeline;
+import MML2Audio.Output.AudioSink;
+import MML2Audio.Util.Log;
+import MML2Audio.Util.Metrics;
+
+/**
+ * 曲を時間の区間に分け、ローカルに起動した複数の{@link Worker}プロセスで並行して描画する。
+ *
+ * <p>
+ * 変換済みの曲データを{@link CompiledScore}として各ワーカーへ1度だけ送り、以降は区間の指定のみを送る。
+ * 区間はワーカーの手が空いた順に先頭から割り当て、返送された音声バッファを区間の順に{@link AudioSink}へ書き込む。
+ * 区間の描画は{@link Music#generateAudioBuffer(long, long)}で行うため、出力は1つのプロセスで描画した場合と一致する。
+ *
+ * <p>
+ * 書き込みを待つ区間が溜まり過ぎないよう、描画中と書き込み待ちの区間の合計をワーカー数の{@link #WINDOW_PER_WORKER}倍までに制限する。
+ * 使用するメモリは曲の長さに依らず、区間の長さとワーカー数に比例する。
+ * 通信はループバックアドレスのみで行う。
+ */
+public class Coordinator {
+    /**
+     * 1つの区間の既定のフレーム数。
+     */
+    public static final int RANGE_FRAMES = Pipeline.BLOCK_FRAMES * 16;
+    /**
+     * ワーカー1つあたりに同時に割り当てる区間の数の上限。
+     */
+    public static final int WINDOW_PER_WORKER = 2;
+    /**
+     * ワーカーからの接続を待つ時間 [ms]。
+     */
+    public static final int CONNECT_TIMEOUT_MILLIS = 30000;
+
+    /**
+     * 1つのワーカーとの接続。
+     */
+    private static class Connection {
+        private Process process;
+        private Socket socket;
+        private ObjectOutputStream output;
+        private DataInputStream input;
+    }
+
+    /**
+     * 曲データの指定した区間をワーカープロセスで描画し、{@link AudioSink}へ書き込む。
+     *
+     * <p>
+     * 書き込みが終了した後、{@link AudioSink#close}を呼び出す。
+     * ワーカープロセスは呼び出し元と同じJavaとクラスパスで起動し、終了時に全て停止する。
+     *
+     * @param music 変換済みの曲データ
+     * @param startFrame 区間の開始フレーム
+     * @param endFrame 区間の終了フレーム (このフレームは含まない)
+     * @param sink 書き込み先
+     * @param numOfWorker ワーカープロセスの数 (1以上)
+     * @throws IOException ワーカーの起動や通信、書き込みに失敗した場合に発生する
+     * @throws InterruptedException 待機中に割り込まれた場合に発生する
+     */
+    public static void render(Music music, long startFrame, long endFrame, AudioSink sink, int numOfWorker)
+        throws IOException, InterruptedException
+    {
+        Coordinator.render(music, startFrame, endFrame, sink, numOfWorker, Coordinator.RANGE_FRAMES);
+    }
+
+    /**
+     * 区間の長さを指定して、曲データの指定した区間をワーカープロセスで描画し、{@link AudioSink}へ書き込む。
+     *
+     * @param music 変換済みの曲データ
+     * @param startFrame 区間の開始フレーム
+     * @param endFrame 区間の終了フレーム (このフレームは含まない)
+     * @param sink 書き込み先
+     * @param numOfWorker ワーカープロセスの数 (1以上)
+     * @param rangeFrames 1つのワーカーに1度に割り当てる区間のフレーム数 (1以上)
+     * @throws IOException ワーカーの起動や通信、書き込みに失敗した場合に発生する
+     * @throws InterruptedException 待機中に割り込まれた場合に発生する
+     * @see #render(Music, long, long, AudioSink, int)
+     */
+    public static void render(Music music, long startFrame, long endFrame, AudioSink sink, int numOfWorker, int rangeFrames)
+        throws IOException, InterruptedException
+    {
+        if (numOfWorker < 1 || rangeFrames < 1) {
+            throw new IllegalArgumentException("number of workers and range length must be positive");
+        }
+        int numOfRange = (int) ((Math.max(endFrame - startFrame, 0) + rangeFrames - 1) / rangeFrames);
+        if (numOfRange == 0) {
+            sink.close();
+            return;
+        }
+        numOfWorker = Math.min(numOfWorker, numOfRange);
+
+        List<Connection> connections = new ArrayList<>();
+        ExecutorService dispatchers = Executors.newFixedThreadPool(numOfWorker);
+        try (ServerSocket serverSocket = new ServerSocket(0, numOfWorker, InetAddress.getLoopbackAddress())) {
+            Metrics.Stage stage = Metrics.start("distribute.spawn");
+            serverSocket.setSoTimeout(Coordinator.CONNECT_TIMEOUT_MILLIS);
+            for (int w=0; w<numOfWorker; w++) {
+                Connection connection = new Connection();
+                connection.process = Coordinator.spawn(serverSocket.getLocalPort());
+                connections.add(connection);
+            }
+            CompiledScore score = new CompiledScore(music);
+            for (Connection connection: connections) {
+                connection.socket = serverSocket.accept();
+                connection.socket.setTcpNoDelay(true);
+                connection.output = new ObjectOutputStream(new BufferedOutputStream(connection.socket.getOutputStream(), 1 << 16));
+                connection.input = new DataInputStream(new BufferedInputStream(connection.socket.getInputStream(), 1 << 16));
+                connection.output.writeObject(score);
+                connection.output.flush();
+            }
+            stage.stop();
+            Log.info("Rendering with " + numOfWorker + " workers...");
+
+            // 区間は番号の順に割り当てるため、書き込み待ちの区間は必ず割り当て済みとなる
+            Semaphore window = new Semaphore(numOfWorker * Coordinator.WINDOW_PER_WORKER);
+            AtomicInteger nextRange = new AtomicInteger(0);
+            ConcurrentHashMap<Integer, byte[]> rendered = new ConcurrentHashMap<>();
+            List<Future<Void>> futures = new ArrayList<>();
+            for (Connection connection: connections) {
+                futures.add(dispatchers.submit(()->{
+                    Coordinator.dispatch(connection, startFrame, endFrame, rangeFrames, numOfRange, nextRange, window, rendered);
+                    return null;
+                }));
+            }
+
+            for (int r=0; r<numOfRange; r++) {
+                byte[] buffer = Coordinator.awaitRange(r, rendered, futures);
+                Metrics.Stage writeStage = Metrics.start("write");
+                sink.write(buffer, 0, buffer.length);
+                writeStage.stop();
+                Metrics.add("write.bytes", buffer.length);
+                window.release();
+            }
+            for (Future<Void> future: futures) {
+                Coordinator.getResult(future);
+            }
+        }
+        finally {
+            dispatchers.shutdownNow();
+            for (Connection connection: connections) {
+                if (connection.socket != null) {
+                    connection.socket.close();
+                }
+                connection.process.destroy();
+            }
+            sink.close();
+        }
+    }
+
+    /**
+     * 呼び出し元と同じJavaとクラスパスでワーカープロセスを起動する。
+     */
+    private static Process spawn(int port) throws IOException {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        ProcessBuilder builder = new ProcessBuilder(java,
+            "-cp", System.getProperty("java.class.path"),
+            Worker.class.getName(), String.valueOf(port));
+        builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        return builder.start();
+    }
+
+    /**
+     * 1つのワーカーに区間を順に割り当て、返送された音声バッファを保持する。
+     */
+    private static void dispatch(Connection connection, long startFrame, long endFrame, int rangeFrames, int numOfRange,
+        AtomicInteger nextRange, Semaphore window, ConcurrentHashMap<Integer, byte[]> rendered)
+        throws IOException, InterruptedException
+    {
+        while (true) {
+            window.acquire();
+            int r = nextRange.getAndIncrement();
+            if (r >= numOfRange) {
+                window.release();
+                break;
+            }
+            long rangeStart = startFrame + (long) r * rangeFrames;
+            long rangeEnd = Math.min(rangeStart + rangeFrames, endFrame);
+            connection.output.writeLong(rangeStart);
+            connection.output.writeLong(rangeEnd);
+            connection.output.flush();
+
+            byte[] buffer = new byte[connection.input.readInt()];
+            connection.input.readFully(buffer);
+            Metrics.add("distribute.frames", rangeEnd - rangeStart);
+            Metrics.add("distribute.ranges", 1);
+            synchronized (rendered) {
+                rendered.put(r, buffer);
+                rendered.notifyAll();
+            }
+        }
+        connection.output.writeLong(-1);
+        connection.output.flush();
+    }
+
+    /**
+     * 指定した区間の音声バッファが返送されるまで待機し、取り出す。
+     *
+     * @throws IOException いずれかのワーカーが失敗した場合に発生する
+     */
+    private static byte[] awaitRange(int r, ConcurrentHashMap<Integer, byte[]> rendered, List<Future<Void>> futures)
+        throws IOException, InterruptedException
+    {
+        synchronized (rendered) {
+            while (!rendered.containsKey(r)) {
+                for (Future<Void> future: futures) {
+                    if (future.isDone()) {
+                        // 失敗していれば例外が送出される
+                        Coordinator.getResult(future);
+                    }
+                }
+                rendered.wait(100);
+            }
+            return rendered.remove(r);
+        }
+    }
+
+    /**
+     * ワーカーとの通信の結果を取得し、失敗していれば例外を送出し直す。
+     */
+    private static void getResult(Future<Void> future) throws IOException, InterruptedException {
+        try {
+            future.get();
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+}
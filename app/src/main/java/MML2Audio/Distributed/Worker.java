@@ -0,0 +1,85 @@
+package MML2Audio.Distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import MML2Audio.Music;
+
+/**
+ * {@link Coordinator}が起動するワーカープロセス。
+ *
+ * <p>
+ * 起動時に指定されたポートへ接続し、{@link CompiledScore}を1度受け取った後、
+ * 区間の指定を受け取る度に{@link Music#generateAudioBuffer(long, long)}で描画して返送する。
+ * 終了の指示を受け取るか、接続が切れた時点で終了する。
+ *
+ * <p>
+ * 通信の形式は以下の通り。数値はビッグエンディアンとする。
+ * <ul>
+ *  <li> 受信: 直列化した{@link CompiledScore}
+ *  <li> 受信: 区間の開始フレーム(long)と終了フレーム(long) (同じ{@link java.io.ObjectOutputStream}で書き込む)。開始フレームが負の場合は終了の指示
+ *  <li> 送信: 音声バッファのバイト数(int)と音声バッファ
+ * </ul>
+ * 標準出力は音声の出力先と共有される場合があるため、使用しない。
+ */
+public class Worker {
+    /**
+     * 受信する直列化データに含めてよいクラス。曲データ以外のクラスは復元しない。
+     */
+    static final ObjectInputFilter SCORE_FILTER = ObjectInputFilter.Config.createFilter(
+        "MML2Audio.Distributed.CompiledScore;MML2Audio.Channel.*;MML2Audio.Note.*;MML2Audio.Effect.Reverb;"
+        + "java.util.ArrayList;java.util.ImmutableCollections$*;java.util.CollSer;java.lang.*;!*");
+
+    /**
+     * ワーカープロセスのエントリーポイント。
+     *
+     * @param args 接続先のポート番号
+     */
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.err.println("Usage: Worker <port>");
+            System.exit(2);
+        }
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(args[0]))) {
+            socket.setTcpNoDelay(true);
+            Worker.serve(socket);
+        }
+        catch (IOException | ClassNotFoundException e) {
+            System.err.println("Worker failed");
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * 曲データを受け取り、終了の指示を受け取るまで区間の描画を繰り返す。
+     *
+     * @param socket {@link Coordinator}との接続
+     * @throws IOException 通信に失敗した場合に発生する
+     * @throws ClassNotFoundException 曲データを復元できない場合に発生する
+     */
+    private static void serve(Socket socket) throws IOException, ClassNotFoundException {
+        ObjectInputStream objectInput = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+        objectInput.setObjectInputFilter(Worker.SCORE_FILTER);
+        Music music = ((CompiledScore) objectInput.readObject()).toMusic();
+
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+        while (true) {
+            long startFrame = objectInput.readLong();
+            if (startFrame < 0) {
+                break;
+            }
+            long endFrame = objectInput.readLong();
+            byte[] buffer = music.generateAudioBuffer(startFrame, endFrame);
+            output.writeInt(buffer.length);
+            output.write(buffer);
+            output.flush();
+        }
+    }
+}
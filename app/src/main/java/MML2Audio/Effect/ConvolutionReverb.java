@@ -0,0 +1,165 @@
+package MML2Audio.Effect;
+
+import java.util.Arrays;
+
+/**
+ * インパルス応答との畳み込みによって残響を付加する。
+ *
+ * <p>
+ * 等分割のパーティション畳み込み(overlap-save)で、入力を{@link ImpulseResponse#PARTITION_SIZE}フレームごとにフーリエ変換する。
+ * 過去の入力のスペクトルを区間の数だけ保持し、インパルス応答の各区間のスペクトルとの積和を逆変換して残響音を求める。
+ * 1フレームあたりの計算量は、変換の要素数の対数と区間の数に比例し、インパルス応答の長さの分だけ畳み込む場合より小さくなる。
+ *
+ * <p>
+ * 入力は任意の長さに分けて渡すことができ、残響音は常に{@link ImpulseResponse#PARTITION_SIZE}フレームだけ遅れて出力される。
+ * 使用するメモリはインパルス応答の長さに比例する一定量となる。
+ */
+public class ConvolutionReverb {
+    /**
+     * インパルス応答。
+     */
+    private ImpulseResponse response;
+    /**
+     * 残響音の音量 (原音に対する比)。
+     */
+    private double wet;
+    /**
+     * 直前の区間と現在の区間の入力。
+     */
+    private double[] input;
+    /**
+     * 直前の区間から求めた残響音。
+     */
+    private double[] output;
+    /**
+     * 現在の区間の中の位置。
+     */
+    private int position = 0;
+    /**
+     * 過去の入力のスペクトルの実部 (リングバッファ)。
+     */
+    private double[][] historyRe;
+    /**
+     * 過去の入力のスペクトルの虚部 (リングバッファ)。
+     */
+    private double[][] historyIm;
+    /**
+     * 最新の入力のスペクトルの位置。
+     */
+    private int historyIndex = 0;
+    /**
+     * 変換に用いる作業領域。
+     */
+    private double[] workRe, workIm;
+    /**
+     * 連続して0が入力されたフレーム数。
+     */
+    private long silentFrames = 0;
+
+    /**
+     * インパルス応答と残響音の音量を指定する。
+     *
+     * @param response インパルス応答
+     * @param wet 残響音の音量 (原音に対する比)
+     */
+    public ConvolutionReverb(ImpulseResponse response, double wet) {
+        int size = ImpulseResponse.PARTITION_SIZE;
+        this.response = response;
+        this.wet = wet;
+        this.input = new double[size * 2];
+        this.output = new double[size];
+        this.historyRe = new double[response.getNumberOfPartition()][size + 1];
+        this.historyIm = new double[response.getNumberOfPartition()][size + 1];
+        this.workRe = new double[size * 2];
+        this.workIm = new double[size * 2];
+        this.silentFrames = this.getTailLength();
+    }
+
+    /**
+     * 入力が途絶えてから残響音が完全に0となるまでのフレーム数を求める。
+     *
+     * <p>
+     * 任意の位置から描画を始める場合は、このフレーム数だけ前から入力すれば残響音の状態が揃う。
+     *
+     * @return long フレーム数
+     */
+    public long getTailLength() {
+        return (long) (this.response.getNumberOfPartition() + 2) * ImpulseResponse.PARTITION_SIZE;
+    }
+
+    /**
+     * 残響音が0であり、0を入力しても状態が変わらないかを取得する。
+     *
+     * <p>
+     * trueの場合、無音の区間は{@link #process}を呼び出さずに読み飛ばしてよい。
+     *
+     * @return boolean 残響音が0の場合true
+     */
+    public boolean isIdle() {
+        return this.silentFrames >= this.getTailLength();
+    }
+
+    /**
+     * 入力に残響音を加算する。
+     *
+     * @param samples 入力 (残響音を加算した値で上書きされる)
+     * @param offset 処理を開始するインデックス
+     * @param length 処理するフレーム数
+     */
+    public void process(double[] samples, int offset, int length) {
+        int size = ImpulseResponse.PARTITION_SIZE;
+        for (int i=offset; i<offset + length; i++) {
+            double x = samples[i];
+            this.silentFrames = x == 0 ? this.silentFrames + 1 : 0;
+            samples[i] = x + this.wet * this.output[this.position];
+            this.input[size + this.position] = x;
+            if (++this.position == size) {
+                this.convolve();
+                this.position = 0;
+            }
+        }
+    }
+
+    /**
+     * 入力の区間が揃った時点で、次の区間に出力する残響音を求める。
+     */
+    private void convolve() {
+        int size = ImpulseResponse.PARTITION_SIZE;
+        int numOfPartition = this.historyRe.length;
+        Fft fft = ImpulseResponse.getFft();
+
+        System.arraycopy(this.input, 0, this.workRe, 0, size * 2);
+        Arrays.fill(this.workIm, 0);
+        fft.forward(this.workRe, this.workIm);
+        this.historyIndex = (this.historyIndex + 1) % numOfPartition;
+        System.arraycopy(this.workRe, 0, this.historyRe[this.historyIndex], 0, size + 1);
+        System.arraycopy(this.workIm, 0, this.historyIm[this.historyIndex], 0, size + 1);
+
+        // 実数列のスペクトルは共役対称のため、前半のみ積和を求める
+        Arrays.fill(this.workRe, 0);
+        Arrays.fill(this.workIm, 0);
+        for (int p=0; p<numOfPartition; p++) {
+            int h = this.historyIndex - p;
+            if (h < 0) {
+                h += numOfPartition;
+            }
+            double[] xr = this.historyRe[h];
+            double[] xi = this.historyIm[h];
+            double[] hr = this.response.getSpectrumRe(p);
+            double[] hi = this.response.getSpectrumIm(p);
+            for (int k=0; k<=size; k++) {
+                this.workRe[k] += xr[k] * hr[k] - xi[k] * hi[k];
+                this.workIm[k] += xr[k] * hi[k] + xi[k] * hr[k];
+            }
+        }
+        for (int k=1; k<size; k++) {
+            this.workRe[size * 2 - k] = this.workRe[k];
+            this.workIm[size * 2 - k] = -this.workIm[k];
+        }
+        fft.inverse(this.workRe, this.workIm);
+
+        // 後半が巡回の影響を受けない畳み込みの結果となる
+        System.arraycopy(this.workRe, size, this.output, 0, size);
+        System.arraycopy(this.input, size, this.input, 0, size);
+    }
+}
@@ -0,0 +1,116 @@
+package MML2Audio.Effect;
+
+/**
+ * 要素数が2の累乗の複素数列に対する高速フーリエ変換(基数2、時間間引き)を行う。
+ *
+ * <p>
+ * 回転因子とビット反転の並びは生成時に1度だけ求め、変換は配列の上で直接行う。
+ * 変換中に状態を変更しないため、1つのインスタンスを複数のスレッドで共有できる。
+ */
+public class Fft {
+    /**
+     * 変換の要素数。
+     */
+    private int size;
+    /**
+     * 回転因子の実部 (要素数の半分)。
+     */
+    private double[] cos;
+    /**
+     * 回転因子の虚部 (要素数の半分)。
+     */
+    private double[] sin;
+    /**
+     * ビット反転した添字。
+     */
+    private int[] reversed;
+
+    /**
+     * 変換の要素数を指定する。
+     *
+     * @param size 要素数 (2の累乗)
+     * @throws IllegalArgumentException 要素数が2の累乗でない場合に発生する
+     */
+    public Fft(int size) {
+        if (size < 2 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two: " + size);
+        }
+        this.size = size;
+        this.cos = new double[size / 2];
+        this.sin = new double[size / 2];
+        for (int k=0; k<size / 2; k++) {
+            this.cos[k] = Math.cos(2 * Math.PI * k / size);
+            this.sin[k] = -Math.sin(2 * Math.PI * k / size);
+        }
+        int bits = Integer.numberOfTrailingZeros(size);
+        this.reversed = new int[size];
+        for (int i=0; i<size; i++) {
+            this.reversed[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+    }
+
+    /**
+     * 変換の要素数を取得する。
+     *
+     * @return int 要素数
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * 離散フーリエ変換を行う。
+     *
+     * @param re 実部 (変換結果で上書きされる)
+     * @param im 虚部 (変換結果で上書きされる)
+     */
+    public void forward(double[] re, double[] im) {
+        this.transform(re, im, 1);
+    }
+
+    /**
+     * 逆離散フーリエ変換を行う。結果は要素数で割った値となる。
+     *
+     * @param re 実部 (変換結果で上書きされる)
+     * @param im 虚部 (変換結果で上書きされる)
+     */
+    public void inverse(double[] re, double[] im) {
+        this.transform(re, im, -1);
+        double scale = 1.0 / this.size;
+        for (int i=0; i<this.size; i++) {
+            re[i] *= scale;
+            im[i] *= scale;
+        }
+    }
+
+    /**
+     * 回転因子の虚部の符号を指定して変換する。
+     */
+    private void transform(double[] re, double[] im, int sign) {
+        int n = this.size;
+        for (int i=0; i<n; i++) {
+            int j = this.reversed[i];
+            if (i < j) {
+                double t = re[i]; re[i] = re[j]; re[j] = t;
+                t = im[i]; im[i] = im[j]; im[j] = t;
+            }
+        }
+        for (int half=1; half<n; half<<=1) {
+            int step = n / (half * 2);
+            for (int start=0; start<n; start+=half * 2) {
+                for (int k=0; k<half; k++) {
+                    double wr = this.cos[k * step];
+                    double wi = sign * this.sin[k * step];
+                    int a = start + k;
+                    int b = a + half;
+                    double xr = re[b] * wr - im[b] * wi;
+                    double xi = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - xr;
+                    im[b] = im[a] - xi;
+                    re[a] += xr;
+                    im[a] += xi;
+                }
+            }
+        }
+    }
+}
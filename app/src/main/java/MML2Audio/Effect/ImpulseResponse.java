@@ -0,0 +1,145 @@
+package MML2Audio.Effect;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+
+import MML2Audio.Sample.Sample;
+
+/**
+ * 畳み込みリバーブのインパルス応答を、等しい長さの区間に分けた周波数領域の表現で保持する。
+ *
+ * <p>
+ * インパルス応答はWAVファイルから{@link Sample}として読み込み、出力音声のサンプリングレートに線形補間で変換する。
+ * {@link #PARTITION_SIZE}フレームごとの区間を2倍の長さに0で埋めてフーリエ変換した結果を、生成時に1度だけ求める。
+ * 変更できない為、同じファイルとサンプリングレートの組では1つのインスタンスを共有する。
+ */
+public class ImpulseResponse {
+    /**
+     * 1区間のフレーム数。リバーブの処理単位であり、残響音はこのフレーム数だけ遅れて出力される。
+     */
+    public static final int PARTITION_SIZE = 512;
+
+    /**
+     * 読み込み済みのインパルス応答。keyはファイルの実パスとサンプリングレート。
+     * 元の{@link Sample}が読み込み直された場合は変換し直す。
+     */
+    private static final ConcurrentHashMap<String, ImpulseResponse> responseMap = new ConcurrentHashMap<>();
+    /**
+     * 変換の要素数が{@link #PARTITION_SIZE}の2倍となるフーリエ変換。
+     */
+    private static final Fft FFT = new Fft(ImpulseResponse.PARTITION_SIZE * 2);
+
+    /**
+     * 変換元のサンプル。
+     */
+    private Sample sample;
+    /**
+     * 区間ごとのスペクトルの実部 (0 ~ {@link #PARTITION_SIZE}番目の周波数)。
+     */
+    private double[][] spectraRe;
+    /**
+     * 区間ごとのスペクトルの虚部 (0 ~ {@link #PARTITION_SIZE}番目の周波数)。
+     */
+    private double[][] spectraIm;
+    /**
+     * 変換後のフレーム数。
+     */
+    private int numOfFrame;
+
+    /**
+     * インパルス応答をサンプリングレートに合わせて変換し、区間ごとにフーリエ変換する。
+     */
+    private ImpulseResponse(Sample sample, double sampleRate) {
+        this.sample = sample;
+        this.numOfFrame = Math.max((int) (sample.getNumberOfFrame() * sampleRate / sample.getSampleRate()), 1);
+        int size = ImpulseResponse.PARTITION_SIZE;
+        int numOfPartition = (this.numOfFrame + size - 1) / size;
+        this.spectraRe = new double[numOfPartition][size + 1];
+        this.spectraIm = new double[numOfPartition][size + 1];
+
+        double[] re = new double[size * 2];
+        double[] im = new double[size * 2];
+        for (int p=0; p<numOfPartition; p++) {
+            for (int i=0; i<size * 2; i++) {
+                int frame = p * size + i;
+                // ROOT_FREQで再生すると元の速度となり、ファイルのサンプリングレートとの違いは補間される
+                re[i] = (i < size && frame < this.numOfFrame) ? sample.apply(Sample.ROOT_FREQ, frame / sampleRate) : 0;
+                im[i] = 0;
+            }
+            ImpulseResponse.FFT.forward(re, im);
+            System.arraycopy(re, 0, this.spectraRe[p], 0, size + 1);
+            System.arraycopy(im, 0, this.spectraIm[p], 0, size + 1);
+        }
+    }
+
+    /**
+     * WAVファイルからインパルス応答を取得する。
+     *
+     * <p>
+     * 同じファイルとサンプリングレートで既に読み込んでいる場合は、読み込み済みのインパルス応答を返却する。
+     * ファイルが変更され{@link Sample#removeModified()}で取り除かれた後は、読み込み直して変換し直す。
+     *
+     * @param path WAVファイルのパス
+     * @param sampleRate 出力音声のサンプリングレート [Hz]
+     * @return ImpulseResponse インパルス応答
+     * @throws IOException ファイルの読み込みに失敗した場合や、対応していない形式の場合に発生する
+     */
+    public static ImpulseResponse load(Path path, double sampleRate) throws IOException {
+        Sample sample = Sample.load(path);
+        String key = path.toRealPath() + "@" + sampleRate;
+        ImpulseResponse response = ImpulseResponse.responseMap.get(key);
+        if (response == null || response.sample != sample) {
+            response = ImpulseResponse.responseMap.compute(key,
+                (k, loaded) -> loaded != null && loaded.sample == sample ? loaded : new ImpulseResponse(sample, sampleRate));
+        }
+        return response;
+    }
+
+    /**
+     * 区間ごとのフーリエ変換に用いる変換を取得する。
+     *
+     * @return Fft 要素数が{@link #PARTITION_SIZE}の2倍のフーリエ変換
+     */
+    static Fft getFft() {
+        return ImpulseResponse.FFT;
+    }
+
+    /**
+     * 区間の数を取得する。
+     *
+     * @return int 区間の数
+     */
+    public int getNumberOfPartition() {
+        return this.spectraRe.length;
+    }
+
+    /**
+     * 区間のスペクトルの実部を取得する。
+     *
+     * @param partition 区間の番号
+     * @return double[] 0 ~ {@link #PARTITION_SIZE}番目の周波数の実部 (変更してはならない)
+     */
+    double[] getSpectrumRe(int partition) {
+        return this.spectraRe[partition];
+    }
+
+    /**
+     * 区間のスペクトルの虚部を取得する。
+     *
+     * @param partition 区間の番号
+     * @return double[] 0 ~ {@link #PARTITION_SIZE}番目の周波数の虚部 (変更してはならない)
+     */
+    double[] getSpectrumIm(int partition) {
+        return this.spectraIm[partition];
+    }
+
+    /**
+     * 変換後のフレーム数を取得する。
+     *
+     * @return int フレーム数
+     */
+    public int getNumberOfFrame() {
+        return this.numOfFrame;
+    }
+}
@@ -0,0 +1,92 @@
+package MML2Audio.Effect;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Path;
+
+/**
+ * チャンネルやミキシング結果に付加する畳み込みリバーブの設定を表す。
+ *
+ * <p>
+ * MMLの{@literal @R(<path>,<wet>)}に対応する。
+ * 設定は変更できない為、凍結したチャンネルと共に共有できる。
+ * 描画時には{@link #createProcessor}で状態を持つ{@link ConvolutionReverb}を生成する。
+ */
+public class Reverb implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * インパルス応答のWAVファイルのパス。
+     */
+    private String impulsePath;
+    /**
+     * 残響音の音量 [%]。
+     */
+    private int wet;
+
+    /**
+     * インパルス応答と残響音の音量を指定する。
+     *
+     * @param impulsePath インパルス応答のWAVファイルのパス (相対パスは作業ディレクトリを基準とする)
+     * @param wet 残響音の音量 [%]
+     */
+    public Reverb(String impulsePath, int wet) {
+        this.impulsePath = impulsePath;
+        this.wet = wet;
+    }
+
+    /**
+     * {@literal <path>,<wet>}の形式の文字列から設定を生成する。
+     *
+     * <p>
+     * パスにカンマを含む場合も、最後のカンマで区切る。
+     *
+     * @param expr 設定の文字列
+     * @return Reverb 設定
+     * @throws IllegalArgumentException 書式が正しくない場合に発生する
+     */
+    public static Reverb parse(String expr) {
+        int comma = expr.lastIndexOf(',');
+        if (comma <= 0) {
+            throw new IllegalArgumentException("reverb must be <path>,<wet>: " + expr);
+        }
+        return new Reverb(expr.substring(0, comma), Integer.parseInt(expr.substring(comma + 1).trim()));
+    }
+
+    /**
+     * 描画用のリバーブを生成する。
+     *
+     * @param sampleRate 出力音声のサンプリングレート [Hz]
+     * @return ConvolutionReverb 初期状態のリバーブ
+     * @throws IOException インパルス応答の読み込みに失敗した場合に発生する
+     */
+    public ConvolutionReverb createProcessor(double sampleRate) throws IOException {
+        return new ConvolutionReverb(ImpulseResponse.load(Path.of(this.impulsePath), sampleRate), this.wet / 100.0);
+    }
+
+    /**
+     * インパルス応答のWAVファイルのパスを取得する。
+     *
+     * @return String ファイルのパス
+     */
+    public String getImpulsePath() {
+        return this.impulsePath;
+    }
+
+    /**
+     * 残響音の音量を取得する。
+     *
+     * @return int 音量 [%]
+     */
+    public int getWet() {
+        return this.wet;
+    }
+
+    @Override
+    public String toString() {
+        return "[ "
+            + "impulse=" + this.impulsePath + ", "
+            + "wet=" + this.wet + " "
+            + "]";
+    }
+}
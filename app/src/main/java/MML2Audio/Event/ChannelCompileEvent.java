@@ -0,0 +1,42 @@
+package MML2Audio.Event;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * 1つのチャンネルをMMLから{@link MML2Audio.Channel.Channel}へ変換したことを記録するJFRイベント。
+ *
+ * <p>
+ * {@link MML2Audio.MmlReader#convertMmlToChannel}の呼び出し1回につき1つ発行する。
+ */
+@Name("MML2Audio.ChannelCompile")
+@Label("Channel Compile")
+@Category("MML2Audio")
+@Description("Conversion of one channel MML into notes")
+public class ChannelCompileEvent extends jdk.jfr.Event {
+    /**
+     * 変換したMML文の文字数。
+     */
+    @Label("MML Length")
+    public int mmlLength;
+
+    /**
+     * 生成したノート数。
+     */
+    @Label("Note Count")
+    public int noteCount;
+
+    /**
+     * 生成した繰り返し区間の数。
+     */
+    @Label("Loop Count")
+    public int loopCount;
+
+    /**
+     * チャンネル中で使用するwaveGeneratorIdの一覧 (出現順、カンマ区切り)。
+     */
+    @Label("Generator Ids")
+    public String generatorIds;
+}
@@ -0,0 +1,55 @@
+package MML2Audio.Event;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * 1つのチャンネルの1ブロック分を描画したことを記録するJFRイベント。
+ *
+ * <p>
+ * {@link MML2Audio.Render.ChannelRenderer#render}の呼び出し1回につき1つ発行する。
+ * 繰り返し区間を新たに描画する場合は、区間1回分の描画も別のイベントとして記録される。
+ */
+@Name("MML2Audio.ChannelRender")
+@Label("Channel Render")
+@Category("MML2Audio")
+@Description("Rendering of one block of one channel")
+public class ChannelRenderEvent extends jdk.jfr.Event {
+    /**
+     * チャンネル番号。
+     */
+    @Label("Channel Index")
+    public int channelIndex;
+
+    /**
+     * 描画を開始したフレーム。
+     */
+    @Label("Start Frame")
+    public long startFrame;
+
+    /**
+     * 描画したフレーム数。
+     */
+    @Label("Frame Count")
+    public int frameCount;
+
+    /**
+     * 波形を計算したフレーム数。無音区間や描画済みの繰り返し区間を複製したフレームは含まない。
+     */
+    @Label("Synthesized Sample Count")
+    public int synthesizedCount;
+
+    /**
+     * 描画中に演奏を開始したノート数。
+     */
+    @Label("Note Count")
+    public int noteCount;
+
+    /**
+     * 最後に波形を計算したノートのwaveGeneratorId。波形を計算しなかった場合はnull。
+     */
+    @Label("Generator Id")
+    public String generatorId;
+}
@@ -0,0 +1,38 @@
+package MML2Audio.Event;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * 音声データを出力先へ書き込んだことを記録するJFRイベント。
+ *
+ * <p>
+ * 出力先への書き込み1回につき1つ発行する。
+ */
+@Name("MML2Audio.OutputFlush")
+@Label("Output Flush")
+@Category("MML2Audio")
+@Description("Write of rendered audio to the output")
+public class OutputFlushEvent extends jdk.jfr.Event {
+    /**
+     * 出力先の種類 (クラス名)。
+     */
+    @Label("Sink")
+    public String sink;
+
+    /**
+     * 書き込んだバイト数。
+     */
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    /**
+     * 書き込んだサンプル数。
+     */
+    @Label("Sample Count")
+    public long sampleCount;
+}
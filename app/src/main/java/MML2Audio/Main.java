@@ -2,6 +2,12 @@ package MML2Audio;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 
 import javax.sound.sampled.AudioInputStream;
@@ -13,7 +19,16 @@ import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 
+import MML2Audio.Distributed.Coordinator;
+import MML2Audio.Event.OutputFlushEvent;
+import MML2Audio.Output.AudioSink;
+import MML2Audio.Output.FlacFileSink;
+import MML2Audio.Output.LimiterSink;
+import MML2Audio.Output.RawPcmSink;
+import MML2Audio.Output.WavFileSink;
+import MML2Audio.Render.Timeline;
 import MML2Audio.Util.Log;
+import MML2Audio.Util.Metrics;
 
 /**
  * このアプリケーションのエントリーポイントとなるクラス。
@@ -22,17 +37,32 @@ import MML2Audio.Util.Log;
  * <br>
  * -q: 実行時に表示を行わない<br>
  * -v: 実行時に詳細情報の出力を行う<br>
- * -o <output file>: 出力ファイルをwavファイルで指定する<br>
+ * -o <output file>: 出力ファイルを指定する (-で標準出力)<br>
+ * --range <from>:<to>: 指定した時間範囲[s]のみを出力する (どちらか一方は省略可能)<br>
+ * --bars <from>:<to>: 指定した小節範囲のみを出力する (1始まり、toの小節を含む)<br>
+ * -p: 読み込み・描画・書き込みを並行して行う<br>
+ * --stats <file>: 処理時間や処理量の計測結果をJSON形式で出力する (-で標準出力)<br>
+ * --stems: ミキシング結果に加えてチャンネルごとの音声を出力する (出力ファイル名に_ch<番号>を付加する)<br>
+ * --format <wav|flac|raw>: 出力フォーマットを指定する (省略時は出力ファイルの拡張子から決定し、それ以外はwav)<br>
+ * --rate <Hz>: 出力音声のサンプリングレートを指定する (既定値は44100)<br>
+ * --bits <8|16|24>: 出力音声の1サンプルのビット数を指定する (既定値は8、--gainか--loudnessを指定した場合は16)<br>
+ * --draft: 低いサンプリングレートと計算量の少ない音声波生成関数で試聴用に描画する<br>
+ * --gain <dB>: ミキシング結果を増幅し、ピークリミッタを通して出力する<br>
+ * --loudness <LUFS>: ミキシング結果の統合ラウドネスが目標に近づくように増幅し、ピークリミッタを通して出力する<br>
+ * --ceiling <dBFS>: ピークリミッタの上限を指定する (既定値は-1.0)<br>
+ * --watch: 入力ファイルの保存を監視し、変更されたチャンネルのみを描画し直して出力ファイルを更新し続ける<br>
+ * --workers <n>: 曲を時間の区間に分け、指定した数のワーカープロセスで並行して描画する<br>
  * <br>
  * また、第1コマンドライン引数として入力ファイルを指定する必要がある。<br>
  * 使用例:<br>
- * {@code input.mml -q -o result.wav}
+ * {@code input.mml -q -o result.wav}<br>
+ * {@code input.mml -q -o - --format raw | other-program}
  */
 public class Main {
     /**
      * 出力ファイルパスを保持する。
      */
-    @Option(name = "-o", metaVar = "outputFile", usage = "output file path")
+    @Option(name = "-o", metaVar = "outputFile", usage = "output file path (- for stdout)")
     public static String outputFile;
 
     /**
@@ -47,6 +77,96 @@ public class Main {
     @Option(name = "-q", metaVar = "quietFlag", usage = "do not print anything")
     public static Boolean quietFlag=false;
 
+    /**
+     * trueの場合、描画と書き込みを{@link Pipeline}で並行して行う。
+     */
+    @Option(name = "-p", metaVar = "pipelineFlag", usage = "overlap rendering and writing")
+    public static Boolean pipelineFlag=false;
+
+    /**
+     * 出力する時間範囲を{@literal <from>:<to>}の形式で保持する。
+     */
+    @Option(name = "--range", metaVar = "from:to", usage = "render only the given time range in seconds")
+    public static String timeRange;
+
+    /**
+     * 出力する小節範囲を{@literal <from>:<to>}の形式で保持する。
+     */
+    @Option(name = "--bars", metaVar = "from:to", usage = "render only the given bars (1-origin, inclusive)")
+    public static String barRange;
+
+    /**
+     * 計測結果の出力先のファイルパスを保持する。"-"の場合は標準出力へ出力する。
+     */
+    @Option(name = "--stats", metaVar = "statsFile", usage = "write timing and throughput metrics as JSON (- for stdout)")
+    public static String statsFile;
+
+    /**
+     * trueの場合、ミキシング結果に加えてチャンネルごとの音声を出力する。
+     */
+    @Option(name = "--stems", metaVar = "stemsFlag", usage = "also write one wav file per channel")
+    public static Boolean stemsFlag=false;
+
+    /**
+     * 出力フォーマットを保持する。nullの場合は{@link #outputFile}の拡張子から決定する。
+     * 
+     * <p>
+     * rawはヘッダの無いPCMデータ(符号付き、ビッグエンディアン、モノラル)を表す。
+     * サンプリングレートとビット数は{@link #sampleRate}と{@link #sampleSize}に従う。
+     */
+    @Option(name = "--format", metaVar = "wav|flac|raw", usage = "output format (default: from the output file extension)")
+    public static String outputFormat;
+
+    /**
+     * 出力音声のサンプリングレートを保持する。nullの場合は{@link Music#DEFAULT_SAMPLE_RATE}、
+     * {@link #draftFlag}がtrueの場合は{@link Music#DRAFT_SAMPLE_RATE}となる。
+     */
+    @Option(name = "--rate", metaVar = "Hz", usage = "output sample rate (default: 44100, 11025 with --draft)")
+    public static Integer sampleRate;
+
+    /**
+     * 出力音声の1サンプルのビット数を保持する。nullの場合は{@link Music#DEFAULT_SAMPLE_SIZE}、
+     * {@link #gainDb}か{@link #targetLoudness}が指定されている場合は16となる。
+     */
+    @Option(name = "--bits", metaVar = "8|16|24", usage = "output sample size in bits (default: 8, 16 with --gain or --loudness)")
+    public static Integer sampleSize;
+
+    /**
+     * trueの場合、低いサンプリングレートと計算量の少ない音声波生成関数で試聴用に描画する。
+     */
+    @Option(name = "--draft", metaVar = "draftFlag", usage = "render a quick preview at a low sample rate with cheap oscillators")
+    public static Boolean draftFlag=false;
+
+    /**
+     * ミキシング結果の増幅率[dB]を保持する。nullかつ{@link #targetLoudness}がnullの場合はリミッタを通さない。
+     */
+    @Option(name = "--gain", metaVar = "dB", usage = "amplify the mix and pass it through a peak limiter")
+    public static Double gainDb;
+
+    /**
+     * ミキシング結果の目標ラウドネス[LUFS]を保持する。
+     */
+    @Option(name = "--loudness", metaVar = "LUFS", usage = "steer the mix towards the given integrated loudness (implies the limiter)")
+    public static Double targetLoudness;
+
+    /**
+     * ピークリミッタの上限[dBFS]を保持する。
+     */
+    @Option(name = "--ceiling", metaVar = "dBFS", usage = "peak limiter ceiling (default: -1.0)")
+    public static double ceilingDb = -1.0;
+
+    /**
+     * trueの場合、入力ファイルの保存を監視して出力ファイルを更新し続ける。
+     */
+    @Option(name = "--watch", metaVar = "watchFlag", usage = "keep running and re-render the changed channels whenever the input file is saved")
+    public static Boolean watchFlag=false;
+
+    /**
+     * 描画に使用するワーカープロセスの数を保持する。nullの場合はこのプロセスのみで描画する。
+     */
+    @Option(name = "--workers", metaVar = "n", usage = "render time ranges in n locally spawned worker processes")
+    public static Integer numOfWorker;
+
     /**
      * 入力ファイルパスを保持する。
      */
@@ -76,25 +196,239 @@ public class Main {
         Log.setInfoFlag(!Main.quietFlag);
         Log.setLogFlag(Main.verboseFlag);
 
-        Music music = new Music();
+        double rate = Main.draftFlag ? Music.DRAFT_SAMPLE_RATE : Music.DEFAULT_SAMPLE_RATE;
+        if (Main.sampleRate != null) {
+            rate = Main.sampleRate;
+        }
+        // リミッタはミキシング結果を出力のビット数で量子化した後に適用するため、8bitでは量子化の段差ごと増幅される
+        boolean mastering = Main.gainDb != null || Main.targetLoudness != null;
+        if (Main.sampleSize == null) {
+            Main.sampleSize = mastering ? 16 : Music.DEFAULT_SAMPLE_SIZE;
+        }
+        else if (mastering && Main.sampleSize < 16) {
+            throw new IllegalArgumentException("--gain and --loudness require --bits 16 or 24");
+        }
+        Music music = new Music(rate, Main.sampleSize);
+        music.setDraft(Main.draftFlag);
 
         Log.info("Compiling...");
         MmlReader.mmlCompiler(Main.inputFile, music);
         Log.info("Done");
 
-        Log.info("Outputting audio file...");
-        byte[] buffer = music.generateAudioBuffer();
-        ByteArrayInputStream binput = new ByteArrayInputStream(buffer);
-        AudioInputStream audioInputStream = new AudioInputStream(binput, music.getAudioFormat(), buffer.length);
-
         if (Main.outputFile ==  null) {
             Main.outputFile = Path.of("output.wav").toAbsolutePath().toString();
         }
-        AudioSystem.write(audioInputStream, Type.WAVE, new File(Main.outputFile));
+        if (Main.outputFormat == null) {
+            String lowerOutputFile = Main.outputFile.toLowerCase();
+            if (lowerOutputFile.endsWith(".flac")) {
+                Main.outputFormat = "flac";
+            }
+            else if (lowerOutputFile.endsWith(".raw") || lowerOutputFile.endsWith(".pcm")) {
+                Main.outputFormat = "raw";
+            }
+            else {
+                Main.outputFormat = "wav";
+            }
+        }
+        if (!Main.outputFormat.equals("wav") && !Main.outputFormat.equals("flac") && !Main.outputFormat.equals("raw")) {
+            throw new IllegalArgumentException("unsupported output format: " + Main.outputFormat);
+        }
+        boolean toStdout = Main.outputFile.equals("-");
+        if (toStdout && Main.stemsFlag) {
+            throw new IllegalArgumentException("--stems cannot be used with stdout output");
+        }
+        if (toStdout && "-".equals(Main.statsFile)) {
+            throw new IllegalArgumentException("--stats - cannot be used with stdout output");
+        }
+        if (Main.watchFlag) {
+            if (toStdout || Main.stemsFlag || Main.timeRange != null || Main.barRange != null || Main.numOfWorker != null) {
+                throw new IllegalArgumentException("--watch cannot be used with stdout output, --stems, --range, --bars or --workers");
+            }
+            double watchRate = rate;
+            Watcher watcher = new Watcher(Main.inputFile, ()->{
+                Music watchMusic = new Music(watchRate, Main.sampleSize);
+                watchMusic.setDraft(Main.draftFlag);
+                return watchMusic;
+            }, (m, numOfFrame)->Main.createMixSink(Main.outputFile, m, numOfFrame));
+            watcher.watch();
+            return;
+        }
+        long[] range = new long[] {0, music.calcNumberOfFrame()};
+        if (Main.timeRange != null || Main.barRange != null) {
+            range = Main.parseRange(music);
+        }
+
+        if (Main.numOfWorker != null && Main.stemsFlag) {
+            throw new IllegalArgumentException("--workers cannot be used with --stems");
+        }
+
+        Log.info("Outputting audio file...");
+        if (Main.numOfWorker != null) {
+            // ワーカーの出力をこのプロセスで区間の順に連結するため、リミッタもここで逐次適用できる
+            AudioSink sink = Main.createMixSink(Main.outputFile, music, range[1] - range[0]);
+            Coordinator.render(music, range[0], range[1], sink, Main.numOfWorker);
+        }
+        else if (Main.stemsFlag) {
+            // 各チャンネルを1度だけ描画し、チャンネルごとの音声とミキシング結果を同時に書き込む
+            AudioSink sink = Main.createMixSink(Main.outputFile, music, range[1] - range[0]);
+            AudioSink[] stemSinks = new AudioSink[music.getNumberOfChannel()];
+            for (int c=0; c<stemSinks.length; c++) {
+                String stemFile = Main.toStemFilePath(Main.outputFile, c);
+                Log.info("Stem: " + stemFile);
+                stemSinks[c] = Main.createSink(stemFile, music, range[1] - range[0]);
+            }
+            Pipeline.render(music, range[0], range[1], sink, stemSinks);
+        }
+        else if (Main.pipelineFlag || !Main.outputFormat.equals("wav") || toStdout || Main.sampleSize != 8 || mastering) {
+            // FLACの符号化や標準出力への書き込みは書き込みスレッドで行い、描画と並行させる
+            // 8bitを超えるサンプルはWavFileSinkでリトルエンディアンに変換して書き込む
+            // リミッタはブロックごとに逐次適用するため、曲全体を一度に描画しない
+            AudioSink sink = Main.createMixSink(Main.outputFile, music, range[1] - range[0]);
+            Pipeline.render(music, range[0], range[1], sink);
+        }
+        else {
+            byte[] buffer = music.generateAudioBuffer(range[0], range[1]);
+            ByteArrayInputStream binput = new ByteArrayInputStream(buffer);
+            AudioInputStream audioInputStream = new AudioInputStream(binput, music.getAudioFormat(), buffer.length);
 
+            OutputFlushEvent event = new OutputFlushEvent();
+            event.begin();
+            Metrics.Stage stage = Metrics.start("write");
+            int bytes = AudioSystem.write(audioInputStream, Type.WAVE, new File(Main.outputFile));
+            stage.stop();
+            Metrics.add("write.bytes", bytes);
+            event.end();
+            if (event.shouldCommit()) {
+                event.sink = "AudioSystem";
+                event.bytes = bytes;
+                event.sampleCount = buffer.length / (music.getAudioFormat().getSampleSizeInBits() / 8);
+                event.commit();
+            }
+
+            audioInputStream.close();
+            binput.close();
+        }
         Log.info("Done");
 
-        audioInputStream.close();
-        binput.close();
+        if (Main.statsFile != null) {
+            String report = Metrics.toJson();
+            if (Main.statsFile.equals("-")) {
+                System.out.print(report);
+                System.out.flush();
+            }
+            else {
+                Files.writeString(Path.of(Main.statsFile), report, StandardCharsets.UTF_8);
+            }
+        }
+        Log.flush();
+    }
+
+    /** 
+     * {@link #outputFormat}に応じた出力先を生成する。
+     * 
+     * <p>
+     * ファイルパスが"-"の場合は標準出力へ書き込む。
+     * 
+     * @param filePath 出力ファイルのパス
+     * @param music 曲データ
+     * @param numOfFrame 出力するフレーム数
+     * @return AudioSink 出力先
+     * @throws IOException ファイルの書き込みに失敗した場合に発生する
+     */
+    private static AudioSink createSink(String filePath, Music music, long numOfFrame) throws IOException {
+        OutputStream outputStream = filePath.equals("-")
+            ? new FileOutputStream(FileDescriptor.out)
+            : new FileOutputStream(filePath);
+        if (Main.outputFormat.equals("flac")) {
+            return new FlacFileSink(outputStream, music.getAudioFormat(), numOfFrame);
+        }
+        if (Main.outputFormat.equals("raw")) {
+            return new RawPcmSink(outputStream);
+        }
+        return new WavFileSink(outputStream, music.getAudioFormat(), numOfFrame);
+    }
+
+    /** 
+     * ミキシング結果の出力先を生成する。
+     * 
+     * <p>
+     * {@link #gainDb}か{@link #targetLoudness}が指定されている場合は、{@link LimiterSink}を通して書き込む。
+     * 
+     * @param filePath 出力ファイルのパス
+     * @param music 曲データ
+     * @param numOfFrame 出力するフレーム数
+     * @return AudioSink 出力先
+     * @throws IOException ファイルの書き込みに失敗した場合に発生する
+     */
+    private static AudioSink createMixSink(String filePath, Music music, long numOfFrame) throws IOException {
+        AudioSink sink = Main.createSink(filePath, music, numOfFrame);
+        if (Main.gainDb == null && Main.targetLoudness == null) {
+            return sink;
+        }
+        return new LimiterSink(sink, music.getAudioFormat(),
+            Main.gainDb == null ? 0 : Main.gainDb,
+            Main.ceilingDb,
+            Main.targetLoudness == null ? Double.NaN : Main.targetLoudness);
+    }
+
+    /** 
+     * チャンネルごとの音声の出力ファイルパスを求める。
+     * 
+     * <p>
+     * 出力ファイル名の拡張子の前に_ch{@literal <チャンネル番号>}(1始まり)を付加する。
+     * 例: result.wav -> result_ch1.wav
+     * 
+     * @param outputFile ミキシング結果の出力ファイルパス
+     * @param channelIndex チャンネル番号 (0始まり)
+     * @return String 出力ファイルパス
+     */
+    private static String toStemFilePath(String outputFile, int channelIndex) {
+        String suffix = "_ch" + (channelIndex + 1);
+        int dot = outputFile.lastIndexOf('.');
+        int separator = Math.max(outputFile.lastIndexOf('/'), outputFile.lastIndexOf(File.separatorChar));
+        if (dot <= separator) {
+            return outputFile + suffix;
+        }
+        return outputFile.substring(0, dot) + suffix + outputFile.substring(dot);
+    }
+
+    /** 
+     * {@link #timeRange}または{@link #barRange}から出力するフレーム区間を求める。
+     * 
+     * <p>
+     * 範囲の開始位置を省略した場合は曲の先頭、終了位置を省略した場合は曲の終端とする。
+     * 
+     * @param music 曲データ
+     * @return long[] 開始フレームと終了フレーム
+     * @throws IllegalArgumentException 範囲の書式が正しくない場合に発生する
+     */
+    private static long[] parseRange(Music music) {
+        Timeline timeline = music.getTimeline();
+        String rangeExpr = Main.barRange != null ? Main.barRange : Main.timeRange;
+        String[] bounds = rangeExpr.split(":", -1);
+        if (bounds.length != 2) {
+            throw new IllegalArgumentException("range must be <from>:<to>: " + rangeExpr);
+        }
+
+        long[] range = new long[] {0, timeline.getLengthInFrames()};
+        if (Main.barRange != null) {
+            if (!bounds[0].isEmpty()) {
+                range[0] = timeline.barToFrame(Integer.parseInt(bounds[0]));
+            }
+            if (!bounds[1].isEmpty()) {
+                range[1] = timeline.barToFrame(Integer.parseInt(bounds[1]) + 1);
+            }
+        }
+        else {
+            if (!bounds[0].isEmpty()) {
+                range[0] = timeline.secondToFrame(Double.parseDouble(bounds[0]));
+            }
+            if (!bounds[1].isEmpty()) {
+                range[1] = timeline.secondToFrame(Double.parseDouble(bounds[1]));
+            }
+        }
+        range[1] = Math.max(range[0], range[1]);
+
+        return range;
     }
 }
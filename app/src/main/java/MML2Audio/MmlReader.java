@@ -5,17 +5,30 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import MML2Audio.Channel.Channel;
 import MML2Audio.Channel.ChannelBuilder;
+import MML2Audio.Channel.ChannelCache;
+import MML2Audio.Effect.Reverb;
+import MML2Audio.Event.ChannelCompileEvent;
+import MML2Audio.Note.Note;
 import MML2Audio.Util.Log;
+import MML2Audio.Util.Metrics;
 
 /**
  * MMLの文法を解釈し、アプリケーション内のデータを構築する。
@@ -57,6 +70,12 @@ import MML2Audio.Util.Log;
  *  <li> {@literal V<number>}　それ以降の音量を指定　0~255の整数
  *  <li> {@literal (<number>}　指定した分だけ音量を上げる
  *  <li> {@literal )<number>}　指定した分だけ音量を下げる
+ *  <li> {@literal [ ... ]<number>}　括弧内を指定した回数だけ繰り返す
+ *  <ul>
+ *      <li> 回数を省略すると2回となる
+ *      <li> 入れ子にすることができる
+ *      <li> 括弧内での音量やオクターブの変化は1回目の値で固定され、繰り返しの度に累積はしない
+ *  </ul>
  *  <li> |　可視性の為に使う　生成される曲には影響を及ぼさない
  *  <li> {@literal /* * /}　コメント文　行を跨ぐことも可能
  *  <ul>
@@ -112,8 +131,17 @@ public class MmlReader {
      * keyとして{@link Pattern}を保持する。
      * keyにmatchした場合の処理を{@link BiConsumer}として定義する。
      * BiConsumerの第1引数は関数オブジェクト内で加工され、第2引数である{@link ChannelBuilder}のインスタンスメソッドに渡される。
+     * 複数のスレッドから参照される為、生成後は変更しない。
+     */
+    private static volatile LinkedHashMap<Pattern, BiConsumer<String, ChannelBuilder>> operationMap;
+
+    /**
+     * 変換済みの{@link Channel}を保持する。
+     * 
+     * <p>
+     * プロセス全体で共有し、同じ内容のチャンネルを含む複数のファイルを読み込む場合に変換を省略する。
      */
-    private static LinkedHashMap<Pattern, BiConsumer<String, ChannelBuilder>> operationMap;
+    private static ChannelCache channelCache = new ChannelCache(ChannelCache.DEFAULT_CAPACITY);
 
     /** 
      * MML文を読み込み、コメント文の除去と{@link Channel}オブジェクトの構築を行う。
@@ -127,52 +155,66 @@ public class MmlReader {
      * @param music 出力先の{@link Music}オブジェクト
      */
     public static void mmlCompiler(String filePath, Music music) {
+        MmlReader.mmlCompiler(filePath, music, music::addChannel);
+    }
+
+    /** 
+     * MML文を読み込み、構築した{@link Channel}オブジェクトを順に受け渡す。
+     * 
+     * <p>
+     * {@link #mmlCompiler(String, Music)}と同様に読み込みを行うが、構築した{@link Channel}は{@link Music}に追加せず、
+     * チャンネル定義を1つ変換し終える度に{@code channelConsumer}へ渡す。
+     * BPM設定のみ{@code music}に反映する。
+     * 
+     * <p>
+     * ファイル全体を走査してチャンネル定義範囲を切り出した後、各チャンネルをスレッドプールで並行して変換する。
+     * {@code channelConsumer}には変換の完了順ではなく、ファイル中の記述順で渡す。
+     * 変換結果は{@link #getChannelCache()}に保持され、同じ内容のチャンネルは変換を省略して変更不可の{@link Channel}を共有する。
+     * 
+     * <p>
+     * 読み込みに要した時間と、構築したチャンネル数・ノート数を{@link Metrics}の{@literal parse}に加算する。
+     * ヒープ確保量は変換を行ったスレッドプールのスレッドの分も加算する。
+     * {@code channelConsumer}の処理時間は含まない。
+     * 
+     * @param filePath 入力MMLファイルのパス
+     * @param music BPM設定の出力先の{@link Music}オブジェクト
+     * @param channelConsumer 構築した{@link Channel}オブジェクトの受け渡し先
+     */
+    public static void mmlCompiler(String filePath, Music music, Consumer<Channel> channelConsumer) {
+        Metrics.Stage stage = Metrics.start("parse");
+        ExecutorService compilerPool = null;
         try {
             BufferedReader bufReader = new BufferedReader(new FileReader(filePath));
-            String line;
-            Pattern bpmConfigPattern = Pattern.compile("T(\\d+)");
-            Matcher bpmConfigMatcher = null;
-            Pattern channelDefPattern = Pattern.compile(":\\w*");
-            Matcher channelDefMatcher = null;
-            while (true) {
-                line = MmlReader.readLineIgnoreComment(bufReader);
-                if (line == null) {
-                    break;
-                }
+            ArrayList<String> channelMmlList = MmlReader.scanChannelRegions(bufReader, music);
+            bufReader.close();
 
-                // BPMの設定
-                bpmConfigMatcher = bpmConfigPattern.matcher(line);
-                if (bpmConfigMatcher.find()) {
-                    int bpm = Integer.parseInt(bpmConfigMatcher.group(1));
-                    music.setBpm(bpm);
+            // チャンネル同士は状態を共有しない為、並行して変換し、元の順序で受け渡す
+            ArrayList<Future<Channel>> channelFutures = new ArrayList<>();
+            int numOfThread = Math.min(channelMmlList.size(), Runtime.getRuntime().availableProcessors());
+            if (numOfThread > 1) {
+                compilerPool = Executors.newFixedThreadPool(numOfThread);
+            }
+            for (String channelMml: channelMmlList) {
+                Callable<Channel> compileTask = ()->MmlReader.channelCache.get(channelMml, MmlReader::convertMmlToChannel);
+                if (compilerPool != null) {
+                    // ヒープ確保量はスレッドごとに計測されるため、変換を行うスレッドで計測して加算する
+                    channelFutures.add(compilerPool.submit(()->Metrics.measureAllocation("parse", compileTask)));
                 }
-
-                // チャンネル宣言
-                channelDefMatcher = channelDefPattern.matcher(line);
-                if (channelDefMatcher.find()) {
-                    while (true) {
-                        if (line == null) {
-                            break;
-                        }
-                        String channelMml = "";
-                        while (true) {
-                            line = MmlReader.readLineIgnoreComment(bufReader);
-                            if (line == null) {
-                                break;
-                            }
-                            channelDefMatcher = channelDefPattern.matcher(line);
-                            if (channelDefMatcher.find()) {
-                                break;
-                            }
-
-                            channelMml += line + "\n";
-                        }
-                        music.addChannel(MmlReader.convertMmlToChannel(channelMml));
-                    }
+                else {
+                    channelFutures.add(CompletableFuture.completedFuture(compileTask.call()));
                 }
             }
 
-            bufReader.close();
+            for (Future<Channel> channelFuture: channelFutures) {
+                Channel channel = channelFuture.get();
+                Metrics.add("parse.channels", 1);
+                Metrics.add("parse.notes", channel.getNoteList().size());
+                // 受け渡し先での待機時間を読み込み時間に含めない
+                stage.stop();
+                channelConsumer.accept(channel);
+                stage = Metrics.start("parse");
+            }
+            stage.stop();
         }
         catch (FileNotFoundException e) {
             System.err.println("file not found");
@@ -188,6 +230,88 @@ public class MmlReader {
             e.printStackTrace();
             System.exit(1);
         }
+        finally {
+            if (compilerPool != null) {
+                compilerPool.shutdownNow();
+            }
+        }
+    }
+
+    /** 
+     * MMLファイルを走査し、BPM設定の読み込みとチャンネル定義範囲の切り出しを行う。
+     * 
+     * <p>
+     * 最初のチャンネル宣言より前の行にあるT命令と@R命令を{@code music}に反映する。
+     * チャンネル宣言の行自体はチャンネル定義範囲に含めない。
+     * 切り出したMML文はコメント文を含まず、{@link #convertMmlToChannel}にそのまま渡すことができる。
+     * 
+     * @param bufReader 読み込み元オブジェクト
+     * @param music BPM設定とリバーブ設定の出力先の{@link Music}オブジェクト
+     * @return ArrayList<String> チャンネル定義範囲ごとのMML文 (記述順)
+     * @throws IOException {@link BufferedReader#readLine}によって発生し得る
+     */
+    private static ArrayList<String> scanChannelRegions(BufferedReader bufReader, Music music) throws IOException {
+        ArrayList<String> channelMmlList = new ArrayList<>();
+        String line;
+        Pattern bpmConfigPattern = Pattern.compile("T(\\d+)");
+        Matcher bpmConfigMatcher = null;
+        Pattern reverbConfigPattern = Pattern.compile("@R\\(([^()\\s]+,\\d+)\\)");
+        Matcher reverbConfigMatcher = null;
+        Pattern channelDefPattern = Pattern.compile(":\\w*");
+        // @(sample:<path>)のコロンをチャンネル宣言と誤認しないよう、@()の中身は除いて判定する
+        Pattern generatorPattern = Pattern.compile("@\\([^()]*\\)");
+        Matcher channelDefMatcher = null;
+        while (true) {
+            line = MmlReader.readLineIgnoreComment(bufReader);
+            if (line == null) {
+                break;
+            }
+
+            // ミキシング結果に付加するリバーブの設定 (パス中の文字をT命令と誤認しないよう取り除く)
+            reverbConfigMatcher = reverbConfigPattern.matcher(line);
+            if (reverbConfigMatcher.find()) {
+                try {
+                    music.setReverb(Reverb.parse(reverbConfigMatcher.group(1)));
+                }
+                catch (IllegalArgumentException e) {
+                    System.err.println("Invalid reverb is ignored: " + e.getMessage());
+                }
+                line = reverbConfigMatcher.replaceAll("");
+            }
+
+            // BPMの設定
+            bpmConfigMatcher = bpmConfigPattern.matcher(line);
+            if (bpmConfigMatcher.find()) {
+                int bpm = Integer.parseInt(bpmConfigMatcher.group(1));
+                music.setBpm(bpm);
+            }
+
+            // チャンネル宣言
+            channelDefMatcher = channelDefPattern.matcher(generatorPattern.matcher(line).replaceAll(""));
+            if (channelDefMatcher.find()) {
+                while (true) {
+                    if (line == null) {
+                        break;
+                    }
+                    StringBuilder channelMml = new StringBuilder();
+                    while (true) {
+                        line = MmlReader.readLineIgnoreComment(bufReader);
+                        if (line == null) {
+                            break;
+                        }
+                        channelDefMatcher = channelDefPattern.matcher(generatorPattern.matcher(line).replaceAll(""));
+                        if (channelDefMatcher.find()) {
+                            break;
+                        }
+
+                        channelMml.append(line).append("\n");
+                    }
+                    channelMmlList.add(channelMml.toString());
+                }
+            }
+        }
+
+        return channelMmlList;
     }
 
     /** 
@@ -196,11 +320,14 @@ public class MmlReader {
      * <p>
      * チャンネル定義範囲内のMML文を文字列として受け取る。
      * 受け取る文字列にはコメント文を含んではいけない。
+     * 変換1回につき{@link ChannelCompileEvent}を発行する。
      * 
      * @param channelMml MML文を格納した文字列
      * @return Channel 生成された{@link Channel}オブジェクト
      */
     public static Channel convertMmlToChannel(String channelMml) {
+        ChannelCompileEvent event = new ChannelCompileEvent();
+        event.begin();
         ChannelBuilder builder = new ChannelBuilder(new Channel());
 
         try (BufferedReader bufReader = new BufferedReader(new StringReader(channelMml));) {
@@ -241,9 +368,11 @@ public class MmlReader {
                             taskQueue.add(new Task(start,
                                 ()->{ ent.getValue().accept(arg, builder); }));
 
-                            Log.log("matched Pattern: " + ent.getKey());
-                            Log.log("  argument: " + matcherGroup);
-                            Log.log("  start index: " + start);
+                            if (Log.isLogEnabled()) {
+                                Log.log("matched Pattern: " + ent.getKey());
+                                Log.log("  argument: " + matcherGroup);
+                                Log.log("  start index: " + start);
+                            }
 
                             finish = false;
                             if (matcher.hitEnd()) {
@@ -268,7 +397,30 @@ public class MmlReader {
             System.exit(1);
         }
 
-        return builder.getChannel();
+        Channel channel = builder.getChannel();
+        event.end();
+        if (event.shouldCommit()) {
+            LinkedHashSet<String> generatorIds = new LinkedHashSet<>();
+            for (Note note: channel.getNoteList()) {
+                generatorIds.add(note.getWaveGeneratorId());
+            }
+            event.mmlLength = channelMml.length();
+            event.noteCount = channel.getNoteList().size();
+            event.loopCount = channel.getLoopList().size();
+            event.generatorIds = String.join(",", generatorIds);
+            event.commit();
+        }
+
+        return channel;
+    }
+
+    /** 
+     * 変換済みの{@link Channel}を保持する{@link ChannelCache}を取得する。
+     * 
+     * @return ChannelCache プロセス全体で共有するキャッシュ
+     */
+    public static ChannelCache getChannelCache() {
+        return MmlReader.channelCache;
     }
 
     /** 
@@ -327,67 +479,114 @@ public class MmlReader {
      * プログラム中で{@link #operationMap}のインスタンスを参照する場合は、必ずこのメソッドを経由する。
      * プログラム起動後初めてこのメソッドを呼び出した際に{@link #operationMap}をインスタンス化する。
      * それ以降は{@link #operationMap}をそのまま返却する。
+     * 複数のスレッドから同時に呼び出しても、インスタンス化は1度だけ行われる。
      * 
      * @return HashMap<Pattern, BiConsumer<String, ChannelBuilder>> {@link #operationMap}インスタンス
      */
     private static HashMap<Pattern, BiConsumer<String, ChannelBuilder>> getOperationMapInstance() {
-        if (MmlReader.operationMap != null) {
+        LinkedHashMap<Pattern, BiConsumer<String, ChannelBuilder>> map = MmlReader.operationMap;
+        if (map != null) {
+            return map;
+        }
+
+        synchronized (MmlReader.class) {
+            if (MmlReader.operationMap == null) {
+                MmlReader.operationMap = MmlReader.createOperationMap();
+            }
             return MmlReader.operationMap;
         }
+    }
 
-        MmlReader.operationMap = new LinkedHashMap<Pattern, BiConsumer<String, ChannelBuilder>>();
+    /** 
+     * {@link #operationMap}に格納するMML命令のパターンと命令の対応表を生成する。
+     * 
+     * @return LinkedHashMap<Pattern, BiConsumer<String, ChannelBuilder>> MML命令の対応表
+     */
+    private static LinkedHashMap<Pattern, BiConsumer<String, ChannelBuilder>> createOperationMap() {
+        LinkedHashMap<Pattern, BiConsumer<String, ChannelBuilder>> operationMap = new LinkedHashMap<Pattern, BiConsumer<String, ChannelBuilder>>();
+        // 和音 (内部のノート表現やオクターブ命令を他の命令より先に取り込む)
+        operationMap.put(Pattern.compile("(\\d*'[^']*')"),  // 8'CEG' 'C<C' など
+            (String arg, ChannelBuilder cb)->{
+                cb.addChord(arg);
+            });
         // 音色
-        MmlReader.operationMap.put(Pattern.compile("@\\((\\w+)\\)"),  // @(<string>)
+        operationMap.put(Pattern.compile("@\\((\\w+|sample:[^()\\s]+)\\)"),  // @(<string>) @(sample:<path>)
             (String arg, ChannelBuilder cb)->{
                 cb.setCurrentWaveGeneratorId(arg);
             });
+        // エンベロープ
+        operationMap.put(Pattern.compile("@E\\((\\d+,\\d+,\\d+,\\d+)\\)"),  // @E(<attack>,<decay>,<sustain>,<release>)
+            (String arg, ChannelBuilder cb)->{
+                String[] values = arg.split(",");
+                cb.setCurrentEnvelope(Integer.parseInt(values[0]), Integer.parseInt(values[1]),
+                    Integer.parseInt(values[2]), Integer.parseInt(values[3]));
+            });
+        // リバーブ
+        operationMap.put(Pattern.compile("@R\\(([^()\\s]+,\\d+)\\)"),  // @R(<path>,<wet>)
+            (String arg, ChannelBuilder cb)->{
+                cb.setReverb(arg);
+            });
         // 音量
-        MmlReader.operationMap.put(Pattern.compile("V(\\d+)"),  //  V<number>
+        operationMap.put(Pattern.compile("V(\\d+)"),  //  V<number>
             (String arg, ChannelBuilder cb)->{
                 cb.setCurrentVolume(Integer.parseInt(arg));
             });
-        MmlReader.operationMap.put(Pattern.compile("\\((\\d+)"),    // (<number>
+        operationMap.put(Pattern.compile("\\((\\d+)"),    // (<number>
             (String arg, ChannelBuilder cb)->{
                 cb.addToCurrentVolume(Integer.parseInt(arg));;
             });
-        MmlReader.operationMap.put(Pattern.compile("\\)(\\d+)"),    // )<number>
+        operationMap.put(Pattern.compile("\\)(\\d+)"),    // )<number>
             (String arg, ChannelBuilder cb)->{
                 cb.addToCurrentVolume(- Integer.parseInt(arg));;
             });
         // オクターブ
-        MmlReader.operationMap.put(Pattern.compile("O(\\d+)"),  // O<number>
+        operationMap.put(Pattern.compile("O(\\d+)"),  // O<number>
             (String arg, ChannelBuilder cb)->{
                 cb.setCurrentOctave(Integer.parseInt(arg));
             });
-        MmlReader.operationMap.put(Pattern.compile("<"),    // <
+        operationMap.put(Pattern.compile("<"),    // <
             (String arg, ChannelBuilder cb)->{
                 cb.addToCurrentOctave(1);
             });
-        MmlReader.operationMap.put(Pattern.compile(">"),    // >
+        operationMap.put(Pattern.compile(">"),    // >
             (String arg, ChannelBuilder cb)->{
                 cb.addToCurrentOctave(-1);
             });
+        // テンポ
+        operationMap.put(Pattern.compile("T(\\d+)"),  // T<number>
+            (String arg, ChannelBuilder cb)->{
+                cb.addTempoChange(Integer.parseInt(arg));
+            });
         // デフォルト音長
-        MmlReader.operationMap.put(Pattern.compile("L(\\d+)"),  //  L<number>
+        operationMap.put(Pattern.compile("L(\\d+)"),  //  L<number>
             (String arg, ChannelBuilder cb)->{
                 cb.setCurrentDefaultToneLength(Integer.parseInt(arg));
             });
+        // 繰り返し
+        operationMap.put(Pattern.compile("\\["),    // [
+            (String arg, ChannelBuilder cb)->{
+                cb.beginLoop();
+            });
+        operationMap.put(Pattern.compile("\\](\\d*)"),  // ]<number>
+            (String arg, ChannelBuilder cb)->{
+                cb.endLoop(arg.isEmpty() ? 2 : Integer.parseInt(arg));
+            });
         // ノート表現
-        MmlReader.operationMap.put(Pattern.compile("(\\d*[A-Ga-gR][#+-]?)"), // 8A 16F など
+        operationMap.put(Pattern.compile("(\\d*[A-Ga-gR][#+-]?)"), // 8A 16F など
             (String arg, ChannelBuilder cb)->{
                 cb.addNote(arg);
             });
-        MmlReader.operationMap.put(Pattern.compile("([A-Ga-gR][#+-]?)"), // A F など
+        operationMap.put(Pattern.compile("([A-Ga-gR][#+-]?)"), // A F など
             (String arg, ChannelBuilder cb)->{
                 cb.addNote(arg);
             });
 
         // template
-        // MmlReader.operationMap.put(Pattern.compile("regex"),
+        // operationMap.put(Pattern.compile("regex"),
         //     (String arg, ChannelBuilder cb)->{
         //         // Do something
         //     });
 
-        return MmlReader.operationMap;
+        return operationMap;
     }
 }
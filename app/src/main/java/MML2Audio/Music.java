@@ -1,13 +1,17 @@
 package MML2Audio;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.List;
 
 import javax.sound.sampled.AudioFormat;
 
 import MML2Audio.Channel.Channel;
-import MML2Audio.Exception.InvalidGeneratorId;
+import MML2Audio.Effect.Reverb;
 import MML2Audio.Note.Note;
+import MML2Audio.Render.ActivityIndex;
+import MML2Audio.Render.MusicRenderer;
+import MML2Audio.Render.Timeline;
+import MML2Audio.Util.Metrics;
 
 /**
  * 曲データ全体を管理する。
@@ -35,6 +39,26 @@ public class Music {
      * 音声バッファにおける1フレームの最大値。
      */
     private int maxVolumeValue;
+    /**
+     * 曲データから構築したタイムライン。{@link #getTimeline}を経由して参照する。
+     */
+    private Timeline timeline = null;
+    /**
+     * 各チャンネルの発音区間。{@link #getActivityIndex}を経由して参照する。
+     */
+    private ActivityIndex activityIndex = null;
+    /**
+     * 出力音声のサンプリングレート。
+     */
+    private double sampleRate;
+    /**
+     * trueの場合、計算量の少ない音声波生成関数で描画する。
+     */
+    private boolean draft = false;
+    /**
+     * ミキシング結果に付加するリバーブ。付加しない場合はnull。
+     */
+    private Reverb reverb = null;
 
     /**
      * 音長の最小値。
@@ -44,17 +68,50 @@ public class Music {
      */
     public static final int MIN_TONE_LENGTH = 64;
     /**
-     * 出力音声のサンプリングレート。
+     * 出力音声のサンプリングレートの既定値。
+     */
+    public static final double DEFAULT_SAMPLE_RATE = 44100.0;
+    /**
+     * 出力音声の1サンプルのビット数の既定値。
      */
-    public static final double SAMPLE_RATE = 44100.0;
+    public static final int DEFAULT_SAMPLE_SIZE = 8;
+    /**
+     * 試聴用の描画(ドラフト)で使用するサンプリングレート。
+     */
+    public static final double DRAFT_SAMPLE_RATE = 11025.0;
+    /**
+     * 曲の終端に付加する無音区間の長さ [s]。
+     */
+    public static final double TAIL_LENGTH = 2.0;
 
     /**
      * 各変数の初期化を行う。
+     * 
+     * <p>
+     * 出力音声は{@link #DEFAULT_SAMPLE_RATE}Hz、{@link #DEFAULT_SAMPLE_SIZE}bitとなる。
      */
     public Music() {
+        this(Music.DEFAULT_SAMPLE_RATE, Music.DEFAULT_SAMPLE_SIZE);
+    }
+
+    /**
+     * 出力音声のサンプリングレートとビット数を指定して初期化する。
+     * 
+     * @param sampleRate サンプリングレート [Hz]
+     * @param sampleSizeInBits 1サンプルのビット数 (8, 16, 24のいずれか)
+     * @throws IllegalArgumentException 対応していない値の場合に発生する
+     */
+    public Music(double sampleRate, int sampleSizeInBits) {
+        if (sampleSizeInBits != 8 && sampleSizeInBits != 16 && sampleSizeInBits != 24) {
+            throw new IllegalArgumentException("sample size must be 8, 16 or 24: " + sampleSizeInBits);
+        }
+        if (sampleRate < 1000 || sampleRate != Math.floor(sampleRate)) {
+            throw new IllegalArgumentException("sample rate must be an integer of at least 1000: " + sampleRate);
+        }
+        this.sampleRate = sampleRate;
         this.audioFormat = new AudioFormat(
-        (int)Music.SAMPLE_RATE,
-            8,      // サンプルサイズ [bit]
+            (float) sampleRate,
+            sampleSizeInBits,   // サンプルサイズ [bit]
             1,      // オーディオフォーマットにおけるチャンネル数 (mono / stereo)
             true,   // is signed
             true    // is Big Endian
@@ -76,19 +133,27 @@ public class Music {
     /** 
      * 曲の長さを秒数で計算する。
      * 
-     * @return double 値[-1.0 : 1.0] 曲の長さ [s]
+     * @return double 曲の長さ [s]
      */
-    private double calcLengthOfMusicInSecond() {
-        double maxLength = -1;
-        for (Channel c: this.channelList) {
-            double length = 0;
-            for (Note n: c.getNoteList()) {
-                length += (4.0 / n.getToneLength()) * (60.0 / this.bpm);
-            }
-            maxLength = Math.max(maxLength, length);
-        }
+    public double calcLengthOfMusicInSecond() {
+        return this.getTimeline().getLengthInFrames() / this.sampleRate;
+    }
 
-        return maxLength;
+    /** 
+     * 曲データから構築した{@link Timeline}を取得する。
+     * 
+     * <p>
+     * 初めて呼び出した際に構築し、BPMやチャンネルが変更されるまで同じインスタンスを返却する。
+     * 
+     * @return Timeline 曲のタイムライン
+     */
+    public Timeline getTimeline() {
+        if (this.timeline == null) {
+            Metrics.Stage stage = Metrics.start("timeline");
+            this.timeline = new Timeline(this, this.bpm);
+            stage.stop();
+        }
+        return this.timeline;
     }
 
     /** 
@@ -107,9 +172,20 @@ public class Music {
      */
     public void setBpm(int bpm) {
         this.bpm = bpm;
+        this.timeline = null;
+        this.activityIndex = null;
     }
 
     
+    /** 
+     * 曲のテンポを取得する。
+     * 
+     * @return int BPM値
+     */
+    public int getBpm() {
+        return this.bpm;
+    }
+
     /** 
      * 曲にチャンネルを追加する。
      * 
@@ -117,6 +193,8 @@ public class Music {
      */
     public void addChannel(Channel channel) {
         this.channelList.add(channel);
+        this.timeline = null;
+        this.activityIndex = null;
     }
 
     
@@ -130,70 +208,139 @@ public class Music {
     }
 
     
+    /** 
+     * 各チャンネルが発音するブロックを記録した{@link ActivityIndex}を取得する。
+     * 
+     * <p>
+     * 音量0のノートは発音しないものとして扱う。
+     * {@link #getTimeline}と同様に、BPMやチャンネルが変更されるまで同じインスタンスを返却する。
+     * 
+     * @return ActivityIndex 各チャンネルの発音区間
+     */
+    public ActivityIndex getActivityIndex() {
+        if (this.activityIndex != null) {
+            return this.activityIndex;
+        }
+
+        Timeline timeline = this.getTimeline();
+        Metrics.Stage stage = Metrics.start("activityIndex");
+        ActivityIndex activityIndex = new ActivityIndex(this.getNumberOfChannel());
+        for (int c=0; c<this.getNumberOfChannel(); c++) {
+            List<Note> noteList = this.channelList.get(c).getNoteList();
+            Timeline.Cursor cursor = timeline.createCursor(c, 0);
+            while (!cursor.isFinished()) {
+                if (noteList.get(cursor.getNoteIndex()).getVolume() != 0) {
+                    activityIndex.markActive(c, cursor.getStartFrame(), cursor.getEndFrame());
+                }
+                cursor.next();
+            }
+        }
+        stage.stop();
+
+        this.activityIndex = activityIndex;
+        return this.activityIndex;
+    }
+
+    /** 
+     * 出力音声全体のフレーム数を計算する。
+     * 
+     * <p>
+     * 曲の終端に付加する{@link #TAIL_LENGTH}秒の無音区間を含む。
+     * 
+     * @return long フレーム数
+     */
+    public long calcNumberOfFrame() {
+        return this.getTimeline().getLengthInFrames() + (long)(this.sampleRate * Music.TAIL_LENGTH);
+    }
+
     /** 
      * 曲データを音声バッファに変換する。
      * 
+     * <p>
+     * 曲の終端には{@link #TAIL_LENGTH}秒の無音区間が付加される。
+     * 音声バッファの形式は{@link #getAudioFormat()}に従う。
+     * 
      * @return byte[] 音声バッファ
      */
     public byte[] generateAudioBuffer() {
-        int numOfByte = (int)Music.SAMPLE_RATE * (int)this.calcLengthOfMusicInSecond();
-        numOfByte += Music.SAMPLE_RATE * 2.0;
+        return this.generateAudioBuffer(0, this.calcNumberOfFrame());
+    }
 
-        byte[] audioBuffer = new byte[numOfByte];
-        Arrays.fill(audioBuffer, (byte)0);
-        int attackTime = (int) (Music.SAMPLE_RATE * 0.01);
-        int decreaseTime = (int) (Music.SAMPLE_RATE * 0.1);
+    /** 
+     * 曲データの指定した区間のみを音声バッファに変換する。
+     * 
+     * <p>
+     * 区間の開始位置で演奏中のノートは{@link Timeline}から二分探索で求めるため、
+     * 処理時間は区間の長さに比例し、区間より前の部分の長さには依存しない。
+     * 
+     * @param startFrame 区間の開始フレーム
+     * @param endFrame 区間の終了フレーム (このフレームは含まない)
+     * @return byte[] 音声バッファ
+     */
+    public byte[] generateAudioBuffer(long startFrame, long endFrame) {
+        // new直後の配列は0で初期化されている為、無音区間には書き込みを行わない
+        int numOfFrame = (int) Math.max(endFrame - startFrame, 0);
+        byte[] audioBuffer = new byte[numOfFrame * this.audioFormat.getFrameSize()];
+        new MusicRenderer(this, startFrame).render(audioBuffer, 0, numOfFrame);
 
-        for (int c=0; c<this.getNumberOfChannel(); c++) {
-            int phase = 0; // 波の位相
-            int count = 0;
-            int noteIndex = -1;
-            double preampValue = 0;
-            double amp = 0;
-            Note note = null;
-            for (int i=0; i<audioBuffer.length; i++) {
-                if (count <= 0) {
-                    noteIndex++;
-                    if (noteIndex < channelList.get(c).getNoteList().size()) {
-                        note = channelList.get(c).getNoteList().get(noteIndex);
-                        count = (int) ((4.0 / note.getToneLength()) * (60.0 / bpm) * Music.SAMPLE_RATE);
-                        phase = 0;
-                    }
-                    else {
-                        break;
-                    }
-                }
+        return audioBuffer;
+    }
 
-                amp = this.maxVolumeValue * 0.5 * (note.getVolume() / (double)Note.MAX_VOLUME);
-                amp /= (double) this.getNumberOfChannel();
-                // 音のアタックを付ける
-                if (phase < attackTime) {
-                    amp *= (phase / (double)attackTime);
-                }
-                // 音の終端で減衰させる
-                if (count < decreaseTime) {
-                    amp *= (count / (double)decreaseTime);
-                }
+    /** 
+     * 出力音声のサンプリングレートを取得する。
+     * 
+     * @return double サンプリングレート [Hz]
+     */
+    public double getSampleRate() {
+        return this.sampleRate;
+    }
 
-                // value = (byte) (WaveGenerator.sin(note.getFreq(), phase/Music.SAMPLE_RATE) * amp);
-                try {
-                    preampValue = WaveGenerator.getWaveGenerator(note.getWaveGeneratorId()).apply(
-                        note.getFreq(), phase/Music.SAMPLE_RATE);
-                }
-                catch (InvalidGeneratorId e) {
-                    System.err.println("Invalid waveGeneratorId");
-                    e.printStackTrace();
-                }
+    /** 
+     * 計算量の少ない音声波生成関数で描画するかを設定する。
+     * 
+     * <p>
+     * 試聴用の描画に使用する。波形は{@link WaveGenerator#getDraftWaveGenerator}によって近似される。
+     * 
+     * @param draft trueの場合、計算量の少ない音声波生成関数で描画する
+     */
+    public void setDraft(boolean draft) {
+        this.draft = draft;
+    }
 
-                // value = (byte) (amp * Math.sin((phase/waveLength)*Math.PI*2));
-                audioBuffer[i] += (byte) (preampValue * amp);
+    /** 
+     * 計算量の少ない音声波生成関数で描画するかを取得する。
+     * 
+     * @return boolean 計算量の少ない音声波生成関数で描画する場合true
+     */
+    public boolean isDraft() {
+        return this.draft;
+    }
 
-                count--;
-                phase++;
-            }
-        }
+    /** 
+     * ミキシング結果に付加するリバーブを設定する。
+     * 
+     * @param reverb リバーブの設定。付加しない場合はnull
+     */
+    public void setReverb(Reverb reverb) {
+        this.reverb = reverb;
+    }
 
-        return audioBuffer;
+    /** 
+     * ミキシング結果に付加するリバーブを取得する。
+     * 
+     * @return Reverb リバーブの設定。付加しない場合はnull
+     */
+    public Reverb getReverb() {
+        return this.reverb;
+    }
+
+    /** 
+     * 音声バッファにおける1フレームの最大値を取得する。
+     * 
+     * @return int 1フレームの最大値
+     */
+    public int getMaxVolumeValue() {
+        return this.maxVolumeValue;
     }
 
     
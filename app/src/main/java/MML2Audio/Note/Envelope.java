@@ -0,0 +1,250 @@
+package MML2Audio.Note;
+
+import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ノートの音量の時間変化(ADSRエンベロープ)を表す。
+ *
+ * <p>
+ * ノートの開始からアタック時間で0から最大音量まで上がり、ディケイ時間でサステインレベルまで下がる。
+ * ノートの終端のリリース時間で、その時点の音量から0まで下がる。
+ * 変化はいずれも線形とする。ノートが短い場合、リリースはアタックやディケイの途中から始まる。
+ *
+ * <p>
+ * 変更できない為、{@link #of}で設定値ごとに1つのインスタンスを共有する。
+ * 音量の倍率はサンプリングレートごとに{@link GainTable}として1度だけ計算し、描画時には表を参照するのみとする。
+ */
+public class Envelope implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 既定のエンベロープ (アタック10ms、ディケイ無し、リリース100ms)。
+     */
+    public static final Envelope DEFAULT;
+    /**
+     * {@link #of}で生成したエンベロープ。keyは設定値を並べた文字列。
+     */
+    private static final ConcurrentHashMap<String, Envelope> envelopeMap = new ConcurrentHashMap<>();
+    /**
+     * 次に生成するエンベロープの番号。
+     */
+    private static final AtomicInteger nextId = new AtomicInteger(0);
+
+    static {
+        DEFAULT = Envelope.of(10, 0, 100, 100);
+    }
+
+    /**
+     * 1つのサンプリングレートにおける音量の倍率の表。
+     *
+     * <p>
+     * ノートの先頭からのフレーム数をp、終端までの残りフレーム数をcとすると、倍率は
+     * {@code head[min(p, headLength)] * tail[min(c, tailLength)]}となる。
+     */
+    public static class GainTable {
+        /**
+         * アタックとディケイの倍率。最後の要素はサステインレベルとなる。
+         */
+        public final double[] head;
+        /**
+         * リリースの倍率。添字は終端までの残りフレーム数で、最後の要素は1となる。
+         */
+        public final double[] tail;
+        /**
+         * アタックとディケイのフレーム数。
+         */
+        public final int headLength;
+        /**
+         * リリースのフレーム数。
+         */
+        public final int tailLength;
+        /**
+         * 表を計算したサンプリングレート。
+         */
+        private final double sampleRate;
+
+        private GainTable(double[] head, double[] tail, double sampleRate) {
+            this.head = head;
+            this.tail = tail;
+            this.headLength = head.length - 1;
+            this.tailLength = tail.length - 1;
+            this.sampleRate = sampleRate;
+        }
+    }
+
+    /**
+     * アタック時間 [ms]。
+     */
+    private int attack;
+    /**
+     * ディケイ時間 [ms]。
+     */
+    private int decay;
+    /**
+     * サステインレベル [%]。
+     */
+    private int sustain;
+    /**
+     * リリース時間 [ms]。
+     */
+    private int release;
+    /**
+     * プロセス内で一意な番号。
+     */
+    private int id;
+    /**
+     * 最後に計算した倍率の表。
+     */
+    private transient volatile GainTable gainTable = null;
+
+    private Envelope(int attack, int decay, int sustain, int release, int id) {
+        this.attack = attack;
+        this.decay = decay;
+        this.sustain = sustain;
+        this.release = release;
+        this.id = id;
+    }
+
+    /**
+     * 設定値を指定してエンベロープを取得する。
+     *
+     * <p>
+     * 同じ設定値のエンベロープを既に生成している場合は、そのインスタンスを返却する。
+     *
+     * @param attack アタック時間 [ms]
+     * @param decay ディケイ時間 [ms]
+     * @param sustain サステインレベル [%] (0~100)
+     * @param release リリース時間 [ms]
+     * @return Envelope エンベロープ
+     * @throws IllegalArgumentException 範囲外の設定値の場合に発生する
+     */
+    public static Envelope of(int attack, int decay, int sustain, int release) {
+        if (attack < 0 || decay < 0 || release < 0) {
+            throw new IllegalArgumentException("envelope time must not be negative");
+        }
+        if (sustain < 0 || sustain > 100) {
+            throw new IllegalArgumentException("sustain level must be 0-100: " + sustain);
+        }
+
+        String key = attack + "," + decay + "," + sustain + "," + release;
+        Envelope envelope = Envelope.envelopeMap.get(key);
+        if (envelope != null) {
+            return envelope;
+        }
+        return Envelope.envelopeMap.computeIfAbsent(key,
+            (k)->new Envelope(attack, decay, sustain, release, Envelope.nextId.getAndIncrement()));
+    }
+
+    /**
+     * ミリ秒をフレーム数に変換する。
+     */
+    private static int toFrames(double sampleRate, int millis) {
+        return (int) (sampleRate * (millis / 1000.0));
+    }
+
+    /**
+     * 指定したサンプリングレートにおける音量の倍率の表を取得する。
+     *
+     * <p>
+     * 同じサンプリングレートで2回目以降に呼び出した場合は、計算済みの表を返却する。
+     *
+     * @param sampleRate サンプリングレート [Hz]
+     * @return GainTable 倍率の表 (変更してはならない)
+     */
+    public GainTable getGainTable(double sampleRate) {
+        GainTable gainTable = this.gainTable;
+        if (gainTable != null && gainTable.sampleRate == sampleRate) {
+            return gainTable;
+        }
+
+        int attackFrames = Envelope.toFrames(sampleRate, this.attack);
+        int decayFrames = Envelope.toFrames(sampleRate, this.decay);
+        int releaseFrames = Envelope.toFrames(sampleRate, this.release);
+        double sustainLevel = this.sustain / 100.0;
+
+        double[] head = new double[attackFrames + decayFrames + 1];
+        for (int p=0; p<attackFrames; p++) {
+            head[p] = p / (double) attackFrames;
+        }
+        for (int p=0; p<decayFrames; p++) {
+            head[attackFrames + p] = 1 - (1 - sustainLevel) * (p / (double) decayFrames);
+        }
+        head[attackFrames + decayFrames] = sustainLevel;
+
+        double[] tail = new double[releaseFrames + 1];
+        for (int c=0; c<releaseFrames; c++) {
+            tail[c] = c / (double) releaseFrames;
+        }
+        tail[releaseFrames] = 1;
+
+        gainTable = new GainTable(head, tail, sampleRate);
+        this.gainTable = gainTable;
+        return gainTable;
+    }
+
+    /**
+     * 直列化したエンベロープを復元する際に、同じ設定値の共有インスタンスに置き換える。
+     *
+     * @return Object 共有インスタンス
+     */
+    private Object readResolve() {
+        return Envelope.of(this.attack, this.decay, this.sustain, this.release);
+    }
+
+    /**
+     * アタック時間を取得する。
+     *
+     * @return int アタック時間 [ms]
+     */
+    public int getAttack() {
+        return this.attack;
+    }
+
+    /**
+     * ディケイ時間を取得する。
+     *
+     * @return int ディケイ時間 [ms]
+     */
+    public int getDecay() {
+        return this.decay;
+    }
+
+    /**
+     * サステインレベルを取得する。
+     *
+     * @return int サステインレベル [%]
+     */
+    public int getSustain() {
+        return this.sustain;
+    }
+
+    /**
+     * リリース時間を取得する。
+     *
+     * @return int リリース時間 [ms]
+     */
+    public int getRelease() {
+        return this.release;
+    }
+
+    /**
+     * プロセス内で一意な番号を取得する。
+     *
+     * @return int 番号
+     */
+    public int getId() {
+        return this.id;
+    }
+
+    @Override
+    public String toString() {
+        return "[ "
+            + "attack=" + this.attack + ", "
+            + "decay=" + this.decay + ", "
+            + "sustain=" + this.sustain + ", "
+            + "release=" + this.release + " "
+            + "]";
+    }
+}
@@ -1,5 +1,9 @@
 package MML2Audio.Note;
 
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
 import MML2Audio.Exception.InvalidNoteNameException;
 import MML2Audio.Exception.InvalidScaleIndexException;
 
@@ -8,12 +12,46 @@ import MML2Audio.Exception.InvalidScaleIndexException;
  * 
  * <p>
  * 音の周波数や長さなどの情報を保持する。
+ * 
+ * <p>
+ * 和音は1つの{@link Note}として表し、構成音の周波数を{@link #getFreq(int)}で参照する。
+ * 和音の音階番号やオクターブは最初の構成音のものとなる。
+ * 
+ * <p>
+ * 生成後は変更できない為、{@link #of}で表記・音高・音長・音量・音色・エンベロープの組ごとに1つのインスタンスを共有する。
+ * 周波数は音高ごとに事前に計算した{@link #FREQ_TABLE}から求める。
  */
-public class Note {
+public class Note implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     /**
      * 音量の最大値。
      */
     public static final int MAX_VOLUME = 255;
+    /**
+     * {@link #FREQ_TABLE}の要素数。
+     */
+    public static final int NUMBER_OF_PITCH = 128;
+    /**
+     * 音高ごとの周波数。
+     * 
+     * <p>
+     * 添字は音高({@link #getPitch()})で、オクターブ-1のCが0、オクターブ4のA(440Hz)が69となる。
+     */
+    private static final double[] FREQ_TABLE = new double[Note.NUMBER_OF_PITCH];
+    /**
+     * {@link #of}で生成したノート。
+     * 
+     * <p>
+     * keyは音色ごとに、音高・表記・音長・音量・エンベロープをまとめた値({@link #toInternKey})とする。
+     */
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<Long, Note>> internMap = new ConcurrentHashMap<>();
+
+    static {
+        for (int pitch=0; pitch<Note.NUMBER_OF_PITCH; pitch++) {
+            Note.FREQ_TABLE[pitch] = Note.pitchToFreq(pitch);
+        }
+    }
 
     /**
      * 音の周波数。
@@ -58,6 +96,10 @@ public class Note {
      * waveGeneratorIdによって音の波形が変化し、音色が変化する。
      */
     private String waveGeneratorId;
+    /**
+     * 音のエンベロープ。
+     */
+    private Envelope envelope = Envelope.DEFAULT;
     /**
      * 音の表記。
      * 
@@ -65,6 +107,10 @@ public class Note {
      * MML中のノート表現に準拠した文字列が格納される。
      */
     private String noteName;
+    /**
+     * 構成音の周波数。和音でない場合は{@link #freq}のみを格納する。
+     */
+    private double[] freqs;
 
     public Note(int toneLength, int octave, int volume, String waveGeneratorId) {
         this.octave = octave;
@@ -132,12 +178,197 @@ public class Note {
     }
 
     /**
-     * scaleIndexとオクターブから音の周波数を計算する。
+     * ノート表現の文字列とエンベロープから{@link Note}を生成する。
+     * 
+     * @param noteName ノート表現
+     * @param toneLength 音長
+     * @param octave オクターブ
+     * @param volume 音量
+     * @param waveGeneratorId waveGeneratorId
+     * @param envelope エンベロープ
+     */
+    public Note(String noteName, int toneLength, int octave, int volume, String waveGeneratorId, Envelope envelope) {
+        this(noteName, toneLength, octave, volume, waveGeneratorId);
+        this.envelope = envelope;
+    }
+
+    /**
+     * ノート表現の文字列から既定のエンベロープの{@link Note}を取得する。
+     * 
+     * @param noteName ノート表現
+     * @param toneLength 音長
+     * @param octave オクターブ
+     * @param volume 音量
+     * @param waveGeneratorId waveGeneratorId
+     * @return Note ノート
+     * @see #of(String, int, int, int, String, Envelope)
+     */
+    public static Note of(String noteName, int toneLength, int octave, int volume, String waveGeneratorId) {
+        return Note.of(noteName, toneLength, octave, volume, waveGeneratorId, Envelope.DEFAULT);
+    }
+
+    /**
+     * ノート表現の文字列から{@link Note}を取得する。
+     * 
+     * <p>
+     * 表記・音高・音長・音量・音色・エンベロープが等しいノートを既に生成している場合は、そのインスタンスを返却する。
+     * 異名同音(C#とD-など)は別のインスタンスとなり、返却するノートは生成の順序に関わらずコンストラクタで生成したノートと同じ値を持つ。
+     * 
+     * @param noteName ノート表現
+     * @param toneLength 音長
+     * @param octave オクターブ
+     * @param volume 音量
+     * @param waveGeneratorId waveGeneratorId
+     * @param envelope エンベロープ
+     * @return Note ノート
+     */
+    public static Note of(String noteName, int toneLength, int octave, int volume, String waveGeneratorId, Envelope envelope) {
+        int scaleIndex;
+        try {
+            scaleIndex = NoteNameConverter.noteNameToScaleIndex(noteName);
+        } catch (InvalidNoteNameException e) {
+            e.printStackTrace();
+            System.exit(1);
+            return null;
+        }
+        if (noteName.equals("R")) {
+            volume = 0;
+        }
+
+        int pitch = (octave + 1) * 12 + scaleIndex;
+        long key = Note.toInternKey(pitch, Note.toSpellingCode(noteName), toneLength, volume, envelope);
+        ConcurrentHashMap<Long, Note> noteMap = Note.internMap.get(waveGeneratorId);
+        if (noteMap == null) {
+            noteMap = Note.internMap.computeIfAbsent(waveGeneratorId, (id)->new ConcurrentHashMap<>());
+        }
+        Note note = noteMap.get(key);
+        if (note == null) {
+            Note created = new Note(noteName, toneLength, octave, volume, waveGeneratorId, envelope);
+            note = noteMap.putIfAbsent(key, created);
+            if (note == null) {
+                note = created;
+            }
+        }
+        // keyに収まらない値でkeyが衝突した場合は共有しない
+        if (note.getPitch() != pitch || !note.noteName.equals(noteName)
+            || note.toneLength != toneLength || note.volume != volume || note.envelope != envelope)
+        {
+            note = new Note(noteName, toneLength, octave, volume, waveGeneratorId, envelope);
+        }
+        return note;
+    }
+
+    /**
+     * {@link #internMap}のkeyを生成する。
+     * 
+     * <p>
+     * 各値は下位のビットのみを使う為、範囲外の値ではkeyが衝突し得る。
+     * 
+     * @param pitch 音高
+     * @param spelling 表記({@link #toSpellingCode})
+     * @param toneLength 音長
+     * @param volume 音量
+     * @param envelope エンベロープ
+     * @return long key
+     */
+    private static long toInternKey(int pitch, int spelling, int toneLength, int volume, Envelope envelope) {
+        return ((long) (pitch & 0xFFF) << 52)
+            | ((long) (spelling & 0x3F) << 46)
+            | ((long) (envelope.getId() & 0x3FFF) << 32)
+            | ((long) (toneLength & 0xFFFF) << 16)
+            | (volume & 0xFFFF);
+    }
+
+    /**
+     * ノート表現の表記を6bitの値にする。
+     * 
+     * <p>
+     * 上位4bitは音名(大文字のA~Gが0~6、小文字のa~gが7~13、Rが14)、下位2bitは変化記号(無し・-・+・#が0~3)とする。
+     * 
+     * @param noteName ノート表現 (1文字または2文字)
+     * @return int 表記の値
+     */
+    private static int toSpellingCode(String noteName) {
+        char scaleName = noteName.charAt(0);
+        int code;
+        if (scaleName >= 'A' && scaleName <= 'G') {
+            code = scaleName - 'A';
+        }
+        else if (scaleName >= 'a' && scaleName <= 'g') {
+            code = scaleName - 'a' + 7;
+        }
+        else {
+            code = 14;
+        }
+        if (noteName.length() == 2) {
+            switch (noteName.charAt(1)) {
+                case '-':
+                    return (code << 2) | 1;
+                case '+':
+                    return (code << 2) | 2;
+                default:
+                    return (code << 2) | 3;
+            }
+        }
+        return code << 2;
+    }
+
+    /**
+     * 音高から周波数を計算する。
+     * 
+     * @param pitch 音高
+     * @return double 周波数
+     */
+    private static double pitchToFreq(int pitch) {
+        return 440 * Math.pow(2, 1/12.0 * (pitch - 69));
+    }
+
+    /**
+     * scaleIndexとオクターブから音の周波数を求める。
+     * 
+     * <p>
+     * 音高が{@link #FREQ_TABLE}の範囲外の場合のみ計算する。
      */
     private void calcFreq() {
-        int delta = this.octave - 4;
-        int cIndex = this.scaleIndex - 9;
-        this.freq = 440 * Math.pow(2, 1/12.0 * (cIndex + delta*12));
+        int pitch = this.getPitch();
+        this.freq = (pitch >= 0 && pitch < Note.NUMBER_OF_PITCH) ? Note.FREQ_TABLE[pitch] : Note.pitchToFreq(pitch);
+        this.freqs = new double[] {this.freq};
+    }
+
+    /**
+     * 構成音を指定して和音の{@link Note}を生成する。
+     * 
+     * <p>
+     * 音長・音色・エンベロープは最初の構成音、音量は休符でない構成音のものとなる。
+     * 休符の構成音は無視し、全ての構成音が休符の場合は休符となる。
+     * 
+     * @param chordTones 構成音 (1つ以上)
+     */
+    public Note(Note[] chordTones) {
+        this(chordTones[0].toneLength, chordTones[0].octave, chordTones[0].volume, chordTones[0].waveGeneratorId);
+        this.envelope = chordTones[0].envelope;
+
+        StringBuilder noteName = new StringBuilder("'");
+        double[] freqs = new double[chordTones.length];
+        int numOfTone = 0;
+        for (Note tone: chordTones) {
+            noteName.append(tone.noteName);
+            if (tone.volume == 0) {
+                continue;
+            }
+            this.volume = tone.volume;
+            freqs[numOfTone++] = tone.freq;
+        }
+        this.noteName = noteName.append("'").toString();
+        this.scaleIndex = chordTones[0].scaleIndex;
+        this.freq = chordTones[0].freq;
+        if (numOfTone == 0) {
+            this.volume = 0;
+            this.freqs = new double[] {this.freq};
+        }
+        else {
+            this.freqs = Arrays.copyOf(freqs, numOfTone);
+        }
     }
 
     /** 
@@ -149,6 +380,34 @@ public class Note {
         return this.freq;
     }
 
+    /** 
+     * 構成音の周波数を取得する。
+     * 
+     * @param index 構成音の番号 (0 ~ {@link #getNumberOfTones()} - 1)
+     * @return double 周波数
+     */
+    public double getFreq(int index) {
+        return this.freqs[index];
+    }
+
+    /** 
+     * 構成音の数を取得する。
+     * 
+     * @return int 構成音の数 (和音でない場合は1)
+     */
+    public int getNumberOfTones() {
+        return this.freqs.length;
+    }
+
+    /** 
+     * 音高を取得する。
+     * 
+     * @return int 音高 (オクターブ-1のCが0、オクターブ4のAが69)
+     */
+    public int getPitch() {
+        return (this.octave + 1) * 12 + this.scaleIndex;
+    }
+
     /** 
      * ノート表現の文字列を取得する。
      * 
@@ -185,6 +444,15 @@ public class Note {
         return this.waveGeneratorId;
     }
 
+    /** 
+     * 音のエンベロープを取得する。
+     * 
+     * @return Envelope エンベロープ
+     */
+    public Envelope getEnvelope() {
+        return this.envelope;
+    }
+
     @Override
     public String toString() {
         return "[ "
@@ -192,7 +460,7 @@ public class Note {
             + "index=" + this.scaleIndex + ", "
             + "octave=" + this.octave + ", "
             + "toneLength=" + this.toneLength + ", "
-            + "freq=" + this.freq + ", "
+            + "freq=" + (this.freqs.length > 1 ? Arrays.toString(this.freqs) : this.freq) + ", "
             + "wave=" + this.waveGeneratorId + " "
             + "]";
     }
@@ -205,7 +473,9 @@ public class Note {
             this.toneLength == n.toneLength &&
             this.octave == n.octave &&
             this.volume == n.volume &&
-            this.waveGeneratorId.equals(n.waveGeneratorId)
+            this.waveGeneratorId.equals(n.waveGeneratorId) &&
+            this.envelope == n.envelope &&
+            Arrays.equals(this.freqs, n.freqs)
         );
     }
 }
@@ -1,9 +1,5 @@
 package MML2Audio.Note;
 
-import java.util.HashMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 import MML2Audio.Exception.InvalidNoteNameException;
 import MML2Audio.Exception.InvalidScaleIndexException;
 
@@ -12,74 +8,70 @@ import MML2Audio.Exception.InvalidScaleIndexException;
 
 /**
  * scaleIndexとノート名の相互変換を行う。
+ * 
+ * <p>
+ * ノートの生成毎に呼び出される為、正規表現や連想配列を使わずに文字の判定と配列の参照のみで変換する。
  */
 public class NoteNameConverter {
     /**
-     * ノート名とscaleIndexの対応表。
+     * 半音が付加されていない音階(A~G)のscaleIndex。
      * 
      * <p>
-     * 半音が付加されていない音階のみ対応している。
-     * ノート名とは、MML文中に記述されるノート表現から音長を除いた部分である。
-     * 例えば、8Eというノート表現に含まれるノート名はEとなる。
+     * 添字は音階の文字から'A'を引いた値とする。
      */
-    private static HashMap<String, Integer> scaleMap = null;
-
+    private static final int[] SCALE_INDEXES = {9, 11, 0, 2, 4, 5, 7};
     /**
-     * {@link #scaleMap}のインスタンスを取得する。 
+     * scaleIndexを添字としたノート名。
      * 
      * <p>
-     * プログラム中で{@link #scaleMap}のインスタンスを参照する場合は、必ずこのメソッドを経由する。
-     * プログラム起動後初めてこのメソッドを呼び出した際に{@link #scaleMap}をインスタンス化する。
-     * それ以降は{@link #scaleMap}をそのまま返却する。
-     * 
-     * @return HashMap<String, Integer> {@link #scaleMap}インスタンス
+     * 半音はシャープで表記する。
      */
-    private static HashMap<String, Integer> getScaleMapInstance() {
-        if (NoteNameConverter.scaleMap != null) {
-            return NoteNameConverter.scaleMap;
-        }
-        
-        NoteNameConverter.scaleMap = new HashMap<>();
-        NoteNameConverter.scaleMap.put("C", 0);
-        NoteNameConverter.scaleMap.put("D", 2);
-        NoteNameConverter.scaleMap.put("E", 4);
-        NoteNameConverter.scaleMap.put("F", 5);
-        NoteNameConverter.scaleMap.put("G", 7);
-        NoteNameConverter.scaleMap.put("A", 9);
-        NoteNameConverter.scaleMap.put("B", 11);
-        return NoteNameConverter.scaleMap;
-    }
+    private static final String[] NOTE_NAMES = {"C", "C#", "D", "D#", "E", "F", "F#", "G", "G#", "A", "A#", "B"};
 
     
     /** 
      * ノート名をscaleIndexに変換する。
      * 
+     * <p>
+     * ノート名とは、MML文中に記述されるノート表現から音長を除いた部分である。
+     * 例えば、8Eというノート表現に含まれるノート名はEとなる。
+     * 
      * @param noteName ノート名
-     * @return int scaleIndex
+     * @return int scaleIndex (C-の場合は-1、B#の場合は12となる。休符の場合は0)
      * @throws InvalidNoteNameException ノート名が誤っている場合に発生する
      */
     public static int noteNameToScaleIndex(String noteName) throws InvalidNoteNameException {
-        if (! Pattern.matches("^[A-Ga-gR][#+-]?$", noteName)) {
+        int length = noteName.length();
+        if (length == 0 || length > 2) {
             throw new InvalidNoteNameException();
         }
-        if (Pattern.matches("R", noteName)) {
-            return 0;
-        }
 
-        String scaleName = String.valueOf(noteName.charAt(0)).toUpperCase();
-        String semitoneName = "";
-        Pattern pattern = Pattern.compile("^.([#+-])$");
-        Matcher matcher = pattern.matcher(noteName);
-        if (matcher.find()) {
-            semitoneName = matcher.group(1);
+        char scaleName = Character.toUpperCase(noteName.charAt(0));
+        int scaleIndex;
+        if (scaleName >= 'A' && scaleName <= 'G') {
+            scaleIndex = NoteNameConverter.SCALE_INDEXES[scaleName - 'A'];
+        }
+        else if (noteName.charAt(0) == 'R') {
+            scaleIndex = 0;
+        }
+        else {
+            throw new InvalidNoteNameException();
         }
 
-        int scaleIndex = NoteNameConverter.getScaleMapInstance().get(scaleName);
-        if (semitoneName.equals("-")) {
-            scaleIndex -= 1;
+        if (length == 2) {
+            char semitoneName = noteName.charAt(1);
+            if (semitoneName == '-') {
+                scaleIndex -= 1;
+            }
+            else if (semitoneName == '+' || semitoneName == '#') {
+                scaleIndex += 1;
+            }
+            else {
+                throw new InvalidNoteNameException();
+            }
         }
-        else if (semitoneName.equals("+") || semitoneName.equals("#")) {
-            scaleIndex += 1;
+        if (scaleName == 'R') {
+            return 0;
         }
 
         return scaleIndex;
@@ -94,23 +86,13 @@ public class NoteNameConverter {
      * @throws InvalidScaleIndexException 範囲外のscaleIndexを処理しようとした場合に発生する
      */
     public static String scaleIndexToNoteName(int scaleIndex) throws InvalidScaleIndexException {
-        boolean addSemitone = false;
-
         if (scaleIndex > 11) {
             throw new InvalidScaleIndexException("scale index is above 11");
         }
-
-        if (! NoteNameConverter.getScaleMapInstance().containsValue(scaleIndex)) {
-            scaleIndex -= 1;
-            scaleIndex %= 12;
-            addSemitone = true;
-        }
-        for (HashMap.Entry<String, Integer> ent: NoteNameConverter.getScaleMapInstance().entrySet()) {
-            if (ent.getValue() == scaleIndex) {
-                return ent.getKey() + (addSemitone ? "#" : "");
-            }
+        if (scaleIndex < 0) {
+            throw new InvalidScaleIndexException();
         }
 
-        throw new InvalidScaleIndexException();
+        return NoteNameConverter.NOTE_NAMES[scaleIndex];
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,29 @@
+package MML2Audio.Output;
+
+import java.io.IOException;
+
+/**
+ * 描画した音声バッファの出力先を表す。
+ * 
+ * <p>
+ * 音声バッファは曲の先頭から順に、ブロックごとに{@link #write}へ渡される。
+ * 渡された配列は呼び出し元で再利用されるため、呼び出しから戻った後に参照してはいけない。
+ */
+public interface AudioSink {
+    /** 
+     * 音声バッファの一部を出力する。
+     * 
+     * @param buffer 音声バッファ
+     * @param offset 出力を開始するインデックス
+     * @param length 出力するバイト数
+     * @throws IOException 出力に失敗した場合に発生する
+     */
+    public void write(byte[] buffer, int offset, int length) throws IOException;
+
+    /** 
+     * 出力を終了し、リソースを解放する。
+     * 
+     * @throws IOException 出力に失敗した場合に発生する
+     */
+    public void close() throws IOException;
+}
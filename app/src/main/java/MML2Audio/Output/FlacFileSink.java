@@ -0,0 +1,582 @@
+package MML2Audio.Output;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * 音声バッファをFLACファイルとして出力する。
+ *
+ * <p>
+ * 受け取ったサンプルを{@link #BLOCK_SIZE}サンプルごとのフレームにまとめ、フレームが揃う度に符号化して書き込む。
+ * 曲全体の音声バッファを保持せずにファイルを出力できる。
+ * 各サブフレームは全て同じ値であればCONSTANT、そうでなければ次数0~4の固定予測(FIXED)のうち残差が最小のものを使用し、
+ * 残差はRice符号で符号化する。圧縮できない場合はVERBATIMで書き込む。
+ *
+ * <p>
+ * 総サンプル数はSTREAMINFOに書き込むが、MD5とフレームサイズの範囲は未知(0)とする。
+ * 8/16/24bitの符号付き・符号なしのリニアPCMに対応する。
+ * {@link #write}に渡すバイト数はフレームサイズの倍数でなければならない。
+ */
+public class FlacFileSink implements AudioSink {
+    /**
+     * 1フレームあたりのサンプル数。
+     */
+    public static final int BLOCK_SIZE = 4096;
+    /**
+     * 残差の分割数の指数の上限。
+     */
+    private static final int MAX_PARTITION_ORDER = 6;
+    /**
+     * 固定予測の次数の上限。
+     */
+    private static final int MAX_FIXED_ORDER = 4;
+
+    /**
+     * ビット単位で書き込むバッファ。
+     */
+    private static class BitWriter {
+        /**
+         * 書き込み済みのバイト列。
+         */
+        private byte[] buffer = new byte[1 << 16];
+        /**
+         * {@link #buffer}中の書き込み済みのバイト数。
+         */
+        private int length = 0;
+        /**
+         * バイト境界に揃っていないビット。
+         */
+        private long accumulator = 0;
+        /**
+         * {@link #accumulator}中のビット数。
+         */
+        private int accumulatorBits = 0;
+
+        private void reset() {
+            this.length = 0;
+            this.accumulator = 0;
+            this.accumulatorBits = 0;
+        }
+
+        /**
+         * 値の下位ビットを上位から順に書き込む。
+         *
+         * @param value 値
+         * @param bits ビット数 (32以下)
+         */
+        private void writeBits(long value, int bits) {
+            if (bits == 0) {
+                return;
+            }
+            this.accumulator = (this.accumulator << bits) | (value & ((1L << bits) - 1));
+            this.accumulatorBits += bits;
+            while (this.accumulatorBits >= 8) {
+                this.accumulatorBits -= 8;
+                this.putByte((int) (this.accumulator >>> this.accumulatorBits));
+            }
+        }
+
+        /**
+         * 0を指定した数だけ書き込んだ後に1を書き込む。
+         *
+         * @param zeros 0の数
+         */
+        private void writeUnary(long zeros) {
+            while (zeros >= 32) {
+                this.writeBits(0, 32);
+                zeros -= 32;
+            }
+            this.writeBits(1, (int) zeros + 1);
+        }
+
+        /**
+         * 符号付きの値をRice符号で書き込む。
+         *
+         * @param value 値
+         * @param parameter Riceパラメータ
+         */
+        private void writeRice(int value, int parameter) {
+            long folded = FlacFileSink.fold(value);
+            this.writeUnary(folded >>> parameter);
+            this.writeBits(folded, parameter);
+        }
+
+        /**
+         * バイト境界まで0を書き込む。
+         */
+        private void alignToByte() {
+            if (this.accumulatorBits > 0) {
+                this.writeBits(0, 8 - this.accumulatorBits);
+            }
+        }
+
+        private void putByte(int value) {
+            if (this.length == this.buffer.length) {
+                byte[] newBuffer = new byte[this.buffer.length * 2];
+                System.arraycopy(this.buffer, 0, newBuffer, 0, this.length);
+                this.buffer = newBuffer;
+            }
+            this.buffer[this.length++] = (byte) value;
+        }
+    }
+
+    /**
+     * 出力先のストリーム。
+     */
+    private OutputStream outputStream;
+    /**
+     * 入力される音声のフォーマット。
+     */
+    private AudioFormat audioFormat;
+    /**
+     * チャンネル数。
+     */
+    private int numOfChannel;
+    /**
+     * 1サンプルのビット数。
+     */
+    private int bitsPerSample;
+    /**
+     * 符号化前のサンプル。[チャンネル][フレーム内の位置]
+     */
+    private int[][] samples;
+    /**
+     * {@link #samples}に保持しているサンプル数。
+     */
+    private int numOfBufferedSample = 0;
+    /**
+     * 次に書き込むフレームの番号。
+     */
+    private long frameNumber = 0;
+    /**
+     * フレームの符号化に使用する。
+     */
+    private BitWriter bitWriter = new BitWriter();
+    /**
+     * 予測残差を一時的に保持する。
+     */
+    private int[] residual = new int[FlacFileSink.BLOCK_SIZE];
+
+    /**
+     * 出力先のファイルを開き、ヘッダを書き込む。
+     *
+     * @param filePath 出力ファイルのパス
+     * @param audioFormat 入力される音声のフォーマット
+     * @param numOfFrame 出力するフレーム数
+     * @throws IOException ファイルの書き込みに失敗した場合に発生する
+     */
+    public FlacFileSink(String filePath, AudioFormat audioFormat, long numOfFrame) throws IOException {
+        this(new FileOutputStream(filePath), audioFormat, numOfFrame);
+    }
+
+    /**
+     * 出力先のストリームにヘッダを書き込む。
+     *
+     * @param outputStream 出力先のストリーム
+     * @param audioFormat 入力される音声のフォーマット
+     * @param numOfFrame 出力するフレーム数
+     * @throws IOException 書き込みに失敗した場合に発生する
+     * @throws IllegalArgumentException 対応していないフォーマットの場合に発生する
+     */
+    public FlacFileSink(OutputStream outputStream, AudioFormat audioFormat, long numOfFrame) throws IOException {
+        int bits = audioFormat.getSampleSizeInBits();
+        if (bits != 8 && bits != 16 && bits != 24) {
+            throw new IllegalArgumentException("unsupported sample size for FLAC: " + bits);
+        }
+        if (audioFormat.getEncoding() != AudioFormat.Encoding.PCM_SIGNED
+                && audioFormat.getEncoding() != AudioFormat.Encoding.PCM_UNSIGNED) {
+            throw new IllegalArgumentException("unsupported encoding for FLAC: " + audioFormat.getEncoding());
+        }
+
+        this.outputStream = new BufferedOutputStream(outputStream, 1 << 16);
+        this.audioFormat = audioFormat;
+        this.numOfChannel = audioFormat.getChannels();
+        this.bitsPerSample = bits;
+        this.samples = new int[this.numOfChannel][FlacFileSink.BLOCK_SIZE];
+        this.outputStream.write(this.createHeader(numOfFrame));
+    }
+
+    /**
+     * ストリームの先頭に置く"fLaC"とSTREAMINFOメタデータブロックを生成する。
+     *
+     * @param numOfFrame 総サンプル数 (チャンネルあたり)
+     * @return byte[] 42byteのヘッダ
+     */
+    private byte[] createHeader(long numOfFrame) {
+        BitWriter writer = new BitWriter();
+        writer.writeBits('f', 8);
+        writer.writeBits('L', 8);
+        writer.writeBits('a', 8);
+        writer.writeBits('C', 8);
+        // メタデータブロックヘッダ: 最後のブロック, STREAMINFO, 34byte
+        writer.writeBits(1, 1);
+        writer.writeBits(0, 7);
+        writer.writeBits(34, 24);
+        writer.writeBits(FlacFileSink.BLOCK_SIZE, 16);                  // 最小ブロックサイズ
+        writer.writeBits(FlacFileSink.BLOCK_SIZE, 16);                  // 最大ブロックサイズ
+        writer.writeBits(0, 24);                                        // 最小フレームサイズ (未知)
+        writer.writeBits(0, 24);                                        // 最大フレームサイズ (未知)
+        writer.writeBits((long) this.audioFormat.getSampleRate(), 20);
+        writer.writeBits(this.numOfChannel - 1, 3);
+        writer.writeBits(this.bitsPerSample - 1, 5);
+        writer.writeBits(numOfFrame >>> 32, 4);
+        writer.writeBits(numOfFrame, 32);
+        for (int i=0; i<4; i++) {
+            writer.writeBits(0, 32);                                    // MD5 (未知)
+        }
+
+        byte[] header = new byte[writer.length];
+        System.arraycopy(writer.buffer, 0, header, 0, writer.length);
+        return header;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        int bytesPerSample = this.bitsPerSample / 8;
+        boolean signed = this.audioFormat.getEncoding() == AudioFormat.Encoding.PCM_SIGNED;
+        boolean bigEndian = this.audioFormat.isBigEndian();
+        int signBit = 1 << (this.bitsPerSample - 1);
+
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            for (int c=0; c<this.numOfChannel; c++) {
+                int value = 0;
+                for (int b=0; b<bytesPerSample; b++) {
+                    int shift = bigEndian ? 8 * (bytesPerSample - 1 - b) : 8 * b;
+                    value |= (buffer[i + b] & 0xFF) << shift;
+                }
+                i += bytesPerSample;
+                // 符号付きの値に揃える
+                value = signed ? (value ^ signBit) - signBit : value - signBit;
+                this.samples[c][this.numOfBufferedSample] = value;
+            }
+            this.numOfBufferedSample++;
+            if (this.numOfBufferedSample == FlacFileSink.BLOCK_SIZE) {
+                this.writeFrame();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.numOfBufferedSample > 0) {
+            this.writeFrame();
+        }
+        this.outputStream.close();
+    }
+
+    /**
+     * 保持しているサンプルを1フレームとして符号化し、書き込む。
+     *
+     * @throws IOException 書き込みに失敗した場合に発生する
+     */
+    private void writeFrame() throws IOException {
+        int blockSize = this.numOfBufferedSample;
+        BitWriter writer = this.bitWriter;
+        writer.reset();
+
+        // フレームヘッダ
+        writer.writeBits(0x3FFE, 14);       // 同期コード
+        writer.writeBits(0, 1);
+        writer.writeBits(0, 1);             // 固定ブロックサイズ
+        int blockSizeCode = blockSize == FlacFileSink.BLOCK_SIZE ? 12 : 7;
+        writer.writeBits(blockSizeCode, 4);
+        writer.writeBits(FlacFileSink.getSampleRateCode((int) this.audioFormat.getSampleRate()), 4);
+        writer.writeBits(this.numOfChannel - 1, 4);     // 各チャンネルを独立に符号化する
+        writer.writeBits(FlacFileSink.getSampleSizeCode(this.bitsPerSample), 3);
+        writer.writeBits(0, 1);
+        FlacFileSink.writeUtf8(writer, this.frameNumber);
+        if (blockSizeCode == 7) {
+            writer.writeBits(blockSize - 1, 16);
+        }
+        writer.writeBits(FlacFileSink.crc8(writer.buffer, writer.length), 8);
+
+        for (int c=0; c<this.numOfChannel; c++) {
+            this.writeSubframe(this.samples[c], blockSize);
+        }
+
+        writer.alignToByte();
+        writer.writeBits(FlacFileSink.crc16(writer.buffer, writer.length), 16);
+        this.outputStream.write(writer.buffer, 0, writer.length);
+
+        this.numOfBufferedSample = 0;
+        this.frameNumber++;
+    }
+
+    /**
+     * 1チャンネル分のサンプルをサブフレームとして符号化する。
+     *
+     * @param x サンプル
+     * @param blockSize サンプル数
+     */
+    private void writeSubframe(int[] x, int blockSize) {
+        BitWriter writer = this.bitWriter;
+
+        boolean constant = true;
+        for (int i=1; i<blockSize; i++) {
+            if (x[i] != x[0]) {
+                constant = false;
+                break;
+            }
+        }
+        if (constant) {
+            writer.writeBits(0, 8);         // CONSTANT
+            writer.writeBits(x[0], this.bitsPerSample);
+            return;
+        }
+
+        // 残差の絶対値の和が最小となる次数を選ぶ
+        int bestOrder = 0;
+        long bestSum = Long.MAX_VALUE;
+        for (int order=0; order<=Math.min(FlacFileSink.MAX_FIXED_ORDER, blockSize - 1); order++) {
+            long sum = 0;
+            for (int i=order; i<blockSize; i++) {
+                sum += Math.abs(FlacFileSink.predictResidual(x, i, order));
+            }
+            if (sum < bestSum) {
+                bestSum = sum;
+                bestOrder = order;
+            }
+        }
+        for (int i=bestOrder; i<blockSize; i++) {
+            this.residual[i] = FlacFileSink.predictResidual(x, i, bestOrder);
+        }
+
+        int partitionOrder = this.choosePartitionOrder(blockSize, bestOrder);
+        int[] parameters = this.calcRiceParameters(blockSize, bestOrder, partitionOrder);
+        int maxParameter = 0;
+        long estimatedBits = 8 + (long) bestOrder * this.bitsPerSample + 6;
+        for (int p=0; p<parameters.length; p++) {
+            maxParameter = Math.max(maxParameter, parameters[p]);
+        }
+        int parameterBits = maxParameter > 14 ? 5 : 4;
+        estimatedBits += this.estimateResidualBits(blockSize, bestOrder, partitionOrder, parameters, parameterBits);
+
+        // 圧縮できない場合はそのまま書き込む
+        if (estimatedBits >= 8 + (long) blockSize * this.bitsPerSample) {
+            writer.writeBits(2, 8);         // VERBATIM
+            for (int i=0; i<blockSize; i++) {
+                writer.writeBits(x[i], this.bitsPerSample);
+            }
+            return;
+        }
+
+        writer.writeBits((8 | bestOrder) << 1, 8);     // FIXED
+        for (int i=0; i<bestOrder; i++) {
+            writer.writeBits(x[i], this.bitsPerSample);
+        }
+        writer.writeBits(parameterBits == 4 ? 0 : 1, 2);
+        writer.writeBits(partitionOrder, 4);
+        int partitionSize = blockSize >> partitionOrder;
+        for (int p=0; p<parameters.length; p++) {
+            writer.writeBits(parameters[p], parameterBits);
+            int start = p == 0 ? bestOrder : p * partitionSize;
+            int end = (p + 1) * partitionSize;
+            for (int i=start; i<end; i++) {
+                writer.writeRice(this.residual[i], parameters[p]);
+            }
+        }
+    }
+
+    /**
+     * 固定予測の残差を求める。
+     *
+     * @param x サンプル
+     * @param i 予測するサンプルの位置
+     * @param order 予測の次数
+     * @return int 残差
+     */
+    private static int predictResidual(int[] x, int i, int order) {
+        switch (order) {
+            case 0: return x[i];
+            case 1: return x[i] - x[i-1];
+            case 2: return x[i] - 2*x[i-1] + x[i-2];
+            case 3: return x[i] - 3*x[i-1] + 3*x[i-2] - x[i-3];
+            default: return x[i] - 4*x[i-1] + 6*x[i-2] - 4*x[i-3] + x[i-4];
+        }
+    }
+
+    /**
+     * 符号付きの値を符号なしの値に写す。(0, -1, 1, -2, ... -> 0, 1, 2, 3, ...)
+     */
+    private static long fold(int value) {
+        return ((long) value << 1) ^ ((long) value >> 63);
+    }
+
+    /**
+     * 残差の符号化後のビット数が最小となる分割数の指数を求める。
+     *
+     * @param blockSize サンプル数
+     * @param order 予測の次数
+     * @return int 分割数の指数
+     */
+    private int choosePartitionOrder(int blockSize, int order) {
+        int bestPartitionOrder = 0;
+        long bestBits = Long.MAX_VALUE;
+        for (int partitionOrder=0; partitionOrder<=FlacFileSink.MAX_PARTITION_ORDER; partitionOrder++) {
+            // 分割数はサンプル数を割り切り、最初の区間は予測の次数より長くなければならない
+            if (blockSize % (1 << partitionOrder) != 0 || (blockSize >> partitionOrder) <= order) {
+                break;
+            }
+            int[] parameters = this.calcRiceParameters(blockSize, order, partitionOrder);
+            long bits = this.estimateResidualBits(blockSize, order, partitionOrder, parameters, 4);
+            if (bits < bestBits) {
+                bestBits = bits;
+                bestPartitionOrder = partitionOrder;
+            }
+        }
+        return bestPartitionOrder;
+    }
+
+    /**
+     * 各区間のRiceパラメータを求める。
+     *
+     * <p>
+     * 区間内の残差の平均値から、符号化後のビット数が最小となるパラメータを見積もる。
+     */
+    private int[] calcRiceParameters(int blockSize, int order, int partitionOrder) {
+        int numOfPartition = 1 << partitionOrder;
+        int partitionSize = blockSize >> partitionOrder;
+        int[] parameters = new int[numOfPartition];
+        for (int p=0; p<numOfPartition; p++) {
+            int start = p == 0 ? order : p * partitionSize;
+            int end = (p + 1) * partitionSize;
+            long sum = 0;
+            for (int i=start; i<end; i++) {
+                sum += FlacFileSink.fold(this.residual[i]);
+            }
+            long count = end - start;
+            int parameter = 0;
+            while (parameter < 30 && (count << (parameter + 1)) < sum) {
+                parameter++;
+            }
+            parameters[p] = parameter;
+        }
+        return parameters;
+    }
+
+    /**
+     * 残差の符号化後のビット数を求める。
+     */
+    private long estimateResidualBits(int blockSize, int order, int partitionOrder, int[] parameters, int parameterBits) {
+        int partitionSize = blockSize >> partitionOrder;
+        long bits = 2 + 4;
+        for (int p=0; p<parameters.length; p++) {
+            int start = p == 0 ? order : p * partitionSize;
+            int end = (p + 1) * partitionSize;
+            bits += parameterBits + (long) (end - start) * (parameters[p] + 1);
+            for (int i=start; i<end; i++) {
+                bits += FlacFileSink.fold(this.residual[i]) >>> parameters[p];
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * フレーム番号をUTF-8と同様の可変長形式で書き込む。
+     */
+    private static void writeUtf8(BitWriter writer, long value) {
+        if (value < 0x80) {
+            writer.writeBits(value, 8);
+            return;
+        }
+        int numOfByte = 2;
+        while (numOfByte < 7 && value >= (1L << (5 * numOfByte + 1))) {
+            numOfByte++;
+        }
+        writer.writeBits(((0xFF00 >> numOfByte) & 0xFF) | (value >>> (6 * (numOfByte - 1))), 8);
+        for (int b=numOfByte-2; b>=0; b--) {
+            writer.writeBits(0x80 | ((value >>> (6 * b)) & 0x3F), 8);
+        }
+    }
+
+    /**
+     * フレームヘッダに書き込むサンプリングレートの符号を求める。
+     *
+     * @return int 符号。一覧に無い場合はSTREAMINFOを参照する0
+     */
+    private static int getSampleRateCode(int sampleRate) {
+        switch (sampleRate) {
+            case 88200: return 1;
+            case 176400: return 2;
+            case 192000: return 3;
+            case 8000: return 4;
+            case 16000: return 5;
+            case 22050: return 6;
+            case 24000: return 7;
+            case 32000: return 8;
+            case 44100: return 9;
+            case 48000: return 10;
+            case 96000: return 11;
+            default: return 0;
+        }
+    }
+
+    /**
+     * フレームヘッダに書き込むサンプルサイズの符号を求める。
+     */
+    private static int getSampleSizeCode(int bitsPerSample) {
+        switch (bitsPerSample) {
+            case 8: return 1;
+            case 16: return 4;
+            default: return 6;
+        }
+    }
+
+    /**
+     * CRC-8 (多項式 x^8 + x^2 + x + 1) の1バイトごとの値。
+     */
+    private static final int[] CRC8_TABLE = FlacFileSink.createCrcTable(8, 0x07);
+    /**
+     * CRC-16 (多項式 x^16 + x^15 + x^2 + 1) の1バイトごとの値。
+     */
+    private static final int[] CRC16_TABLE = FlacFileSink.createCrcTable(16, 0x8005);
+
+    /**
+     * CRCの計算に使用する表を生成する。
+     *
+     * @param width CRCのビット数
+     * @param polynomial 生成多項式 (最上位の項を除く)
+     * @return int[] 1バイトごとの値
+     */
+    private static int[] createCrcTable(int width, int polynomial) {
+        int[] table = new int[256];
+        int topBit = 1 << (width - 1);
+        int mask = (1 << width) - 1;
+        for (int i=0; i<256; i++) {
+            int crc = i << (width - 8);
+            for (int b=0; b<8; b++) {
+                crc = (crc & topBit) != 0 ? ((crc << 1) ^ polynomial) & mask : (crc << 1) & mask;
+            }
+            table[i] = crc;
+        }
+        return table;
+    }
+
+    /**
+     * フレームヘッダのCRC-8を求める。
+     */
+    private static int crc8(byte[] data, int length) {
+        int crc = 0;
+        for (int i=0; i<length; i++) {
+            crc = FlacFileSink.CRC8_TABLE[crc ^ (data[i] & 0xFF)];
+        }
+        return crc;
+    }
+
+    /**
+     * フレーム全体のCRC-16を求める。
+     */
+    private static int crc16(byte[] data, int length) {
+        int crc = 0;
+        for (int i=0; i<length; i++) {
+            crc = ((crc << 8) ^ FlacFileSink.CRC16_TABLE[(crc >> 8) ^ (data[i] & 0xFF)]) & 0xFFFF;
+        }
+        return crc;
+    }
+}
@@ -0,0 +1,314 @@
+package MML2Audio.Output;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.sound.sampled.AudioFormat;
+
+import MML2Audio.Render.Pcm;
+import MML2Audio.Util.Log;
+import MML2Audio.Util.Metrics;
+
+/**
+ * ミキシング結果に増幅とピークリミッタを適用し、別の{@link AudioSink}へ書き込む。
+ *
+ * <p>
+ * 入力を{@link #LOOKAHEAD}秒だけ遅延させ、その間に現れるピークが上限を超えないように予め音量を下げる。
+ * 音量の倍率は先読み区間内の最小値を保持したうえで先読み区間の長さで平滑化するため、急な変化によるノイズが生じない。
+ * 遅延分は{@link #close}の際に書き出すため、出力の長さとフレーム位置は入力と一致する。
+ *
+ * <p>
+ * 目標ラウドネスを指定した場合は、入力の統合ラウドネスを{@link LoudnessMeter}で逐次計測し、
+ * 目標との差に向けて増幅率を緩やかに変化させる。計測が始まるまで(最初の400ms)は指定した固定の増幅率を用いる。
+ *
+ * <p>
+ * 入力は出力と同じビット数で量子化されたミキシング結果であり、増幅すると量子化の段差も増幅される。
+ * 8bitの入力では段差が聞こえるため、16bit以上で用いる。
+ *
+ * <p>
+ * 処理は1度の書き込みで完結し、使用するメモリは先読み区間の長さに比例する一定量となる。
+ * 処理に要した時間とフレーム数を{@link Metrics}の{@literal master}に加算する。
+ */
+public class LimiterSink implements AudioSink {
+    /**
+     * 先読み区間の長さ [s]。
+     */
+    public static final double LOOKAHEAD = 0.005;
+    /**
+     * 音量を下げた後に元に戻す速さの時定数 [s]。
+     */
+    public static final double RELEASE_TIME = 0.2;
+    /**
+     * 目標ラウドネスに向けて増幅率を変化させる速さの時定数 [s]。
+     */
+    public static final double LOUDNESS_TIME = 1.0;
+    /**
+     * 目標ラウドネスに合わせる場合の増幅率の上限 [dB]。
+     */
+    public static final double MAX_LOUDNESS_GAIN = 30.0;
+
+    /**
+     * 書き込み先。
+     */
+    private AudioSink sink;
+    /**
+     * 1サンプルのバイト数。
+     */
+    private int bytesPerSample;
+    /**
+     * 最大振幅 (フルスケール) の値。
+     */
+    private double fullScale;
+    /**
+     * ピークの上限 (フルスケールに対する比)。
+     */
+    private double ceiling;
+    /**
+     * 目標ラウドネス [LUFS]。目標を指定しない場合はNaN。
+     */
+    private double targetLoudness;
+    /**
+     * 現在の増幅率 (倍率)。
+     */
+    private double gain;
+    /**
+     * 目標ラウドネスから求めた増幅率 (倍率)。
+     */
+    private double targetGain;
+    /**
+     * 増幅率を目標に近づける1フレームあたりの係数。
+     */
+    private double gainCoefficient;
+    /**
+     * 倍率を元に戻す1フレームあたりの係数。
+     */
+    private double releaseCoefficient;
+    /**
+     * 入力のラウドネスの計測。目標を指定しない場合はnull。
+     */
+    private LoudnessMeter meter;
+    /**
+     * 先読み区間のフレーム数。
+     */
+    private int lookahead;
+    /**
+     * 遅延中の増幅後のサンプル (リングバッファ)。
+     */
+    private double[] delayLine;
+    /**
+     * 先読み区間内で必要な倍率の最小値を求めるための単調キュー (値)。
+     */
+    private double[] minQueueValues;
+    /**
+     * 先読み区間内で必要な倍率の最小値を求めるための単調キュー (フレーム位置)。
+     */
+    private long[] minQueueFrames;
+    /**
+     * 単調キューの先頭と末尾の位置 (要素数で割った余りを添字とする)。
+     */
+    private int minQueueHead = 0, minQueueTail = 0;
+    /**
+     * 平滑化する直前の倍率 (リングバッファ)。
+     */
+    private double[] holdLine;
+    /**
+     * {@link #holdLine}の総和。
+     */
+    private double holdSum;
+    /**
+     * 最小値を保持した倍率の現在値。
+     */
+    private double hold = 1.0;
+    /**
+     * これまでに入力したフレーム数。
+     */
+    private long inputFrames = 0;
+    /**
+     * 最も小さかった倍率。
+     */
+    private double minGainReduction = 1.0;
+    /**
+     * 書き込み先に渡すバッファ。
+     */
+    private byte[] outputBuffer = new byte[0];
+
+    /**
+     * 増幅率とピークの上限を指定してリミッタを設定する。
+     *
+     * @param sink 書き込み先
+     * @param format 音声のフォーマット (符号付き・ビッグエンディアン・モノラル)
+     * @param gainDb 増幅率 [dB]。目標ラウドネスを指定した場合は計測が始まるまでの増幅率
+     * @param ceilingDb ピークの上限 [dBFS] (0以下)
+     * @param targetLoudness 目標ラウドネス [LUFS]。目標を指定しない場合はNaN
+     * @throws IllegalArgumentException ピークの上限が0dBFSを超える場合に発生する
+     */
+    public LimiterSink(AudioSink sink, AudioFormat format, double gainDb, double ceilingDb, double targetLoudness) {
+        if (!(ceilingDb <= 0)) {
+            throw new IllegalArgumentException("ceiling must not exceed 0 dBFS: " + ceilingDb);
+        }
+        double sampleRate = format.getSampleRate();
+        this.sink = sink;
+        this.bytesPerSample = format.getSampleSizeInBits() / 8;
+        this.fullScale = 1 << (format.getSampleSizeInBits() - 1);
+        this.ceiling = LimiterSink.dbToRatio(ceilingDb);
+        this.gain = LimiterSink.dbToRatio(gainDb);
+        this.targetGain = this.gain;
+        this.targetLoudness = targetLoudness;
+        if (!Double.isNaN(targetLoudness)) {
+            this.meter = new LoudnessMeter(sampleRate);
+        }
+        this.gainCoefficient = 1 - Math.exp(-1 / (LimiterSink.LOUDNESS_TIME * sampleRate));
+        this.releaseCoefficient = 1 - Math.exp(-1 / (LimiterSink.RELEASE_TIME * sampleRate));
+
+        this.lookahead = Math.max((int) (sampleRate * LimiterSink.LOOKAHEAD), 1);
+        this.delayLine = new double[this.lookahead];
+        this.minQueueValues = new double[this.lookahead + 1];
+        this.minQueueFrames = new long[this.lookahead + 1];
+        this.holdLine = new double[this.lookahead];
+        Arrays.fill(this.holdLine, 1.0);
+        this.holdSum = this.lookahead;
+    }
+
+    /**
+     * デシベル値を倍率に変換する。
+     */
+    private static double dbToRatio(double db) {
+        return Math.pow(10, db / 20);
+    }
+
+    /**
+     * 1フレームを入力し、先読み区間だけ前のフレームの出力値を求める。
+     *
+     * <p>
+     * 入力したフレーム数が先読み区間に満たない間の出力値は意味を持たない。
+     *
+     * @param x 入力値 (フルスケールに対する比)
+     * @return double 出力値 (フルスケールに対する比)
+     */
+    private double process(double x) {
+        if (this.meter != null) {
+            this.meter.add(x);
+        }
+        this.gain += (this.targetGain - this.gain) * this.gainCoefficient;
+        double amplified = x * this.gain;
+
+        // ピークを上限に収めるために必要な倍率
+        double peak = Math.abs(amplified);
+        double required = peak > this.ceiling ? this.ceiling / peak : 1.0;
+
+        // 遅延中のフレームと現在のフレームのうち、最も小さい倍率を単調キューで求める
+        long frame = this.inputFrames++;
+        int size = this.lookahead;
+        int queueSize = this.minQueueValues.length;
+        while (this.minQueueTail > this.minQueueHead && this.minQueueValues[(this.minQueueTail - 1) % queueSize] >= required) {
+            this.minQueueTail--;
+        }
+        this.minQueueValues[this.minQueueTail % queueSize] = required;
+        this.minQueueFrames[this.minQueueTail % queueSize] = frame;
+        this.minQueueTail++;
+        if (this.minQueueFrames[this.minQueueHead % queueSize] < frame - size) {
+            this.minQueueHead++;
+        }
+        if (this.minQueueHead >= queueSize) {
+            this.minQueueHead -= queueSize;
+            this.minQueueTail -= queueSize;
+        }
+        double windowMin = this.minQueueValues[this.minQueueHead % queueSize];
+
+        // 下げる場合は即座に、戻す場合は緩やかに追従する
+        this.hold = Math.min(windowMin, this.hold + (1.0 - this.hold) * this.releaseCoefficient);
+
+        // 先読み区間の長さで平滑化する (平滑化した倍率は遅延させたフレームに必要な倍率を超えない)
+        int index = (int) (frame % size);
+        this.holdSum += this.hold - this.holdLine[index];
+        this.holdLine[index] = this.hold;
+        double smoothed = Math.min(this.holdSum / size, 1.0);
+        this.minGainReduction = Math.min(this.minGainReduction, smoothed);
+
+        // 遅延させたフレームに倍率を適用する
+        double delayed = this.delayLine[index];
+        this.delayLine[index] = amplified;
+        double y = delayed * smoothed;
+        // 総和の丸め誤差に備えて上限で切り詰める
+        return Math.max(-this.ceiling, Math.min(this.ceiling, y));
+    }
+
+    /**
+     * 出力値を書き込み先のバッファに書き込む。
+     */
+    private void putSample(int frame, double y) {
+        long value = Math.round(y * this.fullScale);
+        value = Math.max((long) -this.fullScale, Math.min((long) this.fullScale - 1, value));
+        Pcm.setSample(this.outputBuffer, frame, this.bytesPerSample, (int) value);
+    }
+
+    /**
+     * 目標ラウドネスとの差から増幅率を更新する。
+     */
+    private void updateTargetGain() {
+        double loudness = this.meter.getIntegratedLoudness();
+        if (loudness != Double.NEGATIVE_INFINITY) {
+            double gainDb = Math.min(this.targetLoudness - loudness, LimiterSink.MAX_LOUDNESS_GAIN);
+            this.targetGain = LimiterSink.dbToRatio(gainDb);
+        }
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        Metrics.Stage stage = Metrics.start("master");
+        int numOfFrame = length / this.bytesPerSample;
+        int firstFrame = offset / this.bytesPerSample;
+        if (this.outputBuffer.length < length) {
+            this.outputBuffer = new byte[length];
+        }
+
+        // 最初の先読み区間分は出力しない
+        int skip = (int) Math.max(Math.min(this.lookahead - this.inputFrames, numOfFrame), 0);
+        for (int i=0; i<numOfFrame; i++) {
+            double y = this.process(Pcm.getSample(buffer, firstFrame + i, this.bytesPerSample) / this.fullScale);
+            if (i >= skip) {
+                this.putSample(i - skip, y);
+            }
+        }
+        if (this.meter != null) {
+            this.updateTargetGain();
+        }
+        stage.stop();
+        Metrics.add("master.frames", numOfFrame);
+
+        if (numOfFrame > skip) {
+            this.sink.write(this.outputBuffer, 0, (numOfFrame - skip) * this.bytesPerSample);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.meter != null) {
+            Log.log("Integrated loudness of input: {} LUFS", this.meter.getIntegratedLoudness());
+            // 押し出しに使う無音は計測しない
+            this.meter = null;
+        }
+        try {
+            // 遅延中のフレームを無音の入力で押し出す
+            int numOfFrame = (int) Math.min(this.lookahead, this.inputFrames);
+            int skip = this.lookahead - numOfFrame;
+            if (this.outputBuffer.length < numOfFrame * this.bytesPerSample) {
+                this.outputBuffer = new byte[numOfFrame * this.bytesPerSample];
+            }
+            for (int i=0; i<this.lookahead; i++) {
+                double y = this.process(0);
+                if (i >= skip) {
+                    this.putSample(i - skip, y);
+                }
+            }
+            if (numOfFrame > 0) {
+                this.sink.write(this.outputBuffer, 0, numOfFrame * this.bytesPerSample);
+            }
+        }
+        finally {
+            this.sink.close();
+        }
+
+        Log.log("Maximum gain reduction: {} dB", 20 * Math.log10(this.minGainReduction));
+    }
+}
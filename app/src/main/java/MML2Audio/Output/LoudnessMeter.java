@@ -0,0 +1,186 @@
+package MML2Audio.Output;
+
+/**
+ * ITU-R BS.1770に従ってモノラル音声のラウドネスを逐次計測する。
+ *
+ * <p>
+ * 入力をK特性のフィルタに通し、100msごとに直近400msのブロックの平均二乗値を求める。
+ * 統合ラウドネスは絶対ゲート(-70LUFS)と相対ゲート(-10LU)を通過したブロックの平均となる。
+ * ブロックは0.1LU幅のヒストグラムに集計するため、曲の長さに依らず使用するメモリは一定となる。
+ * 相対ゲートの判定はヒストグラムの区間単位で行う。
+ */
+public class LoudnessMeter {
+    /**
+     * 絶対ゲートの閾値 [LUFS]。
+     */
+    public static final double ABSOLUTE_GATE = -70.0;
+    /**
+     * 相対ゲートの閾値 [LU]。
+     */
+    public static final double RELATIVE_GATE = -10.0;
+    /**
+     * ヒストグラムの上限 [LUFS]。
+     */
+    private static final double HISTOGRAM_MAX = 10.0;
+    /**
+     * ヒストグラムの1区間の幅 [LU]。
+     */
+    private static final double HISTOGRAM_STEP = 0.1;
+    /**
+     * 1ブロックに含まれる100msの区間の数。
+     */
+    private static final int SUB_BLOCKS = 4;
+
+    /**
+     * K特性フィルタの係数 (1段目: 高域シェルビング、2段目: 高域通過)。
+     */
+    private double[] b1, a1, b2, a2;
+    /**
+     * K特性フィルタの状態 (直接形II転置)。
+     */
+    private double z11, z12, z21, z22;
+    /**
+     * 100msの区間のフレーム数。
+     */
+    private int subBlockLength;
+    /**
+     * 計測中の区間のフレーム数。
+     */
+    private int subBlockFrames = 0;
+    /**
+     * 計測中の区間の二乗和。
+     */
+    private double subBlockSum = 0;
+    /**
+     * 直近の区間の二乗和 (リングバッファ)。
+     */
+    private double[] subBlockSums = new double[LoudnessMeter.SUB_BLOCKS];
+    /**
+     * 計測を終えた区間の数。
+     */
+    private long numOfSubBlock = 0;
+    /**
+     * ラウドネスの区間ごとのブロック数。
+     */
+    private long[] histogramCounts;
+    /**
+     * ラウドネスの区間ごとのブロックの平均二乗値の和。
+     */
+    private double[] histogramSums;
+
+    /**
+     * サンプリングレートに応じたフィルタを設定する。
+     *
+     * @param sampleRate サンプリングレート [Hz]
+     */
+    public LoudnessMeter(double sampleRate) {
+        // 任意のサンプリングレートに対する係数をアナログ原型から求める
+        double f0 = 1681.974450955533;
+        double gain = 3.999843853973347;
+        double q = 0.7071752369554196;
+        double k = Math.tan(Math.PI * f0 / sampleRate);
+        double vh = Math.pow(10, gain / 20);
+        double vb = Math.pow(vh, 0.4996667741545416);
+        double a0 = 1 + k / q + k * k;
+        this.b1 = new double[] {(vh + vb * k / q + k * k) / a0, 2 * (k * k - vh) / a0, (vh - vb * k / q + k * k) / a0};
+        this.a1 = new double[] {2 * (k * k - 1) / a0, (1 - k / q + k * k) / a0};
+
+        f0 = 38.13547087602444;
+        q = 0.5003270373238773;
+        k = Math.tan(Math.PI * f0 / sampleRate);
+        a0 = 1 + k / q + k * k;
+        this.b2 = new double[] {1, -2, 1};
+        this.a2 = new double[] {2 * (k * k - 1) / a0, (1 - k / q + k * k) / a0};
+
+        this.subBlockLength = Math.max((int) Math.round(sampleRate * 0.1), 1);
+        int bins = (int) Math.round((LoudnessMeter.HISTOGRAM_MAX - LoudnessMeter.ABSOLUTE_GATE) / LoudnessMeter.HISTOGRAM_STEP);
+        this.histogramCounts = new long[bins];
+        this.histogramSums = new double[bins];
+    }
+
+    /**
+     * 1サンプルを計測に加える。
+     *
+     * @param x 値[-1.0 : 1.0]
+     */
+    public void add(double x) {
+        double y1 = this.b1[0] * x + this.z11;
+        this.z11 = this.b1[1] * x - this.a1[0] * y1 + this.z12;
+        this.z12 = this.b1[2] * x - this.a1[1] * y1;
+        double y2 = this.b2[0] * y1 + this.z21;
+        this.z21 = this.b2[1] * y1 - this.a2[0] * y2 + this.z22;
+        this.z22 = this.b2[2] * y1 - this.a2[1] * y2;
+
+        this.subBlockSum += y2 * y2;
+        if (++this.subBlockFrames == this.subBlockLength) {
+            this.endSubBlock();
+        }
+    }
+
+    /**
+     * 100msの区間を閉じ、直近400msのブロックをヒストグラムに集計する。
+     */
+    private void endSubBlock() {
+        this.subBlockSums[(int) (this.numOfSubBlock % LoudnessMeter.SUB_BLOCKS)] = this.subBlockSum;
+        this.numOfSubBlock++;
+        this.subBlockSum = 0;
+        this.subBlockFrames = 0;
+        if (this.numOfSubBlock < LoudnessMeter.SUB_BLOCKS) {
+            return;
+        }
+
+        double sum = 0;
+        for (double subBlockSum: this.subBlockSums) {
+            sum += subBlockSum;
+        }
+        double meanSquare = sum / (this.subBlockLength * LoudnessMeter.SUB_BLOCKS);
+        double loudness = LoudnessMeter.toLoudness(meanSquare);
+        if (loudness <= LoudnessMeter.ABSOLUTE_GATE) {
+            return;
+        }
+        int bin = Math.min(LoudnessMeter.toBin(loudness), this.histogramCounts.length - 1);
+        this.histogramCounts[bin]++;
+        this.histogramSums[bin] += meanSquare;
+    }
+
+    /**
+     * 平均二乗値をラウドネスに変換する。
+     */
+    private static double toLoudness(double meanSquare) {
+        return -0.691 + 10 * Math.log10(meanSquare);
+    }
+
+    /**
+     * ラウドネスをヒストグラムの区間の番号に変換する。
+     */
+    private static int toBin(double loudness) {
+        return (int) ((loudness - LoudnessMeter.ABSOLUTE_GATE) / LoudnessMeter.HISTOGRAM_STEP);
+    }
+
+    /**
+     * これまでに計測した音声の統合ラウドネスを求める。
+     *
+     * @return double 統合ラウドネス [LUFS]。ゲートを通過したブロックが無い場合は負の無限大
+     */
+    public double getIntegratedLoudness() {
+        long count = 0;
+        double sum = 0;
+        for (int bin=0; bin<this.histogramCounts.length; bin++) {
+            count += this.histogramCounts[bin];
+            sum += this.histogramSums[bin];
+        }
+        if (count == 0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+
+        double threshold = LoudnessMeter.toLoudness(sum / count) + LoudnessMeter.RELATIVE_GATE;
+        int firstBin = Math.max(LoudnessMeter.toBin(threshold), 0);
+        count = 0;
+        sum = 0;
+        for (int bin=firstBin; bin<this.histogramCounts.length; bin++) {
+            count += this.histogramCounts[bin];
+            sum += this.histogramSums[bin];
+        }
+        return count == 0 ? Double.NEGATIVE_INFINITY : LoudnessMeter.toLoudness(sum / count);
+    }
+}
@@ -0,0 +1,38 @@
+package MML2Audio.Output;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 音声バッファをヘッダの無いPCMデータとしてそのまま出力する。
+ *
+ * <p>
+ * 出力されるデータの形式は描画時の{@link javax.sound.sampled.AudioFormat}と同じになる。
+ * パイプで他のプログラムへ渡す用途を想定し、受け取ったブロックは内部に溜めずにその都度書き込んでフラッシュする。
+ */
+public class RawPcmSink implements AudioSink {
+    /**
+     * 出力先のストリーム。
+     */
+    private OutputStream outputStream;
+
+    /**
+     * 出力先のストリームを設定する。
+     *
+     * @param outputStream 出力先のストリーム
+     */
+    public RawPcmSink(OutputStream outputStream) {
+        this.outputStream = outputStream;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        this.outputStream.write(buffer, offset, length);
+        this.outputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.outputStream.close();
+    }
+}
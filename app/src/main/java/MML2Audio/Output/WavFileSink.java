@@ -0,0 +1,133 @@
+package MML2Audio.Output;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * 音声バッファをwavファイルとして出力する。
+ * 
+ * <p>
+ * 出力するフレーム数を予め指定することで、ヘッダを先頭に書き込んだ後は受け取ったブロックを順にそのまま書き込む。
+ * 曲全体の音声バッファを保持せずにファイルを出力できる。
+ * wavファイルの規定に合わせ、8bitの音声は符号なしに、16bit以上の音声はリトルエンディアンに変換して書き込む。
+ */
+public class WavFileSink implements AudioSink {
+    /**
+     * 出力先のストリーム。
+     */
+    private OutputStream outputStream;
+    /**
+     * 入力される音声のフォーマット。
+     */
+    private AudioFormat audioFormat;
+    /**
+     * 変換後の音声を一時的に保持する。
+     */
+    private byte[] convertBuffer = new byte[0];
+
+    /** 
+     * 出力先のファイルを開き、ヘッダを書き込む。
+     * 
+     * @param filePath 出力ファイルのパス
+     * @param audioFormat 入力される音声のフォーマット
+     * @param numOfFrame 出力するフレーム数
+     * @throws IOException ファイルの書き込みに失敗した場合に発生する
+     */
+    public WavFileSink(String filePath, AudioFormat audioFormat, long numOfFrame) throws IOException {
+        this(new FileOutputStream(filePath), audioFormat, numOfFrame);
+    }
+
+    /** 
+     * 出力先のストリームにヘッダを書き込む。
+     * 
+     * @param outputStream 出力先のストリーム
+     * @param audioFormat 入力される音声のフォーマット
+     * @param numOfFrame 出力するフレーム数
+     * @throws IOException 書き込みに失敗した場合に発生する
+     */
+    public WavFileSink(OutputStream outputStream, AudioFormat audioFormat, long numOfFrame) throws IOException {
+        this.outputStream = new BufferedOutputStream(outputStream);
+        this.audioFormat = audioFormat;
+        this.outputStream.write(WavFileSink.createHeader(audioFormat, numOfFrame));
+    }
+
+    /** 
+     * wavファイルのヘッダを生成する。
+     * 
+     * @param audioFormat 音声のフォーマット
+     * @param numOfFrame フレーム数
+     * @return byte[] 44byteのヘッダ
+     */
+    public static byte[] createHeader(AudioFormat audioFormat, long numOfFrame) {
+        int channels = audioFormat.getChannels();
+        int sampleRate = (int) audioFormat.getSampleRate();
+        int bytesPerSample = audioFormat.getSampleSizeInBits() / 8;
+        int blockAlign = channels * bytesPerSample;
+        long dataSize = numOfFrame * blockAlign;
+
+        byte[] header = new byte[44];
+        WavFileSink.putAscii(header, 0, "RIFF");
+        WavFileSink.putLittleEndian(header, 4, 36 + dataSize, 4);
+        WavFileSink.putAscii(header, 8, "WAVE");
+        WavFileSink.putAscii(header, 12, "fmt ");
+        WavFileSink.putLittleEndian(header, 16, 16, 4);                      // fmtチャンクのサイズ
+        WavFileSink.putLittleEndian(header, 20, 1, 2);                       // リニアPCM
+        WavFileSink.putLittleEndian(header, 22, channels, 2);
+        WavFileSink.putLittleEndian(header, 24, sampleRate, 4);
+        WavFileSink.putLittleEndian(header, 28, (long) sampleRate * blockAlign, 4);
+        WavFileSink.putLittleEndian(header, 32, blockAlign, 2);
+        WavFileSink.putLittleEndian(header, 34, audioFormat.getSampleSizeInBits(), 2);
+        WavFileSink.putAscii(header, 36, "data");
+        WavFileSink.putLittleEndian(header, 40, dataSize, 4);
+
+        return header;
+    }
+
+    private static void putAscii(byte[] buffer, int offset, String value) {
+        for (int i=0; i<value.length(); i++) {
+            buffer[offset + i] = (byte) value.charAt(i);
+        }
+    }
+
+    private static void putLittleEndian(byte[] buffer, int offset, long value, int size) {
+        for (int i=0; i<size; i++) {
+            buffer[offset + i] = (byte) (value >> (8 * i));
+        }
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        if (this.convertBuffer.length < length) {
+            this.convertBuffer = new byte[length];
+        }
+
+        int bytesPerSample = this.audioFormat.getSampleSizeInBits() / 8;
+        if (bytesPerSample == 1) {
+            boolean signed = this.audioFormat.getEncoding() == AudioFormat.Encoding.PCM_SIGNED;
+            for (int i=0; i<length; i++) {
+                this.convertBuffer[i] = (byte) (signed ? buffer[offset + i] ^ 0x80 : buffer[offset + i]);
+            }
+        }
+        else if (this.audioFormat.isBigEndian()) {
+            for (int i=0; i<length; i+=bytesPerSample) {
+                for (int b=0; b<bytesPerSample; b++) {
+                    this.convertBuffer[i + b] = buffer[offset + i + bytesPerSample - 1 - b];
+                }
+            }
+        }
+        else {
+            System.arraycopy(buffer, offset, this.convertBuffer, 0, length);
+        }
+
+        this.outputStream.write(this.convertBuffer, 0, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.outputStream.close();
+    }
+}
@@ -0,0 +1,215 @@
+package MML2Audio;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import MML2Audio.Event.OutputFlushEvent;
+import MML2Audio.Output.AudioSink;
+import MML2Audio.Render.ActivityIndex;
+import MML2Audio.Render.MusicRenderer;
+import MML2Audio.Util.Metrics;
+
+/**
+ * 音声の描画とファイルへの書き込みを並行して行う。
+ *
+ * <p>
+ * 各処理は容量に上限のあるキューで接続され、前段の処理が進んだ分だけ後段の処理を開始する。
+ * <ul>
+ *  <li> 描画: 呼び出し元のスレッドで{@link #BLOCK_FRAMES}フレームごとに描画し、ブロックをキューへ渡す
+ *  <li> 書き込み: 別スレッドでブロックを{@link AudioSink}へ書き込む (チャンネルごとの音声を書き込む場合は各チャンネルの{@link AudioSink}へも書き込む)
+ * </ul>
+ *
+ * <p>
+ * ミキシングには全てのチャンネルが必要となるため、MMLの読み込みとは重ね合わせず、読み込み済みの曲データを描画する。
+ * 描画と書き込みは2つのバッファを交互に使うダブルバッファリングで重ね合わせ、
+ * 最初のブロックを描画し終えた時点でファイルへの書き込みが始まる。
+ */
+public class Pipeline {
+    /**
+     * 1ブロックあたりのフレーム数。
+     */
+    public static final int BLOCK_FRAMES = ActivityIndex.BLOCK_SIZE * 16;
+
+    /**
+     * 描画済みのブロック。
+     */
+    private static class Block {
+        /**
+         * 音声バッファ。先頭がミキシング結果、それ以降がチャンネルごとの音声となる。
+         */
+        private byte[][] buffers;
+        /**
+         * 各音声バッファ中の有効なバイト数。負の値は描画の終了を表す。
+         */
+        private int length;
+
+        private Block(byte[][] buffers, int length) {
+            this.buffers = buffers;
+            this.length = length;
+        }
+    }
+
+    /**
+     * 曲データの指定した区間を描画し、別スレッドで{@link AudioSink}へ書き込む。
+     *
+     * <p>
+     * 書き込みが終了した後、{@link AudioSink#close}を呼び出す。
+     * 書き込みに要した時間とバイト数を{@link Metrics}の{@literal write}に加算し、ブロックごとに{@link OutputFlushEvent}を発行する。
+     *
+     * @param music 曲データ
+     * @param startFrame 区間の開始フレーム
+     * @param endFrame 区間の終了フレーム (このフレームは含まない)
+     * @param sink 書き込み先
+     * @throws IOException 書き込みに失敗した場合に発生する
+     * @throws InterruptedException 待機中に割り込まれた場合に発生する
+     */
+    public static void render(Music music, long startFrame, long endFrame, AudioSink sink)
+        throws IOException, InterruptedException
+    {
+        Pipeline.render(music, startFrame, endFrame, sink, null);
+    }
+
+    /**
+     * 曲データの指定した区間を描画し、ミキシング結果とチャンネルごとの音声を別スレッドでそれぞれの{@link AudioSink}へ書き込む。
+     *
+     * <p>
+     * 各チャンネルは1度だけ描画し、その結果をチャンネルごとの書き込み先とミキシングの両方に使用する。
+     * 書き込みが終了した後、全ての書き込み先の{@link AudioSink#close}を呼び出す。
+     *
+     * @param music 曲データ
+     * @param startFrame 区間の開始フレーム
+     * @param endFrame 区間の終了フレーム (このフレームは含まない)
+     * @param sink ミキシング結果の書き込み先
+     * @param stemSinks チャンネルごとの書き込み先 (チャンネル番号順)。nullの場合はミキシング結果のみを書き込む
+     * @throws IOException 書き込みに失敗した場合に発生する
+     * @throws InterruptedException 待機中に割り込まれた場合に発生する
+     */
+    public static void render(Music music, long startFrame, long endFrame, AudioSink sink, AudioSink[] stemSinks)
+        throws IOException, InterruptedException
+    {
+        if (stemSinks != null && stemSinks.length != music.getNumberOfChannel()) {
+            throw new IllegalArgumentException("number of stem sinks must match number of channels");
+        }
+        AudioSink[] sinks = new AudioSink[stemSinks == null ? 1 : 1 + stemSinks.length];
+        sinks[0] = sink;
+        for (int s=1; s<sinks.length; s++) {
+            sinks[s] = stemSinks[s - 1];
+        }
+
+        int frameSize = music.getAudioFormat().getFrameSize();
+        int sampleSize = music.getAudioFormat().getSampleSizeInBits() / 8;
+        BlockingQueue<byte[][]> freeBuffers = new ArrayBlockingQueue<>(2);
+        BlockingQueue<Block> filledBlocks = new ArrayBlockingQueue<>(3);
+        for (int b=0; b<2; b++) {
+            freeBuffers.add(new byte[sinks.length][Pipeline.BLOCK_FRAMES * frameSize]);
+        }
+
+        ExecutorService writerExecutor = Executors.newSingleThreadExecutor();
+        Future<Void> writer = writerExecutor.submit(()->{
+            try {
+                while (true) {
+                    Block block = filledBlocks.take();
+                    if (block.length < 0) {
+                        break;
+                    }
+                    for (int s=0; s<sinks.length; s++) {
+                        OutputFlushEvent event = new OutputFlushEvent();
+                        event.begin();
+                        Metrics.Stage stage = Metrics.start("write");
+                        sinks[s].write(block.buffers[s], 0, block.length);
+                        stage.stop();
+                        Metrics.add("write.bytes", block.length);
+                        event.end();
+                        if (event.shouldCommit()) {
+                            event.sink = sinks[s].getClass().getSimpleName();
+                            event.bytes = block.length;
+                            event.sampleCount = block.length / sampleSize;
+                            event.commit();
+                        }
+                    }
+                    freeBuffers.put(block.buffers);
+                }
+            }
+            finally {
+                IOException closeException = null;
+                for (AudioSink closedSink: sinks) {
+                    try {
+                        closedSink.close();
+                    }
+                    catch (IOException e) {
+                        closeException = e;
+                    }
+                }
+                if (closeException != null) {
+                    throw closeException;
+                }
+            }
+            return null;
+        });
+
+        try {
+            MusicRenderer renderer = new MusicRenderer(music, startFrame);
+            for (long frame=startFrame; frame<endFrame; frame+=Pipeline.BLOCK_FRAMES) {
+                int numOfFrame = (int) Math.min(Pipeline.BLOCK_FRAMES, endFrame - frame);
+                byte[][] buffers = Pipeline.takeFreeBuffer(freeBuffers, writer);
+                // バッファは再利用されるため、描画前に0で埋める
+                for (byte[] buffer: buffers) {
+                    Arrays.fill(buffer, 0, numOfFrame * frameSize, (byte)0);
+                }
+                if (stemSinks == null) {
+                    renderer.render(buffers[0], 0, numOfFrame);
+                }
+                else {
+                    renderer.render(buffers[0], Arrays.copyOfRange(buffers, 1, buffers.length), 0, numOfFrame);
+                }
+                filledBlocks.put(new Block(buffers, numOfFrame * frameSize));
+            }
+            filledBlocks.put(new Block(null, -1));
+            writer.get();
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        finally {
+            writerExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 書き込みスレッドから空いたバッファを受け取る。
+     *
+     * <p>
+     * 書き込みスレッドが異常終了した場合はその例外を送出する。
+     *
+     * @param freeBuffers 空いたバッファのキュー
+     * @param writer 書き込みスレッド
+     * @return byte[][] 空いたバッファ
+     * @throws ExecutionException 書き込みスレッドが異常終了した場合に発生する
+     * @throws IOException 書き込みスレッドが途中で終了した場合に発生する
+     * @throws InterruptedException 待機中に割り込まれた場合に発生する
+     */
+    private static byte[][] takeFreeBuffer(BlockingQueue<byte[][]> freeBuffers, Future<Void> writer)
+        throws ExecutionException, IOException, InterruptedException
+    {
+        while (true) {
+            byte[][] buffer = freeBuffers.poll(100, TimeUnit.MILLISECONDS);
+            if (buffer != null) {
+                return buffer;
+            }
+            if (writer.isDone()) {
+                writer.get();
+                throw new IOException("writer stopped unexpectedly");
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package MML2Audio.Render;
+
+import java.util.BitSet;
+
+/**
+ * チャンネルごとの発音区間をブロック単位で記録する。
+ *
+ * <p>
+ * 音声バッファを{@link #BLOCK_SIZE}フレームごとのブロックに区切り、各チャンネルがそのブロック内で発音するかどうかを保持する。
+ * 休符や音量0のノートしか含まないブロックは非アクティブとなる。
+ * ミキシング時には非アクティブなチャンネルをブロック単位で読み飛ばす。
+ */
+public class ActivityIndex {
+    /**
+     * 1ブロックあたりのフレーム数。
+     */
+    public static final int BLOCK_SIZE = 1024;
+
+    /**
+     * チャンネルごとにアクティブなブロックの番号を保持する。
+     */
+    private BitSet[] activeBlockSets;
+
+    /**
+     * 全てのブロックが非アクティブな状態で初期化する。
+     *
+     * @param numOfChannel チャンネル数
+     */
+    public ActivityIndex(int numOfChannel) {
+        this.activeBlockSets = new BitSet[numOfChannel];
+        for (int c=0; c<numOfChannel; c++) {
+            this.activeBlockSets[c] = new BitSet();
+        }
+    }
+
+    /**
+     * 指定したフレーム区間を含むブロックをアクティブにする。
+     *
+     * @param channelIndex チャンネル番号
+     * @param startFrame 発音開始フレーム
+     * @param endFrame 発音終了フレーム (このフレームは含まない)
+     */
+    public void markActive(int channelIndex, long startFrame, long endFrame) {
+        if (endFrame <= startFrame) {
+            return;
+        }
+        int startBlock = (int) (startFrame / BLOCK_SIZE);
+        int endBlock = (int) ((endFrame - 1) / BLOCK_SIZE);
+        this.activeBlockSets[channelIndex].set(startBlock, endBlock + 1);
+    }
+
+    /**
+     * チャンネルが指定したブロック内で発音するかを取得する。
+     *
+     * @param channelIndex チャンネル番号
+     * @param blockIndex ブロック番号
+     * @return boolean 発音する場合true
+     */
+    public boolean isActive(int channelIndex, int blockIndex) {
+        return this.activeBlockSets[channelIndex].get(blockIndex);
+    }
+
+    /**
+     * 指定したブロック内で発音するチャンネルが1つも無いかを取得する。
+     *
+     * @param blockIndex ブロック番号
+     * @return boolean 全てのチャンネルが非アクティブの場合true
+     */
+    public boolean isSilent(int blockIndex) {
+        for (BitSet activeBlockSet: this.activeBlockSets) {
+            if (activeBlockSet.get(blockIndex)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
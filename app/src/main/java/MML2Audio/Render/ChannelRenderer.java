@@ -0,0 +1,437 @@
+package MML2Audio.Render;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+
+import MML2Audio.Music;
+import MML2Audio.WaveGenerator;
+import MML2Audio.Event.ChannelRenderEvent;
+import MML2Audio.Exception.InvalidGeneratorId;
+import MML2Audio.Note.Envelope;
+import MML2Audio.Note.Note;
+import MML2Audio.Util.Metrics;
+
+/**
+ * 1つの{@link MML2Audio.Channel.Channel}を音声バッファへ書き込む。
+ *
+ * <p>
+ * 演奏中のノートと、そのノート内での位置を保持する。
+ * 音声バッファをブロックごとに処理する為、呼び出しを跨いで演奏位置を引き継ぐ。
+ * ノートの位置と長さは{@link Timeline}に従い、{@link #seek}によって任意の位置から演奏を開始できる。
+ * 音量0のノート(休符を含む)は無音区間として扱い、波形の計算も音声バッファへの書き込みも行わない。
+ *
+ * <p>
+ * 和音の構成音は{@link #VOICE_POOL_SIZE}個の発音枠(ボイス)に割り当て、1回の走査で全ての構成音を加算する。
+ * 発音枠は生成時に確保し、ノートの読み込み時には割り当て直すのみで新たな領域を確保しない。
+ * 構成音が発音枠の数を超えた場合は、最も古く割り当てた発音枠を後の構成音に譲る(ボイススチール)。
+ * 譲った構成音の数は{@link Metrics}の{@literal render.voices.stolen}へ加算する。
+ *
+ * <p>
+ * 繰り返し区間は1回分をまとめて描画して{@link SegmentCache}に登録し、
+ * 同じ状態から始まる2回目以降の繰り返しでは描画済みの音声を複製する。
+ *
+ * <p>
+ * 波形の値はノートの読み込み時に音色ごとに選択した{@link Oscillator}で、{@link Oscillator#CHUNK_FRAMES}フレームずつまとめて計算する。
+ *
+ * <p>
+ * 波形の計算に要した時間とフレーム数(和音では発音枠の数を乗じる)を、waveGeneratorIdごとに{@link Metrics}の
+ * {@literal render.<waveGeneratorId>.nanos}と{@literal render.<waveGeneratorId>.frames}へ加算する。
+ * また、{@link #render}の呼び出し1回につき{@link ChannelRenderEvent}を発行する。
+ */
+public class ChannelRenderer {
+    /**
+     * 1チャンネルで同時に発音できる音の数。
+     */
+    public static final int VOICE_POOL_SIZE = 8;
+
+    /**
+     * 描画対象のチャンネルに含まれるノートのリスト。
+     */
+    private List<Note> noteList;
+    /**
+     * 曲データ。音量の計算に使用する。
+     */
+    private Music music;
+    /**
+     * ノートの位置を保持するタイムライン。
+     */
+    private Timeline timeline;
+    /**
+     * 描画対象のチャンネル番号。
+     */
+    private int channelIndex;
+    /**
+     * 出力音声のサンプリングレート。
+     */
+    private double sampleRate;
+    /**
+     * 音声バッファにおける1サンプルのバイト数。
+     */
+    private int bytesPerSample;
+    /**
+     * 演奏中のノートを指すカーソル。
+     */
+    private Timeline.Cursor cursor;
+    /**
+     * 描画済みの繰り返し区間。nullの場合は繰り返し区間を再利用しない。
+     */
+    private SegmentCache segmentCache;
+    /**
+     * 演奏中のノート。
+     */
+    private Note note = null;
+    /**
+     * 演奏中のノートの波形の計算方法。音量0のノートや未定義のwaveGeneratorIdの場合はnull。
+     */
+    private Oscillator oscillator = null;
+    /**
+     * {@link #oscillator}のwaveGeneratorId。
+     */
+    private String generatorId = null;
+    /**
+     * 演奏中のノートの音色の波形計算時間のカウンタ [ns]。
+     */
+    private LongAdder generatorNanos = null;
+    /**
+     * 演奏中のノートの音色の波形計算フレーム数のカウンタ。
+     */
+    private LongAdder generatorFrames = null;
+    /**
+     * これまでに演奏を開始したノート数。{@link ChannelRenderEvent}に使用する。
+     */
+    private int loadedNoteCount = 0;
+    /**
+     * 最後に演奏を開始したノートの開始フレームと終了フレーム。同じノートを読み込み直した場合は{@link #loadedNoteCount}に数えない。
+     */
+    private long loadedNoteStart = -1, loadedNoteEnd = -1;
+    /**
+     * 発音枠ごとの周波数。
+     */
+    private final double[] voiceFreqs = new double[ChannelRenderer.VOICE_POOL_SIZE];
+    /**
+     * 全ての発音枠の波形の値の和を、{@link Oscillator#CHUNK_FRAMES}フレーム分保持する作業領域。
+     */
+    private final double[] waveValues = new double[Oscillator.CHUNK_FRAMES];
+    /**
+     * 使用中の発音枠の数。
+     */
+    private int voiceCount = 0;
+    /**
+     * 演奏中のノートのエンベロープの倍率の表。
+     */
+    private Envelope.GainTable gainTable = null;
+    /**
+     * 演奏中のノートの発音枠1つあたりの振幅。
+     */
+    private double amp = 0;
+    /**
+     * 演奏中のノートの残りフレーム数。
+     */
+    private int count = 0;
+    /**
+     * 演奏中のノートの先頭からのフレーム数。波の位相となる。
+     */
+    private int phase = 0;
+    /**
+     * 演奏位置 [frame]。
+     */
+    private long position = 0;
+    /**
+     * 複製中の描画済み繰り返し区間。複製中でない場合はnull。
+     */
+    private byte[] activeSegment = null;
+    /**
+     * 複製中の繰り返し区間の開始フレーム。
+     */
+    private long activeSegmentStart = 0;
+    /**
+     * 複製中の繰り返し区間の終了フレーム。
+     */
+    private long activeSegmentEnd = 0;
+    /**
+     * 複製の対象となる繰り返し区間が無かった場合に、次に探すフレーム。最も内側の繰り返し区間1回分の終了フレームとなる。
+     */
+    private long segmentRetryFrame = 0;
+
+    /**
+     * 描画対象のチャンネルを設定し、演奏位置を先頭に初期化する。
+     *
+     * @param music 曲データ
+     * @param timeline 曲データから構築したタイムライン
+     * @param channelIndex 描画対象のチャンネル番号
+     */
+    public ChannelRenderer(Music music, Timeline timeline, int channelIndex) {
+        this(music, timeline, channelIndex, new SegmentCache());
+    }
+
+    /**
+     * 描画対象のチャンネルと、繰り返し区間の再利用に使う{@link SegmentCache}を設定する。
+     *
+     * @param music 曲データ
+     * @param timeline 曲データから構築したタイムライン
+     * @param channelIndex 描画対象のチャンネル番号
+     * @param segmentCache 描画済みの繰り返し区間。nullの場合は再利用しない
+     */
+    public ChannelRenderer(Music music, Timeline timeline, int channelIndex, SegmentCache segmentCache) {
+        this.music = music;
+        this.timeline = timeline;
+        this.channelIndex = channelIndex;
+        this.sampleRate = music.getSampleRate();
+        this.bytesPerSample = music.getAudioFormat().getSampleSizeInBits() / 8;
+        this.segmentCache = segmentCache;
+        this.noteList = music.getChannelList().get(channelIndex).getNoteList();
+        this.seek(0);
+    }
+
+    /**
+     * カーソルが指すノートを演奏位置に読み込む。
+     */
+    private void loadNote() {
+        this.note = this.noteList.get(this.cursor.getNoteIndex());
+        if (this.cursor.getStartFrame() != this.loadedNoteStart || this.cursor.getEndFrame() != this.loadedNoteEnd) {
+            this.loadedNoteCount++;
+            this.loadedNoteStart = this.cursor.getStartFrame();
+            this.loadedNoteEnd = this.cursor.getEndFrame();
+        }
+        this.phase = (int) (this.position - this.cursor.getStartFrame());
+        this.count = (int) (this.cursor.getEndFrame() - this.position);
+        this.oscillator = null;
+        this.gainTable = this.note.getEnvelope().getGainTable(this.sampleRate);
+        this.amp = this.music.getMaxVolumeValue() * 0.5 * (this.note.getVolume() / (double)Note.MAX_VOLUME);
+        this.amp /= (double) this.music.getNumberOfChannel();
+
+        // 構成音を発音枠に割り当てる。溢れた場合は古い発音枠から順に上書きする
+        int numOfTone = this.note.getNumberOfTones();
+        for (int t=0; t<numOfTone; t++) {
+            this.voiceFreqs[t % ChannelRenderer.VOICE_POOL_SIZE] = this.note.getFreq(t);
+        }
+        this.voiceCount = Math.min(numOfTone, ChannelRenderer.VOICE_POOL_SIZE);
+        // 和音全体でチャンネルの振幅に収める
+        this.amp /= this.voiceCount;
+
+        if (this.count > 0 && this.amp != 0) {
+            if (numOfTone > ChannelRenderer.VOICE_POOL_SIZE && this.phase == 0) {
+                Metrics.add("render.voices.stolen", numOfTone - ChannelRenderer.VOICE_POOL_SIZE);
+            }
+            try {
+                BiFunction<Double, Double, Double> generator = this.music.isDraft()
+                    ? WaveGenerator.getDraftWaveGenerator(this.note.getWaveGeneratorId())
+                    : WaveGenerator.getWaveGenerator(this.note.getWaveGeneratorId());
+                this.oscillator = Oscillator.of(this.note.getWaveGeneratorId(), this.music.isDraft(), generator);
+                // 音色が変わった場合のみカウンタを検索し直す
+                if (!this.note.getWaveGeneratorId().equals(this.generatorId)) {
+                    this.generatorId = this.note.getWaveGeneratorId();
+                    this.generatorNanos = Metrics.counter("render." + this.generatorId + ".nanos");
+                    this.generatorFrames = Metrics.counter("render." + this.generatorId + ".frames");
+                }
+            }
+            catch (InvalidGeneratorId e) {
+                System.err.println("Invalid waveGeneratorId");
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 演奏位置を指定したフレームに移す。
+     *
+     * <p>
+     * 演奏中のノートは{@link Timeline}から二分探索で求める。
+     *
+     * @param frame 移動先のフレーム
+     */
+    public void seek(long frame) {
+        this.position = frame;
+        this.activeSegment = null;
+        this.segmentRetryFrame = 0;
+        this.cursor = this.timeline.createCursor(this.channelIndex, frame);
+        this.count = 0;
+        if (!this.cursor.isFinished()) {
+            this.loadNote();
+        }
+    }
+
+    /**
+     * 演奏位置を含む繰り返し区間1回分を複製の対象にする。
+     *
+     * <p>
+     * 同じ状態から始まる描画済みの区間が無ければ、区間1回分を描画して{@link #segmentCache}に登録する。
+     * 登録できない場合は、より内側の繰り返し区間を対象にする。
+     * 区間内でテンポが変わる場合は、より内側の繰り返し区間を対象にする。
+     *
+     * @return boolean 対象となる繰り返し区間が無い場合false
+     */
+    private boolean enterSegment() {
+        int outermostDepth = this.cursor.findOutermostLoopDepth((long) (this.sampleRate * SegmentCache.MAX_SEGMENT_LENGTH));
+        if (outermostDepth == 0) {
+            return false;
+        }
+
+        TempoMap tempoMap = this.timeline.getTempoMap();
+        for (int depth=outermostDepth; depth<=this.cursor.getDepth(); depth++) {
+            int loopId = this.cursor.getLoopId(depth);
+            long startTick = this.cursor.getIterationStartTick(depth);
+            long endTick = this.cursor.getIterationEndTick(depth);
+            long framePhase = tempoMap.getFramePhase(startTick, endTick);
+            if (framePhase < 0) {
+                continue;
+            }
+            long startFrame = this.timeline.tickToFrame(startTick);
+            long endFrame = this.timeline.tickToFrame(endTick);
+            int bpm = tempoMap.getBpm(startTick);
+
+            byte[] segment = this.segmentCache.get(loopId, bpm, framePhase);
+            if (segment == null) {
+                // 端数の種類が多い区間は再利用される見込みが低いため、描画しておかない
+                if (!this.segmentCache.canPut(loopId)) {
+                    continue;
+                }
+                int numOfFrame = (int) (endFrame - startFrame);
+                segment = new byte[numOfFrame * this.bytesPerSample];
+                ChannelRenderer renderer = new ChannelRenderer(this.music, this.timeline, this.channelIndex, null);
+                renderer.seek(startFrame);
+                renderer.render(segment, 0, numOfFrame);
+                this.segmentCache.put(loopId, bpm, framePhase, segment);
+            }
+
+            this.activeSegment = segment;
+            this.activeSegmentStart = startFrame;
+            this.activeSegmentEnd = endFrame;
+            return true;
+        }
+        // 最も内側の繰り返し区間1回分が終わるまでは、同じ区間を探し直さない
+        this.segmentRetryFrame = this.timeline.tickToFrame(this.cursor.getIterationEndTick(this.cursor.getDepth()));
+        return false;
+    }
+
+    /**
+     * 演奏位置から指定したフレーム数を音声バッファに加算する。
+     *
+     * @param audioBuffer 書き込み先の音声バッファ ({@link Music#getAudioFormat()}の形式)
+     * @param offset 書き込みを開始するフレーム
+     * @param length 書き込むフレーム数
+     */
+    public void render(byte[] audioBuffer, int offset, int length) {
+        ChannelRenderEvent event = new ChannelRenderEvent();
+        event.begin();
+        long startFrame = this.position;
+        int startNoteCount = this.loadedNoteCount;
+        int synthesizedCount = 0;
+        String generatorId = null;
+
+        int i = offset;
+        int end = offset + length;
+        while (i < end) {
+            // 描画済みの繰り返し区間を複製する
+            if (this.activeSegment != null) {
+                int segmentLength = (int) Math.min(this.activeSegmentEnd - this.position, end - i);
+                int src = (int) (this.position - this.activeSegmentStart);
+                Pcm.addBuffer(audioBuffer, i, this.activeSegment, src, segmentLength, this.bytesPerSample);
+                i += segmentLength;
+                this.position += segmentLength;
+                if (this.position >= this.activeSegmentEnd) {
+                    this.seek(this.position);
+                }
+                continue;
+            }
+
+            if (this.cursor.isFinished()) {
+                this.position += end - i;
+                break;
+            }
+            if (this.count <= 0) {
+                if (this.cursor.next()) {
+                    this.loadNote();
+                }
+                continue;
+            }
+            if (this.segmentCache != null && this.position >= this.segmentRetryFrame && this.enterSegment()) {
+                continue;
+            }
+
+            int segmentLength = Math.min(this.count, end - i);
+            if (this.oscillator != null) {
+                long startNanos = System.nanoTime();
+                double[] head = this.gainTable.head;
+                double[] tail = this.gainTable.tail;
+                int headLength = this.gainTable.headLength;
+                int tailLength = this.gainTable.tailLength;
+                double[] values = this.waveValues;
+                for (int chunk=0; chunk<segmentLength; chunk+=Oscillator.CHUNK_FRAMES) {
+                    int chunkLength = Math.min(Oscillator.CHUNK_FRAMES, segmentLength - chunk);
+                    this.oscillator.fill(values, chunkLength, this.phase + chunk, this.sampleRate, this.voiceFreqs, this.voiceCount);
+                    for (int j=0; j<chunkLength; j++) {
+                        int phase = this.phase + chunk + j;
+                        int count = this.count - chunk - j;
+                        // エンベロープの表から音量の倍率を求める (表の範囲外は最後の要素の値となる)
+                        double amp = this.amp * head[Math.min(phase, headLength)] * tail[Math.min(count, tailLength)];
+                        Pcm.addSample(audioBuffer, i + chunk + j, this.bytesPerSample, (int) (values[j] * amp));
+                    }
+                }
+                this.generatorNanos.add(System.nanoTime() - startNanos);
+                this.generatorFrames.add((long) segmentLength * this.voiceCount);
+                synthesizedCount += segmentLength;
+                generatorId = this.generatorId;
+            }
+
+            i += segmentLength;
+            this.position += segmentLength;
+            this.count -= segmentLength;
+            this.phase += segmentLength;
+        }
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.channelIndex = this.channelIndex;
+            event.startFrame = startFrame;
+            event.frameCount = length;
+            event.synthesizedCount = synthesizedCount;
+            event.noteCount = this.loadedNoteCount - startNoteCount;
+            event.generatorId = generatorId;
+            event.commit();
+        }
+    }
+
+    /**
+     * 音声バッファに書き込まずに演奏位置を進める。
+     *
+     * <p>
+     * 演奏中のノートや繰り返し区間の中で収まる場合は位置のみを進め、ノートを読み込み直さない。
+     *
+     * @param length 進めるフレーム数
+     */
+    public void skip(int length) {
+        if (this.activeSegment != null) {
+            if (this.position + length < this.activeSegmentEnd) {
+                this.position += length;
+                return;
+            }
+        }
+        else if (this.cursor.isFinished() || length <= this.count) {
+            this.position += length;
+            this.count -= length;
+            this.phase += length;
+            return;
+        }
+        this.seek(this.position + length);
+    }
+
+    /**
+     * 全てのノートを演奏し終えたかを取得する。
+     *
+     * @return boolean 演奏し終えた場合true
+     */
+    public boolean isFinished() {
+        return this.position >= this.timeline.getChannelEndFrame(this.channelIndex);
+    }
+
+    /**
+     * 繰り返し区間の再利用に使う{@link SegmentCache}を取得する。
+     *
+     * @return SegmentCache 再利用しない場合はnull
+     */
+    public SegmentCache getSegmentCache() {
+        return this.segmentCache;
+    }
+}
@@ -0,0 +1,292 @@
+package MML2Audio.Render;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import MML2Audio.Music;
+import MML2Audio.Effect.ConvolutionReverb;
+import MML2Audio.Effect.Reverb;
+import MML2Audio.Util.Metrics;
+
+/**
+ * 曲全体を音声バッファへ書き込む。
+ *
+ * <p>
+ * 全てのチャンネルの{@link ChannelRenderer}をまとめ、演奏位置を共有して先頭から順にミキシングする。
+ * 呼び出しを跨いで演奏位置を引き継ぐため、曲を任意の大きさのブロックに分けて描画することができる。
+ * 処理は{@link ActivityIndex#BLOCK_SIZE}フレームごとのブロック単位で行い、
+ * ブロック内で発音しないチャンネルは波形の計算を行わずに演奏位置だけを進める。
+ *
+ * <p>
+ * ミキシングに要した時間(波形の計算を含む)とフレーム数を{@link Metrics}の{@literal mix}に加算する。
+ *
+ * <p>
+ * チャンネルごとの音声(ステム)を同時に出力することもできる。
+ * その場合、各チャンネルはステムの音声バッファにのみ描画し、描画したステムをミキシング先に加算する。
+ * 波形の計算はチャンネルごとに1度だけ行われ、ステムの総和はミキシング結果と一致する。
+ *
+ * <p>
+ * リバーブを付加したチャンネルは作業用の音声バッファに描画し、残響音を加えてからミキシングする。
+ * ミキシング結果へのリバーブはブロックごとのミキシングの後に適用する。
+ * 残響音は発音の無いブロックにも続くため、残響音が0になるまでは発音の無いブロックでもリバーブを処理する。
+ * 曲の途中から描画する場合は、残響音の長さだけ前から描画して結果を捨てることで、先頭から描画した場合と同じ残響音を得る。
+ */
+public class MusicRenderer {
+    /**
+     * 各チャンネルの発音区間。
+     */
+    private ActivityIndex activityIndex;
+    /**
+     * チャンネルごとの描画処理。
+     */
+    private ChannelRenderer[] renderers;
+    /**
+     * 音声バッファにおける1サンプルのバイト数。
+     */
+    private int bytesPerSample;
+    /**
+     * 演奏位置 [frame]。
+     */
+    private long position;
+    /**
+     * チャンネルごとのリバーブ。付加しないチャンネルはnull。
+     */
+    private ConvolutionReverb[] channelReverbs;
+    /**
+     * ミキシング結果のリバーブ。付加しない場合はnull。
+     */
+    private ConvolutionReverb masterReverb;
+    /**
+     * リバーブを付加するチャンネルの作業用の音声バッファ。
+     */
+    private byte[] effectBuffer;
+    /**
+     * リバーブで処理するサンプル。
+     */
+    private double[] effectSamples;
+    /**
+     * 1サンプルの最小値と最大値。
+     */
+    private int minSampleValue, maxSampleValue;
+
+    /**
+     * 曲データと演奏の開始位置を設定する。
+     *
+     * @param music 曲データ
+     * @param startFrame 演奏を開始するフレーム
+     */
+    public MusicRenderer(Music music, long startFrame) {
+        this.activityIndex = music.getActivityIndex();
+        this.renderers = new ChannelRenderer[music.getNumberOfChannel()];
+        for (int c=0; c<this.renderers.length; c++) {
+            this.renderers[c] = new ChannelRenderer(music, music.getTimeline(), c);
+            this.renderers[c].seek(startFrame);
+        }
+        this.position = startFrame;
+        this.bytesPerSample = music.getAudioFormat().getSampleSizeInBits() / 8;
+        this.maxSampleValue = (1 << (music.getAudioFormat().getSampleSizeInBits() - 1)) - 1;
+        this.minSampleValue = -this.maxSampleValue - 1;
+
+        long tailLength = 0;
+        this.channelReverbs = new ConvolutionReverb[this.renderers.length];
+        for (int c=0; c<this.renderers.length; c++) {
+            this.channelReverbs[c] = MusicRenderer.createReverb(music.getChannelList().get(c).getReverb(), music);
+            if (this.channelReverbs[c] != null) {
+                tailLength = Math.max(tailLength, this.channelReverbs[c].getTailLength());
+            }
+        }
+        this.masterReverb = MusicRenderer.createReverb(music.getReverb(), music);
+        if (this.masterReverb != null) {
+            // チャンネルの残響音はミキシング結果のリバーブにも入力される
+            tailLength += this.masterReverb.getTailLength();
+        }
+        if (tailLength == 0) {
+            return;
+        }
+        this.effectBuffer = new byte[ActivityIndex.BLOCK_SIZE * this.bytesPerSample];
+        this.effectSamples = new double[ActivityIndex.BLOCK_SIZE];
+
+        // 開始位置より前の残響音を得るため、残響音の長さだけ前から描画して捨てる
+        long warmupFrame = Math.max(startFrame - tailLength, 0);
+        if (warmupFrame < startFrame) {
+            for (ChannelRenderer renderer: this.renderers) {
+                renderer.seek(warmupFrame);
+            }
+            this.position = warmupFrame;
+            byte[] discarded = new byte[ActivityIndex.BLOCK_SIZE * this.bytesPerSample];
+            while (this.position < startFrame) {
+                int length = (int) Math.min(ActivityIndex.BLOCK_SIZE, startFrame - this.position);
+                Arrays.fill(discarded, (byte) 0);
+                this.render(discarded, 0, length);
+            }
+        }
+    }
+
+    /**
+     * リバーブの設定から描画用のリバーブを生成する。
+     *
+     * @param reverb リバーブの設定 (null可)
+     * @param music 曲データ
+     * @return ConvolutionReverb 描画用のリバーブ。設定がnullの場合や読み込みに失敗した場合はnull
+     */
+    private static ConvolutionReverb createReverb(Reverb reverb, Music music) {
+        if (reverb == null) {
+            return null;
+        }
+        try {
+            return reverb.createProcessor(music.getSampleRate());
+        }
+        catch (IOException e) {
+            System.err.println("Invalid impulse response is ignored: " + reverb.getImpulsePath());
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * 演奏位置から指定したフレーム数をミキシングし、音声バッファに加算する。
+     *
+     * <p>
+     * 音声バッファの書き込み範囲は予め0で埋めておく必要がある。
+     *
+     * @param audioBuffer 書き込み先の音声バッファ
+     * @param offset 書き込みを開始するフレーム
+     * @param length 書き込むフレーム数
+     */
+    public void render(byte[] audioBuffer, int offset, int length) {
+        this.render(audioBuffer, null, offset, length);
+    }
+
+    /**
+     * 演奏位置から指定したフレーム数をミキシングし、チャンネルごとの音声と合わせて音声バッファに加算する。
+     *
+     * <p>
+     * 全ての音声バッファの書き込み範囲は予め0で埋めておく必要がある。
+     * ステムの音量はミキシング時と同じく、チャンネル数で割った値となる。
+     *
+     * @param audioBuffer ミキシング結果の書き込み先の音声バッファ
+     * @param stemBuffers チャンネルごとの書き込み先の音声バッファ。nullの場合はミキシングのみを行う
+     * @param offset 書き込みを開始するフレーム (全ての音声バッファで共通)
+     * @param length 書き込むフレーム数
+     */
+    public void render(byte[] audioBuffer, byte[][] stemBuffers, int offset, int length) {
+        Metrics.Stage stage = Metrics.start("mix");
+        int end = offset + length;
+        while (offset < end) {
+            int blockIndex = (int) (this.position / ActivityIndex.BLOCK_SIZE);
+            // ブロックの境界に揃えて処理する
+            int blockLength = (int) Math.min(
+                ActivityIndex.BLOCK_SIZE - this.position % ActivityIndex.BLOCK_SIZE,
+                end - offset);
+            for (int c=0; c<this.renderers.length; c++) {
+                if (this.channelReverbs[c] != null) {
+                    this.renderWithReverb(c, blockIndex, audioBuffer, stemBuffers, offset, blockLength);
+                    continue;
+                }
+                if (this.renderers[c].isFinished()) {
+                    continue;
+                }
+                if (this.activityIndex.isActive(c, blockIndex)) {
+                    if (stemBuffers == null) {
+                        this.renderers[c].render(audioBuffer, offset, blockLength);
+                    }
+                    else {
+                        byte[] stemBuffer = stemBuffers[c];
+                        this.renderers[c].render(stemBuffer, offset, blockLength);
+                        Pcm.addBuffer(audioBuffer, offset, stemBuffer, offset, blockLength, this.bytesPerSample);
+                    }
+                }
+                else {
+                    this.renderers[c].skip(blockLength);
+                }
+            }
+            if (this.masterReverb != null) {
+                this.applyMasterReverb(audioBuffer, offset, blockLength);
+            }
+            offset += blockLength;
+            this.position += blockLength;
+        }
+        stage.stop();
+        Metrics.add("mix.frames", length);
+    }
+
+    /**
+     * リバーブを付加するチャンネルの1ブロックを描画し、残響音と合わせて音声バッファに加算する。
+     *
+     * @param c チャンネル番号
+     * @param blockIndex 演奏位置のブロック番号
+     * @param audioBuffer ミキシング結果の書き込み先の音声バッファ
+     * @param stemBuffers チャンネルごとの書き込み先の音声バッファ (null可)
+     * @param offset 書き込みを開始するフレーム
+     * @param length 書き込むフレーム数 (1ブロック以下)
+     */
+    private void renderWithReverb(int c, int blockIndex, byte[] audioBuffer, byte[][] stemBuffers, int offset, int length) {
+        ChannelRenderer renderer = this.renderers[c];
+        ConvolutionReverb reverb = this.channelReverbs[c];
+        boolean active = !renderer.isFinished() && this.activityIndex.isActive(c, blockIndex);
+        if (!active && reverb.isIdle()) {
+            if (!renderer.isFinished()) {
+                renderer.skip(length);
+            }
+            return;
+        }
+
+        Arrays.fill(this.effectBuffer, 0, length * this.bytesPerSample, (byte) 0);
+        if (active) {
+            renderer.render(this.effectBuffer, 0, length);
+        }
+        else if (!renderer.isFinished()) {
+            renderer.skip(length);
+        }
+        for (int i=0; i<length; i++) {
+            this.effectSamples[i] = Pcm.getSample(this.effectBuffer, i, this.bytesPerSample);
+        }
+        reverb.process(this.effectSamples, 0, length);
+
+        byte[] target = stemBuffers == null ? audioBuffer : stemBuffers[c];
+        for (int i=0; i<length; i++) {
+            Pcm.addSample(target, offset + i, this.bytesPerSample, this.toSampleValue(this.effectSamples[i]));
+        }
+        if (stemBuffers != null) {
+            Pcm.addBuffer(audioBuffer, offset, target, offset, length, this.bytesPerSample);
+        }
+    }
+
+    /**
+     * ミキシング済みの1ブロックにリバーブを適用する。
+     *
+     * @param audioBuffer ミキシング結果の音声バッファ
+     * @param offset 適用を開始するフレーム
+     * @param length 適用するフレーム数 (1ブロック以下)
+     */
+    private void applyMasterReverb(byte[] audioBuffer, int offset, int length) {
+        boolean silent = true;
+        for (int i=0; i<length; i++) {
+            this.effectSamples[i] = Pcm.getSample(audioBuffer, offset + i, this.bytesPerSample);
+            silent &= this.effectSamples[i] == 0;
+        }
+        if (silent && this.masterReverb.isIdle()) {
+            return;
+        }
+        this.masterReverb.process(this.effectSamples, 0, length);
+        for (int i=0; i<length; i++) {
+            Pcm.setSample(audioBuffer, offset + i, this.bytesPerSample, this.toSampleValue(this.effectSamples[i]));
+        }
+    }
+
+    /**
+     * リバーブの出力をサンプルの範囲に収まる整数値に変換する。
+     */
+    private int toSampleValue(double value) {
+        return (int) Math.max(this.minSampleValue, Math.min(this.maxSampleValue, Math.round(value)));
+    }
+
+    /**
+     * 演奏位置を取得する。
+     *
+     * @return long 演奏位置 [frame]
+     */
+    public long getPosition() {
+        return this.position;
+    }
+}
@@ -0,0 +1,180 @@
+package MML2Audio.Render;
+
+import java.util.Arrays;
+import java.util.function.BiFunction;
+
+import MML2Audio.WaveGenerator;
+
+/**
+ * 発音枠ごとの波形の値を、フレームの範囲についてまとめて計算する。
+ *
+ * <p>
+ * 音色ごとに専用の派生クラスを持ち、ノートの読み込み時に{@link #of}で1度だけ選択する。
+ * 各派生クラスのループは特定の音声波生成関数のみを静的に呼び出すため、
+ * 音色の混在する曲でも1サンプルごとの関数オブジェクトの呼び出しやボックス化が発生しない。
+ * 計算式は{@link WaveGenerator}と同一であり、出力は音声波生成関数を直接呼び出した場合と一致する。
+ * 専用の派生クラスを持たない音色(WAVファイルの再生を含む)は、音声波生成関数をそのまま呼び出す。
+ */
+abstract class Oscillator {
+    /**
+     * 1度に計算するフレーム数の上限。
+     */
+    static final int CHUNK_FRAMES = 1024;
+
+    /**
+     * 状態を持たない派生クラスは、全てのノートで同じインスタンスを共有する。
+     */
+    private static final Oscillator SIN = new Sin();
+    private static final Oscillator SQUARE = new Square();
+    private static final Oscillator SAWTOOTH = new Sawtooth();
+    private static final Oscillator NOISE = new Noise();
+    private static final Oscillator DRAFT_SIN = new DraftSin();
+    private static final Oscillator DRAFT_NOISE = new DraftNoise();
+
+    /**
+     * 指定した範囲の各フレームについて、全ての発音枠の波形の値の和を求める。
+     *
+     * @param values 書き込み先 (先頭から{@code length}要素を上書きする)
+     * @param length フレーム数 ({@link #CHUNK_FRAMES}以下)
+     * @param phase 先頭のフレームのノート内での位置
+     * @param sampleRate サンプリングレート
+     * @param voiceFreqs 発音枠ごとの周波数
+     * @param voiceCount 使用中の発音枠の数
+     */
+    final void fill(double[] values, int length, int phase, double sampleRate, double[] voiceFreqs, int voiceCount) {
+        Arrays.fill(values, 0, length, 0);
+        for (int v=0; v<voiceCount; v++) {
+            this.add(values, length, phase, sampleRate, voiceFreqs[v]);
+        }
+    }
+
+    /**
+     * 1つの発音枠の波形の値を加算する。
+     *
+     * @param values 加算先
+     * @param length フレーム数
+     * @param phase 先頭のフレームのノート内での位置
+     * @param sampleRate サンプリングレート
+     * @param freq 周波数 [Hz]
+     */
+    abstract void add(double[] values, int length, int phase, double sampleRate, double freq);
+
+    /**
+     * waveGeneratorIdに対応する計算方法を取得する。
+     *
+     * @param generatorId waveGeneratorId
+     * @param draft 試聴用の音声波生成関数を用いるか
+     * @param generator waveGeneratorIdに対応する音声波生成関数。専用の派生クラスを持たない場合に使用する
+     * @return Oscillator
+     */
+    static Oscillator of(String generatorId, boolean draft, BiFunction<Double, Double, Double> generator) {
+        switch (generatorId) {
+            case "sin":
+                return draft ? Oscillator.DRAFT_SIN : Oscillator.SIN;
+            case "square":
+                return Oscillator.SQUARE;
+            case "sawtooth":
+                return Oscillator.SAWTOOTH;
+            case "noise":
+                return draft ? Oscillator.DRAFT_NOISE : Oscillator.NOISE;
+            default:
+                return new Generic(generator);
+        }
+    }
+
+    /**
+     * {@link WaveGenerator#sin}。
+     */
+    static final class Sin extends Oscillator {
+        @Override
+        void add(double[] values, int length, int phase, double sampleRate, double freq) {
+            for (int j=0; j<length; j++) {
+                values[j] += WaveGenerator.sin(freq, (phase + j) / sampleRate);
+            }
+        }
+    }
+
+    /**
+     * {@link WaveGenerator#square}。
+     */
+    static final class Square extends Oscillator {
+        @Override
+        void add(double[] values, int length, int phase, double sampleRate, double freq) {
+            for (int j=0; j<length; j++) {
+                values[j] += WaveGenerator.square(freq, (phase + j) / sampleRate);
+            }
+        }
+    }
+
+    /**
+     * {@link WaveGenerator#sawtooth}。
+     */
+    static final class Sawtooth extends Oscillator {
+        @Override
+        void add(double[] values, int length, int phase, double sampleRate, double freq) {
+            for (int j=0; j<length; j++) {
+                values[j] += WaveGenerator.sawtooth(freq, (phase + j) / sampleRate);
+            }
+        }
+    }
+
+    /**
+     * {@link WaveGenerator#noise}。
+     */
+    static final class Noise extends Oscillator {
+        @Override
+        void add(double[] values, int length, int phase, double sampleRate, double freq) {
+            for (int j=0; j<length; j++) {
+                values[j] += WaveGenerator.noise(freq, (phase + j) / sampleRate);
+            }
+        }
+    }
+
+    /**
+     * {@link WaveGenerator#draftSin}。
+     */
+    static final class DraftSin extends Oscillator {
+        @Override
+        void add(double[] values, int length, int phase, double sampleRate, double freq) {
+            for (int j=0; j<length; j++) {
+                values[j] += WaveGenerator.draftSin(freq, (phase + j) / sampleRate);
+            }
+        }
+    }
+
+    /**
+     * {@link WaveGenerator#draftNoise}。
+     */
+    static final class DraftNoise extends Oscillator {
+        @Override
+        void add(double[] values, int length, int phase, double sampleRate, double freq) {
+            for (int j=0; j<length; j++) {
+                values[j] += WaveGenerator.draftNoise(freq, (phase + j) / sampleRate);
+            }
+        }
+    }
+
+    /**
+     * 音声波生成関数をそのまま呼び出す。
+     */
+    static final class Generic extends Oscillator {
+        /**
+         * 音声波生成関数。
+         */
+        private final BiFunction<Double, Double, Double> generator;
+
+        /**
+         * @param generator 音声波生成関数
+         */
+        Generic(BiFunction<Double, Double, Double> generator) {
+            this.generator = generator;
+        }
+
+        @Override
+        void add(double[] values, int length, int phase, double sampleRate, double freq) {
+            for (int j=0; j<length; j++) {
+                values[j] += this.generator.apply(freq, (phase + j) / sampleRate);
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package MML2Audio.Render;
+
+/**
+ * 音声バッファ上のサンプルを加算する。
+ *
+ * <p>
+ * 音声バッファは符号付き・ビッグエンディアン・モノラルのリニアPCMとし、1サンプルは1~3byteとする。
+ * 加算はサンプルのビット数で桁あふれさせる(8bitの場合はbyte同士の加算と同じ)ため、加算の順序に依らず結果は一致する。
+ * インデックスと長さはフレーム単位で指定する。
+ */
+public final class Pcm {
+    private Pcm() { }
+
+    /**
+     * 音声バッファの指定したフレームに値を加算する。
+     *
+     * @param buffer 音声バッファ
+     * @param frame 加算するフレーム
+     * @param bytesPerSample 1サンプルのバイト数
+     * @param value 加算する値
+     */
+    public static void addSample(byte[] buffer, int frame, int bytesPerSample, int value) {
+        if (bytesPerSample == 1) {
+            buffer[frame] += (byte) value;
+            return;
+        }
+
+        int index = frame * bytesPerSample;
+        int sample = 0;
+        for (int b=0; b<bytesPerSample; b++) {
+            sample = (sample << 8) | (buffer[index + b] & 0xFF);
+        }
+        sample += value;
+        for (int b=bytesPerSample-1; b>=0; b--) {
+            buffer[index + b] = (byte) sample;
+            sample >>= 8;
+        }
+    }
+
+    /**
+     * 音声バッファの指定したフレームの値を取得する。
+     *
+     * @param buffer 音声バッファ
+     * @param frame 取得するフレーム
+     * @param bytesPerSample 1サンプルのバイト数
+     * @return int 符号付きの値
+     */
+    public static int getSample(byte[] buffer, int frame, int bytesPerSample) {
+        int index = frame * bytesPerSample;
+        int value = buffer[index];
+        for (int b=1; b<bytesPerSample; b++) {
+            value = (value << 8) | (buffer[index + b] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * 音声バッファの指定したフレームに値を書き込む。
+     *
+     * <p>
+     * 値はサンプルのビット数の範囲に収まっている必要がある (範囲外の場合は桁あふれする)。
+     *
+     * @param buffer 音声バッファ
+     * @param frame 書き込むフレーム
+     * @param bytesPerSample 1サンプルのバイト数
+     * @param value 書き込む値
+     */
+    public static void setSample(byte[] buffer, int frame, int bytesPerSample, int value) {
+        int index = frame * bytesPerSample;
+        for (int b=bytesPerSample-1; b>=0; b--) {
+            buffer[index + b] = (byte) value;
+            value >>= 8;
+        }
+    }
+
+    /**
+     * 音声バッファを別の音声バッファに加算する。
+     *
+     * @param dst 加算先の音声バッファ
+     * @param dstFrame 加算先の開始フレーム
+     * @param src 加算元の音声バッファ
+     * @param srcFrame 加算元の開始フレーム
+     * @param length 加算するフレーム数
+     * @param bytesPerSample 1サンプルのバイト数
+     */
+    public static void addBuffer(byte[] dst, int dstFrame, byte[] src, int srcFrame, int length, int bytesPerSample) {
+        if (bytesPerSample == 1) {
+            for (int i=0; i<length; i++) {
+                dst[dstFrame + i] += src[srcFrame + i];
+            }
+            return;
+        }
+
+        for (int i=0; i<length; i++) {
+            Pcm.addSample(dst, dstFrame + i, bytesPerSample, Pcm.getSample(src, srcFrame + i, bytesPerSample));
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package MML2Audio.Render;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import MML2Audio.Util.Metrics;
+
+/**
+ * 描画済みの繰り返し区間1回分の音声を保持する。
+ *
+ * <p>
+ * 繰り返し区間の番号、区間のテンポ、区間の開始位置におけるフレームの端数({@link TempoMap#getFramePhase})の組をkeyとする。
+ * これらが等しい区間は各ノートのフレーム数も等しくなるため、1度描画した音声をそのまま複製して使うことができる。
+ * 区間内でテンポが変わる場合は登録しない。
+ * 1つの{@link ChannelRenderer}の中でのみ使用する。
+ *
+ * <p>
+ * 1回分のフレーム数が整数にならないテンポでは、繰り返す度にフレームの端数が変わり、多くの区間が再利用されない。
+ * そのため、1つの繰り返し区間について登録する端数は{@link #MAX_PHASES_PER_LOOP}種類までとし、以降は登録しない。
+ * また、保持する音声の合計が{@link #MAX_BYTES}を超えた場合は、最も長く参照されていないものから破棄する。
+ * 参照結果は{@link Metrics}の{@literal cache.segment.hits}と{@literal cache.segment.misses}にも加算する。
+ */
+public class SegmentCache {
+    /**
+     * 保持する区間1回分の長さの上限 [s]。
+     */
+    public static final double MAX_SEGMENT_LENGTH = 30.0;
+    /**
+     * 1つの繰り返し区間について登録するフレームの端数の種類の上限。
+     */
+    public static final int MAX_PHASES_PER_LOOP = 8;
+    /**
+     * 保持する音声の合計の上限 [byte]。
+     */
+    public static final long MAX_BYTES = 64L << 20;
+
+    /**
+     * 区間のkeyと描画済みの音声の対応表。参照順に並ぶ。
+     */
+    private LinkedHashMap<String, byte[]> segmentMap = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * 繰り返し区間の番号ごとの、登録したフレームの端数の種類の数。
+     */
+    private HashMap<Integer, Integer> phaseCounts = new HashMap<>();
+    /**
+     * 保持している音声の合計 [byte]。
+     */
+    private long totalBytes = 0;
+    /**
+     * 描画済みの音声を再利用した回数。
+     */
+    private long hitCount = 0;
+    /**
+     * 区間を新たに描画した回数。
+     */
+    private long missCount = 0;
+
+    /**
+     * keyを生成する。
+     */
+    private static String toKey(int loopId, int bpm, long framePhase) {
+        return loopId + ":" + bpm + ":" + framePhase;
+    }
+
+    /**
+     * 描画済みの音声を取得する。
+     *
+     * @param loopId 繰り返し区間の番号
+     * @param bpm 区間のテンポ
+     * @param framePhase 区間の開始位置におけるフレームの端数
+     * @return byte[] 描画済みの音声。存在しない場合はnull
+     */
+    public byte[] get(int loopId, int bpm, long framePhase) {
+        byte[] segment = this.segmentMap.get(SegmentCache.toKey(loopId, bpm, framePhase));
+        if (segment != null) {
+            this.hitCount++;
+            Metrics.add("cache.segment.hits", 1);
+        }
+        else {
+            this.missCount++;
+            Metrics.add("cache.segment.misses", 1);
+        }
+        return segment;
+    }
+
+    /**
+     * 繰り返し区間に新たな端数の音声を登録できるかを判定する。
+     *
+     * @param loopId 繰り返し区間の番号
+     * @return boolean 登録した端数の種類が{@link #MAX_PHASES_PER_LOOP}未満の場合true
+     */
+    public boolean canPut(int loopId) {
+        return this.phaseCounts.getOrDefault(loopId, 0) < SegmentCache.MAX_PHASES_PER_LOOP;
+    }
+
+    /**
+     * 描画した音声を登録する。
+     *
+     * <p>
+     * 保持する音声の合計が{@link #MAX_BYTES}を超えた場合は、最も長く参照されていないものから破棄する。
+     *
+     * @param loopId 繰り返し区間の番号
+     * @param bpm 区間のテンポ
+     * @param framePhase 区間の開始位置におけるフレームの端数
+     * @param segment 描画した音声
+     */
+    public void put(int loopId, int bpm, long framePhase, byte[] segment) {
+        byte[] previous = this.segmentMap.put(SegmentCache.toKey(loopId, bpm, framePhase), segment);
+        if (previous != null) {
+            this.totalBytes -= previous.length;
+        }
+        else {
+            this.phaseCounts.merge(loopId, 1, Integer::sum);
+        }
+        this.totalBytes += segment.length;
+
+        Iterator<byte[]> iterator = this.segmentMap.values().iterator();
+        while (this.totalBytes > SegmentCache.MAX_BYTES && iterator.hasNext()) {
+            this.totalBytes -= iterator.next().length;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * 保持している区間の数を取得する。
+     *
+     * @return int 区間の数
+     */
+    public int size() {
+        return this.segmentMap.size();
+    }
+
+    /**
+     * 描画済みの音声を再利用した回数を取得する。
+     *
+     * @return long 再利用した回数
+     */
+    public long getHitCount() {
+        return this.hitCount;
+    }
+
+    /**
+     * 区間を新たに描画した回数を取得する。
+     *
+     * @return long 新たに描画した回数
+     */
+    public long getMissCount() {
+        return this.missCount;
+    }
+}
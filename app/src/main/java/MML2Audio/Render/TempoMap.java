@@ -0,0 +1,202 @@
+package MML2Audio.Render;
+
+import java.util.Arrays;
+
+/**
+ * 曲全体のテンポの変化を保持し、tick位置とフレーム位置を相互に変換する。
+ *
+ * <p>
+ * テンポが一定の区間ごとに、開始tick・BPM値・開始フレームを昇順の配列で保持する。
+ * 開始フレームは前の区間から累積して事前に求めておくため、変換は区間の二分探索と割り算のみで行える。
+ * テンポ変更が数千回ある曲でも、変換1回あたりの計算量はO(log n)となる。
+ *
+ * <p>
+ * 区間の開始位置におけるフレームの端数は、区間のBPM値に応じた分母の整数値で保持する。
+ * テンポ変更が無い場合の変換結果は、曲の先頭から1つのBPM値で計算したものと一致する。
+ */
+public class TempoMap {
+    /**
+     * 出力音声のサンプリングレート。
+     */
+    private long sampleRate;
+    /**
+     * 各区間の開始tick。昇順で、最初の要素は0となる。
+     */
+    private long[] startTicks;
+    /**
+     * 各区間のBPM値。
+     */
+    private int[] bpms;
+    /**
+     * 各区間の開始フレーム (端数は切り捨て)。
+     */
+    private long[] startFrames;
+    /**
+     * 各区間の開始位置におけるフレームの端数。分母は{@code bpm * TICKS_PER_WHOLE_NOTE}となる。
+     */
+    private long[] startRemainders;
+
+    /**
+     * テンポ変更の並びからテンポマップを構築する。
+     *
+     * <p>
+     * 同じtick位置に複数のテンポ変更がある場合は、後に並ぶものを優先する。
+     *
+     * @param sampleRate 出力音声のサンプリングレート
+     * @param initialBpm 曲の先頭のテンポ
+     * @param changeTicks テンポ変更のtick位置 (昇順)
+     * @param changeBpms テンポ変更後のBPM値
+     * @throws IllegalArgumentException BPM値が正でない場合に発生する
+     */
+    public TempoMap(long sampleRate, int initialBpm, long[] changeTicks, int[] changeBpms) {
+        this.sampleRate = sampleRate;
+
+        int n = 1;
+        long[] startTicks = new long[changeTicks.length + 1];
+        int[] bpms = new int[changeTicks.length + 1];
+        startTicks[0] = 0;
+        bpms[0] = TempoMap.checkBpm(initialBpm);
+        for (int i=0; i<changeTicks.length; i++) {
+            int bpm = TempoMap.checkBpm(changeBpms[i]);
+            if (changeTicks[i] == startTicks[n - 1]) {
+                bpms[n - 1] = bpm;
+                // 上書きした結果、前の区間と同じテンポになった場合はまとめる
+                if (n > 1 && bpms[n - 2] == bpm) {
+                    n--;
+                }
+            }
+            else if (bpm != bpms[n - 1]) {
+                startTicks[n] = changeTicks[i];
+                bpms[n] = bpm;
+                n++;
+            }
+        }
+        this.startTicks = Arrays.copyOf(startTicks, n);
+        this.bpms = Arrays.copyOf(bpms, n);
+
+        // 各区間の開始フレームを累積する
+        this.startFrames = new long[n];
+        this.startRemainders = new long[n];
+        for (int k=1; k<n; k++) {
+            long denominator = this.getDenominator(k - 1);
+            long numerator = this.startRemainders[k - 1]
+                + (this.startTicks[k] - this.startTicks[k - 1]) * 240 * this.sampleRate;
+            long frame = this.startFrames[k - 1] + numerator / denominator;
+            // 端数を次の区間の分母に換算する (誤差は1フレームの10億分の1程度)
+            long nextDenominator = this.getDenominator(k);
+            long remainder = Math.round((double) (numerator % denominator) * nextDenominator / denominator);
+            if (remainder >= nextDenominator) {
+                frame++;
+                remainder -= nextDenominator;
+            }
+            this.startFrames[k] = frame;
+            this.startRemainders[k] = remainder;
+        }
+    }
+
+    /**
+     * BPM値が正であることを確かめる。
+     */
+    private static int checkBpm(int bpm) {
+        if (bpm <= 0) {
+            throw new IllegalArgumentException("bpm must be positive: " + bpm);
+        }
+        return bpm;
+    }
+
+    /**
+     * 区間のフレームの端数の分母を取得する。
+     */
+    private long getDenominator(int k) {
+        return this.bpms[k] * Timeline.TICKS_PER_WHOLE_NOTE;
+    }
+
+    /**
+     * 昇順の配列から、値が指定した値以下となる最後の要素のインデックスを求める。
+     */
+    private static int findLast(long[] array, long value) {
+        int low = 0;
+        int high = array.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (array[mid] <= value) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return Math.max(low - 1, 0);
+    }
+
+    /**
+     * tick位置をフレーム位置に変換する。
+     *
+     * @param tick tick位置
+     * @return long フレーム位置 (端数は切り捨て)
+     */
+    public long tickToFrame(long tick) {
+        int k = TempoMap.findLast(this.startTicks, tick);
+        // 全音符 = 4拍 = 240 / bpm [s]
+        return this.startFrames[k]
+            + (this.startRemainders[k] + (tick - this.startTicks[k]) * 240 * this.sampleRate) / this.getDenominator(k);
+    }
+
+    /**
+     * フレーム位置に含まれる最後のtick位置を求める。
+     *
+     * <p>
+     * {@link #tickToFrame}の結果が指定したフレーム以下となる最大のtickを返却する。
+     *
+     * @param frame フレーム位置
+     * @return long tick位置
+     */
+    public long frameToTick(long frame) {
+        int k = TempoMap.findLast(this.startFrames, frame);
+        long tick = this.startTicks[k]
+            + ((frame - this.startFrames[k] + 1) * this.getDenominator(k) - this.startRemainders[k] - 1) / (240 * this.sampleRate);
+        if (k + 1 < this.startTicks.length) {
+            // 次の区間の開始位置は、端数の換算によって1フレーム後ろにずれる場合がある
+            tick = Math.min(tick, this.startTicks[k + 1] - 1);
+        }
+        return tick;
+    }
+
+    /**
+     * tick位置のテンポを取得する。
+     *
+     * @param tick tick位置
+     * @return int BPM値
+     */
+    public int getBpm(long tick) {
+        return this.bpms[TempoMap.findLast(this.startTicks, tick)];
+    }
+
+    /**
+     * tick区間の開始位置におけるフレームの端数を求める。
+     *
+     * <p>
+     * 区間内でテンポが変わらず、BPM値と端数が等しいtick位置から始まる区間は、区間内の各ノートのフレーム数が等しくなる。
+     * 区間内(終端を含む)でテンポが変わる場合は、フレーム数が等しくなる区間を判別できないため-1を返却する。
+     *
+     * @param startTick 区間の開始tick
+     * @param endTick 区間の終了tick
+     * @return long フレームの端数。区間内でテンポが変わる場合は-1
+     */
+    public long getFramePhase(long startTick, long endTick) {
+        int k = TempoMap.findLast(this.startTicks, startTick);
+        if (k + 1 < this.startTicks.length && this.startTicks[k + 1] <= endTick) {
+            return -1;
+        }
+        return (this.startRemainders[k] + (startTick - this.startTicks[k]) * 240 * this.sampleRate) % this.getDenominator(k);
+    }
+
+    /**
+     * テンポが一定の区間の数を取得する。
+     *
+     * @return int 区間の数 (テンポ変更が無い場合は1)
+     */
+    public int size() {
+        return this.startTicks.length;
+    }
+}
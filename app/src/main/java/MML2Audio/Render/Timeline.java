@@ -0,0 +1,658 @@
+package MML2Audio.Render;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Arrays;
+
+import MML2Audio.Music;
+import MML2Audio.Channel.Channel;
+import MML2Audio.Channel.Loop;
+import MML2Audio.Channel.TempoChange;
+import MML2Audio.Note.Note;
+
+/**
+ * 各チャンネルのノートの開始位置を保持する。
+ *
+ * <p>
+ * ノートの長さはtick(全音符を{@link #TICKS_PER_WHOLE_NOTE}分割した単位)の整数値で累積し、累積したtickからフレーム位置を求める。
+ * ノートごとに長さを切り捨てて累積しないため、曲が長くなってもチャンネル間でずれが生じない。
+ * 曲の長さの計算と音声バッファへの描画は、どちらもこのクラスが保持する位置に従う。
+ *
+ * <p>
+ * 繰り返し区間({@link Loop})は展開せず、区間1回分の開始位置だけを保持する。
+ * 開始位置は昇順に並んだlong配列で保持しているため、任意のフレームで演奏されているノートを
+ * 繰り返しの階層ごとの二分探索と割り算で求めることができる。
+ * 小節は4/4拍子を前提とし、全音符1つ分を1小節とする。
+ *
+ * <p>
+ * 各チャンネルに記述されたテンポ変更({@link TempoChange})は、繰り返し区間を展開したtick位置に並べて
+ * 曲全体で共有する{@link TempoMap}にまとめる。tick位置とフレーム位置の変換は{@link TempoMap}に従う。
+ */
+public class Timeline {
+    /**
+     * 全音符1つあたりのtick数。
+     *
+     * <p>
+     * 1~16の全ての整数と、32, 48, 64などの一般的な音長で割り切れる値としている。
+     * 割り切れない音長の場合は最も近いtick数に丸める。
+     */
+    public static final long TICKS_PER_WHOLE_NOTE = 2882880;
+
+    /**
+     * ノートと繰り返し区間の並び。
+     *
+     * <p>
+     * チャンネル全体と、各繰り返し区間の1回分がそれぞれ1つの{@link Segment}となる。
+     * 要素はノート1つ、または繰り返し区間全体({@link LoopNode})のどちらかである。
+     */
+    private static class Segment {
+        /**
+         * 各要素のSegment先頭からの開始tick。長さは要素数+1で、最後の要素はSegmentの長さとなる。
+         */
+        private long[] startTicks;
+        /**
+         * 各要素が表すノートのインデックス。要素が繰り返し区間の場合は-1。
+         */
+        private int[] noteIndexes;
+        /**
+         * 各要素が表す繰り返し区間。要素がノートの場合はnull。
+         */
+        private LoopNode[] loops;
+        /**
+         * Segment内のテンポ変更の位置。直後の要素の番号で表し、記述順に並ぶ。Segmentの終端の場合は要素数となる。
+         */
+        private int[] tempoItems;
+        /**
+         * Segment内のテンポ変更後のBPM値。
+         */
+        private int[] tempoBpms;
+        /**
+         * このSegment、または内側の繰り返し区間がテンポ変更を含む場合true。
+         */
+        private boolean hasTempo;
+
+        /**
+         * 要素数を取得する。
+         */
+        private int size() {
+            return this.noteIndexes.length;
+        }
+    }
+
+    /**
+     * 繰り返し区間。
+     */
+    private static class LoopNode {
+        /**
+         * チャンネル内で一意な番号。
+         */
+        private int id;
+        /**
+         * 繰り返し区間1回分。
+         */
+        private Segment body;
+        /**
+         * 繰り返し回数。
+         */
+        private int count;
+    }
+
+    /**
+     * 曲全体のテンポの変化。
+     */
+    private TempoMap tempoMap;
+    /**
+     * 出力音声のサンプリングレート。
+     */
+    private long sampleRate;
+    /**
+     * チャンネルごとの全体のSegment。
+     */
+    private Segment[] channelSegments;
+    /**
+     * 最も長いチャンネルの終了フレーム。
+     */
+    private long lengthInFrames;
+
+    /**
+     * 曲データからタイムラインを構築する。
+     *
+     * @param music 曲データ
+     * @param bpm 曲の先頭のテンポ
+     */
+    public Timeline(Music music, int bpm) {
+        this.sampleRate = (long) music.getSampleRate();
+        this.channelSegments = new Segment[music.getNumberOfChannel()];
+        this.lengthInFrames = 0;
+
+        for (int c=0; c<music.getNumberOfChannel(); c++) {
+            Channel channel = music.getChannelList().get(c);
+            // 外側の区間が先に来るように並べる (同じ範囲の場合は後に閉じられた方が外側)
+            List<Loop> loopList = channel.getLoopList();
+            Integer[] order = new Integer[loopList.size()];
+            for (int i=0; i<order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b)->{
+                Loop la = loopList.get(a);
+                Loop lb = loopList.get(b);
+                if (la.getStartIndex() != lb.getStartIndex()) {
+                    return Integer.compare(la.getStartIndex(), lb.getStartIndex());
+                }
+                if (la.getEndIndex() != lb.getEndIndex()) {
+                    return Integer.compare(lb.getEndIndex(), la.getEndIndex());
+                }
+                return Integer.compare(b, a);
+            });
+            Loop[] sortedLoops = new Loop[order.length];
+            for (int i=0; i<order.length; i++) {
+                sortedLoops[i] = loopList.get(order[i]);
+            }
+
+            int[] nextLoop = {0};
+            int[] nextTempo = {0};
+            this.channelSegments[c] = Timeline.buildSegment(
+                channel.getNoteList(), 0, channel.getNoteList().size(), sortedLoops, nextLoop,
+                channel.getTempoList(), nextTempo, 0);
+        }
+
+        // 全てのチャンネルのテンポ変更をtick順に並べる (同じtickではチャンネル番号と記述順が後のものを優先する)
+        ArrayList<long[]> tempoChanges = new ArrayList<>();
+        for (Segment channelSegment: this.channelSegments) {
+            Timeline.collectTempoChanges(channelSegment, 0, tempoChanges);
+        }
+        tempoChanges.sort((a, b)->Long.compare(a[0], b[0]));
+        long[] changeTicks = new long[tempoChanges.size()];
+        int[] changeBpms = new int[tempoChanges.size()];
+        for (int i=0; i<changeTicks.length; i++) {
+            changeTicks[i] = tempoChanges.get(i)[0];
+            changeBpms[i] = (int) tempoChanges.get(i)[1];
+        }
+        this.tempoMap = new TempoMap(this.sampleRate, bpm, changeTicks, changeBpms);
+
+        for (Segment channelSegment: this.channelSegments) {
+            long[] ticks = channelSegment.startTicks;
+            this.lengthInFrames = Math.max(this.lengthInFrames, this.tickToFrame(ticks[ticks.length - 1]));
+        }
+    }
+
+    /**
+     * Segment内のテンポ変更を、繰り返し区間を展開した記述順で集める。
+     *
+     * @param segment 対象のSegment
+     * @param baseTick Segmentの開始tick
+     * @param tempoChanges tick位置とBPM値の組の出力先
+     */
+    private static void collectTempoChanges(Segment segment, long baseTick, List<long[]> tempoChanges) {
+        if (!segment.hasTempo) {
+            return;
+        }
+        int t = 0;
+        for (int i=0; i<=segment.size(); i++) {
+            while (t < segment.tempoItems.length && segment.tempoItems[t] == i) {
+                tempoChanges.add(new long[] {baseTick + segment.startTicks[i], segment.tempoBpms[t]});
+                t++;
+            }
+            if (i < segment.size() && segment.loops[i] != null && segment.loops[i].body.hasTempo) {
+                LoopNode loop = segment.loops[i];
+                long bodyTicks = loop.body.startTicks[loop.body.size()];
+                for (int iteration=0; iteration<loop.count; iteration++) {
+                    Timeline.collectTempoChanges(loop.body, baseTick + segment.startTicks[i] + iteration * bodyTicks, tempoChanges);
+                }
+            }
+        }
+    }
+
+    /**
+     * ノートの範囲から{@link Segment}を構築する。
+     *
+     * @param noteList チャンネルのノートのリスト
+     * @param from 範囲の先頭ノートのインデックス
+     * @param to 範囲の終端ノートのインデックス (含まない)
+     * @param sortedLoops 外側の区間が先に来るように並べた繰り返し区間
+     * @param nextLoop 次に処理する繰り返し区間のインデックス (再帰呼び出しの間で共有する)
+     * @param tempoList チャンネルのテンポ変更のリスト
+     * @param nextTempo 次に処理するテンポ変更のインデックス (再帰呼び出しの間で共有する)
+     * @param depth 構築するSegmentを囲む繰り返し区間の数
+     * @return Segment 構築したSegment
+     */
+    private static Segment buildSegment(List<Note> noteList, int from, int to, Loop[] sortedLoops, int[] nextLoop,
+            List<TempoChange> tempoList, int[] nextTempo, int depth) {
+        ArrayList<Long> startTicks = new ArrayList<>();
+        ArrayList<Integer> noteIndexes = new ArrayList<>();
+        ArrayList<LoopNode> loops = new ArrayList<>();
+        ArrayList<Integer> tempoItems = new ArrayList<>();
+        ArrayList<Integer> tempoBpms = new ArrayList<>();
+        boolean hasTempo = false;
+
+        long tick = 0;
+        int i = from;
+        while (i < to || (nextLoop[0] < sortedLoops.length && sortedLoops[nextLoop[0]].getStartIndex() == i
+                && sortedLoops[nextLoop[0]].getEndIndex() <= to)) {
+            boolean loopStarts = nextLoop[0] < sortedLoops.length && sortedLoops[nextLoop[0]].getStartIndex() == i
+                && sortedLoops[nextLoop[0]].getEndIndex() <= to;
+            // 要素の直前に記述されたテンポ変更 (繰り返し区間の内側に記述されたものは区間内で処理する)
+            while (nextTempo[0] < tempoList.size()) {
+                TempoChange tempoChange = tempoList.get(nextTempo[0]);
+                if (tempoChange.getNoteIndex() > i || (tempoChange.getNoteIndex() == i && loopStarts && tempoChange.getDepth() > depth)) {
+                    break;
+                }
+                tempoItems.add(noteIndexes.size());
+                tempoBpms.add(tempoChange.getBpm());
+                nextTempo[0]++;
+            }
+
+            startTicks.add(tick);
+            if (loopStarts) {
+                Loop loop = sortedLoops[nextLoop[0]];
+                LoopNode node = new LoopNode();
+                node.id = nextLoop[0];
+                node.count = Math.max(loop.getCount(), 0);
+                nextLoop[0]++;
+                node.body = Timeline.buildSegment(noteList, loop.getStartIndex(), loop.getEndIndex(), sortedLoops, nextLoop,
+                    tempoList, nextTempo, depth + 1);
+                hasTempo |= node.body.hasTempo;
+
+                noteIndexes.add(-1);
+                loops.add(node);
+                tick += node.body.startTicks[node.body.size()] * node.count;
+                i = loop.getEndIndex();
+            }
+            else {
+                noteIndexes.add(i);
+                loops.add(null);
+                tick += Timeline.toneLengthToTicks(noteList.get(i).getToneLength());
+                i++;
+            }
+        }
+        startTicks.add(tick);
+        // 終端に記述されたテンポ変更 (繰り返し区間の外側に記述されたものは外側で処理する)
+        while (nextTempo[0] < tempoList.size()) {
+            TempoChange tempoChange = tempoList.get(nextTempo[0]);
+            if (tempoChange.getNoteIndex() > to || (depth > 0 && tempoChange.getDepth() < depth)) {
+                break;
+            }
+            tempoItems.add(noteIndexes.size());
+            tempoBpms.add(tempoChange.getBpm());
+            nextTempo[0]++;
+        }
+
+        Segment segment = new Segment();
+        segment.startTicks = startTicks.stream().mapToLong(Long::longValue).toArray();
+        segment.noteIndexes = noteIndexes.stream().mapToInt(Integer::intValue).toArray();
+        segment.loops = loops.toArray(new LoopNode[0]);
+        segment.tempoItems = tempoItems.stream().mapToInt(Integer::intValue).toArray();
+        segment.tempoBpms = tempoBpms.stream().mapToInt(Integer::intValue).toArray();
+        segment.hasTempo = hasTempo || !tempoItems.isEmpty();
+        return segment;
+    }
+
+    /**
+     * 音長をtick数に変換する。
+     *
+     * @param toneLength 音長
+     * @return long tick数
+     */
+    public static long toneLengthToTicks(int toneLength) {
+        return Math.round(TICKS_PER_WHOLE_NOTE / (double) toneLength);
+    }
+
+    /**
+     * tick位置をフレーム位置に変換する。
+     *
+     * @param tick tick位置
+     * @return long フレーム位置 (端数は切り捨て)
+     */
+    public long tickToFrame(long tick) {
+        return this.tempoMap.tickToFrame(tick);
+    }
+
+    /**
+     * フレーム位置に含まれる最後のtick位置を求める。
+     *
+     * <p>
+     * {@link #tickToFrame}の結果が指定したフレーム以下となる最大のtickを返却する。
+     *
+     * @param frame フレーム位置
+     * @return long tick位置
+     */
+    public long frameToTick(long frame) {
+        return this.tempoMap.frameToTick(frame);
+    }
+
+    /**
+     * 曲全体のテンポの変化を取得する。
+     *
+     * @return TempoMap テンポマップ
+     */
+    public TempoMap getTempoMap() {
+        return this.tempoMap;
+    }
+
+    /**
+     * 小節番号からその小節の開始フレームを求める。
+     *
+     * @param bar 小節番号 (1始まり)
+     * @return long 開始フレーム
+     */
+    public long barToFrame(int bar) {
+        return this.tickToFrame((bar - 1) * TICKS_PER_WHOLE_NOTE);
+    }
+
+    /**
+     * 秒数をフレーム位置に変換する。
+     *
+     * @param second 秒数 [s]
+     * @return long フレーム位置
+     */
+    public long secondToFrame(double second) {
+        return (long) (second * this.sampleRate);
+    }
+
+    /**
+     * 指定したフレームで演奏されているノートを指す{@link Cursor}を生成する。
+     *
+     * @param channelIndex チャンネル番号
+     * @param frame フレーム位置
+     * @return Cursor 生成したCursor
+     */
+    public Cursor createCursor(int channelIndex, long frame) {
+        Cursor cursor = new Cursor(this.channelSegments[channelIndex]);
+        cursor.seek(frame);
+        return cursor;
+    }
+
+    /**
+     * チャンネルの終了フレームを取得する。
+     *
+     * @param channelIndex チャンネル番号
+     * @return long 終了フレーム
+     */
+    public long getChannelEndFrame(int channelIndex) {
+        long[] ticks = this.channelSegments[channelIndex].startTicks;
+        return this.tickToFrame(ticks[ticks.length - 1]);
+    }
+
+    /**
+     * 最も長いチャンネルの終了フレームを取得する。
+     *
+     * @return long 曲の長さ [frame]
+     */
+    public long getLengthInFrames() {
+        return this.lengthInFrames;
+    }
+
+    /**
+     * タイムラインに含まれるチャンネル数を取得する。
+     *
+     * @return int チャンネル数
+     */
+    public int getNumberOfChannel() {
+        return this.channelSegments.length;
+    }
+
+    /**
+     * 1つのチャンネル内で演奏中のノートを指し示す。
+     *
+     * <p>
+     * 繰り返し区間の階層ごとに、Segment内の要素番号・繰り返し回数・開始tickをスタックとして保持する。
+     * {@link #next}によって演奏順に次のノートへ移動する。
+     */
+    public class Cursor {
+        /**
+         * 階層ごとのSegment。0番目はチャンネル全体となる。
+         */
+        private Segment[] segments = new Segment[4];
+        /**
+         * 階層ごとのSegment内の要素番号。
+         */
+        private int[] items = new int[4];
+        /**
+         * 階層ごとの繰り返し回数(0始まり)。
+         */
+        private int[] iterations = new int[4];
+        /**
+         * 階層ごとのSegmentの開始tick。
+         */
+        private long[] baseTicks = new long[4];
+        /**
+         * 現在の階層。
+         */
+        private int depth = 0;
+        /**
+         * 全てのノートを指し終えた場合true。
+         */
+        private boolean finished = false;
+
+        private Cursor(Segment channelSegment) {
+            this.segments[0] = channelSegment;
+        }
+
+        /**
+         * 階層を1つ深くする。
+         */
+        private void push(Segment segment, int iteration, long baseTick) {
+            this.depth++;
+            if (this.depth == this.segments.length) {
+                int length = this.segments.length * 2;
+                this.segments = Arrays.copyOf(this.segments, length);
+                this.items = Arrays.copyOf(this.items, length);
+                this.iterations = Arrays.copyOf(this.iterations, length);
+                this.baseTicks = Arrays.copyOf(this.baseTicks, length);
+            }
+            this.segments[this.depth] = segment;
+            this.items[this.depth] = 0;
+            this.iterations[this.depth] = iteration;
+            this.baseTicks[this.depth] = baseTick;
+        }
+
+        /**
+         * 指定したフレームで演奏されているノートに移動する。
+         *
+         * @param frame フレーム位置
+         */
+        public void seek(long frame) {
+            long tick = Timeline.this.frameToTick(frame);
+            this.depth = 0;
+            this.baseTicks[0] = 0;
+            this.finished = false;
+
+            while (true) {
+                Segment segment = this.segments[this.depth];
+                long relativeTick = tick - this.baseTicks[this.depth];
+                int n = segment.size();
+                if (relativeTick >= segment.startTicks[n]) {
+                    this.finished = true;
+                    return;
+                }
+
+                // relativeTickより後に始まる最初の要素の1つ前が、relativeTickを含む要素となる
+                int index = Arrays.binarySearch(segment.startTicks, 0, n + 1, relativeTick);
+                if (index < 0) {
+                    index = -index - 2;
+                }
+                else {
+                    while (segment.startTicks[index + 1] == relativeTick) {
+                        index++;
+                    }
+                }
+                this.items[this.depth] = index;
+
+                LoopNode loop = segment.loops[index];
+                if (loop == null) {
+                    return;
+                }
+                long bodyTicks = loop.body.startTicks[loop.body.size()];
+                long loopTick = relativeTick - segment.startTicks[index];
+                int iteration = (int) (loopTick / bodyTicks);
+                this.push(loop.body, iteration,
+                    this.baseTicks[this.depth] + segment.startTicks[index] + iteration * bodyTicks);
+            }
+        }
+
+        /**
+         * 演奏順で次のノートに移動する。
+         *
+         * @return boolean 次のノートが存在しない場合false
+         */
+        public boolean next() {
+            if (this.finished) {
+                return false;
+            }
+            this.items[this.depth]++;
+            return this.settle();
+        }
+
+        /**
+         * 現在の要素がノートを指すまで、階層の移動と繰り返しの処理を行う。
+         *
+         * @return boolean ノートが存在しない場合false
+         */
+        private boolean settle() {
+            while (true) {
+                Segment segment = this.segments[this.depth];
+                int index = this.items[this.depth];
+
+                if (index >= segment.size()) {
+                    if (this.depth == 0) {
+                        this.finished = true;
+                        return false;
+                    }
+                    // 繰り返し区間の終端
+                    LoopNode loop = this.segments[this.depth - 1].loops[this.items[this.depth - 1]];
+                    if (this.iterations[this.depth] + 1 < loop.count) {
+                        this.iterations[this.depth]++;
+                        this.baseTicks[this.depth] += segment.startTicks[segment.size()];
+                        this.items[this.depth] = 0;
+                    }
+                    else {
+                        this.depth--;
+                        this.items[this.depth]++;
+                    }
+                    continue;
+                }
+
+                LoopNode loop = segment.loops[index];
+                if (loop == null) {
+                    return true;
+                }
+                if (loop.count == 0 || loop.body.startTicks[loop.body.size()] == 0) {
+                    // 長さを持たない繰り返し区間は読み飛ばす
+                    this.items[this.depth]++;
+                    continue;
+                }
+                this.push(loop.body, 0, this.baseTicks[this.depth] + segment.startTicks[index]);
+            }
+        }
+
+        /**
+         * 全てのノートを指し終えたかを取得する。
+         *
+         * @return boolean 指し終えた場合true
+         */
+        public boolean isFinished() {
+            return this.finished;
+        }
+
+        /**
+         * 指しているノートのインデックスを取得する。
+         *
+         * @return int {@link Channel#getNoteList()}におけるインデックス
+         */
+        public int getNoteIndex() {
+            return this.segments[this.depth].noteIndexes[this.items[this.depth]];
+        }
+
+        /**
+         * 指しているノートの開始tickを取得する。
+         *
+         * @return long 開始tick
+         */
+        public long getStartTick() {
+            return this.baseTicks[this.depth] + this.segments[this.depth].startTicks[this.items[this.depth]];
+        }
+
+        /**
+         * 指しているノートの終了tickを取得する。
+         *
+         * @return long 終了tick
+         */
+        public long getEndTick() {
+            return this.baseTicks[this.depth] + this.segments[this.depth].startTicks[this.items[this.depth] + 1];
+        }
+
+        /**
+         * 指しているノートの開始フレームを取得する。
+         *
+         * @return long 開始フレーム
+         */
+        public long getStartFrame() {
+            return Timeline.this.tickToFrame(this.getStartTick());
+        }
+
+        /**
+         * 指しているノートの終了フレームを取得する。
+         *
+         * @return long 終了フレーム
+         */
+        public long getEndFrame() {
+            return Timeline.this.tickToFrame(this.getEndTick());
+        }
+
+        /**
+         * 指しているノートを含む繰り返し区間のうち、1回分の長さが指定したフレーム数以下となる最も外側の階層を求める。
+         *
+         * @param maxFrames 1回分の長さの上限 [frame]
+         * @return int 階層 (1以上)。該当する繰り返し区間が無い場合は0
+         */
+        public int findOutermostLoopDepth(long maxFrames) {
+            for (int d=1; d<=this.depth; d++) {
+                long bodyTicks = this.segments[d].startTicks[this.segments[d].size()];
+                long startTick = this.baseTicks[d];
+                if (Timeline.this.tickToFrame(startTick + bodyTicks) - Timeline.this.tickToFrame(startTick) <= maxFrames) {
+                    return d;
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * 指しているノートを含む繰り返し区間の数を取得する。
+         *
+         * @return int 階層 (繰り返し区間の外側の場合は0)
+         */
+        public int getDepth() {
+            return this.depth;
+        }
+
+        /**
+         * 指定した階層の繰り返し区間の番号を取得する。
+         *
+         * @param depth 階層 (1以上)
+         * @return int チャンネル内で一意な繰り返し区間の番号
+         */
+        public int getLoopId(int depth) {
+            return this.segments[depth - 1].loops[this.items[depth - 1]].id;
+        }
+
+        /**
+         * 指定した階層の繰り返し区間について、現在の1回分の開始tickを取得する。
+         *
+         * @param depth 階層 (1以上)
+         * @return long 開始tick
+         */
+        public long getIterationStartTick(int depth) {
+            return this.baseTicks[depth];
+        }
+
+        /**
+         * 指定した階層の繰り返し区間について、現在の1回分の終了tickを取得する。
+         *
+         * @param depth 階層 (1以上)
+         * @return long 終了tick
+         */
+        public long getIterationEndTick(int depth) {
+            return this.baseTicks[depth] + this.segments[depth].startTicks[this.segments[depth].size()];
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package MML2Audio.Sample;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+/**
+ * WAVファイルから読み込んだ音声波形(サンプル)を表す。
+ *
+ * <p>
+ * 音声データは{@link FileChannel#map}でメモリにマップしたまま参照し、ヒープへ複製しない。
+ * 読み込んだサンプルはファイルの実パスをkeyとしてプロセス全体で共有するため、
+ * 複数のチャンネルや並行して行う描画から参照しても、ファイルの読み込みとマップは1度だけ行われる。
+ * 読み込み後にファイルが変更された場合は、{@link #removeModified()}で取り除くまで変更前のサンプルを返却する。
+ *
+ * <p>
+ * リニアPCM(8, 16, 24bit)のWAVファイルに対応する。複数チャンネルのファイルは全チャンネルの平均を波形とする。
+ * 再生時はノートの周波数と{@link #ROOT_FREQ}の比で再生速度を変え、サンプル間を線形補間する。
+ */
+public class Sample {
+    /**
+     * 元の速度で再生されるノートの周波数 (オクターブ4のC) [Hz]。
+     */
+    public static final double ROOT_FREQ = 440 * Math.pow(2, -9 / 12.0);
+
+    /**
+     * 読み込み済みのサンプル。keyはファイルの実パスと、読み込み時に指定された絶対パス。
+     */
+    private static final ConcurrentHashMap<Path, Sample> sampleMap = new ConcurrentHashMap<>();
+
+    /**
+     * ファイルの実パス。
+     */
+    private Path path;
+    /**
+     * 読み込み時のファイルサイズ [byte]。
+     */
+    private long fileSize;
+    /**
+     * 読み込み時のファイルの更新日時 [ms]。
+     */
+    private long lastModified;
+    /**
+     * マップした音声データ (dataチャンクの中身)。
+     */
+    private ByteBuffer data;
+    /**
+     * ファイルのサンプリングレート [Hz]。
+     */
+    private double sampleRate;
+    /**
+     * 1サンプルのバイト数。
+     */
+    private int bytesPerSample;
+    /**
+     * ファイルのチャンネル数。
+     */
+    private int channels;
+    /**
+     * 1フレームのバイト数。
+     */
+    private int blockAlign;
+    /**
+     * フレーム数。
+     */
+    private int numOfFrame;
+    /**
+     * このサンプルを再生する音声波生成関数。
+     */
+    private BiFunction<Double, Double, Double> generator;
+
+    /**
+     * WAVファイルをマップして読み込む。
+     *
+     * @param path WAVファイルのパス
+     * @throws IOException ファイルの読み込みに失敗した場合や、対応していない形式の場合に発生する
+     */
+    private Sample(Path path) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("sample file is too large: " + path);
+            }
+            this.path = path;
+            this.fileSize = channel.size();
+            this.lastModified = Files.getLastModifiedTime(path).toMillis();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, this.fileSize);
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.limit() < 12 || buffer.getInt(0) != 0x46464952 || buffer.getInt(8) != 0x45564157) {  // "RIFF", "WAVE"
+            throw new IOException("not a WAV file: " + path);
+        }
+
+        boolean hasFormat = false;
+        int offset = 12;
+        while (offset + 8 <= buffer.limit()) {
+            int chunkId = buffer.getInt(offset);
+            int chunkSize = buffer.getInt(offset + 4);
+            int body = offset + 8;
+            if (chunkSize < 0 || body + chunkSize > buffer.limit()) {
+                // 書き込み途中のファイルなどで長さが不正な場合は、ファイル終端までを中身とする
+                chunkSize = buffer.limit() - body;
+            }
+
+            if (chunkId == 0x20746d66) {    // "fmt "
+                int formatTag = buffer.getShort(body) & 0xFFFF;
+                int bitsPerSample = buffer.getShort(body + 14) & 0xFFFF;
+                if (formatTag != 1 && formatTag != 0xFFFE) {
+                    throw new IOException("unsupported WAV format (only linear PCM): " + path);
+                }
+                if (bitsPerSample != 8 && bitsPerSample != 16 && bitsPerSample != 24) {
+                    throw new IOException("unsupported sample size: " + bitsPerSample + "bit: " + path);
+                }
+                this.channels = buffer.getShort(body + 2) & 0xFFFF;
+                this.sampleRate = buffer.getInt(body + 4);
+                this.blockAlign = buffer.getShort(body + 12) & 0xFFFF;
+                this.bytesPerSample = bitsPerSample / 8;
+                if (this.channels == 0 || this.blockAlign < this.channels * this.bytesPerSample) {
+                    throw new IOException("invalid fmt chunk: " + path);
+                }
+                hasFormat = true;
+            }
+            else if (chunkId == 0x61746164) {   // "data"
+                if (!hasFormat) {
+                    throw new IOException("data chunk before fmt chunk: " + path);
+                }
+                this.data = buffer.slice(body, chunkSize).order(ByteOrder.LITTLE_ENDIAN);
+                this.numOfFrame = chunkSize / this.blockAlign;
+                break;
+            }
+            // チャンクは2byte境界に揃えられる
+            offset = body + chunkSize + (chunkSize & 1);
+        }
+        if (this.data == null || this.sampleRate <= 0) {
+            throw new IOException("invalid WAV file: " + path);
+        }
+
+        this.generator = this::apply;
+    }
+
+    /**
+     * WAVファイルからサンプルを取得する。
+     *
+     * <p>
+     * 同じファイルを既に読み込んでいる場合は、読み込み済みのサンプルを返却する。
+     *
+     * @param path WAVファイルのパス
+     * @return Sample サンプル
+     * @throws IOException ファイルの読み込みに失敗した場合や、対応していない形式の場合に発生する
+     */
+    public static Sample load(Path path) throws IOException {
+        // ノートごとに呼び出されるため、まずはファイルシステムを参照せずに検索する
+        Path absolutePath = path.toAbsolutePath().normalize();
+        Sample sample = Sample.sampleMap.get(absolutePath);
+        if (sample != null) {
+            return sample;
+        }
+
+        // シンボリックリンクなどで別の表記になっている同じファイルも共有する
+        Path realPath = path.toRealPath();
+        sample = Sample.sampleMap.get(realPath);
+        if (sample == null) {
+            sample = new Sample(realPath);
+            Sample loaded = Sample.sampleMap.putIfAbsent(realPath, sample);
+            if (loaded != null) {
+                sample = loaded;
+            }
+        }
+        Sample.sampleMap.putIfAbsent(absolutePath, sample);
+        return sample;
+    }
+
+    /**
+     * 読み込んだ後にファイルが変更または削除されたサンプルを、読み込み済みのサンプルから取り除く。
+     *
+     * <p>
+     * 取り除いたサンプルは次の{@link #load}でファイルから読み込み直される。
+     * マップしたファイルが切り詰められると参照した時点でプロセスが異常終了する場合があるため、
+     * ファイルの変更を監視する場合は描画の前に呼び出し、取り除いたサンプルはそれ以降参照しない。
+     * ファイルの変更はファイルサイズと更新日時で判定する。
+     *
+     * @return boolean 取り除いたサンプルがある場合はtrue
+     */
+    public static boolean removeModified() {
+        boolean removed = false;
+        for (Map.Entry<Path, Sample> entry: Sample.sampleMap.entrySet()) {
+            if (entry.getValue().isModified()) {
+                removed |= Sample.sampleMap.remove(entry.getKey(), entry.getValue());
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * 読み込み済みのサンプルのファイルの実パスを取得する。
+     *
+     * @return Set<Path> ファイルの実パス
+     */
+    public static Set<Path> getLoadedPaths() {
+        Set<Path> paths = new HashSet<>();
+        for (Sample sample: Sample.sampleMap.values()) {
+            paths.add(sample.path);
+        }
+        return paths;
+    }
+
+    /**
+     * 読み込んだ後にファイルが変更または削除されたかを判定する。
+     */
+    private boolean isModified() {
+        try {
+            return Files.size(this.path) != this.fileSize
+                || Files.getLastModifiedTime(this.path).toMillis() != this.lastModified;
+        }
+        catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * 指定したフレームの値を取得する。
+     *
+     * @param frame フレーム (0 ~ {@link #getNumberOfFrame()} - 1)
+     * @return double 値[-1.0 : 1.0]
+     */
+    private double valueAt(int frame) {
+        int index = frame * this.blockAlign;
+        double sum = 0;
+        for (int c=0; c<this.channels; c++) {
+            switch (this.bytesPerSample) {
+                case 1:
+                    // 8bitのWAVは符号なし
+                    sum += ((this.data.get(index) & 0xFF) - 128) / 128.0;
+                    break;
+                case 2:
+                    sum += this.data.getShort(index) / 32768.0;
+                    break;
+                default:
+                    int value = (this.data.get(index) & 0xFF)
+                        | ((this.data.get(index + 1) & 0xFF) << 8)
+                        | (this.data.get(index + 2) << 16);
+                    sum += value / 8388608.0;
+                    break;
+            }
+            index += this.bytesPerSample;
+        }
+        return sum / this.channels;
+    }
+
+    /**
+     * サンプルを再生した波形の値を求める。
+     *
+     * <p>
+     * ノートの周波数が{@link #ROOT_FREQ}の場合に元の速度で再生する。サンプルの終端より後は0となる。
+     *
+     * @param freq 周波数[Hz]
+     * @param t ノートの開始からの時間[s]
+     * @return double 値[-1.0 : 1.0]
+     */
+    public double apply(double freq, double t) {
+        double position = t * this.sampleRate * (freq / Sample.ROOT_FREQ);
+        int frame = (int) position;
+        if (frame < 0 || frame >= this.numOfFrame) {
+            return 0;
+        }
+        double value = this.valueAt(frame);
+        if (frame + 1 < this.numOfFrame) {
+            double fraction = position - frame;
+            value += (this.valueAt(frame + 1) - value) * fraction;
+        }
+        return value;
+    }
+
+    /**
+     * このサンプルを再生する音声波生成関数を取得する。
+     *
+     * @return BiFunction<Double, Double, Double> 音声波生成関数
+     */
+    public BiFunction<Double, Double, Double> getGenerator() {
+        return this.generator;
+    }
+
+    /**
+     * フレーム数を取得する。
+     *
+     * @return int フレーム数
+     */
+    public int getNumberOfFrame() {
+        return this.numOfFrame;
+    }
+
+    /**
+     * ファイルのサンプリングレートを取得する。
+     *
+     * @return double サンプリングレート [Hz]
+     */
+    public double getSampleRate() {
+        return this.sampleRate;
+    }
+}
@@ -1,11 +1,28 @@
 package MML2Audio.Util;
 
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
 /**
  * オプションに応じてログを出力する。
  * 
  * <p>
  * このクラスが提供する関数を用いてログや情報を出力できる。
  * 出力の有無をこのクラスで一括して制御する。
+ *
+ * <p>
+ * ログの文字列は{@link Supplier}や{@literal {}}を含む書式で渡すことができ、ログを出力しない場合は文字列の組み立てを行わない。
+ * 頻繁に呼び出される箇所では{@link #isLogEnabled()}で出力の有無を確認してから呼び出す。
+ * ログを出力する場合(verbose時)は、呼び出し元のスレッドはメッセージをキューに積むだけで処理を戻し、
+ * 専用のスレッドがまとめて標準エラー出力へ書き込む。
  */
 public class Log {
     /**
@@ -17,6 +34,26 @@ public class Log {
      */
     private static boolean infoOutputFlag = false;
 
+    /**
+     * 非同期出力のキューが保持できるメッセージ数の上限。
+     *
+     * <p>
+     * 上限を超えたメッセージは破棄し、その数を最後に報告する。
+     */
+    public static final int QUEUE_CAPACITY = 1 << 16;
+
+    /**
+     * 非同期出力で書き込み待ちのメッセージ。
+     *
+     * <p>
+     * 文字列の他に、{@link #flush}の完了を通知する{@link CountDownLatch}が積まれる。
+     */
+    private static volatile BlockingQueue<Object> asyncQueue = null;
+    /**
+     * キューが満杯の為に破棄したメッセージ数。
+     */
+    private static AtomicLong droppedCount = new AtomicLong();
+
     /** 
      * ログを出力する。
      * 
@@ -27,8 +64,53 @@ public class Log {
      * @param msg 表示文字列
      */
     public static void log(String msg) {
-        if (Log.logOutputFlag && Log.infoOutputFlag) {
-            System.err.println(msg);
+        if (Log.isLogEnabled()) {
+            Log.enqueue(msg);
+        }
+    }
+
+    /**
+     * ログを出力する。
+     *
+     * <p>
+     * 表示文字列は出力する場合にのみ生成される。
+     *
+     * @param msgSupplier 表示文字列を生成する関数
+     */
+    public static void log(Supplier<String> msgSupplier) {
+        if (Log.isLogEnabled()) {
+            Log.enqueue(msgSupplier.get());
+        }
+    }
+
+    /**
+     * 書式を指定してログを出力する。
+     *
+     * <p>
+     * 書式中の{@literal {}}を引数の文字列表現で順に置き換える。
+     * 置き換えは出力する場合にのみ行われる。
+     * プリミティブ型の引数は出力しない場合もボックス化されるため、頻繁に呼び出される箇所では{@link #isLogEnabled()}で確認してから呼び出す。
+     *
+     * @param pattern 書式
+     * @param arg 引数
+     */
+    public static void log(String pattern, Object arg) {
+        if (Log.isLogEnabled()) {
+            Log.enqueue(Log.format(pattern, arg));
+        }
+    }
+
+    /**
+     * 書式を指定してログを出力する。
+     *
+     * @param pattern 書式
+     * @param arg1 1番目の引数
+     * @param arg2 2番目の引数
+     * @see #log(String, Object)
+     */
+    public static void log(String pattern, Object arg1, Object arg2) {
+        if (Log.isLogEnabled()) {
+            Log.enqueue(Log.format(pattern, arg1, arg2));
         }
     }
 
@@ -42,7 +124,149 @@ public class Log {
      */
     public static void info(String msg) {
         if (Log.infoOutputFlag) {
-            System.err.println(msg);
+            if (Log.isLogEnabled()) {
+                // ログとの順序を保つため、ログと同じキューを経由する
+                Log.enqueue(msg);
+            }
+            else {
+                System.err.println(msg);
+            }
+        }
+    }
+
+    /**
+     * ログを出力する設定になっているかを取得する。
+     *
+     * @return boolean ログを出力する場合true
+     */
+    public static boolean isLogEnabled() {
+        return Log.logOutputFlag && Log.infoOutputFlag;
+    }
+
+    /**
+     * 書式中の{@literal {}}を引数の文字列表現で順に置き換える。
+     *
+     * @param pattern 書式
+     * @param args 引数
+     * @return String 置き換えた文字列
+     */
+    private static String format(String pattern, Object... args) {
+        StringBuilder builder = new StringBuilder(pattern.length() + 16);
+        int argIndex = 0;
+        int start = 0;
+        while (true) {
+            int index = pattern.indexOf("{}", start);
+            if (index < 0 || argIndex >= args.length) {
+                break;
+            }
+            builder.append(pattern, start, index).append(args[argIndex++]);
+            start = index + 2;
+        }
+        builder.append(pattern, start, pattern.length());
+
+        return builder.toString();
+    }
+
+    /**
+     * メッセージを非同期出力のキューに積む。
+     *
+     * <p>
+     * 初めて呼び出した際に書き込み用のスレッドを起動する。
+     * キューが満杯の場合は待機せずにメッセージを破棄する。
+     *
+     * @param msg 表示文字列
+     */
+    private static void enqueue(String msg) {
+        BlockingQueue<Object> queue = Log.getAsyncQueueInstance();
+        if (!queue.offer(msg)) {
+            Log.droppedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * {@link #asyncQueue}のインスタンスを取得する。
+     *
+     * <p>
+     * プログラム中で{@link #asyncQueue}のインスタンスを参照する場合は、必ずこのメソッドを経由する。
+     * 初めて呼び出した際に{@link #asyncQueue}をインスタンス化し、書き込み用のスレッドを起動する。
+     *
+     * @return BlockingQueue<Object> {@link #asyncQueue}インスタンス
+     */
+    private static BlockingQueue<Object> getAsyncQueueInstance() {
+        BlockingQueue<Object> queue = Log.asyncQueue;
+        if (queue != null) {
+            return queue;
+        }
+
+        synchronized (Log.class) {
+            if (Log.asyncQueue == null) {
+                queue = new LinkedBlockingQueue<>(Log.QUEUE_CAPACITY);
+                final BlockingQueue<Object> drainedQueue = queue;
+                Thread writer = new Thread(()->Log.drain(drainedQueue), "log-writer");
+                writer.setDaemon(true);
+                writer.start();
+                Runtime.getRuntime().addShutdownHook(new Thread(()->Log.flush()));
+
+                Log.asyncQueue = queue;
+            }
+            return Log.asyncQueue;
+        }
+    }
+
+    /**
+     * キューに積まれたメッセージをまとめて標準エラー出力へ書き込む。
+     *
+     * @param queue 非同期出力のキュー
+     */
+    private static void drain(BlockingQueue<Object> queue) {
+        PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.err), 1 << 16));
+        ArrayList<Object> items = new ArrayList<>();
+        try {
+            while (true) {
+                items.add(queue.take());
+                queue.drainTo(items);
+                for (Object item: items) {
+                    if (item instanceof CountDownLatch) {
+                        long dropped = Log.droppedCount.getAndSet(0);
+                        if (dropped > 0) {
+                            writer.println(dropped + " log messages were dropped");
+                        }
+                        writer.flush();
+                        ((CountDownLatch) item).countDown();
+                    }
+                    else {
+                        writer.println((String) item);
+                    }
+                }
+                items.clear();
+                writer.flush();
+            }
+        }
+        catch (InterruptedException e) {
+            writer.flush();
+        }
+    }
+
+    /**
+     * 非同期出力のキューに積まれたメッセージを全て書き込むまで待機する。
+     *
+     * <p>
+     * 非同期出力を使用していない場合は何もしない。
+     * プログラムの終了時に呼び出す。
+     */
+    public static void flush() {
+        BlockingQueue<Object> queue = Log.asyncQueue;
+        if (queue == null) {
+            return;
+        }
+
+        CountDownLatch latch = new CountDownLatch(1);
+        try {
+            queue.put(latch);
+            latch.await(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -0,0 +1,279 @@
+package MML2Audio.Util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 処理時間や処理量などの計測値を集計する。
+ *
+ * <p>
+ * 計測値は名前を付けたカウンタとしてプロセス全体で共有し、複数のスレッドから同時に加算できる。
+ * カウンタの名前は{@literal <処理>.<単位>}の形式とし、以下の単位を使用する。
+ * <ul>
+ *  <li> nanos: 処理時間 [ns]
+ *  <li> allocatedBytes: 処理中に確保したヒープ領域 [byte]
+ *  <li> hits, misses: キャッシュの参照結果
+ *  <li> その他(notes, frames, bytesなど): 処理量
+ * </ul>
+ *
+ * <p>
+ * {@link #snapshot()}でカウンタの値を取得でき、{@link #toJson()}で処理量/秒やキャッシュヒット率を加えたレポートを生成できる。
+ */
+public class Metrics {
+    /**
+     * カウンタの名前と値の対応表。
+     */
+    private static ConcurrentHashMap<String, LongAdder> counterMap = new ConcurrentHashMap<>();
+
+    /**
+     * スレッドごとのヒープ確保量の取得に使用する。取得できない環境ではnull。
+     */
+    private static com.sun.management.ThreadMXBean threadMXBean = Metrics.initThreadMXBean();
+
+    /**
+     * 処理1回分の処理時間とヒープ確保量を計測する。
+     *
+     * <p>
+     * {@link Metrics#start}で計測を開始し、{@link #stop}で{@literal <name>.nanos}と{@literal <name>.allocatedBytes}に加算する。
+     * 計測は開始したスレッドと同じスレッドで終了する必要がある。
+     */
+    public static class Stage {
+        /**
+         * 処理の名前。
+         */
+        private String name;
+        /**
+         * 計測開始時刻 [ns]。
+         */
+        private long startNanos;
+        /**
+         * 計測開始時点のヒープ確保量 [byte]。
+         */
+        private long startAllocatedBytes;
+
+        private Stage(String name) {
+            this.name = name;
+            this.startAllocatedBytes = Metrics.getCurrentThreadAllocatedBytes();
+            this.startNanos = System.nanoTime();
+        }
+
+        /**
+         * 計測を終了し、計測値をカウンタに加算する。
+         *
+         * @return long 処理時間 [ns]
+         */
+        public long stop() {
+            long nanos = System.nanoTime() - this.startNanos;
+            Metrics.add(this.name + ".nanos", nanos);
+            long allocatedBytes = Metrics.getCurrentThreadAllocatedBytes();
+            if (allocatedBytes >= 0 && this.startAllocatedBytes >= 0) {
+                Metrics.add(this.name + ".allocatedBytes", allocatedBytes - this.startAllocatedBytes);
+            }
+            return nanos;
+        }
+    }
+
+    /**
+     * ヒープ確保量を取得できる{@link ThreadMXBean}を初期化する。
+     */
+    private static com.sun.management.ThreadMXBean initThreadMXBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported()) {
+                sunBean.setThreadAllocatedMemoryEnabled(true);
+                return sunBean;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 現在のスレッドがこれまでに確保したヒープ領域の量を取得する。
+     *
+     * @return long 確保量 [byte]。取得できない場合は-1
+     */
+    private static long getCurrentThreadAllocatedBytes() {
+        if (Metrics.threadMXBean == null) {
+            return -1;
+        }
+        return Metrics.threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * 処理時間とヒープ確保量の計測を開始する。
+     *
+     * @param name 処理の名前
+     * @return Stage 計測を終了する為のオブジェクト
+     */
+    public static Stage start(String name) {
+        return new Stage(name);
+    }
+
+    /**
+     * 処理を実行し、実行したスレッドでのヒープ確保量を{@literal <name>.allocatedBytes}に加算する。
+     *
+     * <p>
+     * 処理時間は加算しない。{@link Stage}で計測している処理の一部を別のスレッドで実行する場合に、
+     * そのスレッドでの確保量を同じ名前で集計するために使用する。
+     *
+     * @param <T> 処理の結果の型
+     * @param name 処理の名前
+     * @param task 処理
+     * @return T 処理の結果
+     * @throws Exception 処理で発生した例外
+     */
+    public static <T> T measureAllocation(String name, Callable<T> task) throws Exception {
+        long startAllocatedBytes = Metrics.getCurrentThreadAllocatedBytes();
+        try {
+            return task.call();
+        }
+        finally {
+            long allocatedBytes = Metrics.getCurrentThreadAllocatedBytes();
+            if (allocatedBytes >= 0 && startAllocatedBytes >= 0) {
+                Metrics.add(name + ".allocatedBytes", allocatedBytes - startAllocatedBytes);
+            }
+        }
+    }
+
+    /**
+     * カウンタに値を加算する。
+     *
+     * @param name カウンタの名前
+     * @param amount 加算する値
+     */
+    public static void add(String name, long amount) {
+        Metrics.counter(name).add(amount);
+    }
+
+    /**
+     * カウンタを取得する。
+     *
+     * <p>
+     * 存在しない場合は新たに作成する。
+     * 頻繁に加算する箇所では、名前による検索を避ける為に取得したカウンタを保持して使用する。
+     *
+     * @param name カウンタの名前
+     * @return LongAdder カウンタ
+     */
+    public static LongAdder counter(String name) {
+        return Metrics.counterMap.computeIfAbsent(name, (String key)->new LongAdder());
+    }
+
+    /**
+     * 全てのカウンタの現在の値を取得する。
+     *
+     * @return SortedMap<String, Long> カウンタの名前と値の対応表 (変更不可)
+     */
+    public static SortedMap<String, Long> snapshot() {
+        TreeMap<String, Long> snapshot = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> ent: Metrics.counterMap.entrySet()) {
+            snapshot.put(ent.getKey(), ent.getValue().sum());
+        }
+        return Collections.unmodifiableSortedMap(snapshot);
+    }
+
+    /**
+     * カウンタの値から処理量/秒とキャッシュヒット率を計算する。
+     *
+     * <p>
+     * {@literal <処理>.nanos}と同じ処理の他のカウンタ{@literal <処理>.<単位>}から{@literal <処理>.<単位>PerSecond}を、
+     * {@literal <処理>.hits}と{@literal <処理>.misses}から{@literal <処理>.hitRate}を求める。
+     *
+     * @param snapshot {@link #snapshot()}で取得したカウンタの値
+     * @return SortedMap<String, Double> 計算値の名前と値の対応表
+     */
+    public static SortedMap<String, Double> derive(SortedMap<String, Long> snapshot) {
+        TreeMap<String, Double> derived = new TreeMap<>();
+        for (Map.Entry<String, Long> ent: snapshot.entrySet()) {
+            String name = ent.getKey();
+            int dot = name.lastIndexOf('.');
+            if (dot < 0) {
+                continue;
+            }
+            String stage = name.substring(0, dot);
+            String unit = name.substring(dot + 1);
+
+            Long nanos = snapshot.get(stage + ".nanos");
+            if (nanos != null && nanos > 0 && !unit.equals("nanos") && !unit.equals("allocatedBytes")
+                    && !unit.equals("hits") && !unit.equals("misses")) {
+                derived.put(stage + "." + unit + "PerSecond", ent.getValue() * 1e9 / nanos);
+            }
+            if (unit.equals("hits")) {
+                long misses = snapshot.getOrDefault(stage + ".misses", 0L);
+                long total = ent.getValue() + misses;
+                if (total > 0) {
+                    derived.put(stage + ".hitRate", ent.getValue() / (double) total);
+                }
+            }
+        }
+        return derived;
+    }
+
+    /**
+     * カウンタの値と計算値をJSON形式の文字列で取得する。
+     *
+     * @return String {@literal {"counters": {...}, "derived": {...}}}形式の文字列
+     */
+    public static String toJson() {
+        SortedMap<String, Long> snapshot = Metrics.snapshot();
+        SortedMap<String, Double> derived = Metrics.derive(snapshot);
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("{\n  \"counters\": {");
+        String separator = "\n";
+        for (Map.Entry<String, Long> ent: snapshot.entrySet()) {
+            builder.append(separator).append("    \"").append(Metrics.escapeJson(ent.getKey())).append("\": ").append(ent.getValue());
+            separator = ",\n";
+        }
+        builder.append("\n  },\n  \"derived\": {");
+        separator = "\n";
+        for (Map.Entry<String, Double> ent: derived.entrySet()) {
+            builder.append(separator).append("    \"").append(Metrics.escapeJson(ent.getKey())).append("\": ").append(ent.getValue());
+            separator = ",\n";
+        }
+        builder.append("\n  }\n}\n");
+
+        return builder.toString();
+    }
+
+    /**
+     * JSONの文字列に含められるよう、バックスラッシュ・ダブルクォート・制御文字をエスケープする。
+     *
+     * <p>
+     * カウンタ名にはWAVファイルのパスを含むwaveGeneratorIdが入る場合がある。
+     *
+     * @param str エスケープする文字列
+     * @return String エスケープした文字列
+     */
+    private static String escapeJson(String str) {
+        StringBuilder builder = new StringBuilder(str.length());
+        for (int i=0; i<str.length(); i++) {
+            char c = str.charAt(i);
+            if (c == '\\' || c == '"') {
+                builder.append('\\').append(c);
+            }
+            else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int) c));
+            }
+            else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 全てのカウンタを削除する。
+     */
+    public static void reset() {
+        Metrics.counterMap.clear();
+    }
+}
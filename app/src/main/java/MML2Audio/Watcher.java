@@ -0,0 +1,399 @@
+package MML2Audio;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import MML2Audio.Channel.Channel;
+import MML2Audio.Note.Note;
+import MML2Audio.Output.AudioSink;
+import MML2Audio.Render.ChannelRenderer;
+import MML2Audio.Render.Pcm;
+import MML2Audio.Render.Timeline;
+import MML2Audio.Sample.Sample;
+import MML2Audio.Util.Log;
+import MML2Audio.Util.Metrics;
+
+/**
+ * MMLファイルの保存を監視し、変更されたチャンネルのみを描画し直して出力ファイルを更新する。
+ *
+ * <p>
+ * 読み込みは{@link MmlReader#mmlCompiler}で行うため、内容が変わっていないチャンネル定義は{@link MmlReader#getChannelCache()}から
+ * 同じ{@link Channel}を取得し、変換し直さない。
+ * 前回の曲データと描画結果(ミキシング結果)を保持し、変更されたチャンネルについては最初に異なるノートの位置以降だけを、
+ * 前回の内容を描画して差し引き、新しい内容を描画して加算する。
+ * ミキシングはサンプルのビット数で桁あふれさせる加算のため、差し替えた結果は全体を描画し直した結果と一致する。
+ *
+ * <p>
+ * チャンネル数・テンポ・リバーブなど、全てのチャンネルに影響する変更があった場合は全体を描画し直す。
+ * 読み込んだWAVファイル(サンプルやインパルス応答)も監視し、変更された場合は読み込み直して全体を描画し直す。
+ * 出力ファイルは描画結果全体を毎回書き込む。使用するメモリはミキシング結果1つ分となる。
+ */
+public class Watcher {
+    /**
+     * 保存の完了を待つ時間 [ms]。この時間内に続いた変更はまとめて扱う。
+     */
+    public static final long DEBOUNCE_MILLIS = 200;
+    /**
+     * 差分の描画を行う単位のフレーム数。
+     */
+    private static final int PATCH_FRAMES = Pipeline.BLOCK_FRAMES;
+
+    /**
+     * 描画結果の書き込み先を生成する。
+     */
+    @FunctionalInterface
+    public interface SinkFactory {
+        /**
+         * 書き込み先を生成する。
+         *
+         * @param music 曲データ
+         * @param numOfFrame 書き込むフレーム数
+         * @return AudioSink 書き込み先
+         * @throws IOException 書き込み先の生成に失敗した場合に発生する
+         */
+        AudioSink create(Music music, long numOfFrame) throws IOException;
+    }
+
+    /**
+     * 監視するMMLファイルのパス。
+     */
+    private Path filePath;
+    /**
+     * 出力設定を済ませた空の{@link Music}を生成する。
+     */
+    private Supplier<Music> musicFactory;
+    /**
+     * 描画結果の書き込み先。
+     */
+    private SinkFactory sinkFactory;
+    /**
+     * 前回の曲データ。
+     */
+    private Music music = null;
+    /**
+     * 前回の描画結果。
+     */
+    private byte[] audioBuffer = null;
+    /**
+     * 変更を監視するファイル。MMLファイルと読み込み済みのWAVファイル。
+     */
+    private Set<Path> watchedFiles = new HashSet<>();
+    /**
+     * 監視に登録したディレクトリ。
+     */
+    private Set<Path> watchedDirectories = new HashSet<>();
+
+    /**
+     * 監視するファイルと出力先を設定する。
+     *
+     * @param filePath 監視するMMLファイルのパス
+     * @param musicFactory 出力設定を済ませた空の{@link Music}を生成する
+     * @param sinkFactory 描画結果の書き込み先を生成する
+     */
+    public Watcher(String filePath, Supplier<Music> musicFactory, SinkFactory sinkFactory) {
+        this.filePath = Path.of(filePath).toAbsolutePath();
+        this.musicFactory = musicFactory;
+        this.sinkFactory = sinkFactory;
+    }
+
+    /**
+     * 描画と書き込みを1度行った後、ファイルが保存される度に描画し直して書き込む。
+     *
+     * <p>
+     * 割り込まれるまで戻らない。描画や書き込みに失敗した場合はエラーを表示して監視を続ける。
+     *
+     * @throws IOException 監視の開始に失敗した場合に発生する
+     * @throws InterruptedException 待機中に割り込まれた場合に発生する
+     */
+    public void watch() throws IOException, InterruptedException {
+        this.updateSafely();
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            this.filePath.getParent().register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            this.watchedDirectories.add(this.filePath.getParent());
+            this.registerSamples(watchService);
+            Log.info("Watching " + this.filePath + " (Ctrl+C to stop)");
+
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = this.isTargetChanged(key);
+                // エディタによっては1回の保存で複数の変更が通知されるため、通知が止むまで待つ
+                while (true) {
+                    key = watchService.poll(Watcher.DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+                    if (key == null) {
+                        break;
+                    }
+                    changed |= this.isTargetChanged(key);
+                }
+                if (changed) {
+                    this.updateSafely();
+                    this.registerSamples(watchService);
+                }
+            }
+        }
+    }
+
+    /**
+     * 読み込み済みのWAVファイルを監視対象に加え、そのディレクトリを監視に登録する。
+     *
+     * <p>
+     * 登録できないディレクトリは警告を表示し、そのディレクトリのファイルの変更は検知しない。
+     */
+    private void registerSamples(WatchService watchService) {
+        Set<Path> files = new HashSet<>(Sample.getLoadedPaths());
+        files.add(this.filePath);
+        for (Path file: files) {
+            Path directory = file.getParent();
+            if (this.watchedDirectories.contains(directory)) {
+                continue;
+            }
+            try {
+                directory.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+                this.watchedDirectories.add(directory);
+            }
+            catch (IOException e) {
+                System.err.println("Cannot watch " + directory + ": " + e.getMessage());
+            }
+        }
+        this.watchedFiles = files;
+    }
+
+    /**
+     * 通知された変更に監視対象のファイルが含まれるかを調べ、通知を受け付け直す。
+     */
+    private boolean isTargetChanged(WatchKey key) {
+        boolean changed = false;
+        Path directory = (Path) key.watchable();
+        for (WatchEvent<?> event: key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                || this.watchedFiles.contains(directory.resolve((Path) event.context())))
+            {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    /**
+     * {@link #update()}を行い、失敗した場合はエラーを表示する。
+     */
+    private void updateSafely() {
+        try {
+            this.update();
+        }
+        catch (IOException | RuntimeException e) {
+            System.err.println("Update failed");
+            e.printStackTrace();
+        }
+        Log.flush();
+    }
+
+    /**
+     * MMLファイルを読み込み直し、描画結果を更新して書き込む。
+     *
+     * <p>
+     * ファイルが読み込めない場合(保存の途中など)は何もしない。
+     *
+     * @throws IOException 書き込みに失敗した場合に発生する
+     */
+    public void update() throws IOException {
+        if (!Files.isReadable(this.filePath)) {
+            Log.info("Skipped: " + this.filePath + " is not readable");
+            return;
+        }
+        long startNanos = System.nanoTime();
+        Music music = this.musicFactory.get();
+        MmlReader.mmlCompiler(this.filePath.toString(), music);
+        byte[] audioBuffer = this.render(music);
+
+        AudioSink sink = this.sinkFactory.create(music, audioBuffer.length / music.getAudioFormat().getFrameSize());
+        int blockBytes = Watcher.PATCH_FRAMES * music.getAudioFormat().getFrameSize();
+        try {
+            for (int offset=0; offset<audioBuffer.length; offset+=blockBytes) {
+                sink.write(audioBuffer, offset, Math.min(blockBytes, audioBuffer.length - offset));
+            }
+        }
+        finally {
+            sink.close();
+        }
+        Log.info(String.format("Updated in %.0f ms", (System.nanoTime() - startNanos) / 1e6));
+    }
+
+    /**
+     * 曲データを描画し、前回の曲データとして保持する。
+     *
+     * <p>
+     * 前回の曲データとの差分のみを描画できる場合は、前回の描画結果を書き換えて返却する。
+     * 読み込み済みのWAVファイルが変更されていた場合は、読み込み直して全体を描画する。
+     *
+     * @param music 新しい曲データ
+     * @return byte[] 曲全体の描画結果 (次回の描画で書き換えられる)
+     */
+    public byte[] render(Music music) {
+        // 変更前のサンプルは前回の内容を差し引く際にも参照しないため、差分の描画は行わない
+        boolean samplesModified = Sample.removeModified();
+        List<Integer> changedChannels = samplesModified ? null : this.findChangedChannels(music);
+        if (changedChannels == null) {
+            Log.info("Rendering all channels...");
+            this.audioBuffer = music.generateAudioBuffer();
+            Metrics.add("watch.frames", this.audioBuffer.length / music.getAudioFormat().getFrameSize());
+        }
+        else {
+            this.patch(music, changedChannels);
+        }
+        this.music = music;
+        return this.audioBuffer;
+    }
+
+    /**
+     * 差分のみを描画できるかを判定し、内容が変わったチャンネルを求める。
+     *
+     * @param music 新しい曲データ
+     * @return List<Integer> 内容が変わったチャンネルの番号。全体を描画し直す必要がある場合はnull
+     */
+    private List<Integer> findChangedChannels(Music music) {
+        Music previous = this.music;
+        if (previous == null
+            || previous.getNumberOfChannel() != music.getNumberOfChannel()
+            || previous.getBpm() != music.getBpm()
+            || previous.getReverb() != null
+            || music.getReverb() != null)
+        {
+            return null;
+        }
+
+        List<Integer> changedChannels = new ArrayList<>();
+        for (int c=0; c<music.getNumberOfChannel(); c++) {
+            Channel oldChannel = previous.getChannelList().get(c);
+            Channel newChannel = music.getChannelList().get(c);
+            if (oldChannel == newChannel) {
+                continue;
+            }
+            // テンポ変更は全てのチャンネルに、リバーブは描画後の処理に影響する
+            // ノイズは描画の度に異なるため、前回の内容を差し引くことができない
+            if (!oldChannel.getTempoList().isEmpty() || !newChannel.getTempoList().isEmpty()
+                || oldChannel.getReverb() != null || newChannel.getReverb() != null
+                || Watcher.containsNoise(oldChannel) || Watcher.containsNoise(newChannel))
+            {
+                return null;
+            }
+            changedChannels.add(c);
+        }
+        return changedChannels;
+    }
+
+    /**
+     * チャンネルがノイズのノートを含むかを判定する。
+     */
+    private static boolean containsNoise(Channel channel) {
+        for (Note note: channel.getNoteList()) {
+            if ("noise".equals(note.getWaveGeneratorId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 内容が変わったチャンネルについて、最初に異なるノート以降の描画結果を差し替える。
+     *
+     * @param music 新しい曲データ
+     * @param changedChannels 内容が変わったチャンネルの番号
+     */
+    private void patch(Music music, List<Integer> changedChannels) {
+        Music previous = this.music;
+        Timeline oldTimeline = previous.getTimeline();
+        Timeline newTimeline = music.getTimeline();
+        int frameSize = music.getAudioFormat().getFrameSize();
+        int bytesPerSample = music.getAudioFormat().getSampleSizeInBits() / 8;
+
+        long numOfFrame = music.calcNumberOfFrame();
+        if (numOfFrame * frameSize != this.audioBuffer.length) {
+            // 伸びた部分は変更されていないチャンネルにとっては無音となる
+            this.audioBuffer = Arrays.copyOf(this.audioBuffer, (int) (numOfFrame * frameSize));
+        }
+
+        byte[] scratch = new byte[Watcher.PATCH_FRAMES * frameSize];
+        for (int c: changedChannels) {
+            long startFrame = Watcher.findFirstDifference(previous, oldTimeline, music, newTimeline, c);
+            long endFrame = Math.min(
+                Math.max(oldTimeline.getChannelEndFrame(c), newTimeline.getChannelEndFrame(c)),
+                numOfFrame);
+            if (startFrame >= endFrame) {
+                continue;
+            }
+            Log.info(String.format("Re-rendering channel %d from %.2f s", c + 1, startFrame / music.getSampleRate()));
+
+            ChannelRenderer oldRenderer = new ChannelRenderer(previous, oldTimeline, c);
+            ChannelRenderer newRenderer = new ChannelRenderer(music, newTimeline, c);
+            oldRenderer.seek(startFrame);
+            newRenderer.seek(startFrame);
+            for (long frame=startFrame; frame<endFrame; frame+=Watcher.PATCH_FRAMES) {
+                int length = (int) Math.min(Watcher.PATCH_FRAMES, endFrame - frame);
+                // 前回の内容を差し引く
+                Arrays.fill(scratch, (byte) 0);
+                oldRenderer.render(scratch, 0, length);
+                for (int i=0; i<length; i++) {
+                    Pcm.addSample(this.audioBuffer, (int) frame + i, bytesPerSample, -Pcm.getSample(scratch, i, bytesPerSample));
+                }
+                // 新しい内容を加算する
+                Arrays.fill(scratch, (byte) 0);
+                newRenderer.render(scratch, 0, length);
+                Pcm.addBuffer(this.audioBuffer, (int) frame, scratch, 0, length, bytesPerSample);
+            }
+            Metrics.add("watch.frames", endFrame - startFrame);
+        }
+    }
+
+    /**
+     * 2つの曲データのチャンネルを演奏順に比べ、最初に異なるノートの開始フレームを求める。
+     *
+     * @param oldMusic 前回の曲データ
+     * @param oldTimeline 前回のタイムライン
+     * @param newMusic 新しい曲データ
+     * @param newTimeline 新しいタイムライン
+     * @param c チャンネル番号
+     * @return long 最初に異なるノートの開始フレーム。異ならない場合は{@link Long#MAX_VALUE}
+     */
+    private static long findFirstDifference(Music oldMusic, Timeline oldTimeline, Music newMusic, Timeline newTimeline, int c) {
+        List<Note> oldNotes = oldMusic.getChannelList().get(c).getNoteList();
+        List<Note> newNotes = newMusic.getChannelList().get(c).getNoteList();
+        Timeline.Cursor oldCursor = oldTimeline.createCursor(c, 0);
+        Timeline.Cursor newCursor = newTimeline.createCursor(c, 0);
+        while (!oldCursor.isFinished() && !newCursor.isFinished()) {
+            Note oldNote = oldNotes.get(oldCursor.getNoteIndex());
+            Note newNote = newNotes.get(newCursor.getNoteIndex());
+            if (oldCursor.getStartFrame() != newCursor.getStartFrame()
+                || oldCursor.getEndFrame() != newCursor.getEndFrame()
+                || !Objects.equals(oldNote, newNote))
+            {
+                return Math.min(oldCursor.getStartFrame(), newCursor.getStartFrame());
+            }
+            oldCursor.next();
+            newCursor.next();
+        }
+        if (!oldCursor.isFinished()) {
+            return oldCursor.getStartFrame();
+        }
+        if (!newCursor.isFinished()) {
+            return newCursor.getStartFrame();
+        }
+        return Long.MAX_VALUE;
+    }
+}
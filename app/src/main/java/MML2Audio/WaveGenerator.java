@@ -1,10 +1,14 @@
 package MML2Audio;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.BiFunction;
 
 import MML2Audio.Exception.InvalidGeneratorId;
+import MML2Audio.Sample.Sample;
 
 /**
  * 音声波生成関数を提供する。
@@ -12,6 +16,10 @@ import MML2Audio.Exception.InvalidGeneratorId;
  * <p>
  * 第1引数に周波数[Hz]、第2引数に時間[s]を受け取り、その時間における波形の値を返却する音声波生成関数を提供する。
  * また、MML文に記述するwaveGeneratorIdと音声波生成関数を対応付けた{@link #waveGeneratorMap}を提供する。
+ * 
+ * <p>
+ * {@link #SAMPLE_PREFIX}で始まるwaveGeneratorId({@literal sample:<WAVファイルのパス>})は、WAVファイルを再生する{@link Sample}の音声波生成関数となる。
+ * パスが相対パスの場合は作業ディレクトリを基準とする。
  */
 public class WaveGenerator {
     /**
@@ -20,7 +28,34 @@ public class WaveGenerator {
      * <p>
      * keyとしてwaveGeneratorId、valueとして対応する音声波生成関数の関数オブジェクトが格納される。
      */
-    private static HashMap<String, BiFunction<Double, Double, Double>> waveGeneratorMap;
+    private static volatile HashMap<String, BiFunction<Double, Double, Double>> waveGeneratorMap;
+    /**
+     * waveGeneratorIdと試聴用の音声波生成関数の対応表。
+     * 
+     * <p>
+     * {@link #waveGeneratorMap}と同じkeyを持ち、valueには計算量の少ない近似関数が格納される。
+     */
+    private static volatile HashMap<String, BiFunction<Double, Double, Double>> draftWaveGeneratorMap;
+
+    /**
+     * WAVファイルを再生するwaveGeneratorIdの接頭辞。
+     */
+    public static final String SAMPLE_PREFIX = "sample:";
+
+    /**
+     * {@link #draftSin}で参照するサイン波1周期分の値の表の要素数。2の累乗とする。
+     */
+    private static final int SIN_TABLE_SIZE = 1024;
+    /**
+     * サイン波1周期分の値の表。
+     */
+    private static final double[] SIN_TABLE = new double[WaveGenerator.SIN_TABLE_SIZE];
+
+    static {
+        for (int i=0; i<WaveGenerator.SIN_TABLE_SIZE; i++) {
+            WaveGenerator.SIN_TABLE[i] = Math.sin(Math.PI * 2 * i / WaveGenerator.SIN_TABLE_SIZE);
+        }
+    }
 
     /** 
      * サイン波を生成する。
@@ -73,6 +108,35 @@ public class WaveGenerator {
         return rand.nextDouble() * 2 - 1;
     }
 
+    /** 
+     * サイン波を表引きで近似して生成する。
+     * 
+     * <p>
+     * 位相を{@link #SIN_TABLE_SIZE}段階に丸めるため、{@link #sin}より精度は劣るが計算量が少ない。
+     * 
+     * @param freq 周波数[Hz]
+     * @param t 時間[s]
+     * @return double 値[-1.0 : 1.0]
+     */
+    public static double draftSin(double freq, double t) {
+        long index = (long) (freq * t * WaveGenerator.SIN_TABLE_SIZE);
+        return WaveGenerator.SIN_TABLE[(int) (index & (WaveGenerator.SIN_TABLE_SIZE - 1))];
+    }
+
+    /** 
+     * ノイズを計算量の少ない方法で生成する。
+     * 
+     * <p>
+     * 呼び出し毎に乱数生成器を生成する{@link #noise}と異なり、スレッド毎の乱数生成器を共有する。
+     * 
+     * @param freq 周波数[Hz]
+     * @param t 時間[s]
+     * @return double 値[-1.0 : 1.0]
+     */
+    public static double draftNoise(double freq, double t) {
+        return ThreadLocalRandom.current().nextDouble() * 2 - 1;
+    }
+
     /** 
      * 音声波生成関数を取得する。
      * 
@@ -81,6 +145,10 @@ public class WaveGenerator {
      * @throws InvalidGeneratorId 未定義のwaveGeneratorIdが渡された場合に発生する
      */
     public static BiFunction<Double, Double, Double>  getWaveGenerator(String generatorId) throws InvalidGeneratorId {
+        if (generatorId.startsWith(WaveGenerator.SAMPLE_PREFIX)) {
+            return WaveGenerator.getSampleGenerator(generatorId);
+        }
+
         HashMap<String, BiFunction<Double, Double, Double>> wgm;
         wgm = WaveGenerator.getWaveGeneratorMapInstance();
 
@@ -91,6 +159,58 @@ public class WaveGenerator {
         throw new InvalidGeneratorId();
     }
 
+    /** 
+     * 試聴用の音声波生成関数を取得する。
+     * 
+     * <p>
+     * {@link #getWaveGenerator}と同じwaveGeneratorIdを受け付け、計算量の少ない近似関数を返却する。
+     * 近似を持たない音声波生成関数(WAVファイルの再生を含む)はそのまま返却する。
+     * 
+     * @param generatorId
+     * @return BiFunction<Double, Double, Double>
+     * @throws InvalidGeneratorId 未定義のwaveGeneratorIdが渡された場合に発生する
+     */
+    public static BiFunction<Double, Double, Double> getDraftWaveGenerator(String generatorId) throws InvalidGeneratorId {
+        if (generatorId.startsWith(WaveGenerator.SAMPLE_PREFIX)) {
+            return WaveGenerator.getSampleGenerator(generatorId);
+        }
+
+        HashMap<String, BiFunction<Double, Double, Double>> map = WaveGenerator.draftWaveGeneratorMap;
+        if (map == null) {
+            synchronized (WaveGenerator.class) {
+                if (WaveGenerator.draftWaveGeneratorMap == null) {
+                    map = new HashMap<String, BiFunction<Double, Double, Double>>(WaveGenerator.getWaveGeneratorMapInstance());
+                    map.put("sin", WaveGenerator::draftSin);
+                    map.put("noise", WaveGenerator::draftNoise);
+                    WaveGenerator.draftWaveGeneratorMap = map;
+                }
+                map = WaveGenerator.draftWaveGeneratorMap;
+            }
+        }
+
+        if (map.containsKey(generatorId)) {
+            return map.get(generatorId);
+        }
+
+        throw new InvalidGeneratorId();
+    }
+
+    /** 
+     * WAVファイルを再生する音声波生成関数を取得する。
+     * 
+     * @param generatorId {@link #SAMPLE_PREFIX}で始まるwaveGeneratorId
+     * @return BiFunction<Double, Double, Double>
+     * @throws InvalidGeneratorId WAVファイルを読み込めなかった場合に発生する
+     */
+    private static BiFunction<Double, Double, Double> getSampleGenerator(String generatorId) throws InvalidGeneratorId {
+        try {
+            return Sample.load(Path.of(generatorId.substring(WaveGenerator.SAMPLE_PREFIX.length()))).getGenerator();
+        }
+        catch (IOException | RuntimeException e) {
+            throw new InvalidGeneratorId(generatorId + ": " + e.getMessage());
+        }
+    }
+
     /** 
      * {@link #waveGeneratorMap}のインスタンスを取得する。
      * 
@@ -102,16 +222,21 @@ public class WaveGenerator {
      * @return HashMap<String, BiFunction<Double, Double, Double>> @{link #waveGeneratorMap}インスタンス
      */
     private static HashMap<String, BiFunction<Double, Double, Double>> getWaveGeneratorMapInstance() {
-        if (WaveGenerator.waveGeneratorMap != null) {
-            return WaveGenerator.waveGeneratorMap;
+        HashMap<String, BiFunction<Double, Double, Double>> map = WaveGenerator.waveGeneratorMap;
+        if (map != null) {
+            return map;
         }
 
-        WaveGenerator.waveGeneratorMap = new HashMap<String, BiFunction<Double, Double, Double>>();
-        WaveGenerator.waveGeneratorMap.put("sin", WaveGenerator::sin);
-        WaveGenerator.waveGeneratorMap.put("square", WaveGenerator::square);
-        WaveGenerator.waveGeneratorMap.put("sawtooth", WaveGenerator::sawtooth);
-        WaveGenerator.waveGeneratorMap.put("noise", WaveGenerator::noise);
-
-        return WaveGenerator.waveGeneratorMap;
+        synchronized (WaveGenerator.class) {
+            if (WaveGenerator.waveGeneratorMap == null) {
+                map = new HashMap<String, BiFunction<Double, Double, Double>>();
+                map.put("sin", WaveGenerator::sin);
+                map.put("square", WaveGenerator::square);
+                map.put("sawtooth", WaveGenerator::sawtooth);
+                map.put("noise", WaveGenerator::noise);
+                WaveGenerator.waveGeneratorMap = map;
+            }
+            return WaveGenerator.waveGeneratorMap;
+        }
     }
 }
@@ -0,0 +1,51 @@
+package MML2Audio.Bench;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import MML2Audio.MmlReader;
+import MML2Audio.Music;
+
+public class ScoreGeneratorTest {
+    @Test
+    @DisplayName("生成したMMLが指定した規模の曲として読み込めることのテスト")
+    void testGenerate() throws IOException {
+        ScoreGenerator generator = new ScoreGenerator(3, 5, 8, new String[] {"sin", "square"});
+        generator.setSeed(42);
+        String mml = generator.generate();
+        assertEquals(mml, generator.generate());
+
+        Path path = Files.createTempFile("score", ".mml");
+        path.toFile().deleteOnExit();
+        Files.writeString(path, mml);
+        Music music = new Music(8000, 8);
+        MmlReader.mmlCompiler(path.toString(), music);
+
+        assertEquals(3, music.getNumberOfChannel());
+        long notes = 0;
+        for (int c=0; c<music.getNumberOfChannel(); c++) {
+            notes += music.getChannelList().get(c).getNoteList().size();
+        }
+        assertEquals(generator.getNumberOfNote(), notes);
+        assertEquals("square", music.getChannelList().get(1).getNoteList().get(0).getWaveGeneratorId());
+        long expectedFrames = (long) (generator.getLengthInSecond() * 8000);
+        long frames = music.getTimeline().getLengthInFrames();
+        assertTrue(Math.abs(frames - expectedFrames) <= 1, "length in frames: " + frames);
+    }
+
+    @Test
+    @DisplayName("範囲外の規模や未定義の音色を指定した場合のテスト")
+    void testInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, ()->new ScoreGenerator(0, 1, 4, new String[] {"sin"}));
+        assertThrows(IllegalArgumentException.class, ()->new ScoreGenerator(1, 1, 65, new String[] {"sin"}));
+        assertThrows(IllegalArgumentException.class, ()->new ScoreGenerator(1, 1, 4, new String[] {"organ"}));
+    }
+}
@@ -0,0 +1,55 @@
+package MML2Audio.Channel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import MML2Audio.MmlReader;
+import MML2Audio.Note.Note;
+
+public class ChannelCacheTest {
+    @Test
+    @DisplayName("空白の違いのみのMML文が同じkeyになることのテスト")
+    void testToKey() {
+        assertEquals(ChannelCache.toKey("L8 CDE\nFG  A\n"), ChannelCache.toKey("  L8 CDE \r\n\nFG\tA"));
+        assertNotEquals(ChannelCache.toKey("8C"), ChannelCache.toKey("8 C"));
+    }
+
+    @Test
+    @DisplayName("改行の位置のみが異なり変換結果の異なるMML文が別のkeyになることのテスト")
+    void testLineBreaksKept() {
+        // 和音は行を跨がないため、改行すると構成音が別々のノートとなる
+        assertEquals(3, MmlReader.convertMmlToChannel("'CE\nG'").getNoteList().size());
+        assertEquals(1, MmlReader.convertMmlToChannel("'CE G'").getNoteList().size());
+        assertNotEquals(ChannelCache.toKey("'CE\nG'"), ChannelCache.toKey("'CE G'"));
+
+        ChannelCache cache = new ChannelCache(2);
+        assertEquals(3, cache.get("'CE\nG'", MmlReader::convertMmlToChannel).getNoteList().size());
+        assertEquals(1, cache.get("'CE G'", MmlReader::convertMmlToChannel).getNoteList().size());
+    }
+
+    @Test
+    @DisplayName("get()が変換結果を共有し、上限を超えると破棄することのテスト")
+    void testGet() {
+        ChannelCache cache = new ChannelCache(2);
+
+        Channel channel1 = cache.get("L8 CDE", MmlReader::convertMmlToChannel);
+        assertTrue(channel1.isFrozen());
+        assertThrows(UnsupportedOperationException.class, ()->channel1.addNote(new Note("C", 4, 4, 200, "sin")));
+        assertSame(channel1, cache.get("L8  CDE\n", MmlReader::convertMmlToChannel));
+
+        Channel channel2 = cache.get("L4 FGA", MmlReader::convertMmlToChannel);
+        assertSame(channel1, cache.get("L8 CDE", MmlReader::convertMmlToChannel));
+        // 最も長く参照されていない"L4 FGA"が破棄される
+        cache.get("L2 B", MmlReader::convertMmlToChannel);
+        assertEquals(2, cache.size());
+        assertSame(channel1, cache.get("L8 CDE", MmlReader::convertMmlToChannel));
+        assertNotSame(channel2, cache.get("L4 FGA", MmlReader::convertMmlToChannel));
+    }
+}
@@ -0,0 +1,103 @@
+package MML2Audio.Distributed;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import MML2Audio.MmlReader;
+import MML2Audio.Music;
+import MML2Audio.Output.AudioSink;
+
+public class CoordinatorTest {
+    /**
+     * ノイズを含まず、繰り返し区間・和音・テンポ変更・エンベロープを含む曲データを生成する。
+     */
+    private Music createMusic() {
+        Music music = new Music(8000, 16);
+        music.setBpm(150);
+        music.addChannel(MmlReader.convertMmlToChannel("O5 L8 V90 @(sawtooth) [C>BAG <DC>B<D]8 4'CEG' T90 [4C4E]4"));
+        music.addChannel(MmlReader.convertMmlToChannel("O3 V110 @(sin) @E(5,200,40,50) [2F 2G | < 2C 2C >]6"));
+        music.addChannel(MmlReader.convertMmlToChannel("O6 L32 V70 @(square) [FA<CEGEC>A 12R]10"));
+        return music;
+    }
+
+    private static class CollectingSink implements AudioSink {
+        private ByteArrayOutputStream output = new ByteArrayOutputStream();
+        private boolean closed = false;
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+            this.output.write(buffer, offset, length);
+        }
+
+        @Override
+        public void close() {
+            this.closed = true;
+        }
+    }
+
+    @Test
+    @DisplayName("直列化して復元した曲データの描画結果が元と一致することのテスト")
+    void testCompiledScoreRoundTrip() throws Exception {
+        Music music = this.createMusic();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            output.writeObject(new CompiledScore(music));
+        }
+        ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        input.setObjectInputFilter(Worker.SCORE_FILTER);
+        Music restored = ((CompiledScore) input.readObject()).toMusic();
+
+        assertEquals(music.getBpm(), restored.getBpm());
+        assertEquals(music.getNumberOfChannel(), restored.getNumberOfChannel());
+        assertTrue(Arrays.equals(music.generateAudioBuffer(), restored.generateAudioBuffer()), "restored score renders identically");
+    }
+
+    @Test
+    @DisplayName("曲データ以外のクラスを復元しないことのテスト")
+    void testFilterRejectsOtherClasses() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            output.writeObject(new java.util.HashMap<String, String>());
+        }
+        ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        input.setObjectInputFilter(Worker.SCORE_FILTER);
+        try {
+            input.readObject();
+            assertTrue(false, "HashMap must be rejected");
+        }
+        catch (InvalidClassException e) {
+            // 期待通り
+        }
+    }
+
+    @Test
+    @DisplayName("ワーカープロセスで描画した結果が1つのプロセスで描画した結果と一致することのテスト")
+    void testRenderWithWorkers() throws IOException, InterruptedException {
+        Music music = this.createMusic();
+        byte[] expected = music.generateAudioBuffer();
+        long numOfFrame = music.calcNumberOfFrame();
+        CollectingSink sink = new CollectingSink();
+        Coordinator.render(music, 0, numOfFrame, sink, 2);
+        assertTrue(sink.closed, "sink is closed");
+        assertArrayEquals(expected, sink.output.toByteArray());
+
+        // ブロックの境界に揃わない短い区間に分ける
+        long start = 12345;
+        long end = numOfFrame - 4567;
+        sink = new CollectingSink();
+        Coordinator.render(music, start, end, sink, 3, 7777);
+        assertArrayEquals(Arrays.copyOfRange(expected, (int) start * 2, (int) end * 2), sink.output.toByteArray());
+    }
+}
@@ -0,0 +1,153 @@
+package MML2Audio.Effect;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import MML2Audio.MmlReader;
+import MML2Audio.Music;
+import MML2Audio.Output.WavFileSink;
+import MML2Audio.Render.Pcm;
+import MML2Audio.Sample.Sample;
+
+public class ConvolutionReverbTest {
+    /**
+     * 減衰するノイズのインパルス応答を8000Hz・16bitのWAVファイルに書き込む。
+     */
+    private Path writeImpulse(short[] impulse) throws IOException {
+        AudioFormat format = new AudioFormat(8000, 16, 1, true, true);
+        ByteBuffer data = ByteBuffer.allocate(impulse.length * 2);
+        for (short value: impulse) {
+            data.putShort(value);
+        }
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        WavFileSink sink = new WavFileSink(output, format, impulse.length);
+        sink.write(data.array(), 0, data.capacity());
+        sink.close();
+        Path path = Files.createTempFile("impulse", ".wav");
+        path.toFile().deleteOnExit();
+        Files.write(path, output.toByteArray());
+        return path;
+    }
+
+    private short[] createImpulse(int length) {
+        Random random = new Random(1);
+        short[] impulse = new short[length];
+        for (int i=0; i<length; i++) {
+            impulse[i] = (short) (random.nextGaussian() * 8000 * Math.exp(-4.0 * i / length));
+        }
+        return impulse;
+    }
+
+    @Test
+    @DisplayName("フーリエ変換と逆変換で元の値に戻ることのテスト")
+    void testFft() {
+        Fft fft = new Fft(16);
+        double[] re = new double[16];
+        double[] im = new double[16];
+        re[1] = 1;
+        fft.forward(re, im);
+        // 単位インパルスを1つずらした列のスペクトルは exp(-2πik/N)
+        assertEquals(Math.cos(2 * Math.PI * 3 / 16), re[3], 1e-12);
+        assertEquals(-Math.sin(2 * Math.PI * 3 / 16), im[3], 1e-12);
+        fft.inverse(re, im);
+        assertEquals(1.0, re[1], 1e-12);
+        assertEquals(0.0, re[2], 1e-12);
+    }
+
+    @Test
+    @DisplayName("パーティション畳み込みが直接の畳み込みと一致することのテスト")
+    void testMatchesDirectConvolution() throws IOException {
+        short[] impulse = this.createImpulse(1500);
+        ConvolutionReverb reverb = new Reverb(this.writeImpulse(impulse).toString(), 50).createProcessor(8000);
+
+        int numOfFrame = 5000;
+        Random random = new Random(2);
+        double[] input = new double[numOfFrame];
+        for (int i=0; i<numOfFrame; i++) {
+            input[i] = random.nextDouble() * 2 - 1;
+        }
+        double[] output = input.clone();
+        // 任意の長さに分けて処理できる
+        int offset = 0;
+        for (int length: new int[] {1, 100, 511, 2000, 2388}) {
+            reverb.process(output, offset, length);
+            offset += length;
+        }
+
+        int latency = ImpulseResponse.PARTITION_SIZE;
+        for (int n=0; n<numOfFrame; n++) {
+            double wet = 0;
+            for (int k=0; k<impulse.length && k <= n - latency; k++) {
+                wet += input[n - latency - k] * (impulse[k] / 32768.0);
+            }
+            assertEquals(input[n] + 0.5 * wet, output[n], 1e-6);
+        }
+    }
+
+    @Test
+    @DisplayName("残響音が0になった後は休止状態となることのテスト")
+    void testIdle() throws IOException {
+        ConvolutionReverb reverb = new Reverb(this.writeImpulse(this.createImpulse(700)).toString(), 100).createProcessor(8000);
+        assertTrue(reverb.isIdle());
+
+        double[] samples = new double[(int) reverb.getTailLength() + 1];
+        samples[0] = 1;
+        reverb.process(samples, 0, samples.length);
+        assertTrue(reverb.isIdle());
+        assertEquals(0.0, samples[samples.length - 1]);
+    }
+
+    @Test
+    @DisplayName("曲の途中から描画した場合も先頭から描画した場合と同じ残響音となることのテスト")
+    void testRangeRender() throws IOException {
+        Path path = this.writeImpulse(this.createImpulse(4000));
+        Music music = new Music(8000, 16);
+        music.setBpm(240);
+        music.addChannel(MmlReader.convertMmlToChannel("@R(" + path + ",80) L8 CDEFGAB<C R1 C"));
+        music.addChannel(MmlReader.convertMmlToChannel("L4 O3 CRCRCR"));
+        music.setReverb(new Reverb(path.toString(), 30));
+
+        byte[] whole = music.generateAudioBuffer();
+        int start = 7000;
+        int end = whole.length / 2;
+        byte[] part = music.generateAudioBuffer(start, end);
+
+        // 残響音が描画範囲の先頭より前から続いている
+        assertTrue(Pcm.getSample(whole, start, 2) != 0);
+        for (int i=0; i<end - start; i++) {
+            int expected = Pcm.getSample(whole, start + i, 2);
+            int actual = Pcm.getSample(part, i, 2);
+            assertTrue(Math.abs(expected - actual) <= 1, "frame " + (start + i) + ": " + expected + " != " + actual);
+        }
+    }
+
+    @Test
+    @DisplayName("変更されたファイルのインパルス応答が変換し直されることのテスト")
+    void testReloadModified() throws IOException {
+        Path path = this.writeImpulse(this.createImpulse(1000));
+        ImpulseResponse response = ImpulseResponse.load(path, 44100);
+        assertSame(response, ImpulseResponse.load(path, 44100));
+
+        Files.write(path, Files.readAllBytes(this.writeImpulse(this.createImpulse(2000))));
+        assertTrue(Sample.removeModified());
+        ImpulseResponse reloaded = ImpulseResponse.load(path, 44100);
+        assertNotSame(response, reloaded);
+        assertEquals(2000 * 44100 / 8000, reloaded.getNumberOfFrame());
+        assertSame(reloaded, ImpulseResponse.load(path, 44100));
+    }
+}
@@ -0,0 +1,651 @@
+package MML2Audio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BiFunction;
+import java.util.function.LongUnaryOperator;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import MML2Audio.Channel.Channel;
+import MML2Audio.Channel.Loop;
+import MML2Audio.Channel.TempoChange;
+import MML2Audio.Note.Envelope;
+import MML2Audio.Note.Note;
+import MML2Audio.Output.AudioSink;
+import MML2Audio.Render.ActivityIndex;
+import MML2Audio.Render.ChannelRenderer;
+import MML2Audio.Render.MusicRenderer;
+import MML2Audio.Render.Pcm;
+import MML2Audio.Render.Timeline;
+
+/**
+ * 描画経路ごとの出力を、描画処理のクラスを使わない基準の描画({@link #renderReference})の出力と比較する。
+ *
+ * <p>
+ * 基準の描画は、ノートごとに1サンプルずつ音声波生成関数を呼び出す単純な実装とし、
+ * {@link Music#generateAudioBuffer()}を含む全ての経路が共有する{@link Timeline}や{@link ChannelRenderer}の誤りも検出できるようにする。
+ * MMLファイルの集合と乱数で生成したMMLを基準の描画と各経路で描画し、
+ * 厳密に一致すべき経路はSHA-256のハッシュ値を、近似を用いる経路はサンプルごとの誤差の最大値を比較する。
+ * ノイズは描画の度に異なるため、MMLファイル中の{@literal @(noise)}は{@literal @(square)}に置き換えて描画する。
+ * 新しい描画経路を追加した場合は{@link #PATHS}に加える。
+ */
+public class GoldenOutputTest {
+    /**
+     * 描画経路。
+     */
+    private interface RenderPath {
+        /**
+         * 曲全体を描画する。
+         *
+         * @param mmlFile 曲データの読み込み元のMMLファイル
+         * @param music 読み込み済みの曲データ
+         * @return byte[] 音声バッファ
+         */
+        byte[] render(Path mmlFile, Music music) throws Exception;
+    }
+
+    /**
+     * 比較する描画経路と許容する誤差。
+     */
+    private static class PathSpec {
+        private String name;
+        private RenderPath path;
+        /**
+         * trueの場合は誤差の最大値を、falseの場合はハッシュ値を比較する。
+         */
+        private boolean approximate;
+
+        private PathSpec(String name, boolean approximate, RenderPath path) {
+            this.name = name;
+            this.approximate = approximate;
+            this.path = path;
+        }
+    }
+
+    /**
+     * 比較する描画経路。
+     */
+    private static final PathSpec[] PATHS = {
+        new PathSpec("generateAudioBuffer", false, GoldenOutputTest::renderDefault),
+        new PathSpec("channelRenderer without segment cache", false, GoldenOutputTest::renderUncached),
+        new PathSpec("pipeline", false, GoldenOutputTest::renderPipeline),
+        new PathSpec("split ranges", false, GoldenOutputTest::renderSplitRanges),
+        new PathSpec("stems", false, GoldenOutputTest::renderStems),
+        new PathSpec("draft oscillators", true, GoldenOutputTest::renderDraft),
+    };
+
+    /**
+     * 比較するMMLファイル (作業ディレクトリからの相対パス)。
+     */
+    private static final String[] CORPUS = {
+        "../mml/sample.mml",
+        "src/test/resources/test1.mml",
+        "src/test/resources/test2.mml",
+        "src/test/resources/test3.mml",
+    };
+
+    /**
+     * 乱数で生成するMMLの数。
+     */
+    private static final int RANDOM_SCORES = 40;
+
+    // ------------------------------------------------------------------
+    // 基準の描画
+
+    private static final int TOKEN_NOTE = 0;
+    private static final int TOKEN_OPEN = 1;
+    private static final int TOKEN_CLOSE = 2;
+    private static final int TOKEN_TEMPO = 3;
+
+    /**
+     * チャンネルのノート・繰り返し区間・テンポ変更を、記述された順の命令列に戻す。
+     *
+     * <p>
+     * 各要素は{種類, 値}の組で、値はノートのインデックス・繰り返し回数・BPM値のいずれかとなる。
+     * 同じ位置で開く繰り返し区間は外側から、閉じる繰り返し区間は内側から並べる。
+     * テンポ変更は、記述時点で開いていた区間の数と一致する最初の位置に置く。
+     */
+    private static List<int[]> toTokens(Channel channel) {
+        int numOfNote = channel.getNoteList().size();
+        List<Loop> loopList = channel.getLoopList();
+        List<TempoChange> tempoList = channel.getTempoList();
+        List<int[]> tokens = new ArrayList<>();
+        ArrayDeque<Loop> openLoops = new ArrayDeque<>();
+        int nextTempo = 0;
+        for (int i=0; i<=numOfNote; i++) {
+            // 閉じる区間の直前には、その区間以上の深さで記述されたテンポ変更が来る
+            while (!openLoops.isEmpty() && openLoops.peek().getEndIndex() == i) {
+                nextTempo = GoldenOutputTest.addTempoTokens(tokens, tempoList, nextTempo, i, openLoops.size(), Integer.MAX_VALUE);
+                tokens.add(new int[] {GoldenOutputTest.TOKEN_CLOSE, 0});
+                openLoops.pop();
+            }
+
+            // 同じ位置で開く区間は、範囲が広い方、同じ範囲であれば後に閉じられた方が外側となる
+            List<Integer> opening = new ArrayList<>();
+            for (int l=0; l<loopList.size(); l++) {
+                if (loopList.get(l).getStartIndex() == i) {
+                    opening.add(l);
+                }
+            }
+            opening.sort((a, b)->loopList.get(a).getEndIndex() != loopList.get(b).getEndIndex()
+                ? Integer.compare(loopList.get(b).getEndIndex(), loopList.get(a).getEndIndex())
+                : Integer.compare(b, a));
+            for (int l: opening) {
+                // 開く区間の直前には、その区間の外側で記述されたテンポ変更が来る
+                nextTempo = GoldenOutputTest.addTempoTokens(tokens, tempoList, nextTempo, i, 0, openLoops.size());
+                tokens.add(new int[] {GoldenOutputTest.TOKEN_OPEN, loopList.get(l).getCount()});
+                openLoops.push(loopList.get(l));
+            }
+            // ノートを含まない区間
+            while (!openLoops.isEmpty() && openLoops.peek().getEndIndex() == i) {
+                nextTempo = GoldenOutputTest.addTempoTokens(tokens, tempoList, nextTempo, i, openLoops.size(), Integer.MAX_VALUE);
+                tokens.add(new int[] {GoldenOutputTest.TOKEN_CLOSE, 0});
+                openLoops.pop();
+            }
+
+            nextTempo = GoldenOutputTest.addTempoTokens(tokens, tempoList, nextTempo, i, 0, Integer.MAX_VALUE);
+            if (i < numOfNote) {
+                tokens.add(new int[] {GoldenOutputTest.TOKEN_NOTE, i});
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * 指定した位置に記述されたテンポ変更のうち、深さが範囲内のものを続けて命令列に加える。
+     *
+     * @return int 次に処理するテンポ変更のインデックス
+     */
+    private static int addTempoTokens(List<int[]> tokens, List<TempoChange> tempoList, int nextTempo, int noteIndex,
+            int minDepth, int maxDepth) {
+        while (nextTempo < tempoList.size() && tempoList.get(nextTempo).getNoteIndex() == noteIndex
+                && tempoList.get(nextTempo).getDepth() >= minDepth && tempoList.get(nextTempo).getDepth() <= maxDepth) {
+            tokens.add(new int[] {GoldenOutputTest.TOKEN_TEMPO, tempoList.get(nextTempo).getBpm()});
+            nextTempo++;
+        }
+        return nextTempo;
+    }
+
+    /**
+     * 命令列を繰り返し区間を展開しながら演奏し、ノートとテンポ変更のtick位置を求める。
+     *
+     * @param notes {ノートのインデックス, 開始tick, 終了tick}の出力先
+     * @param tempoChanges {tick位置, BPM値}の出力先
+     * @return long 演奏し終えたtick位置
+     */
+    private static long play(List<int[]> tokens, int from, int to, long tick, Channel channel,
+            List<long[]> notes, List<long[]> tempoChanges) {
+        for (int k=from; k<to; k++) {
+            int[] token = tokens.get(k);
+            if (token[0] == GoldenOutputTest.TOKEN_NOTE) {
+                int toneLength = channel.getNoteList().get(token[1]).getToneLength();
+                long length = Math.round(Timeline.TICKS_PER_WHOLE_NOTE / (double) toneLength);
+                notes.add(new long[] {token[1], tick, tick + length});
+                tick += length;
+            }
+            else if (token[0] == GoldenOutputTest.TOKEN_TEMPO) {
+                tempoChanges.add(new long[] {tick, token[1]});
+            }
+            else if (token[0] == GoldenOutputTest.TOKEN_OPEN) {
+                int close = k + 1;
+                for (int depth=0; depth>0 || tokens.get(close)[0] != GoldenOutputTest.TOKEN_CLOSE; close++) {
+                    depth += tokens.get(close)[0] == GoldenOutputTest.TOKEN_OPEN ? 1
+                        : tokens.get(close)[0] == GoldenOutputTest.TOKEN_CLOSE ? -1 : 0;
+                }
+                for (int iteration=0; iteration<token[1]; iteration++) {
+                    tick = GoldenOutputTest.play(tokens, k + 1, close, tick, channel, notes, tempoChanges);
+                }
+                k = close;
+            }
+        }
+        return tick;
+    }
+
+    /**
+     * 描画処理のクラスを使わずに、ノートごとに1サンプルずつ音声波生成関数を呼び出して曲全体を描画する。
+     *
+     * <p>
+     * 繰り返し区間の展開、テンポ変更を含むtick位置からフレーム位置への変換(有理数で厳密に計算し、端数は切り捨てる)、
+     * エンベロープの倍率、ミキシングをそれぞれ描画処理とは独立に求める。
+     * 1サンプルの値の計算順序は描画処理と同じにしているため、結果はバイト単位で一致する。
+     */
+    private static byte[] renderReference(Music music) throws Exception {
+        assertTrue(music.getReverb() == null, "reverb is not supported by the reference renderer");
+        double sampleRate = music.getSampleRate();
+        int numOfChannel = music.getNumberOfChannel();
+
+        List<List<long[]>> channelNotes = new ArrayList<>();
+        List<long[]> tempoChanges = new ArrayList<>();
+        long endTick = 0;
+        for (Channel channel: music.getChannelList()) {
+            assertTrue(channel.getReverb() == null, "reverb is not supported by the reference renderer");
+            List<int[]> tokens = GoldenOutputTest.toTokens(channel);
+            List<long[]> notes = new ArrayList<>();
+            endTick = Math.max(endTick, GoldenOutputTest.play(tokens, 0, tokens.size(), 0, channel, notes, tempoChanges));
+            channelNotes.add(notes);
+        }
+        // 同じtickのテンポ変更は、チャンネル番号と記述順が後のものを優先する (安定ソート)
+        tempoChanges.sort((a, b)->Long.compare(a[0], b[0]));
+        List<long[]> tempos = new ArrayList<>();
+        tempos.add(new long[] {0, music.getBpm()});
+        for (long[] tempoChange: tempoChanges) {
+            if (tempos.get(tempos.size() - 1)[0] == tempoChange[0]) {
+                tempos.remove(tempos.size() - 1);
+            }
+            tempos.add(tempoChange);
+        }
+        // 各テンポの区間の開始位置 [フレーム] を、全ての区間の分母の積を分母とする分数で求める
+        BigInteger denominator = tempos.stream()
+            .map((tempo)->BigInteger.valueOf(tempo[1] * Timeline.TICKS_PER_WHOLE_NOTE))
+            .reduce(BigInteger.ONE, BigInteger::multiply);
+        BigInteger[] startNumerators = new BigInteger[tempos.size()];
+        startNumerators[0] = BigInteger.ZERO;
+        for (int k=1; k<tempos.size(); k++) {
+            startNumerators[k] = startNumerators[k - 1].add(GoldenOutputTest.framesNumerator(
+                tempos.get(k)[0] - tempos.get(k - 1)[0], tempos.get(k - 1)[1], sampleRate, denominator));
+        }
+        LongUnaryOperator tickToFrame = (tick)->{
+            int k = tempos.size() - 1;
+            while (tempos.get(k)[0] > tick) {
+                k--;
+            }
+            BigInteger numerator = startNumerators[k].add(GoldenOutputTest.framesNumerator(
+                tick - tempos.get(k)[0], tempos.get(k)[1], sampleRate, denominator));
+            return numerator.divide(denominator).longValueExact();
+        };
+
+        int numOfFrame = (int) (tickToFrame.applyAsLong(endTick) + (long) (sampleRate * Music.TAIL_LENGTH));
+        long[] mix = new long[numOfFrame];
+        for (int c=0; c<numOfChannel; c++) {
+            for (long[] placed: channelNotes.get(c)) {
+                Note note = music.getChannelList().get(c).getNoteList().get((int) placed[0]);
+                if (note.getVolume() == 0) {
+                    continue;
+                }
+                long startFrame = tickToFrame.applyAsLong(placed[1]);
+                long endFrame = tickToFrame.applyAsLong(placed[2]);
+
+                double amp = music.getMaxVolumeValue() * 0.5 * (note.getVolume() / (double) Note.MAX_VOLUME);
+                amp /= (double) numOfChannel;
+                // 構成音が発音枠の数を超える場合は、後の構成音が古い発音枠を上書きする
+                int voiceCount = Math.min(note.getNumberOfTones(), ChannelRenderer.VOICE_POOL_SIZE);
+                double[] freqs = new double[voiceCount];
+                for (int t=0; t<note.getNumberOfTones(); t++) {
+                    freqs[t % voiceCount] = note.getFreq(t);
+                }
+                amp /= voiceCount;
+
+                BiFunction<Double, Double, Double> generator = WaveGenerator.getWaveGenerator(note.getWaveGeneratorId());
+                Envelope envelope = note.getEnvelope();
+                int attackFrames = (int) (sampleRate * (envelope.getAttack() / 1000.0));
+                int decayFrames = (int) (sampleRate * (envelope.getDecay() / 1000.0));
+                int releaseFrames = (int) (sampleRate * (envelope.getRelease() / 1000.0));
+                double sustainLevel = envelope.getSustain() / 100.0;
+                for (long i=startFrame; i<endFrame; i++) {
+                    int phase = (int) (i - startFrame);
+                    int count = (int) (endFrame - i);
+                    double preamp = 0;
+                    for (double freq: freqs) {
+                        preamp += generator.apply(freq, phase / sampleRate);
+                    }
+
+                    double head = sustainLevel;
+                    if (phase < attackFrames) {
+                        head = phase / (double) attackFrames;
+                    }
+                    else if (phase < attackFrames + decayFrames) {
+                        head = 1 - (1 - sustainLevel) * ((phase - attackFrames) / (double) decayFrames);
+                    }
+                    double tail = count < releaseFrames ? count / (double) releaseFrames : 1;
+                    mix[(int) i] += (int) (preamp * (amp * head * tail));
+                }
+            }
+        }
+
+        // 1サンプルのビット数で折り返し、ビッグエンディアンで書き込む
+        int bytesPerSample = music.getAudioFormat().getSampleSizeInBits() / 8;
+        byte[] buffer = new byte[numOfFrame * bytesPerSample];
+        for (int i=0; i<numOfFrame; i++) {
+            for (int b=0; b<bytesPerSample; b++) {
+                buffer[i * bytesPerSample + b] = (byte) (mix[i] >> (8 * (bytesPerSample - 1 - b)));
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * 1つのテンポで進むtick数のフレーム数を、指定した分母の分数の分子として求める。
+     */
+    private static BigInteger framesNumerator(long ticks, long bpm, double sampleRate, BigInteger denominator) {
+        // 全音符 = 4拍 = 240 / bpm [s]
+        return BigInteger.valueOf(ticks).multiply(BigInteger.valueOf(240 * (long) sampleRate))
+            .multiply(denominator).divide(BigInteger.valueOf(bpm * Timeline.TICKS_PER_WHOLE_NOTE));
+    }
+
+    // ------------------------------------------------------------------
+    // 描画経路
+
+    /**
+     * {@link Music#generateAudioBuffer()}で描画する。
+     */
+    private static byte[] renderDefault(Path mmlFile, Music music) {
+        return music.generateAudioBuffer();
+    }
+
+    /**
+     * 繰り返し区間の再利用と無音ブロックの省略を行わずに、チャンネルを1つずつ描画して加算する。
+     */
+    private static byte[] renderUncached(Path mmlFile, Music music) {
+        assertTrue(music.getReverb() == null, "reverb is not supported by this path");
+        int bytesPerSample = music.getAudioFormat().getSampleSizeInBits() / 8;
+        int numOfFrame = (int) music.calcNumberOfFrame();
+        byte[] mix = new byte[numOfFrame * bytesPerSample];
+        byte[] channel = new byte[numOfFrame * bytesPerSample];
+        Timeline timeline = music.getTimeline();
+        for (int c=0; c<music.getNumberOfChannel(); c++) {
+            assertTrue(music.getChannelList().get(c).getReverb() == null, "reverb is not supported by this path");
+            Arrays.fill(channel, (byte) 0);
+            ChannelRenderer renderer = new ChannelRenderer(music, timeline, c, null);
+            renderer.seek(0);
+            for (int frame=0; frame<numOfFrame; frame+=ActivityIndex.BLOCK_SIZE) {
+                renderer.render(channel, frame, Math.min(ActivityIndex.BLOCK_SIZE, numOfFrame - frame));
+            }
+            Pcm.addBuffer(mix, 0, channel, 0, numOfFrame, bytesPerSample);
+        }
+        return mix;
+    }
+
+    /**
+     * {@link Pipeline#render}で描画し、書き込まれた内容を集める。
+     */
+    private static byte[] renderPipeline(Path mmlFile, Music music) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Pipeline.render(music, 0, music.calcNumberOfFrame(), new AudioSink() {
+            @Override
+            public void write(byte[] buffer, int offset, int length) {
+                output.write(buffer, offset, length);
+            }
+
+            @Override
+            public void close() { }
+        });
+        return output.toByteArray();
+    }
+
+    /**
+     * ブロックの境界に揃わない位置で区間を分けて描画し、連結する。
+     */
+    private static byte[] renderSplitRanges(Path mmlFile, Music music) {
+        long numOfFrame = music.calcNumberOfFrame();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Random random = new Random(numOfFrame);
+        long frame = 0;
+        while (frame < numOfFrame) {
+            long end = Math.min(frame + 1 + random.nextInt(3 * ActivityIndex.BLOCK_SIZE), numOfFrame);
+            output.writeBytes(music.generateAudioBuffer(frame, end));
+            frame = end;
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * チャンネルごとの音声と同時に描画した場合のミキシング結果を求める。
+     */
+    private static byte[] renderStems(Path mmlFile, Music music) {
+        int frameSize = music.getAudioFormat().getFrameSize();
+        int numOfFrame = (int) music.calcNumberOfFrame();
+        byte[] mix = new byte[numOfFrame * frameSize];
+        byte[][] stems = new byte[music.getNumberOfChannel()][numOfFrame * frameSize];
+        new MusicRenderer(music, 0).render(mix, stems, 0, numOfFrame);
+        return mix;
+    }
+
+    /**
+     * 試聴用の音声波生成関数で描画する。
+     */
+    private static byte[] renderDraft(Path mmlFile, Music music) {
+        Music draft = new Music(music.getSampleRate(), music.getAudioFormat().getSampleSizeInBits());
+        draft.setDraft(true);
+        MmlReader.mmlCompiler(mmlFile.toString(), draft);
+        return draft.generateAudioBuffer();
+    }
+
+    /**
+     * 試聴用の音声波生成関数で許容する誤差を求める。
+     *
+     * <p>
+     * 表引きのsin波は位相を1024段階に丸めるため、誤差は振幅の2π/1024倍以下となる。
+     * チャンネルごとの丸め誤差として1ずつ加える。
+     */
+    private static int draftTolerance(Music music) {
+        double fullScale = 1 << (music.getAudioFormat().getSampleSizeInBits() - 1);
+        return (int) Math.ceil(fullScale * 2 * Math.PI / 1024) + music.getNumberOfChannel();
+    }
+
+    // ------------------------------------------------------------------
+    // 比較
+
+    private static String sha256(byte[] buffer) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(buffer));
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 最初に異なるフレームを求める。
+     */
+    private static int firstDifference(byte[] expected, byte[] actual, int bytesPerSample) {
+        int length = Math.min(expected.length, actual.length) / bytesPerSample;
+        for (int i=0; i<length; i++) {
+            if (Pcm.getSample(expected, i, bytesPerSample) != Pcm.getSample(actual, i, bytesPerSample)) {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * サンプルごとの誤差の最大値を求める。
+     */
+    private static int maxError(byte[] expected, byte[] actual, int bytesPerSample) {
+        int max = 0;
+        for (int i=0; i<expected.length / bytesPerSample; i++) {
+            int error = Math.abs(Pcm.getSample(expected, i, bytesPerSample) - Pcm.getSample(actual, i, bytesPerSample));
+            max = Math.max(max, error);
+        }
+        return max;
+    }
+
+    /**
+     * MMLファイルを基準の描画と全ての経路で描画し、結果を比較する。
+     *
+     * @param label 失敗した場合に表示する名前
+     * @param mmlFile MMLファイル
+     * @param sampleRate サンプリングレート
+     * @param sampleSize 1サンプルのビット数
+     */
+    private static void assertAllPathsMatch(String label, Path mmlFile, double sampleRate, int sampleSize) throws Exception {
+        Music music = new Music(sampleRate, sampleSize);
+        MmlReader.mmlCompiler(mmlFile.toString(), music);
+        byte[] expected = GoldenOutputTest.renderReference(music);
+        String expectedHash = GoldenOutputTest.sha256(expected);
+        int bytesPerSample = sampleSize / 8;
+
+        for (PathSpec spec: GoldenOutputTest.PATHS) {
+            String message = label + " [" + sampleSize + "bit] via " + spec.name;
+            byte[] actual = spec.path.render(mmlFile, music);
+            assertEquals(expected.length, actual.length, message + ": length");
+            if (spec.approximate) {
+                int error = GoldenOutputTest.maxError(expected, actual, bytesPerSample);
+                int tolerance = GoldenOutputTest.draftTolerance(music);
+                assertTrue(error <= tolerance, message + ": max error " + error + " exceeds " + tolerance);
+            }
+            else {
+                assertTrue(expectedHash.equals(GoldenOutputTest.sha256(actual)),
+                    message + ": first difference at frame " + GoldenOutputTest.firstDifference(expected, actual, bytesPerSample));
+            }
+        }
+    }
+
+    /**
+     * MMLファイルのノイズを置き換えた複製を一時ファイルに書き込む。
+     */
+    private static Path withoutNoise(String mmlFile) throws IOException {
+        String mml = Files.readString(Path.of(mmlFile)).replace("@(noise)", "@(square)");
+        return GoldenOutputTest.writeTemp(mml);
+    }
+
+    private static Path writeTemp(String mml) throws IOException {
+        Path path = Files.createTempFile("golden", ".mml");
+        path.toFile().deleteOnExit();
+        Files.writeString(path, mml);
+        return path;
+    }
+
+    // ------------------------------------------------------------------
+    // 乱数によるMMLの生成
+
+    /**
+     * 短いノート・オクターブの境界をまたぐ半音・和音・入れ子の繰り返し・テンポ変更などを含むMMLを生成する。
+     *
+     * <p>
+     * 数値を伴う命令の後には空白を入れ、続くノートの音長と連結されないようにする。
+     * 音量は0~255の範囲に収める。
+     */
+    private static String randomScore(Random random) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("T").append(60 + random.nextInt(180)).append("\n");
+        int numOfChannel = 1 + random.nextInt(4);
+        String[] generators = {"sin", "square", "sawtooth"};
+        for (int c=0; c<numOfChannel; c++) {
+            builder.append(":ch").append(c).append("\n");
+            builder.append("@(").append(generators[random.nextInt(generators.length)]).append(") ");
+            builder.append("O").append(random.nextInt(9)).append(" ");
+            // ChannelBuilderの音量の初期値
+            int[] volume = {200};
+            int numOfElement = 1 + random.nextInt(24);
+            GoldenOutputTest.appendElements(builder, random, numOfElement, 0, volume);
+            builder.append("\n");
+        }
+        return builder.toString();
+    }
+
+    private static void appendElements(StringBuilder builder, Random random, int numOfElement, int depth, int[] volume) {
+        String[] scales = {"C", "D", "E", "F", "G", "A", "B", "R"};
+        String[] semitones = {"", "", "#", "+", "-"};
+        int[] lengths = {1, 2, 3, 4, 6, 8, 12, 16, 24, 32, 48, 64, 64, 64};
+        for (int i=0; i<numOfElement; i++) {
+            int kind = random.nextInt(20);
+            if (kind < 9) {
+                builder.append(random.nextBoolean() ? String.valueOf(lengths[random.nextInt(lengths.length)]) : "");
+                builder.append(scales[random.nextInt(scales.length)]).append(semitones[random.nextInt(semitones.length)]);
+            }
+            else if (kind == 9) {
+                // オクターブの境界をまたぐ半音
+                builder.append(random.nextBoolean() ? "B#" : "C-");
+            }
+            else if (kind == 10) {
+                builder.append(random.nextBoolean() ? "<" : ">");
+            }
+            else if (kind == 11) {
+                builder.append("O").append(random.nextInt(9)).append(" ");
+            }
+            else if (kind == 12) {
+                builder.append("L").append(lengths[random.nextInt(lengths.length)]).append(" ");
+            }
+            else if (kind == 13) {
+                volume[0] = random.nextInt(256);
+                builder.append("V").append(volume[0]).append(" ");
+            }
+            else if (kind == 14) {
+                int amount = random.nextInt(40);
+                if (random.nextBoolean()) {
+                    amount = Math.min(amount, 255 - volume[0]);
+                    volume[0] += amount;
+                    builder.append("(").append(amount).append(" ");
+                }
+                else {
+                    amount = Math.min(amount, volume[0]);
+                    volume[0] -= amount;
+                    builder.append(")").append(amount).append(" ");
+                }
+            }
+            else if (kind == 15) {
+                builder.append(lengths[random.nextInt(lengths.length)]).append("'");
+                int numOfTone = 1 + random.nextInt(10);
+                for (int t=0; t<numOfTone; t++) {
+                    if (random.nextInt(4) == 0) {
+                        builder.append(random.nextBoolean() ? "<" : ">");
+                    }
+                    builder.append(scales[random.nextInt(scales.length)]).append(semitones[random.nextInt(semitones.length)]);
+                }
+                builder.append("'");
+            }
+            else if (kind == 16) {
+                builder.append("@E(").append(random.nextInt(30)).append(",").append(random.nextInt(100)).append(",")
+                    .append(random.nextInt(101)).append(",").append(random.nextInt(200)).append(")");
+            }
+            else if (kind == 17) {
+                builder.append("T").append(40 + random.nextInt(200)).append(" ");
+            }
+            else if (kind == 18 && depth < 2) {
+                builder.append("[");
+                GoldenOutputTest.appendElements(builder, random, 1 + random.nextInt(5), depth + 1, volume);
+                builder.append("]").append(random.nextInt(4)).append(" ");
+            }
+            else {
+                builder.append(" | ");
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // テスト
+
+    @Test
+    @DisplayName("MMLファイルの描画結果が全ての描画経路で一致することのテスト")
+    void testCorpus() throws Exception {
+        for (String mmlFile: GoldenOutputTest.CORPUS) {
+            Path path = GoldenOutputTest.withoutNoise(mmlFile);
+            GoldenOutputTest.assertAllPathsMatch(mmlFile, path, 11025, 8);
+            GoldenOutputTest.assertAllPathsMatch(mmlFile, path, 11025, 16);
+        }
+    }
+
+    @Test
+    @DisplayName("乱数で生成したMMLの描画結果が全ての描画経路で一致することのテスト")
+    void testRandomScores() throws Exception {
+        List<String> failures = new ArrayList<>();
+        for (int seed=0; seed<GoldenOutputTest.RANDOM_SCORES; seed++) {
+            String mml = GoldenOutputTest.randomScore(new Random(seed));
+            Path path = GoldenOutputTest.writeTemp(mml);
+            int sampleSize = new int[] {8, 16, 24}[seed % 3];
+            try {
+                GoldenOutputTest.assertAllPathsMatch("seed " + seed, path, 8000, sampleSize);
+            }
+            catch (AssertionError e) {
+                failures.add(e.getMessage() + "\n" + mml);
+            }
+        }
+        assertTrue(failures.isEmpty(), String.join("\n", failures));
+    }
+}
@@ -60,6 +60,68 @@ public class MmlReaderTest {
         assertEquals(noteListExpected.get(9), channelActual.getNoteList().get(9));
     }
 
+    @Test
+    @DisplayName("繰り返し区間が展開されずに読み込まれることのテスト")
+    void testConvertMmlToChannelWithLoop() {
+        String mmlString = "L8 C [D [E F]3 ]4 G ]5 A []";
+
+        Channel channelActual = MmlReader.convertMmlToChannel(mmlString);
+
+        // 繰り返し区間のノートは1回分だけ保持される
+        assertEquals(6, channelActual.getNoteList().size());
+        assertEquals(new Note("G", 8, 4, 200, "sin"), channelActual.getNoteList().get(4));
+
+        // 内側の区間から順に閉じられ、対応しない ] は無視される
+        assertEquals(3, channelActual.getLoopList().size());
+        assertEquals(2, channelActual.getLoopList().get(0).getStartIndex());
+        assertEquals(4, channelActual.getLoopList().get(0).getEndIndex());
+        assertEquals(3, channelActual.getLoopList().get(0).getCount());
+        assertEquals(1, channelActual.getLoopList().get(1).getStartIndex());
+        assertEquals(4, channelActual.getLoopList().get(1).getEndIndex());
+        assertEquals(4, channelActual.getLoopList().get(1).getCount());
+        // 回数を省略した場合は2回
+        assertEquals(6, channelActual.getLoopList().get(2).getStartIndex());
+        assertEquals(6, channelActual.getLoopList().get(2).getEndIndex());
+        assertEquals(2, channelActual.getLoopList().get(2).getCount());
+    }
+
+    @Test
+    @DisplayName("和音が1つのノートとして読み込まれることのテスト")
+    void testConvertMmlToChannelWithChord() {
+        String mmlString = "L8 O4 C 2'CE<G' D 'R>A'";
+
+        Channel channelActual = MmlReader.convertMmlToChannel(mmlString);
+
+        assertEquals(4, channelActual.getNoteList().size());
+        Note chord = channelActual.getNoteList().get(1);
+        assertEquals(3, chord.getNumberOfTones());
+        assertEquals(2, chord.getToneLength());
+        assertEquals(new Note("C", 2, 4, 200, "sin").getFreq(), chord.getFreq(0));
+        assertEquals(new Note("E", 2, 4, 200, "sin").getFreq(), chord.getFreq(1));
+        assertEquals(new Note("G", 2, 5, 200, "sin").getFreq(), chord.getFreq(2));
+        // 和音内のオクターブ変化は和音の後に引き継がれない
+        assertEquals(new Note("D", 8, 4, 200, "sin"), channelActual.getNoteList().get(2));
+        // 休符の構成音は無視される
+        Note chordWithRest = channelActual.getNoteList().get(3);
+        assertEquals(1, chordWithRest.getNumberOfTones());
+        assertEquals(new Note("A", 8, 3, 200, "sin").getFreq(), chordWithRest.getFreq(0));
+    }
+
+    @Test
+    @DisplayName("mmlCompiler()で並行して変換したチャンネルが記述順に追加されることのテスト")
+    void testMmlCompilerKeepsChannelOrder() {
+        Music music = new Music();
+        MmlReader.mmlCompiler("src/test/resources/test3.mml", music);
+
+        assertEquals(150, music.getBpm());
+        assertEquals(12, music.getNumberOfChannel());
+        for (int i=0; i<12; i++) {
+            Channel channel = music.getChannelList().get(i);
+            assertEquals(8 * (1 + i%3), channel.getNoteList().size());
+            assertEquals(new Note("C", 8, i%8+1, 100, "square"), channel.getNoteList().get(0));
+        }
+    }
+
     @Test
     @DisplayName("readLineIgnoreComment()のテスト")
     void testReadLineIgnoreComment()
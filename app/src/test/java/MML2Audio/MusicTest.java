@@ -0,0 +1,151 @@
+package MML2Audio;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import MML2Audio.Render.ChannelRenderer;
+import MML2Audio.Render.MusicRenderer;
+
+public class MusicTest {
+    /**
+     * ノイズを含まないテスト用の曲データを生成する。
+     */
+    private Music createMusic() {
+        Music music = new Music();
+        music.setBpm(120);
+        music.addChannel(MmlReader.convertMmlToChannel("O5 L8 V90 @(sawtooth) C>BAG <DC>B<D | 4C4E 2C R1 C"));
+        music.addChannel(MmlReader.convertMmlToChannel("O3 V110 @(sin) 2F 2G | < 2C 2C"));
+        music.addChannel(MmlReader.convertMmlToChannel("O6 L32 V70 @(square) FA<CEGEC>A 12R FA<CEGEC>A"));
+        return music;
+    }
+
+    @Test
+    @DisplayName("区間指定の描画が全体の描画と一致することのテスト")
+    void testGenerateAudioBufferRange() {
+        Music music = this.createMusic();
+        byte[] full = music.generateAudioBuffer();
+
+        long[][] ranges = {
+            {0, 1000},
+            {12345, 67890},
+            {44100, 44100 + 1024},
+            {1023, 1025},
+            {full.length - 500, full.length},
+        };
+        for (long[] range: ranges) {
+            byte[] expected = Arrays.copyOfRange(full, (int)range[0], (int)range[1]);
+            assertArrayEquals(expected, music.generateAudioBuffer(range[0], range[1]));
+        }
+    }
+
+    @Test
+    @DisplayName("休符のみのチャンネルが無音になることのテスト")
+    void testRestOnlyChannelIsSilent() {
+        Music music = new Music();
+        music.addChannel(MmlReader.convertMmlToChannel("L1 RRRR"));
+        byte[] buffer = music.generateAudioBuffer();
+
+        assertEquals(music.getTimeline().getLengthInFrames() + (long)(music.getSampleRate() * Music.TAIL_LENGTH), buffer.length);
+        assertArrayEquals(new byte[buffer.length], buffer);
+    }
+
+    @Test
+    @DisplayName("繰り返し区間の描画が展開したMMLの描画と一致することのテスト")
+    void testLoopMatchesExpandedMml() {
+        String[][] mmlPairs = {
+            {"L32 O5 [CEG]5 D", "L32 O5 CEGCEGCEGCEGCEG D"},
+            {"L8 @(square) [C [DE]3 F]2 G", "L8 @(square) C DEDEDE F C DEDEDE F G"},
+            {"L24 [C R E]7 [[B]2]0", "L24 CRECRECRECRECRECRECRE"},
+            {"L16 [T90 CE T150 G]3 D", "L16 T90 CE T150 G T90 CE T150 G T90 CE T150 G D"},
+            {"L16 [[CEG]2 T150]2 D", "L16 CEGCEG T150 CEGCEG T150 D"},
+        };
+        for (String[] mmlPair: mmlPairs) {
+            Music musicLoop = new Music();
+            musicLoop.addChannel(MmlReader.convertMmlToChannel(mmlPair[0]));
+            Music musicExpanded = new Music();
+            musicExpanded.addChannel(MmlReader.convertMmlToChannel(mmlPair[1]));
+
+            byte[] expected = musicExpanded.generateAudioBuffer();
+            assertArrayEquals(expected, musicLoop.generateAudioBuffer());
+            // 繰り返し区間の途中から始まる区間指定
+            assertArrayEquals(Arrays.copyOfRange(expected, 5000, 40000), musicLoop.generateAudioBuffer(5000, 40000));
+        }
+    }
+
+    @Test
+    @DisplayName("チャンネルごとの音声の総和がミキシング結果と一致することのテスト")
+    void testRenderStems() {
+        Music music = this.createMusic();
+        byte[] full = music.generateAudioBuffer();
+
+        byte[] mix = new byte[full.length];
+        byte[][] stems = new byte[music.getNumberOfChannel()][full.length];
+        MusicRenderer renderer = new MusicRenderer(music, 0);
+        // ブロックの境界に揃わない大きさで分割して描画する
+        for (int offset=0; offset<full.length; offset+=5000) {
+            renderer.render(mix, stems, offset, Math.min(5000, full.length - offset));
+        }
+        assertArrayEquals(full, mix);
+
+        byte[] sum = new byte[full.length];
+        for (byte[] stem: stems) {
+            for (int i=0; i<sum.length; i++) {
+                sum[i] += stem[i];
+            }
+        }
+        assertArrayEquals(full, sum);
+    }
+
+    @Test
+    @DisplayName("16bitでの繰り返し区間と区間指定の描画が展開したMMLの描画と一致することのテスト")
+    void testSampleSize16() {
+        Music musicLoop = new Music(Music.DEFAULT_SAMPLE_RATE, 16);
+        musicLoop.addChannel(MmlReader.convertMmlToChannel("L8 @(square) [C [DE]3 F]2 G"));
+        musicLoop.addChannel(MmlReader.convertMmlToChannel("O3 L4 @(sin) [CG]4"));
+        Music musicExpanded = new Music(Music.DEFAULT_SAMPLE_RATE, 16);
+        musicExpanded.addChannel(MmlReader.convertMmlToChannel("L8 @(square) C DEDEDE F C DEDEDE F G"));
+        musicExpanded.addChannel(MmlReader.convertMmlToChannel("O3 L4 @(sin) CGCGCGCG"));
+
+        byte[] expected = musicExpanded.generateAudioBuffer();
+        assertEquals(musicExpanded.calcNumberOfFrame() * 2, expected.length);
+        assertArrayEquals(expected, musicLoop.generateAudioBuffer());
+        assertArrayEquals(Arrays.copyOfRange(expected, 5000 * 2, 40000 * 2), musicLoop.generateAudioBuffer(5000, 40000));
+    }
+
+    @Test
+    @DisplayName("ドラフト描画のフレーム数がサンプリングレートに従うことのテスト")
+    void testDraft() {
+        Music music = new Music(Music.DRAFT_SAMPLE_RATE, 8);
+        music.setDraft(true);
+        music.setBpm(120);
+        music.addChannel(MmlReader.convertMmlToChannel("O5 L4 @(sin) CDEF"));
+
+        // 120BPMの4分音符4つで2秒
+        assertEquals((long) (Music.DRAFT_SAMPLE_RATE * (2 + Music.TAIL_LENGTH)), music.generateAudioBuffer().length);
+    }
+
+    @Test
+    @DisplayName("和音の描画のテスト")
+    void testChord() {
+        // 構成音が1つの和音は単音と一致する
+        Music musicSingle = new Music();
+        musicSingle.addChannel(MmlReader.convertMmlToChannel("L8 @(sawtooth) C 'E' G"));
+        Music musicNote = new Music();
+        musicNote.addChannel(MmlReader.convertMmlToChannel("L8 @(sawtooth) C E G"));
+        assertArrayEquals(musicNote.generateAudioBuffer(), musicSingle.generateAudioBuffer());
+
+        // 発音枠を超えた構成音は古いものから後の構成音に譲られる
+        // 発音枠は枠の順に加算されるため、譲った後の枠の並び(1オクターブ上のD・E, E・F・G・A・B, 1オクターブ上のC)と同じ順の和音と比較する
+        Music musicOverflow = new Music();
+        musicOverflow.addChannel(MmlReader.convertMmlToChannel("O3 2'CDEFGAB<CDE'"));
+        Music musicLast = new Music();
+        musicLast.addChannel(MmlReader.convertMmlToChannel("O3 2'<DE>EFGAB<C'"));
+        assertEquals(8, ChannelRenderer.VOICE_POOL_SIZE);
+        assertArrayEquals(musicLast.generateAudioBuffer(), musicOverflow.generateAudioBuffer());
+    }
+}
@@ -0,0 +1,73 @@
+package MML2Audio.Note;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import MML2Audio.MmlReader;
+import MML2Audio.Channel.Channel;
+
+public class EnvelopeTest {
+    @Test
+    @DisplayName("倍率の表がADSRの設定値に従うことのテスト")
+    void testGainTable() {
+        // 1000Hzでは1ms = 1フレーム
+        Envelope.GainTable gainTable = Envelope.of(10, 20, 50, 40).getGainTable(1000);
+
+        assertEquals(30, gainTable.headLength);
+        assertEquals(40, gainTable.tailLength);
+        assertEquals(0.0, gainTable.head[0]);
+        assertEquals(0.5, gainTable.head[5]);
+        assertEquals(1.0, gainTable.head[10]);
+        assertEquals(0.75, gainTable.head[20]);
+        assertEquals(0.5, gainTable.head[30]);
+        assertEquals(0.0, gainTable.tail[0]);
+        assertEquals(0.5, gainTable.tail[20]);
+        assertEquals(1.0, gainTable.tail[40]);
+
+        // 同じサンプリングレートでは計算済みの表を共有する
+        assertSame(gainTable, Envelope.of(10, 20, 50, 40).getGainTable(1000));
+        assertNotSame(gainTable, Envelope.of(10, 20, 50, 40).getGainTable(2000));
+    }
+
+    @Test
+    @DisplayName("既定のエンベロープが10msのアタックと100msのリリースとなることのテスト")
+    void testDefault() {
+        Envelope.GainTable gainTable = Envelope.DEFAULT.getGainTable(44100);
+
+        assertEquals(441, gainTable.headLength);
+        assertEquals(4410, gainTable.tailLength);
+        assertEquals(1.0, gainTable.head[441]);
+        assertEquals(100 / 441.0, gainTable.head[100]);
+        assertEquals(100 / 4410.0, gainTable.tail[100]);
+    }
+
+    @Test
+    @DisplayName("MMLのエンベロープ命令が後続のノートに適用されることのテスト")
+    void testEnvelopeCommand() {
+        Channel channel = MmlReader.convertMmlToChannel("C @E(5,10,80,30) D '<CE' @E(10,0,100,100) F @E(0,0,101,0) G");
+
+        assertSame(Envelope.DEFAULT, channel.getNoteList().get(0).getEnvelope());
+        assertSame(Envelope.of(5, 10, 80, 30), channel.getNoteList().get(1).getEnvelope());
+        assertSame(Envelope.of(5, 10, 80, 30), channel.getNoteList().get(2).getEnvelope());
+        assertSame(Envelope.DEFAULT, channel.getNoteList().get(3).getEnvelope());
+        // 範囲外のサステインレベルは無視される
+        assertSame(Envelope.DEFAULT, channel.getNoteList().get(4).getEnvelope());
+        assertEquals(5, channel.getNoteList().size());
+
+        // エンベロープが異なるノートは共有されない
+        assertNotSame(Note.of("D", 4, 4, 200, "sin"), channel.getNoteList().get(1));
+        assertSame(Note.of("F", 4, 4, 200, "sin"), channel.getNoteList().get(3));
+    }
+
+    @Test
+    @DisplayName("範囲外の設定値で例外が発生することのテスト")
+    void testInvalidValue() {
+        assertThrows(IllegalArgumentException.class, ()->Envelope.of(-1, 0, 100, 0));
+        assertThrows(IllegalArgumentException.class, ()->Envelope.of(0, 0, 101, 0));
+    }
+}
@@ -2,6 +2,8 @@ package MML2Audio.Note;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -64,4 +66,49 @@ public class NoteTest {
 
         assertEquals(note2, note2MoveDown);
     }
+
+    @Test
+    @DisplayName("of()で同じ表記・音長・音量・音色のノートが共有されることのテスト")
+    void testOf() {
+        Note note = Note.of("A", 8, 4, 200, "sin");
+
+        assertSame(note, Note.of("A", 8, 4, 200, "sin"));
+        // 表記の異なるノートは共有しない
+        assertNotSame(note, Note.of("a", 8, 4, 200, "sin"));
+        assertNotSame(Note.of("C#", 4, 5, 100, "square"), Note.of("D-", 4, 5, 100, "square"));
+        assertNotSame(note, Note.of("A", 8, 4, 199, "sin"));
+        assertNotSame(note, Note.of("A", 16, 4, 200, "sin"));
+        assertNotSame(note, Note.of("A", 8, 5, 200, "sin"));
+        assertNotSame(note, Note.of("A", 8, 4, 200, "square"));
+        // 休符は音量0となる
+        assertEquals(0, Note.of("R", 8, 4, 200, "sin").getVolume());
+
+        assertEquals(new Note("A", 8, 4, 200, "sin"), note);
+        assertEquals(69, note.getPitch());
+        assertEquals(440.0, note.getFreq());
+    }
+
+    @Test
+    @DisplayName("of()で取得した異名同音のノートが生成の順序に関わらずコンストラクタと一致することのテスト")
+    void testOfEnharmonic() {
+        Note sharp = Note.of("B#", 4, 4, 100, "sawtooth");
+        Note natural = Note.of("C", 4, 5, 100, "sawtooth");
+
+        assertNotSame(sharp, natural);
+        assertEquals(sharp, natural);
+        assertEquals(sharp.getPitch(), natural.getPitch());
+        assertEquals("B#", sharp.getNoteName());
+        assertEquals("C", natural.getNoteName());
+        assertEquals(new Note("C", 4, 5, 100, "sawtooth"), natural);
+        assertEquals(new Note("C", 4, 5, 100, "sawtooth").toString(), natural.toString());
+        assertEquals(new Note("B#", 4, 4, 100, "sawtooth").toString(), sharp.toString());
+        assertSame(natural, Note.of("C", 4, 5, 100, "sawtooth"));
+    }
+
+    @Test
+    @DisplayName("周波数表の範囲外の音高でも周波数が求められることのテスト")
+    void testFreqOutOfTable() {
+        assertEquals(new Note("A", 8, 4, 200, "sin").getFreq() * 64, new Note("A", 8, 10, 200, "sin").getFreq(), 1e-6);
+        assertEquals(new Note("A", 8, 4, 200, "sin").getFreq() / 64, new Note("A", 8, -2, 200, "sin").getFreq(), 1e-6);
+    }
 }
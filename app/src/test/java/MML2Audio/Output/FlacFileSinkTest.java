@@ -0,0 +1,316 @@
+package MML2Audio.Output;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class FlacFileSinkTest {
+    @Test
+    @DisplayName("ヘッダと無音のフレームの書き込みのテスト")
+    void testWriteSilence() throws IOException {
+        AudioFormat audioFormat = new AudioFormat(44100, 8, 1, true, true);
+        int numOfFrame = FlacFileSink.BLOCK_SIZE * 2 + 100;
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        FlacFileSink sink = new FlacFileSink(outputStream, audioFormat, numOfFrame);
+        sink.write(new byte[numOfFrame], 0, numOfFrame);
+        sink.close();
+        byte[] flac = outputStream.toByteArray();
+
+        assertEquals("fLaC", new String(flac, 0, 4, "US-ASCII"));
+        // STREAMINFO: 最後のメタデータブロックで長さは34byte
+        assertEquals(0x80, flac[4] & 0xFF);
+        assertEquals(34, flac[7]);
+        // サンプリングレート(20bit), チャンネル数-1(3bit), ビット数-1(5bit), 総サンプル数(36bit)
+        assertEquals(44100, ((flac[18] & 0xFF) << 12) | ((flac[19] & 0xFF) << 4) | ((flac[20] & 0xFF) >> 4));
+        assertEquals(0, (flac[20] >> 1) & 0x07);
+        assertEquals(7, ((flac[20] & 0x01) << 4) | ((flac[21] & 0xFF) >> 4));
+        assertEquals(numOfFrame, ((flac[22] & 0xFF) << 24) | ((flac[23] & 0xFF) << 16) | ((flac[24] & 0xFF) << 8) | (flac[25] & 0xFF));
+
+        // 無音のフレームはCONSTANTサブフレームとなり、数byteに収まる
+        assertTrue(flac.length < 42 + 3 * 16);
+        assertEquals(0xFF, flac[42] & 0xFF);
+        assertEquals(0xF8, flac[43] & 0xFF);
+    }
+
+    @Test
+    @DisplayName("有音の音声を符号化して復号すると元のサンプルに戻ることのテスト")
+    void testRoundTrip() throws IOException {
+        for (int bits: new int[] {8, 16, 24}) {
+            for (int numOfChannel: new int[] {1, 2}) {
+                // 最後のフレームは2の累乗で割り切れない長さとする
+                int numOfFrame = FlacFileSink.BLOCK_SIZE * 4 + 1234;
+                int[][] samples = FlacFileSinkTest.createSamples(bits, numOfChannel, numOfFrame);
+                AudioFormat audioFormat = new AudioFormat(44100, bits, numOfChannel, true, true);
+
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                FlacFileSink sink = new FlacFileSink(outputStream, audioFormat, numOfFrame);
+                byte[] pcm = FlacFileSinkTest.toPcm(samples, bits);
+                // フレームサイズの倍数であれば、ブロックの境界に揃わない長さで書き込んでもよい
+                int frameBytes = bits / 8 * numOfChannel;
+                int chunk = frameBytes * 1000;
+                for (int offset=0; offset<pcm.length; offset+=chunk) {
+                    sink.write(pcm, offset, Math.min(chunk, pcm.length - offset));
+                }
+                sink.close();
+
+                int[][] decoded = new FlacDecoder(outputStream.toByteArray()).decode();
+                for (int c=0; c<numOfChannel; c++) {
+                    assertArrayEquals(samples[c], decoded[c], bits + "bit, channel " + c);
+                }
+            }
+        }
+    }
+
+    /**
+     * 予測の次数や符号化方法が区間ごとに変わるよう、正弦波・ノイズ・直線・最大振幅のノイズを並べたサンプルを生成する。
+     */
+    private static int[][] createSamples(int bits, int numOfChannel, int numOfFrame) {
+        Random random = new Random(bits * 31 + numOfChannel);
+        int max = (1 << (bits - 1)) - 1;
+        int min = -(1 << (bits - 1));
+        int[][] samples = new int[numOfChannel][numOfFrame];
+        for (int c=0; c<numOfChannel; c++) {
+            for (int i=0; i<numOfFrame; i++) {
+                int section = i / FlacFileSink.BLOCK_SIZE;
+                double value;
+                switch (section % 4) {
+                    case 0:
+                        value = 0.8 * max * Math.sin(2 * Math.PI * 440 * (c + 1) * i / 44100.0) + random.nextGaussian() * 2;
+                        break;
+                    case 1:
+                        value = random.nextGaussian() * max / 64;
+                        break;
+                    case 2:
+                        value = min + (double) (max - min) * (i % FlacFileSink.BLOCK_SIZE) / FlacFileSink.BLOCK_SIZE;
+                        break;
+                    default:
+                        value = min + random.nextInt(max - min + 1);
+                        break;
+                }
+                samples[c][i] = (int) Math.max(min, Math.min(max, Math.round(value)));
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * サンプルを符号付きビッグエンディアンのリニアPCMに変換する。
+     */
+    private static byte[] toPcm(int[][] samples, int bits) {
+        int bytesPerSample = bits / 8;
+        int numOfChannel = samples.length;
+        byte[] pcm = new byte[samples[0].length * numOfChannel * bytesPerSample];
+        int p = 0;
+        for (int i=0; i<samples[0].length; i++) {
+            for (int c=0; c<numOfChannel; c++) {
+                for (int b=bytesPerSample-1; b>=0; b--) {
+                    pcm[p++] = (byte) (samples[c][i] >> (8 * b));
+                }
+            }
+        }
+        return pcm;
+    }
+
+    /**
+     * テスト用のFLACデコーダ。
+     *
+     * <p>
+     * {@link FlacFileSink}が出力する範囲(STREAMINFOのみのメタデータ、独立したチャンネル、
+     * CONSTANT・VERBATIM・FIXEDサブフレーム、Rice符号の残差)に対応し、CRCを検証しながら全てのサンプルを復号する。
+     */
+    private static class FlacDecoder {
+        private byte[] data;
+        private int bytePosition = 0;
+        private int bitPosition = 0;
+
+        private FlacDecoder(byte[] data) {
+            this.data = data;
+        }
+
+        private long readBits(int bits) {
+            long value = 0;
+            for (int i=0; i<bits; i++) {
+                int bit = (this.data[this.bytePosition] >> (7 - this.bitPosition)) & 1;
+                value = (value << 1) | bit;
+                if (++this.bitPosition == 8) {
+                    this.bitPosition = 0;
+                    this.bytePosition++;
+                }
+            }
+            return value;
+        }
+
+        private int readSigned(int bits) {
+            long value = this.readBits(bits);
+            return (int) (value << (64 - bits) >> (64 - bits));
+        }
+
+        private int readRice(int parameter) {
+            long zeros = 0;
+            while (this.readBits(1) == 0) {
+                zeros++;
+            }
+            long folded = (zeros << parameter) | this.readBits(parameter);
+            return (int) ((folded >>> 1) ^ -(folded & 1));
+        }
+
+        private int[][] decode() {
+            assertEquals("fLaC", new String(this.data, 0, 4, StandardCharsets.US_ASCII));
+            this.bytePosition = 4;
+            assertEquals(1, this.readBits(1), "STREAMINFO must be the last metadata block");
+            assertEquals(0, this.readBits(7));
+            assertEquals(34, this.readBits(24));
+            this.readBits(16 + 16 + 24 + 24);
+            this.readBits(20);
+            int numOfChannel = (int) this.readBits(3) + 1;
+            int bits = (int) this.readBits(5) + 1;
+            int numOfFrame = (int) this.readBits(36);
+            this.bytePosition += 16;
+
+            int[][] samples = new int[numOfChannel][numOfFrame];
+            int decoded = 0;
+            long frameNumber = 0;
+            while (this.bytePosition < this.data.length) {
+                int frameStart = this.bytePosition;
+                assertEquals(0x3FFE, this.readBits(14), "sync code");
+                this.readBits(2);
+                int blockSizeCode = (int) this.readBits(4);
+                this.readBits(4);
+                assertEquals(numOfChannel - 1, this.readBits(4), "independent channels");
+                this.readBits(4);
+                assertEquals(frameNumber, this.readUtf8());
+                int blockSize;
+                if (blockSizeCode == 12) {
+                    blockSize = 4096;
+                }
+                else if (blockSizeCode == 7) {
+                    blockSize = (int) this.readBits(16) + 1;
+                }
+                else {
+                    fail("unexpected block size code: " + blockSizeCode);
+                    return null;
+                }
+                int expectedCrc8 = FlacDecoder.crc(this.data, frameStart, this.bytePosition, 8, 0x07);
+                assertEquals(expectedCrc8, this.readBits(8), "CRC-8");
+
+                for (int c=0; c<numOfChannel; c++) {
+                    this.decodeSubframe(samples[c], decoded, blockSize, bits);
+                }
+                if (this.bitPosition != 0) {
+                    this.readBits(8 - this.bitPosition);
+                }
+                int expectedCrc16 = FlacDecoder.crc(this.data, frameStart, this.bytePosition, 16, 0x8005);
+                assertEquals(expectedCrc16, this.readBits(16), "CRC-16");
+
+                decoded += blockSize;
+                frameNumber++;
+            }
+            assertEquals(numOfFrame, decoded);
+            return samples;
+        }
+
+        private void decodeSubframe(int[] x, int offset, int blockSize, int bits) {
+            assertEquals(0, this.readBits(1));
+            int type = (int) this.readBits(6);
+            assertEquals(0, this.readBits(1), "wasted bits");
+            if (type == 0) {
+                int value = this.readSigned(bits);
+                for (int i=0; i<blockSize; i++) {
+                    x[offset + i] = value;
+                }
+            }
+            else if (type == 1) {
+                for (int i=0; i<blockSize; i++) {
+                    x[offset + i] = this.readSigned(bits);
+                }
+            }
+            else if ((type & 0x38) == 0x08 && (type & 0x07) <= 4) {
+                int order = type & 0x07;
+                for (int i=0; i<order; i++) {
+                    x[offset + i] = this.readSigned(bits);
+                }
+                int[] residual = this.decodeResidual(blockSize, order);
+                for (int i=order; i<blockSize; i++) {
+                    int j = offset + i;
+                    switch (order) {
+                        case 0: x[j] = residual[i]; break;
+                        case 1: x[j] = residual[i] + x[j-1]; break;
+                        case 2: x[j] = residual[i] + 2*x[j-1] - x[j-2]; break;
+                        case 3: x[j] = residual[i] + 3*x[j-1] - 3*x[j-2] + x[j-3]; break;
+                        default: x[j] = residual[i] + 4*x[j-1] - 6*x[j-2] + 4*x[j-3] - x[j-4]; break;
+                    }
+                }
+            }
+            else {
+                fail("unexpected subframe type: " + type);
+            }
+        }
+
+        private int[] decodeResidual(int blockSize, int order) {
+            int method = (int) this.readBits(2);
+            assertTrue(method <= 1, "residual coding method");
+            int parameterBits = method == 0 ? 4 : 5;
+            int escape = (1 << parameterBits) - 1;
+            int partitionOrder = (int) this.readBits(4);
+            int partitionSize = blockSize >> partitionOrder;
+            int[] residual = new int[blockSize];
+            for (int p=0; p<(1 << partitionOrder); p++) {
+                int parameter = (int) this.readBits(parameterBits);
+                int start = p == 0 ? order : p * partitionSize;
+                int end = (p + 1) * partitionSize;
+                if (parameter == escape) {
+                    int rawBits = (int) this.readBits(5);
+                    for (int i=start; i<end; i++) {
+                        residual[i] = rawBits == 0 ? 0 : this.readSigned(rawBits);
+                    }
+                }
+                else {
+                    for (int i=start; i<end; i++) {
+                        residual[i] = this.readRice(parameter);
+                    }
+                }
+            }
+            return residual;
+        }
+
+        private long readUtf8() {
+            int first = (int) this.readBits(8);
+            if ((first & 0x80) == 0) {
+                return first;
+            }
+            int numOfByte = Integer.numberOfLeadingZeros(~first << 24);
+            long value = first & (0x7F >> numOfByte);
+            for (int b=1; b<numOfByte; b++) {
+                value = (value << 6) | (this.readBits(8) & 0x3F);
+            }
+            return value;
+        }
+
+        /**
+         * 1bitずつ計算したCRC。
+         */
+        private static int crc(byte[] data, int start, int end, int width, int polynomial) {
+            int crc = 0;
+            int topBit = 1 << (width - 1);
+            int mask = (1 << width) - 1;
+            for (int i=start; i<end; i++) {
+                crc ^= (data[i] & 0xFF) << (width - 8);
+                for (int b=0; b<8; b++) {
+                    crc = (crc & topBit) != 0 ? ((crc << 1) ^ polynomial) & mask : (crc << 1) & mask;
+                }
+            }
+            return crc;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package MML2Audio.Output;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import MML2Audio.Render.Pcm;
+
+public class LimiterSinkTest {
+    private static final AudioFormat FORMAT = new AudioFormat(44100, 16, 1, true, true);
+
+    /**
+     * 振幅を指定した997Hzのsin波を16bitで生成する。
+     */
+    private static byte[] createSin(int numOfFrame, double amplitude) {
+        byte[] buffer = new byte[numOfFrame * 2];
+        for (int i=0; i<numOfFrame; i++) {
+            double value = amplitude * Math.sin(2 * Math.PI * 997 * i / 44100.0);
+            Pcm.setSample(buffer, i, 2, (int) Math.round(value * 32767));
+        }
+        return buffer;
+    }
+
+    /**
+     * 入力をブロックに分けてリミッタに通す。
+     */
+    private static byte[] process(byte[] input, double gainDb, double ceilingDb, double targetLoudness) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        LimiterSink sink = new LimiterSink(new RawPcmSink(outputStream), LimiterSinkTest.FORMAT, gainDb, ceilingDb, targetLoudness);
+        int blockSize = 4096 * 2;
+        for (int offset=0; offset<input.length; offset+=blockSize) {
+            sink.write(input, offset, Math.min(blockSize, input.length - offset));
+        }
+        sink.close();
+        return outputStream.toByteArray();
+    }
+
+    @Test
+    @DisplayName("増幅した結果のピークが上限に収まり、出力の長さが入力と一致することのテスト")
+    void testCeiling() throws IOException {
+        int numOfFrame = 44100;
+        byte[] output = LimiterSinkTest.process(LimiterSinkTest.createSin(numOfFrame, 0.25), 20, -1, Double.NaN);
+
+        assertEquals(numOfFrame * 2, output.length);
+        int ceiling = (int) Math.round(32768 * Math.pow(10, -1 / 20.0));
+        int peak = 0;
+        for (int i=0; i<numOfFrame; i++) {
+            peak = Math.max(peak, Math.abs(Pcm.getSample(output, i, 2)));
+        }
+        assertTrue(peak <= ceiling);
+        // 後半は上限付近まで増幅される
+        int latePeak = 0;
+        for (int i=numOfFrame / 2; i<numOfFrame; i++) {
+            latePeak = Math.max(latePeak, Math.abs(Pcm.getSample(output, i, 2)));
+        }
+        assertTrue(latePeak > ceiling * 0.9);
+    }
+
+    @Test
+    @DisplayName("上限を超えない入力は遅延するのみで変化しないことのテスト")
+    void testTransparent() throws IOException {
+        int numOfFrame = 10000;
+        byte[] input = LimiterSinkTest.createSin(numOfFrame, 0.5);
+        byte[] output = LimiterSinkTest.process(input, 0, -1, Double.NaN);
+
+        assertEquals(input.length, output.length);
+        for (int i=0; i<numOfFrame; i++) {
+            assertEquals(Pcm.getSample(input, i, 2), Pcm.getSample(output, i, 2));
+        }
+    }
+
+    @Test
+    @DisplayName("K特性で計測した997Hzのsin波のラウドネスのテスト")
+    void testLoudnessMeter() {
+        LoudnessMeter meter = new LoudnessMeter(44100);
+        for (int i=0; i<44100 * 3; i++) {
+            meter.add(0.1 * Math.sin(2 * Math.PI * 997 * i / 44100.0));
+        }
+
+        // フルスケールのsin波は-3.01LUFS
+        assertEquals(-23.01, meter.getIntegratedLoudness(), 0.1);
+    }
+
+    @Test
+    @DisplayName("目標ラウドネスに向けて増幅されることのテスト")
+    void testTargetLoudness() throws IOException {
+        int numOfFrame = 44100 * 10;
+        byte[] output = LimiterSinkTest.process(LimiterSinkTest.createSin(numOfFrame, 0.05), 0, -1, -16);
+
+        LoudnessMeter meter = new LoudnessMeter(44100);
+        for (int i=numOfFrame - 44100 * 2; i<numOfFrame; i++) {
+            meter.add(Pcm.getSample(output, i, 2) / 32768.0);
+        }
+        assertEquals(-16.0, meter.getIntegratedLoudness(), 0.5);
+    }
+}
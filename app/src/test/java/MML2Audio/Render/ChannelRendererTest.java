@@ -0,0 +1,83 @@
+package MML2Audio.Render;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import MML2Audio.MmlReader;
+import MML2Audio.Music;
+
+public class ChannelRendererTest {
+    @Test
+    @DisplayName("skip()で進めた後の描画結果が続けて描画した結果と一致することのテスト")
+    void testSkip() {
+        Music music = new Music(8000, 16);
+        music.addChannel(MmlReader.convertMmlToChannel("L2 O4 C R E [L16 CDEF]3 G"));
+        Timeline timeline = music.getTimeline();
+        int numOfFrame = (int) music.calcNumberOfFrame();
+        byte[] expected = new byte[numOfFrame * 2];
+        new ChannelRenderer(music, timeline, 0).render(expected, 0, numOfFrame);
+
+        // ノート内・ノートの終端ちょうど・ノートを跨ぐ位置・繰り返し区間内への移動を含む
+        int[] lengths = {100, 700, 1200, 3000, 37, 150, 2500, 999};
+        ChannelRenderer renderer = new ChannelRenderer(music, timeline, 0);
+        byte[] actual = new byte[numOfFrame * 2];
+        int frame = 0;
+        for (int i=0; frame<numOfFrame; i++) {
+            int length = Math.min(lengths[i % lengths.length], numOfFrame - frame);
+            if (i % 2 == 0) {
+                renderer.render(actual, frame, length);
+            }
+            else {
+                renderer.skip(length);
+                Arrays.fill(expected, frame * 2, (frame + length) * 2, (byte) 0);
+            }
+            frame += length;
+        }
+        assertArrayEquals(expected, actual);
+    }
+
+    /**
+     * 繰り返し区間を含むチャンネルをブロックごとに描画する。
+     */
+    private static byte[] renderBlocks(ChannelRenderer renderer, int numOfFrame) {
+        byte[] buffer = new byte[numOfFrame];
+        for (int frame=0; frame<numOfFrame; frame+=ActivityIndex.BLOCK_SIZE) {
+            renderer.render(buffer, frame, Math.min(ActivityIndex.BLOCK_SIZE, numOfFrame - frame));
+        }
+        return buffer;
+    }
+
+    @Test
+    @DisplayName("1回分のフレーム数が整数にならないテンポでも描画済みの繰り返し区間の数が上限に収まることのテスト")
+    void testSegmentCacheFractionalFrames() {
+        for (int bpm: new int[] {120, 127}) {
+            Music music = new Music(8000, 8);
+            music.setBpm(bpm);
+            music.addChannel(MmlReader.convertMmlToChannel("[L16 CDEFGAB<C> L8 DE L4 F]200"));
+            int numOfFrame = (int) music.calcNumberOfFrame();
+            ChannelRenderer renderer = new ChannelRenderer(music, music.getTimeline(), 0);
+            byte[] actual = renderBlocks(renderer, numOfFrame);
+            byte[] expected = renderBlocks(new ChannelRenderer(music, music.getTimeline(), 0, null), numOfFrame);
+            assertArrayEquals(expected, actual);
+
+            SegmentCache cache = renderer.getSegmentCache();
+            assertEquals(200, cache.getHitCount() + cache.getMissCount());
+            if (bpm == 120) {
+                // 1回分が整数のフレーム数であれば、2回目以降は全て再利用される
+                assertEquals(199, cache.getHitCount());
+                assertEquals(1, cache.size());
+            }
+            else {
+                // 端数は繰り返す度に変わり127回で一巡するため、上限の種類まで登録した後は登録せず、
+                // 登録した最初の8回分の端数が128回目以降に1回ずつ再び現れる
+                assertEquals(SegmentCache.MAX_PHASES_PER_LOOP, cache.size());
+                assertEquals(SegmentCache.MAX_PHASES_PER_LOOP, cache.getHitCount());
+            }
+        }
+    }
+}
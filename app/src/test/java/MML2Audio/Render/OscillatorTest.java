@@ -0,0 +1,85 @@
+package MML2Audio.Render;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.function.BiFunction;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import MML2Audio.WaveGenerator;
+import MML2Audio.Exception.InvalidGeneratorId;
+
+public class OscillatorTest {
+    private static final double SAMPLE_RATE = 44100;
+    private static final double[] FREQS = {261.6255653005986, 329.6275569128699, 391.99543598174927};
+
+    /**
+     * 音声波生成関数を1フレームずつ呼び出して、発音枠の値の和を求める。
+     */
+    private static double[] expected(BiFunction<Double, Double, Double> generator, int length, int phase) {
+        double[] values = new double[length];
+        for (int j=0; j<length; j++) {
+            double t = (phase + j) / SAMPLE_RATE;
+            double value = 0;
+            for (double freq: FREQS) {
+                value += generator.apply(freq, t);
+            }
+            values[j] = value;
+        }
+        return values;
+    }
+
+    @Test
+    @DisplayName("音色ごとの計算結果が音声波生成関数の呼び出しと一致することのテスト")
+    void testMatchesGenerator() throws InvalidGeneratorId {
+        for (String id: new String[] {"sin", "square", "sawtooth"}) {
+            for (boolean draft: new boolean[] {false, true}) {
+                BiFunction<Double, Double, Double> generator = draft
+                    ? WaveGenerator.getDraftWaveGenerator(id)
+                    : WaveGenerator.getWaveGenerator(id);
+                Oscillator oscillator = Oscillator.of(id, draft, generator);
+                assertTrue(!(oscillator instanceof Oscillator.Generic), id);
+
+                // 作業領域に前回の値が残っていても上書きされる
+                double[] values = new double[Oscillator.CHUNK_FRAMES];
+                Arrays.fill(values, 123);
+                oscillator.fill(values, 1000, 98765, SAMPLE_RATE, FREQS, FREQS.length);
+                double[] actual = Arrays.copyOf(values, 1000);
+                assertArrayEquals(expected(generator, 1000, 98765), actual);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("専用の計算方法を持たない音色は音声波生成関数を呼び出すことのテスト")
+    void testGeneric() {
+        BiFunction<Double, Double, Double> generator = (freq, t) -> freq * t;
+        Oscillator oscillator = Oscillator.of("sample:test.wav", false, generator);
+        assertTrue(oscillator instanceof Oscillator.Generic);
+
+        double[] values = new double[16];
+        oscillator.fill(values, 16, 10, SAMPLE_RATE, FREQS, 2);
+        double[] expected = new double[16];
+        for (int j=0; j<16; j++) {
+            double t = (10 + j) / SAMPLE_RATE;
+            expected[j] = 0 + FREQS[0] * t + FREQS[1] * t;
+        }
+        assertArrayEquals(expected, values);
+    }
+
+    @Test
+    @DisplayName("ノイズの値が範囲内に収まることのテスト")
+    void testNoiseRange() throws InvalidGeneratorId {
+        for (boolean draft: new boolean[] {false, true}) {
+            Oscillator oscillator = Oscillator.of("noise", draft, WaveGenerator.getWaveGenerator("noise"));
+            double[] values = new double[256];
+            oscillator.fill(values, 256, 0, SAMPLE_RATE, FREQS, 1);
+            for (double value: values) {
+                assertTrue(-1 <= value && value <= 1, "noise out of range: " + value);
+            }
+        }
+    }
+}
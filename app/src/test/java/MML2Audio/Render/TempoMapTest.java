@@ -0,0 +1,74 @@
+package MML2Audio.Render;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import MML2Audio.MmlReader;
+import MML2Audio.Music;
+
+public class TempoMapTest {
+    private static final long TPW = Timeline.TICKS_PER_WHOLE_NOTE;
+
+    @Test
+    @DisplayName("テンポ変更が無い場合に1つのBPM値での計算と一致することのテスト")
+    void testSingleTempo() {
+        TempoMap tempoMap = new TempoMap(44100, 120, new long[] {0, TPW}, new int[] {120, 120});
+
+        assertEquals(1, tempoMap.size());
+        for (long tick=0; tick<TPW * 8; tick+=12345) {
+            assertEquals(tick * 240 * 44100 / (120 * TPW), tempoMap.tickToFrame(tick));
+        }
+    }
+
+    @Test
+    @DisplayName("多数のテンポ変更があってもtickとフレームの変換が一貫することのテスト")
+    void testAccelerando() {
+        int numOfChange = 5000;
+        long[] changeTicks = new long[numOfChange];
+        int[] changeBpms = new int[numOfChange];
+        for (int i=0; i<numOfChange; i++) {
+            changeTicks[i] = (i + 1) * TPW / 16;
+            changeBpms[i] = 61 + i % 200;
+        }
+        TempoMap tempoMap = new TempoMap(44100, 60, changeTicks, changeBpms);
+        assertEquals(numOfChange + 1, tempoMap.size());
+
+        // 16分音符1つ分のフレーム数がテンポに従う
+        long expected = 15 * 44100 / 60;
+        assertEquals(expected, tempoMap.tickToFrame(TPW / 16));
+
+        long lastFrame = -1;
+        for (long tick=0; tick<=TPW / 16 * (numOfChange + 1); tick+=TPW / 64 + 7) {
+            long frame = tempoMap.tickToFrame(tick);
+            assertTrue(frame >= lastFrame);
+            lastFrame = frame;
+
+            long lastTick = tempoMap.frameToTick(frame);
+            assertEquals(frame, tempoMap.tickToFrame(lastTick));
+            assertEquals(frame + 1, tempoMap.tickToFrame(lastTick + 1));
+        }
+    }
+
+    @Test
+    @DisplayName("チャンネル内のテンポ変更が全てのチャンネルに反映されることのテスト")
+    void testTempoChangeInChannel() {
+        Music music = new Music();
+        music.setBpm(120);
+        music.addChannel(MmlReader.convertMmlToChannel("L4 C [T60 C T240 C]2 T120 C"));
+        music.addChannel(MmlReader.convertMmlToChannel("L4 CCCCCC"));
+        Timeline timeline = music.getTimeline();
+
+        // 4分音符の長さ: 120BPMで0.5秒、60BPMで1秒、240BPMで0.25秒
+        double[] seconds = {0, 0.5, 1.5, 1.75, 2.75, 3.0, 3.5};
+        Timeline.Cursor cursor = timeline.createCursor(1, 0);
+        for (int i=0; i<6; i++) {
+            assertEquals((long) (seconds[i] * 44100), cursor.getStartFrame());
+            assertEquals((long) (seconds[i + 1] * 44100), cursor.getEndFrame());
+            cursor.next();
+        }
+        assertEquals((long) (3.5 * 44100), timeline.getLengthInFrames());
+    }
+}
@@ -0,0 +1,117 @@
+package MML2Audio.Sample;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import MML2Audio.MmlReader;
+import MML2Audio.Music;
+import MML2Audio.Output.WavFileSink;
+
+public class SampleTest {
+    /**
+     * 16bitステレオのWAVファイルを一時ファイルに書き込む。
+     */
+    private Path writeWav(short[] left, short[] right) throws IOException {
+        AudioFormat format = new AudioFormat(8000, 16, 2, true, true);
+        ByteBuffer data = ByteBuffer.allocate(left.length * 4).order(ByteOrder.BIG_ENDIAN);
+        for (int i=0; i<left.length; i++) {
+            data.putShort(left[i]);
+            data.putShort(right[i]);
+        }
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        WavFileSink sink = new WavFileSink(output, format, left.length);
+        sink.write(data.array(), 0, data.capacity());
+        sink.close();
+        Path path = Files.createTempFile("sample", ".wav");
+        path.toFile().deleteOnExit();
+        Files.write(path, output.toByteArray());
+        return path;
+    }
+
+    /**
+     * 16bitステレオのWAVファイルで既存のファイルを上書きする。
+     */
+    private void overwriteWav(Path path, short[] left, short[] right) throws IOException {
+        Path written = this.writeWav(left, right);
+        Files.write(path, Files.readAllBytes(written));
+    }
+
+    @Test
+    @DisplayName("WAVファイルの読み込みと補間のテスト")
+    void testLoad() throws IOException {
+        Path path = this.writeWav(new short[] {0, 16384, -16384, 0}, new short[] {0, 16384, 0, 0});
+        Sample sample = Sample.load(path);
+
+        // 同じファイルは共有される
+        assertSame(sample, Sample.load(path));
+        assertEquals(4, sample.getNumberOfFrame());
+        assertEquals(8000.0, sample.getSampleRate());
+
+        // 元の速度ではフレームの値(チャンネルの平均)をそのまま返す
+        assertEquals(0.5, sample.apply(Sample.ROOT_FREQ, 1 / 8000.0), 1e-9);
+        assertEquals(-0.25, sample.apply(Sample.ROOT_FREQ, 2 / 8000.0), 1e-9);
+        // フレームの間は線形補間する
+        assertEquals(0.25, sample.apply(Sample.ROOT_FREQ, 0.5 / 8000.0), 1e-9);
+        // 1オクターブ上では2倍の速度で再生する
+        assertEquals(-0.25, sample.apply(Sample.ROOT_FREQ * 2, 1 / 8000.0), 1e-9);
+        // 終端より後は無音
+        assertEquals(0.0, sample.apply(Sample.ROOT_FREQ, 10 / 8000.0));
+    }
+
+    @Test
+    @DisplayName("MML文から指定したサンプルが描画されることのテスト")
+    void testRenderSample() throws IOException {
+        short[] wave = new short[800];
+        for (int i=0; i<wave.length; i++) {
+            wave[i] = (short) (i % 20 < 10 ? 20000 : -20000);
+        }
+        Path path = this.writeWav(wave, wave);
+
+        Music music = new Music();
+        music.addChannel(MmlReader.convertMmlToChannel("L4 O4 @(sample:" + path + ") C"));
+        byte[] buffer = music.generateAudioBuffer();
+        assertNotEquals(0, buffer[1000]);
+        // サンプルの終端(0.1秒)より後は無音
+        assertEquals(0, buffer[(int) (44100 * 0.2)]);
+    }
+
+    @Test
+    @DisplayName("変更されたファイルのサンプルが読み込み直されることのテスト")
+    void testRemoveModified() throws IOException {
+        Path path = this.writeWav(new short[] {0, 16384}, new short[] {0, 16384});
+        Sample sample = Sample.load(path);
+        Sample.removeModified();
+        assertSame(sample, Sample.load(path));
+        assertTrue(Sample.getLoadedPaths().contains(path.toRealPath()));
+
+        // 変更後も取り除くまでは変更前のサンプルを返す
+        this.overwriteWav(path, new short[] {0, 16384, -16384}, new short[] {0, 16384, -16384});
+        assertSame(sample, Sample.load(path));
+        assertTrue(Sample.removeModified());
+        assertFalse(Sample.getLoadedPaths().contains(path.toRealPath()));
+
+        Sample reloaded = Sample.load(path);
+        assertNotSame(sample, reloaded);
+        assertEquals(3, reloaded.getNumberOfFrame());
+        assertEquals(-0.5, reloaded.apply(Sample.ROOT_FREQ, 2 / 8000.0), 1e-9);
+        assertFalse(Sample.removeModified());
+        assertSame(reloaded, Sample.load(path));
+    }
+}
@@ -0,0 +1,82 @@
+package MML2Audio.Util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import MML2Audio.MmlReader;
+import MML2Audio.Music;
+
+public class MetricsTest {
+    @Test
+    @DisplayName("derive()のテスト")
+    void testDerive() {
+        SortedMap<String, Long> snapshot = new TreeMap<>();
+        snapshot.put("parse.nanos", 2_000_000_000L);
+        snapshot.put("parse.notes", 500L);
+        snapshot.put("parse.allocatedBytes", 1024L);
+        snapshot.put("cache.segment.hits", 3L);
+        snapshot.put("cache.segment.misses", 1L);
+        snapshot.put("write.bytes", 100L);  // 処理時間が無いため処理量/秒は計算しない
+
+        SortedMap<String, Double> derived = Metrics.derive(snapshot);
+
+        assertEquals(250.0, derived.get("parse.notesPerSecond"));
+        assertEquals(0.75, derived.get("cache.segment.hitRate"));
+        assertFalse(derived.containsKey("parse.allocatedBytesPerSecond"));
+        assertFalse(derived.containsKey("write.bytesPerSecond"));
+        assertEquals(2, derived.size());
+    }
+
+    @Test
+    @DisplayName("描画時の計測値がsnapshot()で取得できることのテスト")
+    void testSnapshotAfterRender() {
+        Metrics.reset();
+        Music music = new Music();
+        music.addChannel(MmlReader.convertMmlToChannel("L8 @(sin) [CDE]4"));
+        byte[] buffer = music.generateAudioBuffer();
+
+        SortedMap<String, Long> snapshot = Metrics.snapshot();
+        assertEquals((long) buffer.length, (long) snapshot.get("mix.frames"));
+        assertTrue(snapshot.get("render.sin.frames") > 0);
+        assertEquals(1L, (long) snapshot.get("cache.segment.misses"));
+        assertEquals(3L, (long) snapshot.get("cache.segment.hits"));
+        assertTrue(Metrics.toJson().contains("\"cache.segment.hitRate\": 0.75"));
+    }
+
+    @Test
+    @DisplayName("measureAllocation()で別のスレッドの確保量が加算されることのテスト")
+    void testMeasureAllocationOnOtherThread() throws Exception {
+        Metrics.reset();
+        Thread thread = new Thread(()->{
+            try {
+                Metrics.measureAllocation("test", ()->new byte[1 << 20]);
+            }
+            catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+        thread.join();
+
+        SortedMap<String, Long> snapshot = Metrics.snapshot();
+        assertTrue(snapshot.get("test.allocatedBytes") >= 1 << 20, snapshot.toString());
+        assertFalse(snapshot.containsKey("test.nanos"));
+    }
+
+    @Test
+    @DisplayName("toJson()がカウンタ名をエスケープすることのテスト")
+    void testToJsonEscapesNames() {
+        Metrics.reset();
+        Metrics.add("render.sample:C:\\wav\\\"kick\".wav\t.frames", 1);
+        String json = Metrics.toJson();
+        assertTrue(json.contains("\"render.sample:C:\\\\wav\\\\\\\"kick\\\".wav\\u0009.frames\": 1"), json);
+        Metrics.reset();
+    }
+}
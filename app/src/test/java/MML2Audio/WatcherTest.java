@@ -0,0 +1,126 @@
+package MML2Audio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import MML2Audio.Output.WavFileSink;
+import MML2Audio.Util.Metrics;
+
+public class WatcherTest {
+    private static final String HEADER = "T150\n";
+    private static final String LEAD = ":lead\n@(sin)O4 L8 CDEFGAB<C\n";
+    private static final String BASS = ":bass\n@(square)O2 L4 CCGG\n";
+
+    /**
+     * MMLを一時ファイルに書き込む。
+     */
+    private Path writeMml(String mml) throws IOException {
+        Path path = Files.createTempFile("watch", ".mml");
+        path.toFile().deleteOnExit();
+        Files.writeString(path, mml);
+        return path;
+    }
+
+    /**
+     * 矩形波のサンプルを8000Hz・16bitのWAVファイルに書き込む。
+     */
+    private void writeWav(Path path, int numOfFrame, int period) throws IOException {
+        AudioFormat format = new AudioFormat(8000, 16, 1, true, true);
+        ByteBuffer data = ByteBuffer.allocate(numOfFrame * 2);
+        for (int i=0; i<numOfFrame; i++) {
+            data.putShort((short) (i % period < period / 2 ? 20000 : -20000));
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        WavFileSink sink = new WavFileSink(output, format, numOfFrame);
+        sink.write(data.array(), 0, data.capacity());
+        sink.close();
+        Files.write(path, output.toByteArray());
+    }
+
+    private Music compile(Path path) {
+        Music music = new Music(8000, 16);
+        MmlReader.mmlCompiler(path.toString(), music);
+        return music;
+    }
+
+    @Test
+    @DisplayName("変更されたチャンネルのみを描画し直した結果が全体を描画した結果と一致することのテスト")
+    void testPatch() throws IOException {
+        Path path = this.writeMml(HEADER + LEAD + BASS);
+        Watcher watcher = new Watcher(path.toString(), null, null);
+        Music before = this.compile(path);
+        watcher.render(before);
+
+        // 後半のノートのみ変更する
+        Files.writeString(path, HEADER + LEAD + ":bass\n@(square)O2 L4 CCAA\n");
+        Music after = this.compile(path);
+        assertTrue(before.getChannelList().get(0) == after.getChannelList().get(0), "unchanged channel is reused");
+        Metrics.reset();
+        byte[] patched = watcher.render(after);
+        long renderedFrames = Metrics.snapshot().get("watch.frames");
+        assertTrue(renderedFrames < after.calcNumberOfFrame() / 2, "only the changed range is rendered: " + renderedFrames);
+        assertTrue(Arrays.equals(after.generateAudioBuffer(), patched), "patched buffer matches a full render");
+    }
+
+    @Test
+    @DisplayName("曲の長さが変わる変更でも全体を描画した結果と一致することのテスト")
+    void testLengthChange() throws IOException {
+        Path path = this.writeMml(HEADER + LEAD + BASS);
+        Watcher watcher = new Watcher(path.toString(), null, null);
+        watcher.render(this.compile(path));
+
+        Files.writeString(path, HEADER + LEAD + ":bass\n@(square)O2 L4 CCGG FFCC\n");
+        Music longer = this.compile(path);
+        byte[] patched = watcher.render(longer);
+        assertEquals(longer.calcNumberOfFrame() * 2, (long) patched.length);
+        assertTrue(Arrays.equals(longer.generateAudioBuffer(), patched), "lengthened buffer matches a full render");
+
+        Files.writeString(path, HEADER + LEAD + ":bass\n@(square)O2 L4 CC\n");
+        Music shorter = this.compile(path);
+        patched = watcher.render(shorter);
+        assertTrue(Arrays.equals(shorter.generateAudioBuffer(), patched), "shortened buffer matches a full render");
+    }
+
+    @Test
+    @DisplayName("テンポ変更を含む変更では全体を描画し直すことのテスト")
+    void testTempoChangeFallback() throws IOException {
+        Path path = this.writeMml(HEADER + LEAD + BASS);
+        Watcher watcher = new Watcher(path.toString(), null, null);
+        watcher.render(this.compile(path));
+
+        Files.writeString(path, HEADER + LEAD + ":bass\n@(square)O2 L4 CC T90 GG\n");
+        Music after = this.compile(path);
+        assertTrue(Arrays.equals(after.generateAudioBuffer(), watcher.render(after)), "full render after a tempo change");
+    }
+
+    @Test
+    @DisplayName("読み込んだサンプルのファイルが変更された場合は読み込み直して全体を描画し直すことのテスト")
+    void testSampleChange() throws IOException {
+        Path samplePath = Files.createTempFile("watch", ".wav");
+        samplePath.toFile().deleteOnExit();
+        this.writeWav(samplePath, 800, 20);
+        Path path = this.writeMml(HEADER + LEAD + ":drum\n@(sample:" + samplePath + ")O4 L4 CCCC\n");
+        Watcher watcher = new Watcher(path.toString(), null, null);
+        watcher.render(this.compile(path));
+
+        // MMLファイルは変わらないが、サンプルの長さと波形が変わる
+        this.writeWav(samplePath, 1600, 40);
+        Music after = this.compile(path);
+        Metrics.reset();
+        byte[] rendered = watcher.render(after);
+        assertEquals(after.calcNumberOfFrame(), (long) Metrics.snapshot().get("watch.frames"));
+        assertTrue(Arrays.equals(after.generateAudioBuffer(), rendered), "full render with the reloaded sample");
+    }
+}